@@ -15,6 +15,7 @@ import com.alee.laf.WebLookAndFeel;
 import assem_simul.src.*;
 import assembler.entity.*;
 import assembler.exception.*;
+import assembler.utils.Utilites;
 
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
@@ -38,6 +39,7 @@ public class AssemblerUI extends JFrame {
 	private java.io.File fileToSave;
 	private JTextField txtError;
 	private JFileChooser fileChooser;
+	private final AssemblySession session = new AssemblySession(); // re-parses only the lines edited since the last click
 
 	/**
 	 * Launch the application.
@@ -107,7 +109,7 @@ public class AssemblerUI extends JFrame {
 					// create a scanner for the file
 					Scanner input = null;
 					try {
-						input = new Scanner(file);
+						input = new Scanner(file, Utilites.CHARSET.name());
 					} catch (FileNotFoundException e1) {
 						// TODO Auto-generated catch block
 						e1.printStackTrace();
@@ -132,23 +134,19 @@ public class AssemblerUI extends JFrame {
 		btnAssemble.setBounds(45, 320, 424, 23);
 		btnAssemble.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				String assembledCode, assembledCodeA;
-				Assembler assembler = new Assembler();
+				Program program;
 				Simulator simulator = new Simulator();
 
 				// ////////////// Assembler //////////////
+				session.update(textArea.getText());
 				try {
-					assembler.parse(textArea.getText());
+					program = session.getProgram();
 				} catch (SyntaxException e3) { // must inclueded in GUI
 					System.err.println(e3.getMessage());
 					txtError.setForeground(Color.RED);
 					txtError.setText(e3.getMessage());
 
 					return;
-				}
-				try {
-					assembledCodeA = assembler.assembleA();
-					assembledCode = assembler.assemble();
 				} catch (LabelNotFoundException e2) { // must inclueded in GUI
 					System.err.println(e2.getMessage());
 					txtError.setForeground(Color.RED);
@@ -157,14 +155,14 @@ public class AssemblerUI extends JFrame {
 					return;
 				}
 				System.out.println("===== Assembly Result =====");
-				System.out.println(assembledCode);
+				System.out.println(program.toListing());
 
 
 				try {
 					FileWriter fw = new FileWriter("outputResult.hex", false);
 					// FileWriter fw = new FileWriter(fileToSave, false);
 					BufferedWriter bw = new BufferedWriter(fw);
-					bw.write(assembledCodeA.toString());
+					program.writeRaw(bw);
 
 					bw.flush();
 					bw.close();
@@ -175,12 +173,7 @@ public class AssemblerUI extends JFrame {
 
 				// ////////////// Simulator //////////////
 				try {
-					simulator.decode(assembledCode);
-				} catch (SyntaxException e0) {
-					System.err.println(e0.getMessage()); // must inclueded in GUI
-					txtError.setForeground(Color.ORANGE);
-					txtError.setText(e0.getMessage());
-					return;
+					simulator.load(program);
 				} catch (InvalidInstructionException e7) { // must inclueded in GUI
 					System.err.println(e7.getMessage());
 					txtError.setForeground(Color.ORANGE);
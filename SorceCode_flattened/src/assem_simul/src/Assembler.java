@@ -6,10 +6,14 @@ import java.util.*;
 
 import assembler.entity.*;
 import assembler.exception.*;
+import assembler.utils.Lexer;
 
 /**
  * Project 172 Assembler
  * 
+ * An Assembler object holds the instructions parsed so far, so it must not be shared by threads; use compile() to
+ * assemble from several threads at once.
+ * 
  */
 public class Assembler {
 
@@ -17,7 +21,7 @@ public class Assembler {
 	private List<Instruction> instList;
 
 	// pairs of label and address will be stored
-	private Map<String, Integer> labelMap;
+	private SymbolTable labelMap;
 
 	/**
 	 * Constructs new Assembler object.
@@ -31,7 +35,7 @@ public class Assembler {
 	 */
 	public void init() {
 		instList = new ArrayList<Instruction>();
-		labelMap = new HashMap<String, Integer>();
+		labelMap = new SymbolTable();
 	}
 
 	/**
@@ -43,88 +47,144 @@ public class Assembler {
 	 *             If there was a syntax error in the source
 	 */
 	public void parse(String src) throws SyntaxException {
-		@SuppressWarnings("resource")
-		Scanner scanner = new Scanner(src);
+		parse(src, instList, labelMap);
+	}
+
+	/**
+	 * Compiles the assembler source into a Program. Unlike parse(), this method keeps no state in any object, so it can
+	 * be called from any number of threads at once; the Program it returns is immutable, and it can be cached and
+	 * loaded by concurrent Simulators.
+	 * 
+	 * @param src
+	 *            the assembler source
+	 * @return the assembled program
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public static Program compile(String src) throws SyntaxException, LabelNotFoundException {
+		List<Instruction> instList = new ArrayList<Instruction>();
+		SymbolTable labelMap = new SymbolTable();
+		parse(src, instList, labelMap);
+		return program(instList, labelMap);
+	}
+
+	/**
+	 * Parse the assembler source, adding the instructions to the list and the labels to the symbol table.
+	 */
+	private static void parse(String src, List<Instruction> instList, SymbolTable labelMap) throws SyntaxException {
+		char[] buf = src.toCharArray();
+		Lexer lexer = new Lexer();
 
 		// "lineNo" stores the line number of the source code.
 		// This includes lines without any codes (e.g. empty or comment-only line).
 		// "stepNo" stores the actual step number in contrast.
 		int lineNo = 0, stepNo = 0;
 
-		while (scanner.hasNext()) {
+		for (int p = 0; p < buf.length; p = Lexer.nextLine(src, p)) {
 			// go to next line
 			lineNo++;
-			String line = scanner.nextLine();
+			Instruction inst = parseLine(lexer, buf, p, Lexer.lineEnd(src, p), lineNo, stepNo, labelMap);
 
-			// Parse each line in form of [[label:] code args][;comment]
-			String code, label, mnemonic;
-			String[] args;
+			// if the line has an actual instruction
+			// (otherwise it only has a label)
+			if (inst != null) {
+				// arguments is in correct format, add it to instruction list
+				instList.add(inst);
 
-			// Remove comments
-			int commentLoc = line.indexOf(';');
-			if (commentLoc == -1) {
-				commentLoc = line.length();
+				// increase "stepNo" because there was an instruction
+				stepNo++;
 			}
-			code = line.substring(0, commentLoc);
-			// comment = line.substring(commentLoc);
+		}
+	}
 
-			// if it was an empty line, continue to the next line
-			if (code.trim().equals("")) {
-				continue;
-			}
+	/**
+	 * Parse a line of the assembler source in form of [[label:] code args][;comment].
+	 * 
+	 * @param line
+	 *            the line
+	 * @param lineNo
+	 *            the line number of the line
+	 * @param stepNo
+	 *            the step number of the next instruction
+	 * @param labelMap
+	 *            the symbol table, where the label of the line is defined and the label it jumps to is interned
+	 * @return the instruction of the line (null if the line has no instruction)
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the line
+	 */
+	static Instruction parseLine(String line, int lineNo, int stepNo, SymbolTable labelMap)
+			throws SyntaxException {
+		return parseLine(new Lexer(), line.toCharArray(), 0, line.length(), lineNo, stepNo, labelMap);
+	}
 
-			// Split label (empty if it doesn't exist), code and arguments
-			String[] codeParts = code.split("[\t ]+", 3);
-			// and trim them
-			for (int i = 0; i < codeParts.length; i++) {
-				codeParts[i] = codeParts[i].trim();
-			}
+	/**
+	 * Parse a line of the assembler source, held in a buffer, in form of [[label:] code args][;comment].
+	 * 
+	 * @param lexer
+	 *            the lexer splitting the line
+	 * @param buf
+	 *            the buffer
+	 * @param start
+	 *            the offset of the line
+	 * @param end
+	 *            the offset of the end of the line (without the line terminator)
+	 * @param lineNo
+	 *            the line number of the line
+	 * @param stepNo
+	 *            the step number of the next instruction
+	 * @param labelMap
+	 *            the symbol table, where the label of the line is defined and the label it jumps to is interned
+	 * @return the instruction of the line (null if the line has no instruction)
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the line (including a label defined twice)
+	 */
+	static Instruction parseLine(Lexer lexer, char[] buf, int start, int end, int lineNo, int stepNo,
+			SymbolTable labelMap) throws SyntaxException {
+		// if it was an empty line, continue to the next line
+		if (!lexer.line(buf, start, end)) {
+			return null;
+		}
 
-			// The line must be divided into 1 or 3 parts
-			if ((codeParts.length != 1) && (codeParts.length != 3)) {
-				throw new SyntaxException("No arguments given (maybe you're missing head tab/space?)", lineNo);
-			}
+		// The line must be divided into 1 or 3 parts
+		if ((lexer.getParts() != 1) && (lexer.getParts() != 3)) {
+			throw new SyntaxException("No arguments given (maybe you're missing head tab/space?)", lineNo);
+		}
 
-			// Process label names
-			label = codeParts[0]; // this may be either "<label>:" or empty
-			if (label.endsWith(":")) {
-				label = label.substring(0, label.length() - 1); // remove ":"
-				// label couldn't be a integer as it is confusing with address
-				if (isIntegerForm(label)) {
-					throw new SyntaxException("Label cannot be a integer (" + label + ")", lineNo);
-				}
-				// the label is in the correct format, so add it to the label map
-				labelMap.put(label, stepNo);
-			} else if (!label.equals("")) {
-				// not label && not empty
-				throw new SyntaxException("Label must be followed by \":\" ( " + label + ")", lineNo);
+		// Process label names
+		if (lexer.hasLabel()) {
+			// label couldn't be a integer as it is confusing with address
+			if (Lexer.isIntegerForm(buf, lexer.getLabelStart(), lexer.getLabelEnd())) {
+				throw new SyntaxException("Label cannot be a integer ("
+						+ lexer.text(lexer.getLabelStart(), lexer.getLabelEnd()) + ")", lineNo);
 			}
+			// the label is in the correct format, so define it in the symbol table
+			labelMap.define(labelMap.intern(buf, lexer.getLabelStart(), lexer.getLabelEnd()), stepNo, lineNo);
+		} else if (!lexer.isLabelEmpty()) {
+			// not label && not empty
+			throw new SyntaxException("Label must be followed by \":\" ( "
+					+ lexer.text(lexer.getLabelStart(), lexer.getLabelEnd()) + ")", lineNo);
+		}
 
-			// if the line has an actual instruction
-			// (otherwise it only has a label)
-			if (codeParts.length == 3) {
-				Instruction inst;
-				mnemonic = codeParts[1];
-				// split arguments by comma
-				args = codeParts[2].split(",[\t ]*");
-				try {
-					// try to find mnemonic and create new instance of Instruction
-					inst = Instruction.createInstruction(Instruction.getInstByMnemonic(mnemonic), lineNo, stepNo);
-				} catch (IllegalArgumentException e) {
-					// no such mnemonic
-					throw new SyntaxException("Invalid mnemonic (" + mnemonic + ")", lineNo);
-				}
-
-				// parse the arguments
-				inst.parseArgs(args);
-				
-				// arguments is in correct format, add it to instruction list
-				instList.add(inst);
-				
-				// increase "stepNo" because there was an instruction
-				stepNo++;
-			}
+		// if the line only has a label
+		if (lexer.getParts() != 3) {
+			return null;
+		}
+
+		Instruction inst;
+		try {
+			// try to find mnemonic and create new instance of Instruction
+			inst = Instruction.createInstruction(Instruction.getInstByMnemonic(lexer), lineNo, stepNo);
+		} catch (IllegalArgumentException e) {
+			// no such mnemonic
+			throw new SyntaxException("Invalid mnemonic ("
+					+ lexer.text(lexer.getMnemonicStart(), lexer.getMnemonicEnd()) + ")", lineNo);
 		}
+
+		// parse the arguments
+		inst.parseArgs(lexer, labelMap);
+		return inst;
 	}
 
 	/**
@@ -135,25 +195,61 @@ public class Assembler {
 	 *             If undefined label was used
 	 */
 	public String assemble() throws LabelNotFoundException {
-		StringBuffer strbuf = new StringBuffer(instList.size());
-		for (int i = 0, size = instList.size(); i < size; i++) {
-			Instruction inst = instList.get(i);
-			String memcnt = (i < 16 ? " " : "") + Integer.toHexString(i).toUpperCase();
-			String addr = (i * 1 < 16 ? "0" : "") + Integer.toHexString(i * 1).toUpperCase();
-			String binary = inst.toHexString(labelMap);
-			strbuf.append(memcnt + " :    " + binary + "; % (" + addr + ") % \n");
+		return assembleProgram().toListing();
+	}
+
+	/**
+	 * Assembles the previously parsed instructions into a Program, which the Simulator can load without decoding text.
+	 * 
+	 * @return the assembled program
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public Program assembleProgram() throws LabelNotFoundException {
+		return program(instList, labelMap);
+	}
+
+	private static Program program(List<Instruction> instList, SymbolTable labelMap) throws LabelNotFoundException {
+		int[] lineMap = new int[instList.size()];
+		for (int i = 0; i < lineMap.length; i++) {
+			lineMap[i] = instList.get(i).getLineNo();
 		}
-		return strbuf.toString();
+		return new Program(Instruction.encode(instList, labelMap), labelMap, lineMap);
 	}
+
+	/**
+	 * Encodes the previously parsed instructions into machine words.
+	 * 
+	 * @return the machine words, one per step (in the lower 16 bits)
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int[] encode() throws LabelNotFoundException {
+		return Instruction.encode(instList, labelMap);
+	}
+
 	
+	/**
+	 * Translates the previously parsed instructions into a class, ahead of time.
+	 * 
+	 * @return the translated program, which can be shared by Simulators running the assembled code
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public TranslatedProgram translate() throws LabelNotFoundException {
+		return TranslatedProgram.translate(instList, labelMap);
+	}
+
+	/**
+	 * Returns the symbol table of the previously parsed instructions.
+	 * 
+	 * @return the symbol table, with the step and the definition line of each label
+	 */
+	public SymbolTable getSymbolTable() {
+		return labelMap;
+	}
+
 	public String assembleA() throws LabelNotFoundException {
-		StringBuffer strbuf = new StringBuffer(instList.size());
-		strbuf.append("v2.0 raw\n");
-		for (int i = 0, size = instList.size(); i < size; i++) {
-			Instruction inst = instList.get(i);
-			String binary = inst.toHexStringA(labelMap);
-			strbuf.append(binary + " ");
-		}
-		return strbuf.toString();
+		return assembleProgram().toRawString();
 	}
 }
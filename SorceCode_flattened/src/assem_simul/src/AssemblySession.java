@@ -0,0 +1,338 @@
+package assem_simul.src;
+
+import java.util.*;
+
+import assembler.entity.*;
+import assembler.exception.*;
+import assembler.utils.Lexer;
+
+/**
+ * An assembler session which keeps the parse result and the encoded word of every line, so that an edit re-parses only
+ * the edited lines.
+ *
+ * After an edit, only the instructions of the edited lines are encoded, plus the branches and jumps whose displacement
+ * (jumpAddr - stepNo) has actually changed. When the edit keeps the steps and the labels where they were (e.g., a
+ * register or a mnemonic changed), nothing else is looked at; otherwise the steps and the label map are recomputed in a
+ * single pass over the kept line records, without any parsing. The program is the same as the one of Assembler.parse()
+ * and assembleProgram() for the whole source.
+ *
+ * Parsing is the cost an edit saves, not every pass over the source: an edit which moves the steps or the labels (e.g.,
+ * a line inserted or deleted) still visits every line record once, and getProgram() copies the words and the line map
+ * of the whole program. Both are linear in the size of the source, though far cheaper per line than parsing it.
+ *
+ */
+public class AssemblySession {
+	/*
+	 * The parse result of a line.
+	 */
+	private static class Line {
+		private final String text;
+		private Instruction inst; // null if the line has no instruction or has an error
+		private String label; // null if the line defines no label
+		private boolean error; // true if the line has a syntax error
+		private int created; // step number the instruction was parsed with
+		private int word; // encoded word
+		private boolean encoded; // false until the word is encoded
+		private int disp; // displacement the word was encoded with (label references only)
+		private boolean resolved = true; // false (and counted in unresolved) if the label jumped to is not defined
+
+		private Line(String text) {
+			this.text = text;
+		}
+	}
+
+	private final List<Line> lines = new ArrayList<Line>();
+	private final SymbolTable labelMap = new SymbolTable();
+	private final SymbolTable scratch = new SymbolTable(); // checks the label of a line
+	private final Lexer lexer = new Lexer();
+
+	private int[] words = new int[0]; // encoded word of each step
+	private int[] stepLine = new int[0]; // line index of each step
+	private int[] lineStep = new int[1]; // step number of the first instruction at or after each line
+	private int steps;
+	private int errors; // lines with a syntax error
+	private int unresolved; // instructions jumping to an undefined label
+	private SyntaxException duplicate; // the first label defined twice (null if there is none)
+
+	// statistics
+	private long parsedLines;
+	private long encodedWords;
+
+	/**
+	 * Replace the whole source. Only the lines which differ from the current source (between their common first and
+	 * last lines) are re-parsed.
+	 *
+	 * @param src
+	 *            the assembler source
+	 */
+	public void update(String src) {
+		List<String> texts = split(src);
+		int prefix = 0;
+		int max = Math.min(texts.size(), lines.size());
+		while ((prefix < max) && texts.get(prefix).equals(lines.get(prefix).text)) {
+			prefix++;
+		}
+		int suffix = 0;
+		while ((suffix < max - prefix)
+				&& texts.get(texts.size() - 1 - suffix).equals(lines.get(lines.size() - 1 - suffix).text)) {
+			suffix++;
+		}
+		replace(prefix, lines.size() - prefix - suffix, texts.subList(prefix, texts.size() - suffix));
+	}
+
+	/**
+	 * Replace a range of lines.
+	 *
+	 * @param lineNo
+	 *            the line number of the first line to replace (from 1; getLineCount() + 1 to append)
+	 * @param count
+	 *            the number of lines to replace (0 to insert)
+	 * @param text
+	 *            the new lines (a final line terminator does not start another line)
+	 */
+	public void edit(int lineNo, int count, String text) {
+		if ((lineNo < 1) || (count < 0) || (lineNo - 1 + count > lines.size())) {
+			throw new IndexOutOfBoundsException("Lines " + lineNo + " to " + (lineNo + count - 1) + " of "
+					+ lines.size());
+		}
+		replace(lineNo - 1, count, split(text));
+	}
+
+	/**
+	 * Returns the number of lines of the source.
+	 *
+	 * @return the line count
+	 */
+	public int getLineCount() {
+		return lines.size();
+	}
+
+	/**
+	 * Returns the assembled program.
+	 *
+	 * @return the program
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public Program getProgram() throws SyntaxException, LabelNotFoundException {
+		if ((errors > 0) || (duplicate != null)) {
+			// parse the first line with an error again (with the labels defined before it), for the exception with its
+			// current line number
+			scratch.clear();
+			for (int i = 0; i < lines.size(); i++) {
+				Line line = lines.get(i);
+				if ((duplicate != null) && (duplicate.getLine() == i + 1)) {
+					throw duplicate;
+				}
+				if (line.error) {
+					Assembler.parseLine(line.text, i + 1, lineStep[i], scratch);
+				}
+				if (line.label != null) {
+					scratch.define(scratch.intern(line.label), lineStep[i], i + 1);
+				}
+			}
+		}
+		if (unresolved > 0) {
+			for (int step = 0; step < steps; step++) {
+				Line line = lines.get(stepLine[step]);
+				if (!line.resolved) {
+					throw new LabelNotFoundException(line.inst.getJumpTo(), stepLine[step] + 1);
+				}
+			}
+		}
+		int[] lineMap = new int[steps];
+		for (int step = 0; step < steps; step++) {
+			lineMap[step] = stepLine[step] + 1;
+		}
+		return new Program(Arrays.copyOf(words, steps), labelMap, lineMap);
+	}
+
+	/**
+	 * Returns the number of lines parsed since the session started.
+	 *
+	 * @return the parsed line count
+	 */
+	public long getParsedLines() {
+		return parsedLines;
+	}
+
+	/**
+	 * Returns the number of instructions encoded since the session started.
+	 *
+	 * @return the encoded word count
+	 */
+	public long getEncodedWords() {
+		return encodedWords;
+	}
+
+	/**
+	 * Replace the lines from the index with the texts.
+	 */
+	private void replace(int from, int count, List<String> texts) {
+		List<Line> added = new ArrayList<Line>(texts.size());
+		for (int i = 0; i < texts.size(); i++) {
+			Line line = new Line(texts.get(i));
+			// the step is only a guess when the steps move, encode() corrects the displacement
+			parse(line, from + i, lineStep[Math.min(from + i, lines.size())]);
+			added.add(line);
+		}
+
+		// if every line keeps its instruction (or lack of it) and its label, nothing moves
+		boolean inPlace = (count == added.size());
+		for (int i = 0; inPlace && (i < count); i++) {
+			Line oldLine = lines.get(from + i);
+			Line newLine = added.get(i);
+			inPlace = ((oldLine.inst == null) == (newLine.inst == null)) && (oldLine.error == newLine.error)
+					&& ((oldLine.label == null) ? (newLine.label == null) : oldLine.label.equals(newLine.label));
+		}
+
+		List<Line> range = lines.subList(from, from + count);
+		for (Line line : range) {
+			forget(line);
+		}
+		range.clear();
+		lines.addAll(from, added);
+		for (Line line : added) {
+			if (line.error) {
+				errors++;
+			}
+		}
+
+		if (inPlace) {
+			for (int i = 0; i < added.size(); i++) {
+				if (added.get(i).inst != null) {
+					encode(added.get(i), lineStep[from + i]);
+				}
+			}
+		} else {
+			relink();
+		}
+	}
+
+	/**
+	 * Parse the line, and encode it if it does not depend on a label.
+	 */
+	private void parse(Line line, int index, int step) {
+		parsedLines++;
+		scratch.clear();
+		try {
+			char[] buf = line.text.toCharArray();
+			line.inst = Assembler.parseLine(lexer, buf, 0, buf.length, index + 1, step, scratch);
+			line.label = lexer.hasLabel() ? lexer.text(lexer.getLabelStart(), lexer.getLabelEnd()) : null;
+			line.error = false;
+		} catch (SyntaxException e) {
+			line.inst = null;
+			line.label = null;
+			line.error = true;
+		}
+		line.created = step;
+		if ((line.inst != null) && (line.inst.getJumpTo() == null)) {
+			try {
+				line.word = line.inst.encode(null);
+			} catch (LabelNotFoundException e) {
+				throw new IllegalStateException(e); // never happens without a label
+			}
+			line.encoded = true;
+			encodedWords++;
+		}
+	}
+
+	/**
+	 * Take the line out of the counters, before it is removed.
+	 */
+	private void forget(Line line) {
+		if (line.error) {
+			errors--;
+		}
+		if ((line.inst != null) && !line.resolved) {
+			unresolved--;
+		}
+	}
+
+	/**
+	 * Recompute the steps and the label map (finding the first label defined twice), and the words whose displacement
+	 * changed.
+	 */
+	private void relink() {
+		int size = lines.size();
+		if (lineStep.length < size + 1) {
+			lineStep = new int[size + 1];
+		}
+		labelMap.clear();
+		duplicate = null;
+		int step = 0;
+		for (int i = 0; i < size; i++) {
+			Line line = lines.get(i);
+			lineStep[i] = step;
+			if (line.label != null) {
+				try {
+					labelMap.define(labelMap.intern(line.label), step, i + 1);
+				} catch (SyntaxException e) {
+					// the first definition stays
+					if (duplicate == null) {
+						duplicate = e;
+					}
+				}
+			}
+			if (line.inst != null) {
+				step++;
+			}
+		}
+		lineStep[size] = step;
+		steps = step;
+		if (words.length < steps) {
+			words = new int[Math.max(steps, words.length * 2)];
+			stepLine = new int[words.length];
+		}
+		for (int i = 0; i < size; i++) {
+			Line line = lines.get(i);
+			if (line.inst != null) {
+				stepLine[lineStep[i]] = i;
+				encode(line, lineStep[i]);
+			}
+		}
+	}
+
+	/**
+	 * Store the word of the instruction of the line at the step, encoding it again if its displacement changed.
+	 */
+	private void encode(Line line, int step) {
+		String label = line.inst.getJumpTo();
+		if (label != null) {
+			Integer jumpAddr = labelMap.get(label);
+			if (jumpAddr == null) {
+				if (line.resolved) {
+					line.resolved = false;
+					unresolved++;
+				}
+			} else if (!line.encoded || !line.resolved || (line.disp != jumpAddr - step)) {
+				if (!line.resolved) {
+					line.resolved = true;
+					unresolved--;
+				}
+				line.encoded = true;
+				line.disp = jumpAddr - step;
+				try {
+					line.word = line.inst.encode(labelMap, step - line.created);
+				} catch (LabelNotFoundException e) {
+					throw new IllegalStateException(e); // the label was just looked up
+				}
+				encodedWords++;
+			}
+		}
+		words[step] = line.word;
+	}
+
+	/**
+	 * Split the text into lines, with the line terminators of Scanner.nextLine().
+	 */
+	private static List<String> split(String text) {
+		List<String> texts = new ArrayList<String>();
+		for (int p = 0; p < text.length(); p = Lexer.nextLine(text, p)) {
+			texts.add(text.substring(p, Lexer.lineEnd(text, p)));
+		}
+		return texts;
+	}
+}
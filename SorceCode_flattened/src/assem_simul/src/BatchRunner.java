@@ -0,0 +1,491 @@
+package assem_simul.src;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import assembler.entity.*;
+import assembler.exception.*;
+import assembler.utils.LogisimImage;
+import assembler.utils.Utilites;
+
+/**
+ * Assembles and simulates a batch of programs without the GUI, on a bounded pool of worker threads.
+ *
+ * Each input is an assembler source, a Logisim image (a file starting with "v2.0 raw") or a raw binary image of
+ * 16-bit words (a file named *.bin); a directory stands for the files in it. Every program runs in its own Simulator,
+ * and one result record (status, registers, PC, instruction count and wall time) is written per program, in the order
+ * of the inputs, to a JSON Lines file or (if its name ends with ".csv") to a CSV file.
+ *
+ * <pre>
+ * java assem_simul.src.BatchRunner [-o results.jsonl] [-j threads] [-n instructions] [-t millis]
+ *                                  [-e engine] [-m address=value]... (directory | file)...
+ * </pre>
+ *
+ * The exit status is 0 if every program ran to its end, 1 if any did not, and 2 on a usage error.
+ *
+ */
+public class BatchRunner {
+
+	/**
+	 * Default instruction budget of a program.
+	 */
+	public static final long DEFAULT_INSTRUCTIONS = 100000000L;
+
+	/**
+	 * Default wall time limit of a program, in milliseconds (as long as the GUI waits).
+	 */
+	public static final long DEFAULT_TIME_LIMIT = 4000;
+
+	// instructions run between two checks of the time limit
+	private static final long SLICE = 1 << 20;
+
+	/**
+	 * How a program ended.
+	 */
+	public static enum Status {
+		/**
+		 * The program ran to its end.
+		 */
+		END,
+		/**
+		 * The instruction budget ran out.
+		 */
+		BUDGET,
+		/**
+		 * The time limit was exceeded.
+		 */
+		TIMEOUT,
+		/**
+		 * The simulation faulted.
+		 */
+		FAULT,
+		/**
+		 * The program could not be assembled or loaded.
+		 */
+		ERROR;
+	}
+
+	/**
+	 * The result of a program.
+	 */
+	public static class Result {
+		private final String file;
+		private Status status;
+		private String message; // error or fault message (null if there is none)
+		private int pc;
+		private long instructions;
+		private int[] registers = new int[0];
+		private long wallNanos;
+
+		private Result(String file) {
+			this.file = file;
+		}
+
+		/**
+		 * Returns the program file.
+		 *
+		 * @return the file name
+		 */
+		public String getFile() {
+			return file;
+		}
+
+		/**
+		 * Returns how the program ended.
+		 *
+		 * @return the status
+		 */
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * Returns the error or fault message.
+		 *
+		 * @return the message (null if there is none)
+		 */
+		public String getMessage() {
+			return message;
+		}
+
+		/**
+		 * Returns the program counter when the program stopped.
+		 *
+		 * @return the program counter (0 on ERROR)
+		 */
+		public int getPc() {
+			return pc;
+		}
+
+		/**
+		 * Returns the number of instructions executed.
+		 *
+		 * @return the instruction count
+		 */
+		public long getInstructionCount() {
+			return instructions;
+		}
+
+		/**
+		 * Returns the registers when the program stopped.
+		 *
+		 * @return a copy of the registers (empty on ERROR)
+		 */
+		public int[] getRegisters() {
+			return registers.clone();
+		}
+
+		/**
+		 * Returns the wall clock time of assembling, loading and running the program.
+		 *
+		 * @return the time in nanoseconds
+		 */
+		public long getWallNanos() {
+			return wallNanos;
+		}
+	}
+
+	private long instructions = DEFAULT_INSTRUCTIONS;
+	private long timeLimit = DEFAULT_TIME_LIMIT;
+	private Simulator.Engine engine = Simulator.Engine.IMAGE;
+	private final Map<Integer, Integer> initialMemory = new LinkedHashMap<Integer, Integer>();
+
+	/**
+	 * Set the instruction budget of each program.
+	 *
+	 * @param instructions
+	 *            the number of instructions
+	 */
+	public void setInstructions(long instructions) {
+		this.instructions = instructions;
+	}
+
+	/**
+	 * Set the wall time limit of each program.
+	 *
+	 * @param millis
+	 *            the limit in milliseconds
+	 */
+	public void setTimeLimit(long millis) {
+		this.timeLimit = millis;
+	}
+
+	/**
+	 * Select the engine the programs run on.
+	 *
+	 * @param engine
+	 *            the engine
+	 */
+	public void setEngine(Simulator.Engine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Set a word of the data memory before each program runs.
+	 *
+	 * @param address
+	 *            the address
+	 * @param data
+	 *            the data
+	 */
+	public void setMemory(int address, int data) {
+		initialMemory.put(address, data);
+	}
+
+	/**
+	 * Assemble (or load) and run a program.
+	 *
+	 * @param file
+	 *            the source or image
+	 * @return the result
+	 */
+	public Result run(Path file) {
+		Result result = new Result(file.toString());
+		long start = System.nanoTime();
+		Simulator simulator = new Simulator();
+		simulator.setEngine(engine);
+		try {
+			load(simulator, file);
+			for (Map.Entry<Integer, Integer> entry : initialMemory.entrySet()) {
+				simulator.setMemory(entry.getKey(), entry.getValue());
+			}
+			long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeLimit);
+			long remaining = instructions;
+			Simulator.StopReason reason;
+			do {
+				reason = simulator.runFor(Math.min(remaining, SLICE));
+				remaining = instructions - simulator.getInstructionCount();
+			} while ((reason == Simulator.StopReason.BUDGET) && (remaining > 0) && (System.nanoTime() < deadline));
+
+			switch (reason) {
+			case END:
+				result.status = Status.END;
+				break;
+			case FAULT:
+				result.status = Status.FAULT;
+				result.message = simulator.getFault().getMessage();
+				break;
+			default:
+				result.status = (remaining > 0) ? Status.TIMEOUT : Status.BUDGET;
+				break;
+			}
+			RegisterFile regfile = simulator.getRegfile();
+			result.registers = new int[regfile.getSize()];
+			regfile.copyTo(result.registers);
+			result.pc = simulator.getPc();
+			result.instructions = simulator.getInstructionCount();
+		} catch (SyntaxException e) {
+			fail(result, e);
+		} catch (LabelNotFoundException e) {
+			fail(result, e);
+		} catch (InvalidInstructionException e) {
+			fail(result, e);
+		} catch (IOException e) {
+			fail(result, e);
+		} catch (RuntimeException e) {
+			// a broken program must not stop the batch
+			fail(result, e);
+		}
+		result.wallNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	private static void fail(Result result, Exception e) {
+		result.status = Status.ERROR;
+		result.message = (e.getMessage() == null) ? e.toString() : e.getMessage();
+	}
+
+	/**
+	 * Load the file into the Simulator, as an image or as a source to assemble.
+	 */
+	private static void load(Simulator simulator, Path file) throws IOException, SyntaxException,
+			LabelNotFoundException, InvalidInstructionException {
+		if (file.getFileName().toString().endsWith(".bin")) {
+			simulator.loadBinary(file, 2);
+			return;
+		}
+		String text = Utilites.readText(file);
+		if (text.trim().startsWith(LogisimImage.HEADER)) {
+			simulator.loadRaw(new StringReader(text));
+		} else {
+			simulator.load(Assembler.compile(text));
+		}
+	}
+
+	/**
+	 * Run every program on a pool of worker threads, writing the results in the order of the files as they come in.
+	 *
+	 * @param files
+	 *            the sources and images
+	 * @param threads
+	 *            the number of worker threads
+	 * @param out
+	 *            the result file (CSV if its name ends with ".csv", JSON Lines otherwise)
+	 * @return the number of programs which did not run to their end
+	 * @throws IOException
+	 *             If the result file cannot be written
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting for a result
+	 */
+	public int runAll(List<Path> files, int threads, Path out) throws IOException, InterruptedException {
+		boolean csv = out.getFileName().toString().toLowerCase().endsWith(".csv");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		Writer writer = Files.newBufferedWriter(out, Utilites.CHARSET);
+		int failed = 0;
+		try {
+			List<Future<Result>> results = new ArrayList<Future<Result>>(files.size());
+			for (final Path file : files) {
+				results.add(pool.submit(new Callable<Result>() {
+					@Override
+					public Result call() {
+						return run(file);
+					}
+				}));
+			}
+			if (csv) {
+				writer.write("file,status,pc,instructions,wall_ms");
+				for (int i = 0; i < 8; i++) {
+					writer.write(",r" + i);
+				}
+				writer.write(",message\n");
+			}
+			for (Future<Result> future : results) {
+				Result result;
+				try {
+					result = future.get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause()); // run() reports its own errors
+				}
+				if (result.status != Status.END) {
+					failed++;
+				}
+				writer.write(csv ? toCsv(result) : toJson(result));
+				writer.write('\n');
+			}
+		} finally {
+			pool.shutdownNow();
+			writer.close();
+		}
+		return failed;
+	}
+
+	/**
+	 * Formats the result as a JSON object.
+	 *
+	 * @param result
+	 *            the result
+	 * @return the JSON object (in a single line)
+	 */
+	public static String toJson(Result result) {
+		StringBuffer strbuf = new StringBuffer();
+		strbuf.append("{\"file\":").append(jsonString(result.file));
+		strbuf.append(",\"status\":\"").append(result.status).append('"');
+		strbuf.append(",\"pc\":").append(result.pc);
+		strbuf.append(",\"instructions\":").append(result.instructions);
+		strbuf.append(",\"wall_ms\":").append(String.format(Locale.ROOT, "%.3f", result.wallNanos / 1e6));
+		strbuf.append(",\"registers\":[");
+		for (int i = 0; i < result.registers.length; i++) {
+			strbuf.append((i == 0) ? "" : ",").append(result.registers[i]);
+		}
+		strbuf.append("],\"message\":").append((result.message == null) ? "null" : jsonString(result.message));
+		strbuf.append('}');
+		return strbuf.toString();
+	}
+
+	/**
+	 * Formats the result as a CSV record (file,status,pc,instructions,wall_ms,r0..r7,message).
+	 *
+	 * @param result
+	 *            the result
+	 * @return the CSV record
+	 */
+	public static String toCsv(Result result) {
+		StringBuffer strbuf = new StringBuffer();
+		strbuf.append(csvString(result.file)).append(',').append(result.status);
+		strbuf.append(',').append(result.pc).append(',').append(result.instructions);
+		strbuf.append(',').append(String.format(Locale.ROOT, "%.3f", result.wallNanos / 1e6));
+		for (int i = 0; i < 8; i++) {
+			strbuf.append(',');
+			if (i < result.registers.length) {
+				strbuf.append(result.registers[i]);
+			}
+		}
+		strbuf.append(',').append((result.message == null) ? "" : csvString(result.message));
+		return strbuf.toString();
+	}
+
+	private static String jsonString(String str) {
+		StringBuffer strbuf = new StringBuffer(str.length() + 2);
+		strbuf.append('"');
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if ((c == '"') || (c == '\\')) {
+				strbuf.append('\\').append(c);
+			} else if (c < 0x20) {
+				strbuf.append(String.format("\\u%04x", (int) c));
+			} else {
+				strbuf.append(c);
+			}
+		}
+		return strbuf.append('"').toString();
+	}
+
+	private static String csvString(String str) {
+		if ((str.indexOf(',') < 0) && (str.indexOf('"') < 0) && (str.indexOf('\n') < 0) && (str.indexOf('\r') < 0)) {
+			return str;
+		}
+		return "\"" + str.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * Lists the files of the inputs, a directory standing for its regular files (sorted by name).
+	 *
+	 * @param inputs
+	 *            the files and directories
+	 * @return the files
+	 * @throws IOException
+	 *             If a directory cannot be listed
+	 */
+	public static List<Path> listFiles(List<Path> inputs) throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		for (Path input : inputs) {
+			if (Files.isDirectory(input)) {
+				List<Path> entries = new ArrayList<Path>();
+				DirectoryStream<Path> dir = Files.newDirectoryStream(input);
+				try {
+					for (Path entry : dir) {
+						if (Files.isRegularFile(entry)) {
+							entries.add(entry);
+						}
+					}
+				} finally {
+					dir.close();
+				}
+				Collections.sort(entries);
+				files.addAll(entries);
+			} else {
+				files.add(input);
+			}
+		}
+		return files;
+	}
+
+	private static void usage(String error) {
+		System.err.println(error);
+		System.err.println("Usage: java assem_simul.src.BatchRunner [-o results.jsonl|results.csv] [-j threads]"
+				+ " [-n instructions] [-t millis] [-e IMAGE|REFERENCE|JIT|AOT] [-m address=value]..."
+				+ " (directory | file)...");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		BatchRunner runner = new BatchRunner();
+		Path out = Paths.get("results.jsonl");
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<Path> inputs = new ArrayList<Path>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (!arg.startsWith("-") || (arg.length() == 1)) {
+					inputs.add(Paths.get(arg));
+					continue;
+				}
+				if (i + 1 == args.length) {
+					usage("Missing value of " + arg);
+				}
+				String value = args[++i];
+				if (arg.equals("-o")) {
+					out = Paths.get(value);
+				} else if (arg.equals("-j")) {
+					threads = Integer.parseInt(value);
+				} else if (arg.equals("-n")) {
+					runner.setInstructions(Long.parseLong(value));
+				} else if (arg.equals("-t")) {
+					runner.setTimeLimit(Long.parseLong(value));
+				} else if (arg.equals("-e")) {
+					runner.setEngine(Simulator.Engine.valueOf(value.toUpperCase()));
+				} else if (arg.equals("-m") && (value.indexOf('=') > 0)) {
+					int eq = value.indexOf('=');
+					runner.setMemory(Integer.decode(value.substring(0, eq)), Integer.decode(value.substring(eq + 1)));
+				} else {
+					usage("Invalid option " + arg + " " + value);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			usage("Invalid option value (" + e.getMessage() + ")");
+		}
+		if (inputs.isEmpty() || (threads < 1)) {
+			usage(inputs.isEmpty() ? "No input given" : "Invalid number of threads");
+		}
+
+		List<Path> files = listFiles(inputs);
+		long start = System.nanoTime();
+		int failed = runner.runAll(files, threads, out);
+		System.err.println(files.size() + " programs, " + failed + " did not end, in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms on " + threads + " threads; results in "
+				+ out);
+		System.exit((failed == 0) ? 0 : 1);
+	}
+}
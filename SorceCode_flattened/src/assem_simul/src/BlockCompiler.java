@@ -0,0 +1,519 @@
+package assem_simul.src;
+
+import static assembler.entity.InstructionImage.*;
+import static assembler.utils.ClassFileWriter.Code.*;
+
+import java.util.*;
+
+import assembler.entity.*;
+import assembler.exception.CodeTooLargeException;
+import assembler.utils.ClassFileWriter;
+import assembler.utils.ClassFileWriter.Code;
+
+/**
+ * Compiles hot basic blocks of the packed image into JVM bytecode.
+ *
+ * A block starts at the pc where control arrives and ends with the first branch or jump (BEQZ..BLEZ, JR, JALR, J,
+ * JAL). Executions of each block entry are counted by the interpreter, and once a block gets hot it is translated,
+ * together with the blocks reachable from it through direct branches and jumps, into a class of its own. The registers
+ * are kept in local variables, and branches between the blocks of the region are jumps inside the generated method.
+ * Indirect jumps (JR, JALR) and branches leaving the region return the next pc to the interpreter.
+ *
+ */
+public class BlockCompiler {
+	/**
+	 * Default number of executions before a block gets compiled.
+	 */
+	public static final int DEFAULT_THRESHOLD = 1000;
+
+	/**
+	 * Maximum number of instructions compiled into a single block.
+	 */
+	public static final int MAX_BLOCK = 1024;
+
+	/**
+	 * Maximum number of instructions compiled into a single region.
+	 */
+	public static final int MAX_REGION = 2048;
+
+	/**
+	 * Maximum size of the generated method, in bytes, as estimated from the blocks of the region. Every branch of the
+	 * method must reach its target with a 16-bit offset, so the whole method is kept well below 32K.
+	 */
+	static final int MAX_CODE = 30000;
+
+	// upper bounds of the bytes emitted: for an instruction which does not transfer control (ROR), for the budget check
+	// and the branch or jump ending a block, and for loading and storing the registers around the region
+	static final int INST_BYTES = 15;
+	static final int BLOCK_BYTES = 45;
+	static final int METHOD_BYTES = 120;
+
+	// local variable slots of the generated methods
+	static final int CTX = 1;
+	static final int MEM = 2;
+	static final int REG = 3; // REG + i holds register i
+	static final int BUDGET_LOCAL = REG + 8;
+	static final int NEXT_PC = BUDGET_LOCAL + 1;
+	static final int LOCALS = NEXT_PC + 1;
+
+	static final String MEMORY = "assembler/entity/Memory";
+
+	private final int[] image;
+	private final CompiledBlock[] blocks;
+	private final int[] lengths;
+	private final int[] counters;
+	private final int threshold;
+	private final Loader loader = new Loader();
+
+	/**
+	 * Constructs new BlockCompiler for the image.
+	 *
+	 * @param image
+	 *            the packed image
+	 * @param threshold
+	 *            the number of executions before a block gets compiled
+	 */
+	public BlockCompiler(int[] image, int threshold) {
+		this.image = image;
+		this.blocks = new CompiledBlock[image.length];
+		this.lengths = new int[image.length];
+		this.counters = new int[image.length];
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Returns the compiled block starting at the pc.
+	 *
+	 * @param pc
+	 *            the program counter
+	 * @return the compiled block (null if it has not been compiled)
+	 */
+	public CompiledBlock lookup(int pc) {
+		return blocks[pc];
+	}
+
+	/**
+	 * Returns the number of instructions in the compiled block starting at the pc.
+	 *
+	 * @param pc
+	 *            the program counter
+	 * @return the number of instructions
+	 */
+	public int length(int pc) {
+		return lengths[pc];
+	}
+
+	/**
+	 * Count an execution of the block starting at the pc, and compile it once it gets hot. A region which turns out too
+	 * large for a method stays interpreted; any other failure to generate or load it is a bug, and is thrown.
+	 *
+	 * @param pc
+	 *            the program counter
+	 */
+	public void count(int pc) {
+		if (++counters[pc] == threshold) {
+			try {
+				blocks[pc] = compile(pc);
+				lengths[pc] = blockEnd(image, pc, image.length) - pc;
+			} catch (CodeTooLargeException e) {
+				// the size of the region was underestimated; it stays interpreted
+			}
+		}
+	}
+
+	/**
+	 * Returns the end (exclusive) of the basic block starting at the pc.
+	 *
+	 * @param image
+	 *            the packed image
+	 * @param start
+	 *            the first pc of the block
+	 * @param limit
+	 *            the pc where the block must end at the latest
+	 * @return the end of the block
+	 */
+	static int blockEnd(int[] image, int start, int limit) {
+		int end = start;
+		int max = (int) Math.min(limit, (long) start + MAX_BLOCK);
+		while (end < max) {
+			if (isControl(image[end++])) {
+				break;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Translate the region entered at the pc into a class and load it. The region holds the block starting at the pc and
+	 * every block reachable from it through direct branches and jumps, up to MAX_REGION instructions and MAX_CODE bytes
+	 * of bytecode.
+	 */
+	private CompiledBlock compile(int entry) {
+		// discover the blocks of the region
+		int[] starts = new int[16];
+		int[] ends = new int[16];
+		int count = 0;
+		int size = 0;
+		int bytes = METHOD_BYTES;
+		Map<Integer, Integer> index = new HashMap<Integer, Integer>();
+		Deque<Integer> work = new ArrayDeque<Integer>();
+		work.add(entry);
+		while (!work.isEmpty()) {
+			int start = work.poll();
+			if (index.containsKey(start) || (start < 0) || (start >= image.length)) {
+				continue;
+			}
+			int end = blockEnd(image, start, image.length);
+			int blockBytes = BLOCK_BYTES + INST_BYTES * (end - start);
+			if ((count > 0) && ((size + (end - start) > MAX_REGION) || (bytes + blockBytes > MAX_CODE))) {
+				continue;
+			}
+			if (count == starts.length) {
+				starts = Arrays.copyOf(starts, count * 2);
+				ends = Arrays.copyOf(ends, count * 2);
+			}
+			index.put(start, count);
+			starts[count] = start;
+			ends[count] = end;
+			count++;
+			size += end - start;
+			bytes += blockBytes;
+
+			int last = image[end - 1];
+			if (!isControl(last)) {
+				work.add(end);
+			} else if ((op(last) != OP_JR) && (op(last) != OP_JALR)) {
+				work.add(end - 1 + imm(last));
+				if ((op(last) != OP_J) && (op(last) != OP_JAL)) {
+					work.add(end);
+				}
+			}
+		}
+
+		String name = "assem_simul/jit/Region" + entry;
+		ClassFileWriter cf = new ClassFileWriter(name, "java/lang/Object", "assem_simul/src/CompiledBlock");
+		cf.addDefaultConstructor("java/lang/Object");
+
+		Code c = new Code(6, LOCALS);
+		int exit = c.newLabel();
+		int[] labels = new int[count];
+		for (int i = 0; i < count; i++) {
+			labels[i] = c.newLabel();
+		}
+
+		// registers and budget into locals
+		for (int i = 0; i < 8; i++) {
+			c.aload(CTX);
+			c.iconst(cf, i);
+			c.op(IALOAD);
+			c.istore(REG + i);
+		}
+		c.aload(CTX);
+		c.iconst(cf, CompiledBlock.BUDGET);
+		c.op(IALOAD);
+		c.istore(BUDGET_LOCAL);
+
+		for (int b = 0; b < count; b++) {
+			int start = starts[b];
+			int end = ends[b];
+			int len = end - start;
+
+			// the whole block runs only if the budget allows it
+			int run = c.newLabel();
+			c.mark(labels[b]);
+			c.iload(BUDGET_LOCAL);
+			c.iconst(cf, len);
+			c.jump(IF_ICMPGE, run);
+			exitTo(cf, c, start, exit);
+			c.mark(run);
+			c.iload(BUDGET_LOCAL);
+			c.iconst(cf, len);
+			c.op(ISUB);
+			c.istore(BUDGET_LOCAL);
+
+			int last = image[end - 1];
+			int straightEnd = isControl(last) ? end - 1 : end;
+			for (int pc = start; pc < straightEnd; pc++) {
+				emitStraight(cf, c, image[pc]);
+			}
+			if (straightEnd == end) {
+				// block was cut (end of the image or MAX_BLOCK); fall through
+				jumpTo(cf, c, end, index, labels, exit);
+				continue;
+			}
+			int pc = end - 1;
+			int target = pc + imm(last);
+			int rs = REG + rs(last);
+			switch (op(last)) {
+			case OP_BEQZ:
+			case OP_BNEZ:
+			case OP_BLTZ:
+			case OP_BGEZ:
+			case OP_BGTZ:
+			case OP_BLEZ: {
+				int taken = c.newLabel();
+				c.iload(rs);
+				c.jump(branchOpcode(op(last)), taken);
+				jumpTo(cf, c, pc + 1, index, labels, exit);
+				c.mark(taken);
+				jumpTo(cf, c, target, index, labels, exit);
+				break;
+			}
+			case OP_JR:
+				c.iload(rs);
+				c.iconst(cf, imm(last));
+				c.op(IADD);
+				c.istore(NEXT_PC);
+				c.jump(GOTO, exit);
+				break;
+			case OP_JALR:
+				c.iload(rs);
+				c.iconst(cf, imm(last));
+				c.op(IADD);
+				c.op(DUP);
+				c.istore(NEXT_PC);
+				c.iconst(cf, 1);
+				c.op(IADD);
+				c.istore(REG + 7);
+				c.jump(GOTO, exit);
+				break;
+			case OP_JAL:
+				c.iconst(cf, pc + 1);
+				c.istore(REG + 7);
+				jumpTo(cf, c, target, index, labels, exit);
+				break;
+			case OP_J:
+				jumpTo(cf, c, target, index, labels, exit);
+				break;
+			}
+		}
+
+		// locals back into registers and budget
+		c.mark(exit);
+		for (int i = 0; i < 8; i++) {
+			c.aload(CTX);
+			c.iconst(cf, i);
+			c.iload(REG + i);
+			c.op(IASTORE);
+		}
+		c.aload(CTX);
+		c.iconst(cf, CompiledBlock.BUDGET);
+		c.iload(BUDGET_LOCAL);
+		c.op(IASTORE);
+		c.iload(NEXT_PC);
+		c.op(IRETURN);
+
+		cf.addMethod(ClassFileWriter.ACC_PUBLIC, "run", "([IL" + MEMORY + ";)I", c);
+		try {
+			return (CompiledBlock) loader.define(name.replace('/', '.'), cf.toByteArray()).getDeclaredConstructor()
+					.newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Emit a transfer to the target: a jump to its block if it is in the region, or an exit to the interpreter
+	 * otherwise.
+	 */
+	private static void jumpTo(ClassFileWriter cf, Code c, int target, Map<Integer, Integer> index, int[] labels,
+			int exit) {
+		Integer b = index.get(target);
+		if (b != null) {
+			c.jump(GOTO, labels[b]);
+		} else {
+			exitTo(cf, c, target, exit);
+		}
+	}
+
+	static void exitTo(ClassFileWriter cf, Code c, int pc, int exit) {
+		c.iconst(cf, pc);
+		c.istore(NEXT_PC);
+		c.jump(GOTO, exit);
+	}
+
+	/**
+	 * Returns the JVM branch opcode which is taken when the condition of the branch instruction holds for rs.
+	 *
+	 * @param op
+	 *            BEQZ..BLEZ
+	 * @return the if* opcode
+	 */
+	static int branchOpcode(int op) {
+		switch (op) {
+		case OP_BEQZ:
+			return IFEQ;
+		case OP_BNEZ:
+			return IFNE;
+		case OP_BLTZ:
+			return IFLT;
+		case OP_BGEZ:
+			return IFGE;
+		case OP_BGTZ:
+			return IFGT;
+		default:
+			return IFLE;
+		}
+	}
+
+	/**
+	 * Emit the code for an instruction which does not transfer control. The registers are kept in the locals REG..REG+7,
+	 * and the memory in the local MEM.
+	 *
+	 * @param cf
+	 *            the class file (for the constant pool)
+	 * @param c
+	 *            the code
+	 * @param word
+	 *            the packed instruction
+	 */
+	static void emitStraight(ClassFileWriter cf, Code c, int word) {
+		int rs = REG + rs(word);
+		int rt = REG + rt(word);
+		int rd = REG + rd(word);
+		int imm = imm(word);
+		switch (op(word)) {
+		case OP_AND:
+			binary(c, rs, rt, IAND, rd);
+			break;
+		case OP_CAND:
+			c.iload(rs);
+			c.iconst(cf, -1);
+			c.op(IXOR);
+			c.iload(rt);
+			c.op(IAND);
+			c.istore(rd);
+			break;
+		case OP_OR:
+			binary(c, rs, rt, IOR, rd);
+			break;
+		case OP_XOR:
+			binary(c, rs, rt, IXOR, rd);
+			break;
+		case OP_ADD:
+			binary(c, rs, rt, IADD, rd);
+			break;
+		case OP_NADD:
+			binary(c, rt, rs, ISUB, rd);
+			break;
+		case OP_SLT:
+		case OP_SLTU: {
+			int skip = c.newLabel();
+			c.iload(rs);
+			c.iload(rt);
+			c.jump(IF_ICMPGE, skip);
+			c.iconst(cf, 1);
+			c.istore(rd);
+			c.mark(skip);
+			break;
+		}
+		case OP_ANDI:
+		case OP_CANDI:
+			immediate(cf, c, rs, imm, IAND, rt);
+			break;
+		case OP_ORI:
+			immediate(cf, c, rs, imm, IOR, rt);
+			break;
+		case OP_XORI:
+			immediate(cf, c, rs, imm, IXOR, rt);
+			break;
+		case OP_ADDI:
+			immediate(cf, c, rs, imm, IADD, rt);
+			break;
+		case OP_NADDI:
+			c.iconst(cf, imm);
+			c.iload(rs);
+			c.op(ISUB);
+			c.istore(rt);
+			break;
+		case OP_SLTI:
+		case OP_SLTUI: {
+			int skip = c.newLabel();
+			c.iload(rs);
+			c.iconst(cf, imm);
+			c.jump(IF_ICMPGE, skip);
+			c.iconst(cf, 1);
+			c.istore(rt);
+			c.mark(skip);
+			break;
+		}
+		case OP_SLL:
+			immediate(cf, c, rs, imm, ISHL, rt);
+			break;
+		case OP_SRL:
+			immediate(cf, c, rs, imm, ISHR, rt);
+			break;
+		case OP_SRA:
+			immediate(cf, c, rs, imm, IUSHR, rt);
+			break;
+		case OP_ROR:
+			c.iload(rs);
+			c.iconst(cf, imm);
+			c.op(IUSHR);
+			c.iload(rs);
+			c.iconst(cf, 32 - imm);
+			c.op(ISHL);
+			c.op(IOR);
+			c.istore(rt);
+			break;
+		case OP_LW:
+			c.aload(MEM);
+			c.iload(rs);
+			c.iconst(cf, imm);
+			c.op(IADD);
+			c.op(INVOKEVIRTUAL, cf.methodRef(MEMORY, "read", "(I)I"));
+			c.istore(rt);
+			break;
+		case OP_SW:
+			c.aload(MEM);
+			c.iload(rs);
+			c.iconst(cf, imm);
+			c.op(IADD);
+			c.iload(rt);
+			c.op(INVOKEVIRTUAL, cf.methodRef(MEMORY, "write", "(II)I"));
+			c.op(POP);
+			break;
+		case OP_SET:
+			c.iconst(cf, imm);
+			c.istore(REG);
+			break;
+		case OP_SSET:
+			c.iload(REG);
+			c.iconst(cf, 11);
+			c.op(ISHL);
+			c.iconst(cf, imm);
+			c.op(IOR);
+			c.istore(REG);
+			break;
+		default:
+			throw new IllegalArgumentException("Not a straight-line instruction: " + op(word));
+		}
+	}
+
+	private static void binary(Code c, int a, int b, int opcode, int dst) {
+		c.iload(a);
+		c.iload(b);
+		c.op(opcode);
+		c.istore(dst);
+	}
+
+	private static void immediate(ClassFileWriter cf, Code c, int a, int imm, int opcode, int dst) {
+		c.iload(a);
+		c.iconst(cf, imm);
+		c.op(opcode);
+		c.istore(dst);
+	}
+
+	/**
+	 * Loads the generated classes. Each compiler has its own loader, so the classes go away with the compiler.
+	 */
+	static final class Loader extends ClassLoader {
+		Loader() {
+			super(BlockCompiler.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte[] b) {
+			return defineClass(name, b, 0, b.length);
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package assem_simul.src;
+
+import java.io.*;
+import java.util.*;
+
+import assembler.entity.Memory;
+
+/**
+ * A snapshot of the state of a Simulator: the PC, the instruction count, the registers and the memory.
+ *
+ * A full checkpoint holds every page of the memory which is not all zero. An incremental checkpoint holds only the
+ * pages written since its parent was taken (or restored), so its cost follows what the program changed rather than the
+ * size of the memory; the memory it stands for is its own pages over the memory of its parent. Checkpoints are made
+ * and restored by Simulator.checkpoint() and Simulator.restore(), and are not modified afterwards, so one checkpoint
+ * can be restored into many Simulators.
+ *
+ * The binary format is:
+ *
+ * <pre>
+ * int     MAGIC
+ * byte    VERSION
+ * byte    1 if incremental, 0 if full
+ * int     PC
+ * long    instruction count
+ * int     number of registers, followed by the registers
+ * [int PC, long instruction count]    of the parent, if incremental
+ * int     number of pages, followed by the pages in increasing page number:
+ *         int page number, short offset of the first word stored, short number of words stored, the words
+ * </pre>
+ *
+ * The words of a page which are not stored (before the offset and after the words) are zero.
+ *
+ */
+public class Checkpoint {
+	/**
+	 * "ASCK"
+	 */
+	public static final int MAGIC = 0x4153434B;
+	/**
+	 * Version of the format, checked when reading
+	 */
+	public static final int VERSION = 1;
+
+	private final Checkpoint parent;
+	private final int pc;
+	private final long instCount;
+	private final int[] registers;
+	private final int[] pageNos; // in increasing order
+	private final int[][] pages; // PAGE_SIZE words each
+
+	Checkpoint(Checkpoint parent, int pc, long instCount, int[] registers, int[] pageNos, int[][] pages) {
+		this.parent = parent;
+		this.pc = pc;
+		this.instCount = instCount;
+		this.registers = registers;
+		this.pageNos = pageNos;
+		this.pages = pages;
+	}
+
+	/**
+	 * Take a snapshot.
+	 *
+	 * @param parent
+	 *            the checkpoint the pages are counted from (null for a full checkpoint)
+	 * @param pc
+	 *            the program counter
+	 * @param instCount
+	 *            the instruction count
+	 * @param registers
+	 *            the registers
+	 * @param memory
+	 *            the memory
+	 * @param pageNos
+	 *            the pages to save (those which are all zero are left out of a full checkpoint)
+	 * @return the checkpoint
+	 */
+	static Checkpoint take(Checkpoint parent, int pc, long instCount, int[] registers, Memory memory, int[] pageNos) {
+		int[] sorted = pageNos.clone();
+		Arrays.sort(sorted);
+		int[][] pages = new int[sorted.length][];
+		int n = 0;
+		for (int pageNo : sorted) {
+			int[] page = new int[Memory.PAGE_SIZE];
+			memory.copyPage(pageNo, page);
+			if ((parent != null) || (end(page) > 0)) {
+				sorted[n] = pageNo;
+				pages[n++] = page;
+			}
+		}
+		return new Checkpoint(parent, pc, instCount, registers, Arrays.copyOf(sorted, n), Arrays.copyOf(pages, n));
+	}
+
+	/**
+	 * Returns the checkpoint the pages are counted from.
+	 *
+	 * @return the parent (null for a full checkpoint)
+	 */
+	public Checkpoint getParent() {
+		return parent;
+	}
+
+	/**
+	 * Returns if the checkpoint only holds the pages written since its parent.
+	 *
+	 * @return true if the checkpoint is incremental
+	 */
+	public boolean isIncremental() {
+		return parent != null;
+	}
+
+	/**
+	 * Returns the program counter.
+	 *
+	 * @return the program counter
+	 */
+	public int getPc() {
+		return pc;
+	}
+
+	/**
+	 * Returns the instruction count.
+	 *
+	 * @return the instruction count
+	 */
+	public long getInstructionCount() {
+		return instCount;
+	}
+
+	/**
+	 * Returns the registers.
+	 *
+	 * @return a copy of the registers
+	 */
+	public int[] getRegisters() {
+		return registers.clone();
+	}
+
+	/**
+	 * Returns the number of pages held by this checkpoint (not counting its parents).
+	 *
+	 * @return the number of pages
+	 */
+	public int getPageCount() {
+		return pageNos.length;
+	}
+
+	/**
+	 * Returns the pages held by this checkpoint (not counting its parents).
+	 *
+	 * @return the page numbers, in increasing order
+	 */
+	int[] pageNos() {
+		return pageNos;
+	}
+
+	/**
+	 * Returns the words of the page as of this checkpoint, looking through the parents.
+	 *
+	 * @param pageNo
+	 *            the page number
+	 * @return the words (null if the page is zero)
+	 */
+	int[] page(int pageNo) {
+		for (Checkpoint c = this; c != null; c = c.parent) {
+			int i = Arrays.binarySearch(c.pageNos, pageNo);
+			if (i >= 0) {
+				return c.pages[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the depth of the checkpoint.
+	 *
+	 * @return 0 for a full checkpoint, the depth of the parent + 1 for an incremental one
+	 */
+	int depth() {
+		int depth = 0;
+		for (Checkpoint c = parent; c != null; c = c.parent) {
+			depth++;
+		}
+		return depth;
+	}
+
+	/**
+	 * Write the checkpoint (without its parents).
+	 *
+	 * @param out
+	 *            the stream (not closed)
+	 * @throws IOException
+	 *             If the stream cannot be written
+	 */
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeByte(VERSION);
+		data.writeByte(isIncremental() ? 1 : 0);
+		data.writeInt(pc);
+		data.writeLong(instCount);
+		data.writeInt(registers.length);
+		for (int reg : registers) {
+			data.writeInt(reg);
+		}
+		if (isIncremental()) {
+			data.writeInt(parent.pc);
+			data.writeLong(parent.instCount);
+		}
+		data.writeInt(pageNos.length);
+		for (int i = 0; i < pageNos.length; i++) {
+			int[] page = pages[i];
+			int start = 0;
+			int end = end(page);
+			while ((start < end) && (page[start] == 0)) {
+				start++;
+			}
+			data.writeInt(pageNos[i]);
+			data.writeShort(start);
+			data.writeShort(end - start);
+			for (int j = start; j < end; j++) {
+				data.writeInt(page[j]);
+			}
+		}
+		data.flush();
+	}
+
+	/**
+	 * Read a checkpoint.
+	 *
+	 * @param in
+	 *            the stream (not closed, nor read past the checkpoint; it may be buffered by the caller)
+	 * @param parent
+	 *            the parent, if the checkpoint is incremental (ignored otherwise)
+	 * @return the checkpoint
+	 * @throws IOException
+	 *             If the stream cannot be read, is not a checkpoint, or does not follow the parent
+	 */
+	public static Checkpoint read(InputStream in, Checkpoint parent) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if ((data.readInt() != MAGIC) || (data.readByte() != VERSION)) {
+			throw new IOException("Not a checkpoint");
+		}
+		boolean incremental = data.readByte() != 0;
+		int pc = data.readInt();
+		long instCount = data.readLong();
+		int[] registers = new int[data.readInt()];
+		for (int i = 0; i < registers.length; i++) {
+			registers[i] = data.readInt();
+		}
+		if (incremental) {
+			int parentPc = data.readInt();
+			long parentInstCount = data.readLong();
+			if ((parent == null) || (parent.pc != parentPc) || (parent.instCount != parentInstCount)) {
+				throw new IOException("Incremental checkpoint does not follow the parent given");
+			}
+		} else {
+			parent = null;
+		}
+		int count = data.readInt();
+		int[] pageNos = new int[count];
+		int[][] pages = new int[count][];
+		for (int i = 0; i < count; i++) {
+			pageNos[i] = data.readInt();
+			int start = data.readUnsignedShort();
+			int len = data.readUnsignedShort();
+			if (((i > 0) && (pageNos[i] <= pageNos[i - 1])) || (start + len > Memory.PAGE_SIZE)) {
+				throw new IOException("Invalid page in checkpoint (" + pageNos[i] + ")");
+			}
+			int[] page = new int[Memory.PAGE_SIZE];
+			for (int j = start; j < start + len; j++) {
+				page[j] = data.readInt();
+			}
+			pages[i] = page;
+		}
+		return new Checkpoint(parent, pc, instCount, registers, pageNos, pages);
+	}
+
+	/**
+	 * Returns the offset past the last word which is not zero.
+	 */
+	private static int end(int[] page) {
+		int end = page.length;
+		while ((end > 0) && (page[end - 1] == 0)) {
+			end--;
+		}
+		return end;
+	}
+}
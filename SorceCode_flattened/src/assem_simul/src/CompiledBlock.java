@@ -0,0 +1,26 @@
+package assem_simul.src;
+
+import assembler.entity.Memory;
+
+/**
+ * A region of the program compiled into JVM bytecode by the BlockCompiler.
+ * 
+ */
+public interface CompiledBlock {
+	/**
+	 * Index of the context array which holds the remaining instruction budget.
+	 */
+	int BUDGET = 8;
+
+	/**
+	 * Run the compiled region.
+	 * 
+	 * @param ctx
+	 *            the registers (ctx[0]..ctx[7]) and the remaining instruction budget (ctx[BUDGET]). The registers and the
+	 *            budget are updated on return.
+	 * @param memory
+	 *            the memory
+	 * @return the next program counter
+	 */
+	int run(int[] ctx, Memory memory);
+}
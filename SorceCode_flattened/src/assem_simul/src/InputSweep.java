@@ -0,0 +1,608 @@
+package assem_simul.src;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import assembler.entity.*;
+import assembler.exception.*;
+import assembler.utils.Utilites;
+
+/**
+ * Runs one program against many input vectors, spread over worker threads.
+ *
+ * The program is decoded once and shared; each worker keeps its own Simulator, which is reset (the memory and the
+ * register file zeroed in place) before every input instead of being built again. An input vector is a sequence of
+ * data words written from the input base address, and optionally the initial registers; the outcome of each input
+ * holds the stop reason, the instruction count, the PC, the registers and the data words of the output range.
+ *
+ * With more than one lane, each worker runs its inputs that many at a time on a LockstepSimulator instead, which pays
+ * off when most inputs follow the same path through the program.
+ *
+ * Input files hold one vector per line: the data words, optionally followed by "|" and the registers, each word in
+ * any form of Integer.decode(), separated by spaces, tabs or commas. Empty lines and lines starting with "#" are
+ * skipped.
+ *
+ * <pre>
+ * java assem_simul.src.InputSweep [-o outcomes.csv] [-j threads] [-n instructions] [-e engine] [-l lanes]
+ *                                 [-in base] [-out base words] program (inputs.txt | -random count words seed)
+ * </pre>
+ *
+ */
+public class InputSweep {
+	/**
+	 * Default instruction budget of a run.
+	 */
+	public static final long DEFAULT_INSTRUCTIONS = 1000000L;
+
+	// inputs taken by a worker at once
+	private static final int BATCH = 256;
+
+	/**
+	 * An input vector.
+	 */
+	public static class Input {
+		private final int[] memory;
+		private final int[] registers;
+
+		/**
+		 * Constructs new Input.
+		 *
+		 * @param memory
+		 *            the data words written from the input base address
+		 * @param registers
+		 *            the initial registers (null to leave them zero)
+		 */
+		public Input(int[] memory, int[] registers) {
+			this.memory = memory;
+			this.registers = registers;
+		}
+	}
+
+	/**
+	 * The outcome of an input.
+	 */
+	public static class Outcome {
+		private final long index;
+		private final Simulator.StopReason reason;
+		private final String fault;
+		private final long instructions;
+		private final int pc;
+		private final int[] registers;
+		private final int[] memory;
+
+		private Outcome(long index, Simulator.StopReason reason, String fault, long instructions, int pc,
+				int[] registers, int[] memory) {
+			this.index = index;
+			this.reason = reason;
+			this.fault = fault;
+			this.instructions = instructions;
+			this.pc = pc;
+			this.registers = registers;
+			this.memory = memory;
+		}
+
+		/**
+		 * Returns the index of the input, in the order the inputs were given.
+		 *
+		 * @return the index (from 0)
+		 */
+		public long getIndex() {
+			return index;
+		}
+
+		public Simulator.StopReason getReason() {
+			return reason;
+		}
+
+		/**
+		 * Returns the fault message.
+		 *
+		 * @return the message (null unless the reason is FAULT)
+		 */
+		public String getFault() {
+			return fault;
+		}
+
+		public long getInstructionCount() {
+			return instructions;
+		}
+
+		public int getPc() {
+			return pc;
+		}
+
+		public int[] getRegisters() {
+			return registers.clone();
+		}
+
+		/**
+		 * Returns the data words of the output range.
+		 *
+		 * @return the words
+		 */
+		public int[] getMemory() {
+			return memory.clone();
+		}
+	}
+
+	/**
+	 * Receives the outcomes. It is called from the worker threads, in no particular order.
+	 */
+	public interface Sink {
+		void accept(Outcome outcome);
+	}
+
+	private final Program program;
+	private long instructions = DEFAULT_INSTRUCTIONS;
+	private Simulator.Engine engine = Simulator.Engine.IMAGE;
+	private int lanes = 1;
+	private int inputBase = 0;
+	private int outputBase = 0;
+	private int outputWords = 0;
+
+	/**
+	 * Constructs new InputSweep.
+	 *
+	 * @param program
+	 *            the program to run
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the program
+	 */
+	public InputSweep(Program program) throws InvalidInstructionException {
+		this.program = program;
+		program.getImage(); // decoded once, shared by the workers
+	}
+
+	/**
+	 * Set the instruction budget of each run.
+	 *
+	 * @param instructions
+	 *            the number of instructions
+	 */
+	public void setInstructions(long instructions) {
+		this.instructions = instructions;
+	}
+
+	/**
+	 * Select the engine the program runs on.
+	 *
+	 * @param engine
+	 *            the engine
+	 */
+	public void setEngine(Simulator.Engine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Set the number of inputs each worker runs in lockstep.
+	 *
+	 * @param lanes
+	 *            the number of lanes (1 to run the inputs one at a time on the selected engine)
+	 */
+	public void setLanes(int lanes) {
+		if (lanes < 1) {
+			throw new IllegalArgumentException("Invalid number of lanes (" + lanes + ")");
+		}
+		this.lanes = lanes;
+	}
+
+	/**
+	 * Set the address the data words of each input are written from.
+	 *
+	 * @param base
+	 *            the address
+	 */
+	public void setInputBase(int base) {
+		this.inputBase = base;
+	}
+
+	/**
+	 * Set the range of data words collected in each outcome.
+	 *
+	 * @param base
+	 *            the first address
+	 * @param words
+	 *            the number of words
+	 */
+	public void setOutput(int base, int words) {
+		this.outputBase = base;
+		this.outputWords = words;
+	}
+
+	/**
+	 * Run the program for every input.
+	 *
+	 * @param inputs
+	 *            the inputs (only read under a lock, a batch at a time)
+	 * @param threads
+	 *            the number of worker threads
+	 * @param sink
+	 *            receives the outcome of each input
+	 * @return the number of inputs run
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting for the workers
+	 */
+	public long run(final Iterator<Input> inputs, int threads, final Sink sink) throws InterruptedException {
+		final AtomicLong next = new AtomicLong();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int t = 0; t < threads; t++) {
+			workers.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					Simulator simulator = (lanes == 1) ? newSimulator() : null;
+					LockstepSimulator lockstep = (lanes == 1) ? null : newLockstep();
+					int batchSize = lanes * Math.max(1, BATCH / lanes);
+					List<Input> batch = new ArrayList<Input>(batchSize);
+					while (true) {
+						batch.clear();
+						long first;
+						synchronized (inputs) {
+							while ((batch.size() < batchSize) && inputs.hasNext()) {
+								batch.add(inputs.next());
+							}
+							first = next.getAndAdd(batch.size());
+						}
+						if (batch.isEmpty()) {
+							return;
+						}
+						if (lockstep != null) {
+							for (int i = 0; i < batch.size(); i += lanes) {
+								runInputs(lockstep, first + i, batch.subList(i, Math.min(i + lanes, batch.size())), sink);
+							}
+						} else {
+							for (int i = 0; i < batch.size(); i++) {
+								sink.accept(runInput(simulator, first + i, batch.get(i)));
+							}
+						}
+					}
+				}
+			}));
+		}
+		try {
+			for (Future<?> worker : workers) {
+				try {
+					worker.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return next.get();
+	}
+
+	private Simulator newSimulator() {
+		Simulator simulator = new Simulator();
+		simulator.setEngine(engine);
+		try {
+			simulator.load(program);
+		} catch (InvalidInstructionException e) {
+			throw new IllegalStateException(e); // decoded in the constructor
+		}
+		return simulator;
+	}
+
+	private LockstepSimulator newLockstep() {
+		try {
+			return new LockstepSimulator(program, lanes);
+		} catch (InvalidInstructionException e) {
+			throw new IllegalStateException(e); // decoded in the constructor
+		}
+	}
+
+	/**
+	 * Run the program for inputs in lockstep, one lane each.
+	 */
+	private void runInputs(LockstepSimulator lockstep, long first, List<Input> inputs, Sink sink) {
+		lockstep.reset(inputs.size());
+		for (int l = 0; l < inputs.size(); l++) {
+			Input input = inputs.get(l);
+			Memory memory = lockstep.getMemory(l);
+			for (int i = 0; i < input.memory.length; i++) {
+				memory.poke(inputBase + i, input.memory[i]);
+			}
+			if (input.registers != null) {
+				for (int i = 0; i < Math.min(input.registers.length, 8); i++) {
+					lockstep.setRegister(l, i, input.registers[i]);
+				}
+			}
+		}
+
+		lockstep.runFor(instructions);
+
+		for (int l = 0; l < inputs.size(); l++) {
+			int[] registers = new int[8];
+			lockstep.copyRegisters(l, registers);
+			Memory memory = lockstep.getMemory(l);
+			int[] output = new int[outputWords];
+			for (int i = 0; i < outputWords; i++) {
+				output[i] = memory.peek(outputBase + i);
+			}
+			Simulator.StopReason reason = lockstep.getStopReason(l);
+			String fault = (reason == Simulator.StopReason.FAULT) ? lockstep.getFault(l).getMessage() : null;
+			sink.accept(new Outcome(first + l, reason, fault, lockstep.getInstructionCount(l), lockstep.getPc(l),
+					registers, output));
+		}
+	}
+
+	/**
+	 * Run the program for an input on a Simulator which holds the program.
+	 */
+	private Outcome runInput(Simulator simulator, long index, Input input) {
+		simulator.reset();
+		Memory memory = simulator.getMemory();
+		for (int i = 0; i < input.memory.length; i++) {
+			memory.poke(inputBase + i, input.memory[i]);
+		}
+		RegisterFile regfile = simulator.getRegfile();
+		if (input.registers != null) {
+			for (int i = 0; i < Math.min(input.registers.length, regfile.getSize()); i++) {
+				regfile.set(i, input.registers[i]);
+			}
+		}
+
+		Simulator.StopReason reason = simulator.runFor(instructions);
+
+		int[] registers = new int[regfile.getSize()];
+		regfile.copyTo(registers);
+		int[] output = new int[outputWords];
+		for (int i = 0; i < outputWords; i++) {
+			output[i] = memory.peek(outputBase + i);
+		}
+		String fault = (reason == Simulator.StopReason.FAULT) ? simulator.getFault().getMessage() : null;
+		return new Outcome(index, reason, fault, simulator.getInstructionCount(), simulator.getPc(), registers, output);
+	}
+
+	/**
+	 * Reads the inputs from a file, one vector per line, as they are asked for.
+	 *
+	 * @param reader
+	 *            the file (closed at its end)
+	 * @return the inputs (an error in the file is thrown as an IllegalArgumentException, with its line number)
+	 */
+	public static Iterator<Input> read(final BufferedReader reader) {
+		return new Iterator<Input>() {
+			private Input next;
+			private int lineNo;
+			private boolean closed; // true once the end of the file is read
+
+			@Override
+			public boolean hasNext() {
+				while (next == null) {
+					if (closed) {
+						return false;
+					}
+					String line;
+					try {
+						line = reader.readLine();
+						if (line == null) {
+							reader.close();
+							closed = true;
+							return false;
+						}
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					lineNo++;
+					line = line.trim();
+					if (!line.isEmpty() && !line.startsWith("#")) {
+						next = parse(line, lineNo);
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public Input next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Input input = next;
+				next = null;
+				return input;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private static Input parse(String line, int lineNo) {
+		int bar = line.indexOf('|');
+		try {
+			int[] memory = words((bar < 0) ? line : line.substring(0, bar));
+			int[] registers = (bar < 0) ? null : words(line.substring(bar + 1));
+			return new Input(memory, registers);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid input on line " + lineNo + " (" + e.getMessage() + ")");
+		}
+	}
+
+	private static int[] words(String str) {
+		String trimmed = str.trim();
+		if (trimmed.isEmpty()) {
+			return new int[0];
+		}
+		String[] tokens = trimmed.split("[\t ,]+");
+		int[] words = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			words[i] = Integer.decode(tokens[i]);
+		}
+		return words;
+	}
+
+	/**
+	 * Generates random inputs.
+	 *
+	 * @param count
+	 *            the number of inputs
+	 * @param words
+	 *            the number of data words of each input
+	 * @param bound
+	 *            the words are drawn from [0, bound)
+	 * @param seed
+	 *            the seed of the generator
+	 * @return the inputs
+	 */
+	public static Iterator<Input> random(final long count, final int words, final int bound, long seed) {
+		final Random random = new Random(seed);
+		return new Iterator<Input>() {
+			private long made;
+
+			@Override
+			public boolean hasNext() {
+				return made < count;
+			}
+
+			@Override
+			public Input next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				made++;
+				int[] memory = new int[words];
+				for (int i = 0; i < words; i++) {
+					memory[i] = random.nextInt(bound);
+				}
+				return new Input(memory, null);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private static void usage(String error) {
+		System.err.println(error);
+		System.err.println("Usage: java assem_simul.src.InputSweep [-o outcomes.csv] [-j threads] [-n instructions]"
+				+ " [-e IMAGE|REFERENCE|JIT|AOT] [-l lanes] [-in base] [-out base words]"
+				+ " program (inputs.txt | -random count words seed)");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Path out = Paths.get("outcomes.csv");
+		int threads = Runtime.getRuntime().availableProcessors();
+		long budget = DEFAULT_INSTRUCTIONS;
+		Simulator.Engine engine = Simulator.Engine.IMAGE;
+		int lanes = 1;
+		int inputBase = 0, outputBase = 0, outputWords = 0;
+		String programFile = null;
+		Iterator<Input> inputs = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("-random") && (i + 3 < args.length)) {
+					inputs = random(Long.parseLong(args[i + 1]), Integer.parseInt(args[i + 2]), 1 << 16, Long
+							.parseLong(args[i + 3]));
+					i += 3;
+				} else if (arg.equals("-out") && (i + 2 < args.length)) {
+					outputBase = Integer.decode(args[++i]);
+					outputWords = Integer.parseInt(args[++i]);
+				} else if (arg.startsWith("-") && (i + 1 < args.length)) {
+					String value = args[++i];
+					if (arg.equals("-o")) {
+						out = Paths.get(value);
+					} else if (arg.equals("-j")) {
+						threads = Integer.parseInt(value);
+					} else if (arg.equals("-n")) {
+						budget = Long.parseLong(value);
+					} else if (arg.equals("-e")) {
+						engine = Simulator.Engine.valueOf(value.toUpperCase());
+					} else if (arg.equals("-l")) {
+						lanes = Integer.parseInt(value);
+					} else if (arg.equals("-in")) {
+						inputBase = Integer.decode(value);
+					} else {
+						usage("Invalid option " + arg);
+					}
+				} else if (programFile == null) {
+					programFile = arg;
+				} else if (inputs == null) {
+					inputs = read(Files.newBufferedReader(Paths.get(arg), Utilites.CHARSET));
+				} else {
+					usage("Too many arguments");
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			usage("Invalid option value (" + e.getMessage() + ")");
+		}
+		if ((programFile == null) || (inputs == null) || (threads < 1) || (lanes < 1)) {
+			usage("Missing program or inputs");
+		}
+
+		InputSweep sweep;
+		try {
+			sweep = new InputSweep(Assembler.compile(Utilites.readText(Paths.get(programFile))));
+		} catch (SyntaxException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		} catch (LabelNotFoundException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		} catch (InvalidInstructionException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		sweep.setInstructions(budget);
+		sweep.setEngine(engine);
+		sweep.setLanes(lanes);
+		sweep.setInputBase(inputBase);
+		sweep.setOutput(outputBase, outputWords);
+
+		final Writer writer = Files.newBufferedWriter(out, Utilites.CHARSET);
+		StringBuffer header = new StringBuffer("index,reason,instructions,pc");
+		for (int i = 0; i < 8; i++) {
+			header.append(",r").append(i);
+		}
+		for (int i = 0; i < outputWords; i++) {
+			header.append(",m").append(outputBase + i);
+		}
+		writer.write(header.append('\n').toString());
+		long start = System.nanoTime();
+		long count;
+		try {
+			count = sweep.run(inputs, threads, new Sink() {
+				@Override
+				public void accept(Outcome outcome) {
+					StringBuffer strbuf = new StringBuffer();
+					strbuf.append(outcome.index).append(',').append(outcome.reason).append(',');
+					strbuf.append(outcome.instructions).append(',').append(outcome.pc);
+					for (int reg : outcome.registers) {
+						strbuf.append(',').append(reg);
+					}
+					for (int word : outcome.memory) {
+						strbuf.append(',').append(word);
+					}
+					strbuf.append('\n');
+					try {
+						synchronized (writer) {
+							writer.write(strbuf.toString());
+						}
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			});
+		} finally {
+			writer.close();
+		}
+		System.err.println(count + " inputs in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+				+ " ms on " + threads + " threads; outcomes in " + out);
+	}
+}
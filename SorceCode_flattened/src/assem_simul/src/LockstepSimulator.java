@@ -0,0 +1,678 @@
+package assem_simul.src;
+
+import static assembler.entity.InstructionImage.*;
+
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * Runs many instances (lanes) of one program in lockstep.
+ *
+ * The registers are held as an array per register, indexed by lane (regs[r][lane]), and each lane has its own Memory.
+ * Lanes at the same program counter form a group, and an instruction is decoded once and applied to every lane of its
+ * group, so the cost of dispatching an instruction is shared by the lanes that follow the same path. When a branch
+ * splits a group, each side becomes a group of its own; the group at the lowest program counter runs first, so that
+ * the lanes which went ahead wait for the others and the groups merge again where the paths meet (e.g., after a loop).
+ *
+ * The semantics are those of InstructionImage.run(), lane by lane. There is no timing model and no kill/pause; a lane
+ * stops at the end of the program, on a fault, or when its instruction budget is used up.
+ *
+ */
+public class LockstepSimulator {
+	private final int lanes;
+	private final int[] code;
+	private final Memory[] memories;
+	private final int[][] regs = new int[8][];
+	private final int[] pcs;
+	private final long[] counts; // instructions executed by each lane
+	private final long[] limits; // instruction count at which each lane stops in the current runFor()
+	private final Simulator.StopReason[] reasons; // null while a lane can run
+	private final SimulationException[] faults;
+	private int active; // lanes in use since the last reset
+	private long dispatches; // instructions dispatched to groups
+
+	// the groups, in no particular order; the lanes of a group are kept in increasing order
+	private final int[] groupPc;
+	private final int[][] groupLanes;
+	private final int[] groupSize;
+	private final long[] groupSteps; // instructions executed by the group since its lanes were last brought up to date
+	private final long[] groupLimit; // steps the group can run before a lane reaches its limit
+	private int groupCount;
+
+	// scratch lists of lanes
+	private final int[] taken;
+	private final int[] notTaken;
+	private final int[] merged;
+	private final int[] targets; // target of each lane on JR/JALR
+
+	/**
+	 * Constructs new LockstepSimulator.
+	 *
+	 * @param program
+	 *            the program to run
+	 * @param lanes
+	 *            the number of lanes
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the program
+	 */
+	public LockstepSimulator(Program program, int lanes) throws InvalidInstructionException {
+		if (lanes < 1) {
+			throw new IllegalArgumentException("Invalid number of lanes (" + lanes + ")");
+		}
+		this.lanes = lanes;
+		this.code = program.getImage();
+		this.memories = new Memory[lanes];
+		for (int l = 0; l < lanes; l++) {
+			memories[l] = new Memory();
+		}
+		for (int r = 0; r < regs.length; r++) {
+			regs[r] = new int[lanes];
+		}
+		pcs = new int[lanes];
+		counts = new long[lanes];
+		limits = new long[lanes];
+		reasons = new Simulator.StopReason[lanes];
+		faults = new SimulationException[lanes];
+		groupPc = new int[lanes];
+		groupLanes = new int[lanes][];
+		groupSize = new int[lanes];
+		groupSteps = new long[lanes];
+		groupLimit = new long[lanes];
+		taken = new int[lanes];
+		notTaken = new int[lanes];
+		merged = new int[lanes];
+		targets = new int[lanes];
+		active = lanes;
+	}
+
+	/**
+	 * Resets every lane: the memories and the registers are zeroed in place and the program counters set to 0.
+	 */
+	public void reset() {
+		reset(lanes);
+	}
+
+	/**
+	 * Resets the lanes, and use only the first ones until the next reset (e.g., for the last few inputs of a sweep).
+	 *
+	 * @param active
+	 *            the number of lanes to use
+	 */
+	public void reset(int active) {
+		if ((active < 0) || (active > lanes)) {
+			throw new IllegalArgumentException("Invalid number of lanes (" + active + ")");
+		}
+		this.active = active;
+		for (int l = 0; l < lanes; l++) {
+			memories[l].clear();
+			for (int r = 0; r < regs.length; r++) {
+				regs[r][l] = 0;
+			}
+			pcs[l] = 0;
+			counts[l] = 0;
+			reasons[l] = null;
+			faults[l] = null;
+		}
+		dispatches = 0;
+	}
+
+	/**
+	 * Run every lane in use until it stops: at the end of the program, on a fault, or after the given number of
+	 * instructions. Lanes stopped by the budget can be continued by calling this again.
+	 *
+	 * @param instructions
+	 *            the instruction budget of each lane
+	 */
+	public void runFor(long instructions) {
+		groupCount = 0;
+		for (int l = 0; l < active; l++) {
+			if ((reasons[l] == null) || (reasons[l] == Simulator.StopReason.BUDGET)) {
+				reasons[l] = null;
+				limits[l] = (instructions > Long.MAX_VALUE - counts[l]) ? Long.MAX_VALUE : counts[l] + instructions;
+				taken[0] = l;
+				place(pcs[l], taken, 1, limits[l] - counts[l]);
+			}
+		}
+
+		while (groupCount > 0) {
+			// the group at the lowest program counter
+			int g = 0;
+			for (int i = 1; i < groupCount; i++) {
+				if (groupPc[i] < groupPc[g]) {
+					g = i;
+				}
+			}
+			int p = groupPc[g];
+			// in the order of Simulator.runFor(): the end, the budget, then the fault of the next instruction
+			if (p == code.length) {
+				stop(g, Simulator.StopReason.END, null);
+			} else if (groupSteps[g] == groupLimit[g]) {
+				stopBudget(g);
+			} else if ((p < 0) || (p > code.length)) {
+				stop(g, Simulator.StopReason.FAULT, new SimulationException("No instructions here", p));
+			} else {
+				step(g, p);
+			}
+		}
+	}
+
+	/**
+	 * Run the instruction at the program counter of the group, on every lane of the group.
+	 */
+	private void step(int g, int p) {
+		int word = code[p];
+		int[] ls = groupLanes[g];
+		int n = groupSize[g];
+		int[] a = regs[(word >> 6) & 7];
+		int[] b = regs[(word >> 9) & 7];
+		int[] d = regs[(word >> 12) & 7];
+		int imm = word >> 16;
+		groupSteps[g]++;
+		dispatches++;
+		switch (word & 0x3F) {
+		case OP_AND:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				d[l] = a[l] & b[l];
+			}
+			break;
+		case OP_CAND:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				d[l] = ~a[l] & b[l];
+			}
+			break;
+		case OP_OR:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				d[l] = a[l] | b[l];
+			}
+			break;
+		case OP_XOR:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				d[l] = a[l] ^ b[l];
+			}
+			break;
+		case OP_ADD:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				d[l] = a[l] + b[l];
+			}
+			break;
+		case OP_NADD:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				d[l] = -a[l] + b[l];
+			}
+			break;
+		case OP_SLT:
+		case OP_SLTU:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				if (a[l] < b[l]) {
+					d[l] = 1;
+				}
+			}
+			break;
+		case OP_ANDI:
+		case OP_CANDI:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				b[l] = a[l] & imm;
+			}
+			break;
+		case OP_ORI:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				b[l] = a[l] | imm;
+			}
+			break;
+		case OP_XORI:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				b[l] = a[l] ^ imm;
+			}
+			break;
+		case OP_ADDI:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				b[l] = a[l] + imm;
+			}
+			break;
+		case OP_NADDI:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				b[l] = -a[l] + imm;
+			}
+			break;
+		case OP_SLTI:
+		case OP_SLTUI:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				if (a[l] < imm) {
+					b[l] = 1;
+				}
+			}
+			break;
+		case OP_SLL:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				b[l] = a[l] << imm;
+			}
+			break;
+		case OP_SRL:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				b[l] = a[l] >> imm;
+			}
+			break;
+		case OP_SRA:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				b[l] = a[l] >>> imm;
+			}
+			break;
+		case OP_ROR:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				b[l] = a[l] >>> imm | a[l] << (32 - imm);
+			}
+			break;
+		case OP_LW:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				b[l] = memories[l].read(a[l] + imm);
+			}
+			break;
+		case OP_SW:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				memories[l].write(a[l] + imm, b[l]);
+			}
+			break;
+		case OP_BEQZ:
+		case OP_BNEZ:
+		case OP_BLTZ:
+		case OP_BGEZ:
+		case OP_BGTZ:
+		case OP_BLEZ:
+			branch(g, p, word, a);
+			return;
+		case OP_JR:
+		case OP_JALR:
+			jumpRegister(g, word, a);
+			return;
+		case OP_SET:
+			for (int i = 0; i < n; i++) {
+				regs[0][ls[i]] = imm;
+			}
+			break;
+		case OP_SSET:
+			for (int i = 0; i < n; i++) {
+				int l = ls[i];
+				regs[0][l] = (regs[0][l] << 11) | imm;
+			}
+			break;
+		case OP_J:
+			move(g, p + imm);
+			return;
+		case OP_JAL:
+			for (int i = 0; i < n; i++) {
+				regs[7][ls[i]] = p + 1;
+			}
+			move(g, p + imm);
+			return;
+		}
+		move(g, p + 1);
+	}
+
+	/**
+	 * Split the group on a conditional branch.
+	 */
+	private void branch(int g, int p, int word, int[] a) {
+		int op = word & 0x3F;
+		int[] ls = groupLanes[g];
+		int n = groupSize[g];
+		int nt = 0;
+		int nf = 0;
+		for (int i = 0; i < n; i++) {
+			int l = ls[i];
+			int v = a[l];
+			boolean cond;
+			switch (op) {
+			case OP_BEQZ:
+				cond = v == 0;
+				break;
+			case OP_BNEZ:
+				cond = v != 0;
+				break;
+			case OP_BLTZ:
+				cond = v < 0;
+				break;
+			case OP_BGEZ:
+				cond = v >= 0;
+				break;
+			case OP_BGTZ:
+				cond = v > 0;
+				break;
+			default:
+				cond = v <= 0;
+				break;
+			}
+			if (cond) {
+				taken[nt++] = l;
+			} else {
+				notTaken[nf++] = l;
+			}
+		}
+		int target = p + (word >> 16);
+		if (nf == 0) {
+			move(g, target);
+		} else if (nt == 0) {
+			move(g, p + 1);
+		} else {
+			flush(g);
+			long limit = groupLimit[g];
+			remove(g);
+			place(target, taken, nt, limit);
+			place(p + 1, notTaken, nf, limit);
+		}
+	}
+
+	/**
+	 * Split the group on JR/JALR, whose targets may differ from lane to lane.
+	 */
+	private void jumpRegister(int g, int word, int[] a) {
+		int[] ls = groupLanes[g];
+		int n = groupSize[g];
+		int imm = word >> 16;
+		boolean link = (word & 0x3F) == OP_JALR;
+		boolean same = true;
+		for (int i = 0; i < n; i++) {
+			int l = ls[i];
+			int newPc = a[l] + imm;
+			if (link) {
+				regs[7][l] = newPc + 1;
+			}
+			targets[l] = newPc;
+			same &= newPc == targets[ls[0]];
+		}
+		if (same) {
+			move(g, targets[ls[0]]);
+			return;
+		}
+		flush(g);
+		long limit = groupLimit[g];
+		// the lanes of the group by target, one target at a time
+		int left = n;
+		System.arraycopy(ls, 0, notTaken, 0, n);
+		remove(g);
+		while (left > 0) {
+			int target = targets[notTaken[0]];
+			int nt = 0;
+			int rest = 0;
+			for (int i = 0; i < left; i++) {
+				int l = notTaken[i];
+				if (targets[l] == target) {
+					taken[nt++] = l;
+				} else {
+					notTaken[rest++] = l;
+				}
+			}
+			place(target, taken, nt, limit);
+			left = rest;
+		}
+	}
+
+	/**
+	 * Move the whole group to the program counter, merging it with the group already there.
+	 */
+	private void move(int g, int pc) {
+		groupPc[g] = pc;
+		for (int h = 0; h < groupCount; h++) {
+			if ((h != g) && (groupPc[h] == pc)) {
+				flush(g);
+				flush(h);
+				mergeInto(h, groupLanes[g], groupSize[g], groupLimit[g]);
+				remove(g);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Add the lanes (in increasing order) at the program counter, to the group already there or to a new group. The
+	 * lanes must be up to date, and none of them can run more than limit instructions.
+	 */
+	private void place(int pc, int[] ls, int n, long limit) {
+		for (int h = 0; h < groupCount; h++) {
+			if (groupPc[h] == pc) {
+				flush(h);
+				mergeInto(h, ls, n, limit);
+				return;
+			}
+		}
+		int g = groupCount++;
+		if (groupLanes[g] == null) {
+			groupLanes[g] = new int[lanes];
+		}
+		System.arraycopy(ls, 0, groupLanes[g], 0, n);
+		groupSize[g] = n;
+		groupPc[g] = pc;
+		groupSteps[g] = 0;
+		groupLimit[g] = limit;
+	}
+
+	/**
+	 * Merge the lanes (in increasing order) into the group, which must be up to date.
+	 */
+	private void mergeInto(int h, int[] ls, int n, long limit) {
+		int[] hs = groupLanes[h];
+		int m = groupSize[h];
+		int i = 0, j = 0, k = 0;
+		while ((i < m) && (j < n)) {
+			merged[k++] = (hs[i] < ls[j]) ? hs[i++] : ls[j++];
+		}
+		while (i < m) {
+			merged[k++] = hs[i++];
+		}
+		while (j < n) {
+			merged[k++] = ls[j++];
+		}
+		System.arraycopy(merged, 0, hs, 0, k);
+		groupSize[h] = k;
+		groupLimit[h] = Math.min(groupLimit[h], limit);
+	}
+
+	private long limit(int[] ls, int n) {
+		long limit = Long.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			limit = Math.min(limit, limits[ls[i]] - counts[ls[i]]);
+		}
+		return limit;
+	}
+
+	/**
+	 * Bring the program counter and the instruction count of the lanes of the group up to date. The limit of the group
+	 * is counted from there.
+	 */
+	private void flush(int g) {
+		int[] ls = groupLanes[g];
+		long steps = groupSteps[g];
+		int pc = groupPc[g];
+		for (int i = 0; i < groupSize[g]; i++) {
+			counts[ls[i]] += steps;
+			pcs[ls[i]] = pc;
+		}
+		groupLimit[g] -= steps;
+		groupSteps[g] = 0;
+	}
+
+	/**
+	 * Stop every lane of the group.
+	 */
+	private void stop(int g, Simulator.StopReason reason, SimulationException fault) {
+		flush(g);
+		int[] ls = groupLanes[g];
+		for (int i = 0; i < groupSize[g]; i++) {
+			reasons[ls[i]] = reason;
+			faults[ls[i]] = fault;
+		}
+		remove(g);
+	}
+
+	/**
+	 * Stop the lanes of the group which used up their budget, and let the others go on.
+	 */
+	private void stopBudget(int g) {
+		flush(g);
+		int[] ls = groupLanes[g];
+		int n = 0;
+		for (int i = 0; i < groupSize[g]; i++) {
+			int l = ls[i];
+			if (counts[l] >= limits[l]) {
+				reasons[l] = Simulator.StopReason.BUDGET;
+			} else {
+				ls[n++] = l;
+			}
+		}
+		groupSize[g] = n;
+		if (n == 0) {
+			remove(g);
+		} else {
+			groupLimit[g] = limit(ls, n);
+		}
+	}
+
+	/**
+	 * Remove the group, moving the last group into its slot. The lanes array of the group is kept for reuse.
+	 */
+	private void remove(int g) {
+		int last = --groupCount;
+		if (g != last) {
+			int[] ls = groupLanes[g];
+			groupLanes[g] = groupLanes[last];
+			groupLanes[last] = ls;
+			groupPc[g] = groupPc[last];
+			groupSize[g] = groupSize[last];
+			groupSteps[g] = groupSteps[last];
+			groupLimit[g] = groupLimit[last];
+		}
+	}
+
+	/**
+	 * Returns the number of lanes.
+	 *
+	 * @return the number of lanes
+	 */
+	public int getLanes() {
+		return lanes;
+	}
+
+	/**
+	 * Returns the memory of the lane, e.g., to load its input.
+	 *
+	 * @param lane
+	 *            the lane
+	 * @return the memory
+	 */
+	public Memory getMemory(int lane) {
+		return memories[lane];
+	}
+
+	/**
+	 * Returns a register of the lane.
+	 *
+	 * @param lane
+	 *            the lane
+	 * @param reg
+	 *            the register number
+	 * @return the value
+	 */
+	public int getRegister(int lane, int reg) {
+		return regs[reg][lane];
+	}
+
+	/**
+	 * Sets a register of the lane, e.g., to load its input.
+	 *
+	 * @param lane
+	 *            the lane
+	 * @param reg
+	 *            the register number
+	 * @param value
+	 *            the value
+	 */
+	public void setRegister(int lane, int reg, int value) {
+		regs[reg][lane] = value;
+	}
+
+	/**
+	 * Copy the registers of the lane into the array.
+	 *
+	 * @param lane
+	 *            the lane
+	 * @param dst
+	 *            the array to copy to (at least 8 long)
+	 */
+	public void copyRegisters(int lane, int[] dst) {
+		for (int r = 0; r < regs.length; r++) {
+			dst[r] = regs[r][lane];
+		}
+	}
+
+	/**
+	 * Returns the program counter of the lane.
+	 *
+	 * @param lane
+	 *            the lane
+	 * @return the program counter
+	 */
+	public int getPc(int lane) {
+		return pcs[lane];
+	}
+
+	/**
+	 * Returns the number of instructions the lane executed since the last reset.
+	 *
+	 * @param lane
+	 *            the lane
+	 * @return the instruction count
+	 */
+	public long getInstructionCount(int lane) {
+		return counts[lane];
+	}
+
+	/**
+	 * Returns why the lane stopped.
+	 *
+	 * @param lane
+	 *            the lane
+	 * @return the reason (null if the lane has not run since the last reset)
+	 */
+	public Simulator.StopReason getStopReason(int lane) {
+		return reasons[lane];
+	}
+
+	/**
+	 * Returns the exception that stopped the lane.
+	 *
+	 * @param lane
+	 *            the lane
+	 * @return the exception (null unless the lane stopped with FAULT)
+	 */
+	public SimulationException getFault(int lane) {
+		return faults[lane];
+	}
+
+	/**
+	 * Returns the number of instructions dispatched to groups since the last reset. The sum of the instruction counts
+	 * of the lanes divided by this is the average number of lanes an instruction was applied to.
+	 *
+	 * @return the number of dispatches
+	 */
+	public long getDispatchCount() {
+		return dispatches;
+	}
+}
@@ -0,0 +1,224 @@
+package assem_simul.src;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import assembler.entity.*;
+import assembler.exception.*;
+import assembler.utils.Lexer;
+
+/**
+ * Assembles a large source on a ForkJoinPool, with the same result as Assembler.parse() and assembleProgram().
+ *
+ * The source is split into chunks of whole lines. The chunks are parsed in parallel, each with its own label map and
+ * step numbers counted from zero; the symbol tables are then merged in source order, and the chunks are encoded in
+ * parallel, each seeing the global labels shifted by its first step. A syntax error (including a label defined in two
+ * chunks) is reported for the first line in the source that has one, and an undefined label for the first instruction
+ * that uses one, as the sequential path does.
+ *
+ */
+public class ParallelAssembler {
+	// the smallest chunk worth a task, in characters
+	private static final int MIN_CHUNK = 1 << 16;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructs new ParallelAssembler running on the common pool.
+	 */
+	public ParallelAssembler() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructs new ParallelAssembler.
+	 *
+	 * @param pool
+	 *            the pool running the chunks
+	 */
+	public ParallelAssembler(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Work done for each chunk.
+	 */
+	private interface ChunkWork {
+		void run(int chunk);
+	}
+
+	/**
+	 * Runs the work for a range of chunks, splitting the range in halves.
+	 */
+	@SuppressWarnings("serial")
+	private static class ChunkAction extends RecursiveAction {
+		private final ChunkWork work;
+		private final int lo, hi;
+
+		ChunkAction(ChunkWork work, int lo, int hi) {
+			this.work = work;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo == 1) {
+				work.run(lo);
+			} else {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new ChunkAction(work, lo, mid), new ChunkAction(work, mid, hi));
+			}
+		}
+	}
+
+	/**
+	 * Assembles the source.
+	 *
+	 * @param src
+	 *            the assembler source
+	 * @return the assembled program
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public Program assemble(final String src) throws SyntaxException, LabelNotFoundException {
+		// chunk boundaries, at line starts
+		int target = Math.max(MIN_CHUNK, src.length() / (pool.getParallelism() * 4) + 1);
+		List<Integer> bounds = new ArrayList<Integer>();
+		bounds.add(0);
+		int pos = 0;
+		while (pos < src.length()) {
+			pos = lineStart(src, Math.min(src.length(), pos + target));
+			bounds.add(pos);
+		}
+		final int chunks = bounds.size() - 1;
+		final int[] starts = new int[chunks + 1];
+		for (int i = 0; i <= chunks; i++) {
+			starts[i] = bounds.get(i);
+		}
+		if (chunks == 0) {
+			return new Program(new int[0], Collections.<String, Integer> emptyMap(), new int[0]);
+		}
+
+		// count the lines of each chunk, to number the lines globally
+		final int[] firstLine = new int[chunks + 1];
+		run(chunks, new ChunkWork() {
+			@Override
+			public void run(int chunk) {
+				int lines = 0;
+				for (int p = starts[chunk]; p < starts[chunk + 1]; p = Lexer.nextLine(src, p)) {
+					lines++;
+				}
+				firstLine[chunk + 1] = lines;
+			}
+		});
+		for (int i = 0; i < chunks; i++) {
+			firstLine[i + 1] += firstLine[i];
+		}
+
+		// parse the chunks, with steps counted from the start of each chunk
+		final char[] buf = src.toCharArray();
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		final List<Instruction>[] insts = new List[chunks];
+		final SymbolTable[] labels = new SymbolTable[chunks];
+		final SyntaxException[] syntaxErrors = new SyntaxException[chunks];
+		run(chunks, new ChunkWork() {
+			@Override
+			public void run(int chunk) {
+				List<Instruction> instList = new ArrayList<Instruction>();
+				SymbolTable labelMap = new SymbolTable();
+				Lexer lexer = new Lexer();
+				int lineNo = firstLine[chunk];
+				try {
+					for (int p = starts[chunk]; p < starts[chunk + 1]; p = Lexer.nextLine(src, p)) {
+						lineNo++;
+						Instruction inst = Assembler.parseLine(lexer, buf, p, Lexer.lineEnd(src, p), lineNo, instList
+								.size(), labelMap);
+						if (inst != null) {
+							instList.add(inst);
+						}
+					}
+				} catch (SyntaxException e) {
+					syntaxErrors[chunk] = e;
+				}
+				insts[chunk] = instList;
+				labels[chunk] = labelMap;
+			}
+		});
+
+		// global step numbers and labels; the labels a chunk defined come before its syntax error (if any)
+		final int[] firstStep = new int[chunks + 1];
+		final SymbolTable labelMap = new SymbolTable();
+		for (int i = 0; i < chunks; i++) {
+			SymbolTable chunkLabels = labels[i];
+			SyntaxException duplicate = null;
+			for (int id = 0; id < chunkLabels.getSymbolCount(); id++) {
+				if (chunkLabels.getStep(id) < 0) {
+					continue;
+				}
+				try {
+					labelMap.define(labelMap.intern(chunkLabels.getName(id)), chunkLabels.getStep(id) + firstStep[i],
+							chunkLabels.getLineNo(id));
+				} catch (SyntaxException e) {
+					// IDs are in order of appearance, not of definition, so keep the first line
+					if ((duplicate == null) || (e.getLine() < duplicate.getLine())) {
+						duplicate = e;
+					}
+				}
+			}
+			if (duplicate != null) {
+				throw duplicate;
+			}
+			if (syntaxErrors[i] != null) {
+				throw syntaxErrors[i];
+			}
+			firstStep[i + 1] = firstStep[i] + insts[i].size();
+		}
+
+		// encode the chunks
+		final int[] words = new int[firstStep[chunks]];
+		final int[] lineMap = new int[words.length];
+		final LabelNotFoundException[] labelErrors = new LabelNotFoundException[chunks];
+		run(chunks, new ChunkWork() {
+			@Override
+			public void run(int chunk) {
+				List<Instruction> instList = insts[chunk];
+				try {
+					for (int i = 0, size = instList.size(); i < size; i++) {
+						Instruction inst = instList.get(i);
+						words[firstStep[chunk] + i] = inst.encode(labelMap, firstStep[chunk]);
+						lineMap[firstStep[chunk] + i] = inst.getLineNo();
+					}
+				} catch (LabelNotFoundException e) {
+					labelErrors[chunk] = e;
+				}
+			}
+		});
+		for (LabelNotFoundException e : labelErrors) {
+			if (e != null) {
+				throw e;
+			}
+		}
+		return new Program(words, labelMap, lineMap);
+	}
+
+	private void run(int chunks, ChunkWork work) {
+		pool.invoke(new ChunkAction(work, 0, chunks));
+	}
+
+	/**
+	 * Returns the first line start at or after p.
+	 */
+	private static int lineStart(String src, int p) {
+		if ((p == 0) || (p == src.length())) {
+			return p;
+		}
+		char prev = src.charAt(p - 1);
+		if (Lexer.isLineTerminator(prev) && !((prev == '\r') && (src.charAt(p) == '\n'))) {
+			return p;
+		}
+		return Lexer.nextLine(src, p);
+	}
+}
@@ -2,21 +2,94 @@ package assem_simul.src;
 
 import static assembler.utils.Utilites.*;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.*;
 
+import assem_simul.timing.TimingModel;
 import assembler.entity.*;
 import assembler.exception.*;
+import assembler.utils.*;
 
 /**
  * Project 172 Simulator
  * 
  */
 public class Simulator implements Runnable {
+	/**
+	 * Execution engines of the Simulator.
+	 */
+	public static enum Engine {
+		/**
+		 * Runs each Instruction object through Instruction.run(). Kept as the reference for comparing results.
+		 */
+		REFERENCE,
+		/**
+		 * Runs the program lowered into a packed InstructionImage.
+		 */
+		IMAGE,
+		/**
+		 * Interprets the packed InstructionImage, and compiles hot basic blocks into JVM bytecode.
+		 */
+		JIT,
+		/**
+		 * Runs the whole program translated ahead of time into generated classes (see TranslatedProgram).
+		 */
+		AOT;
+	}
+
+	/**
+	 * Reasons why runFor() returned.
+	 */
+	public static enum StopReason {
+		/**
+		 * The program counter reached the end of the program.
+		 */
+		END,
+		/**
+		 * The instruction budget was used up.
+		 */
+		BUDGET,
+		/**
+		 * pause() was requested. The simulation can be continued.
+		 */
+		PAUSED,
+		/**
+		 * kill() was requested.
+		 */
+		KILLED,
+		/**
+		 * The simulation faulted; see getFault().
+		 */
+		FAULT;
+	}
+
+	/**
+	 * Default number of instructions executed between two checks of the kill/pause signals.
+	 */
+	public static final int DEFAULT_QUANTUM = 1 << 16;
+
 	private List<Instruction> instList; // decoded Instructions will be stored
+	private Program program; // program loaded whose Instructions are not decoded yet (null if none)
+	private int[] image; // packed image of the program (null until it is lowered)
+	private Engine engine = Engine.IMAGE; // engine used by run()
+	private BlockCompiler jit; // compiled blocks of the image (null until the JIT engine runs)
+	private TranslatedProgram translation; // translated image (null until the AOT engine runs)
+	private int jitThreshold = BlockCompiler.DEFAULT_THRESHOLD; // executions before a block gets compiled
+	private final int[] ctx = new int[CompiledBlock.BUDGET + 1]; // registers and budget passed to compiled blocks
+	private TimingModel timing; // timing model fed with every executed instruction (null if none)
+	private UndoLog undo; // log of the instructions executed, for stepping back (null if none)
 	private Memory memory; // pairs of address and data will be stored
 	private RegisterFile regfile; // register file
 	private int pc; // program counter
-	private boolean kill; // if set to true, simulation must be killed immediately
+	private long instCount; // number of instructions executed
+	private SimulationException fault; // the fault which stopped the simulation
+	private Checkpoint base; // checkpoint last taken or restored (null if none)
+	private Memory baseMemory; // memory whose dirty pages are counted from base
+	private int quantum = DEFAULT_QUANTUM; // instructions executed between signal checks
+	private volatile boolean kill; // if set to true, simulation must be killed at the end of the current quantum
+	private volatile boolean pause; // if set to true, simulation pauses at the end of the current quantum
 
 	/**
 	 * Constructs new Simulator object.
@@ -30,10 +103,137 @@ public class Simulator implements Runnable {
 	 */
 	public void init() {
 		instList = new ArrayList<Instruction>();
+		program = null;
+		image = null;
+		jit = null;
+		translation = null;
 		memory = new Memory();
 		regfile = new RegisterFile(8);
 		pc = 0;
+		instCount = 0;
+		fault = null;
+		kill = false;
+		pause = false;
+		base = null;
+		baseMemory = null;
+		if (undo != null) {
+			undo.clear();
+		}
+	}
+
+	/**
+	 * Resets the state of the simulation, keeping the program (and its packed image, compiled blocks and translation).
+	 * The memory and the register file are zeroed in place, so a Simulator can be reused for many runs of the same
+	 * program without allocating them again. An attached timing model is not reset.
+	 */
+	public void reset() {
+		memory.clear();
+		regfile.clear();
+		pc = 0;
+		instCount = 0;
+		fault = null;
 		kill = false;
+		pause = false;
+		if (undo != null) {
+			undo.clear();
+		}
+	}
+
+	/**
+	 * Take a snapshot of the state of the simulation. If a checkpoint was taken or restored before on the same memory,
+	 * the snapshot is incremental, holding only the pages written since then; otherwise it is full.
+	 *
+	 * @return the checkpoint
+	 */
+	public Checkpoint checkpoint() {
+		boolean incremental = (base != null) && (baseMemory == memory);
+		return checkpoint(incremental ? base : null, incremental ? memory.getDirtyPageNos() : memory.getPageNos());
+	}
+
+	/**
+	 * Take a full snapshot of the state of the simulation, which does not depend on any other checkpoint.
+	 *
+	 * @return the checkpoint
+	 */
+	public Checkpoint fullCheckpoint() {
+		return checkpoint(null, memory.getPageNos());
+	}
+
+	private Checkpoint checkpoint(Checkpoint parent, int[] pageNos) {
+		int[] registers = new int[regfile.getSize()];
+		regfile.copyTo(registers);
+		Checkpoint checkpoint = Checkpoint.take(parent, pc, instCount, registers, memory, pageNos);
+		memory.markClean();
+		base = checkpoint;
+		baseMemory = memory;
+		return checkpoint;
+	}
+
+	/**
+	 * Restore the state of the simulation from a checkpoint, keeping the program. If a checkpoint was taken or restored
+	 * before on the same memory, only the pages written since then and the pages held by the checkpoints between the
+	 * two are copied; otherwise the whole memory is zeroed and every page of the checkpoint copied. The timing model
+	 * (and the data cache of a CachedMemory) are not part of a checkpoint and keep their state.
+	 *
+	 * @param checkpoint
+	 *            the checkpoint
+	 */
+	public void restore(Checkpoint checkpoint) {
+		if (checkpoint.getRegisters().length != regfile.getSize()) {
+			throw new IllegalArgumentException("Checkpoint has " + checkpoint.getRegisters().length
+					+ " registers instead of " + regfile.getSize());
+		}
+		if ((base != null) && (baseMemory == memory)) {
+			// the memory holds base plus the dirty pages; anything else is the same in both checkpoints
+			Set<Integer> pageNos = new HashSet<Integer>();
+			for (int pageNo : memory.getDirtyPageNos()) {
+				pageNos.add(pageNo);
+			}
+			Checkpoint from = base;
+			Checkpoint to = checkpoint;
+			int fromDepth = from.depth();
+			int toDepth = to.depth();
+			while (from != to) {
+				if (fromDepth >= toDepth) {
+					for (int pageNo : from.pageNos()) {
+						pageNos.add(pageNo);
+					}
+					from = from.getParent();
+					fromDepth--;
+				} else {
+					for (int pageNo : to.pageNos()) {
+						pageNos.add(pageNo);
+					}
+					to = to.getParent();
+					toDepth--;
+				}
+			}
+			for (int pageNo : pageNos) {
+				memory.loadPage(pageNo, checkpoint.page(pageNo));
+			}
+		} else {
+			memory.clear();
+			Set<Integer> loaded = new HashSet<Integer>();
+			for (Checkpoint c = checkpoint; c != null; c = c.getParent()) {
+				for (int pageNo : c.pageNos()) {
+					if (loaded.add(pageNo)) {
+						memory.loadPage(pageNo, c.page(pageNo));
+					}
+				}
+			}
+		}
+		regfile.copyFrom(checkpoint.getRegisters());
+		pc = checkpoint.getPc();
+		instCount = checkpoint.getInstructionCount();
+		fault = null;
+		kill = false;
+		pause = false;
+		memory.markClean();
+		base = checkpoint;
+		baseMemory = memory;
+		if (undo != null) {
+			undo.clear();
+		}
 	}
 
 	/**
@@ -47,32 +247,661 @@ public class Simulator implements Runnable {
 	 *             If there was a invalid instruction in the binary code
 	 */
 	public void decode(String src) throws SyntaxException, InvalidInstructionException {
-		instList.addAll(decodeInstruction(src));
+		instructions().addAll(decodeInstruction(src));
+		image = null;
+		jit = null;
+		translation = null;
 	}
 
 	/**
-	 * Run the previously parsed instructions. Do not call this method directly; you need to use generate new Thread like this: Thread t = new
-	 * Thread(new Simulator());
+	 * Loads the program assembled by the Assembler, without going through the binary code.
+	 * 
+	 * @param program
+	 *            the assembled program
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the program
+	 */
+	public void load(Program program) throws InvalidInstructionException {
+		if (instList.isEmpty() && (this.program == null)) {
+			// the packed image is shared with the other Simulators loading the program, and the Instructions are
+			// decoded only when they are needed (e.g., by the REFERENCE engine)
+			image = program.getImage();
+			this.program = program;
+		} else {
+			instructions().addAll(program.decode());
+			image = null;
+		}
+		jit = null;
+		translation = null;
+	}
+
+	/**
+	 * Loads the program from a Logisim image (see LogisimImage), streaming the words as they are read.
+	 * 
+	 * @param in
+	 *            the image (not closed)
+	 * @throws IOException
+	 *             If the image cannot be read
+	 * @throws SyntaxException
+	 *             If the image is not in the format
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the image
+	 */
+	public void loadRaw(Reader in) throws IOException, SyntaxException, InvalidInstructionException {
+		final int[][] words = { new int[1024] };
+		final int[][] lines = { new int[1024] };
+		int size = LogisimImage.read(in, new LogisimImage.Sink() {
+			@Override
+			public void put(int addr, int value, int count, int lineNo) {
+				int end = addr + count;
+				if (end > words[0].length) {
+					int capacity = Math.max(end, words[0].length * 2);
+					words[0] = Arrays.copyOf(words[0], capacity);
+					lines[0] = Arrays.copyOf(lines[0], capacity);
+				}
+				Arrays.fill(words[0], addr, end, value);
+				Arrays.fill(lines[0], addr, end, lineNo);
+			}
+		});
+		load(new Program(Arrays.copyOf(words[0], size), Collections.<String, Integer> emptyMap(), Arrays.copyOf(
+				lines[0], size)));
+	}
+
+	/**
+	 * Loads the data memory from a Logisim image (see LogisimImage). Only the words which differ from the memory are
+	 * written, so a long run of zeros costs no page.
+	 * 
+	 * @param in
+	 *            the image (not closed)
+	 * @param base
+	 *            the address of the first word of the image
+	 * @return the number of words in the image
+	 * @throws IOException
+	 *             If the image cannot be read
+	 * @throws SyntaxException
+	 *             If the image is not in the format
+	 */
+	public int loadRawData(Reader in, final int base) throws IOException, SyntaxException {
+		final Memory mem = memory;
+		return LogisimImage.read(in, new LogisimImage.Sink() {
+			@Override
+			public void put(int addr, int value, int count, int lineNo) {
+				for (int i = base + addr, end = i + count; i != end; i++) {
+					if (mem.peek(i) != value) {
+						mem.poke(i, value);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Loads the program from a raw binary image (see BinaryImage), mapping the file instead of reading it. The words
+	 * are lowered straight into the packed image, as by load(); Instructions are decoded only when they are needed. The
+	 * index of each word stands for its line number.
+	 * 
+	 * @param file
+	 *            the image file
+	 * @param wordBytes
+	 *            the size of a word in bytes (2 or 4)
+	 * @throws IOException
+	 *             If the file cannot be mapped
+	 * @throws SyntaxException
+	 *             If the file is not a sequence of words
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the image
+	 */
+	public void loadBinary(Path file, int wordBytes) throws IOException, SyntaxException,
+			InvalidInstructionException {
+		ByteBuffer buf = BinaryImage.map(file, wordBytes);
+		int size = BinaryImage.size(buf, wordBytes);
+		int[] words = new int[size];
+		int[] lines = new int[size];
+		for (int i = 0; i < size; i++) {
+			int word = BinaryImage.get(buf, wordBytes, i);
+			if ((word & 0xFFFF0000) != 0) {
+				throw new InvalidInstructionException(intToHexString(word, 8), i);
+			}
+			words[i] = word;
+			lines[i] = i;
+		}
+		load(new Program(words, Collections.<String, Integer> emptyMap(), lines));
+	}
+
+	/**
+	 * Loads the data memory from a raw binary image (see BinaryImage), mapping the file instead of reading it. Only the
+	 * words which differ from the memory are written. 2-byte words are zero-extended.
+	 * 
+	 * @param file
+	 *            the image file
+	 * @param wordBytes
+	 *            the size of a word in bytes (2 or 4)
+	 * @param base
+	 *            the address of the first word of the image
+	 * @return the number of words in the image
+	 * @throws IOException
+	 *             If the file cannot be mapped
+	 * @throws SyntaxException
+	 *             If the file is not a sequence of words
+	 */
+	public int loadBinaryData(Path file, int wordBytes, int base) throws IOException, SyntaxException {
+		ByteBuffer buf = BinaryImage.map(file, wordBytes);
+		int size = BinaryImage.size(buf, wordBytes);
+		for (int i = 0; i < size; i++) {
+			int value = BinaryImage.get(buf, wordBytes, i);
+			if (memory.peek(base + i) != value) {
+				memory.poke(base + i, value);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Select the engine used to run the program.
+	 * 
+	 * @param engine
+	 *            the engine
+	 */
+	public void setEngine(Engine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Return the engine used to run the program.
+	 * 
+	 * @return the engine
+	 */
+	public Engine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Set the number of executions before a basic block gets compiled by the JIT engine.
+	 * 
+	 * @param threshold
+	 *            the threshold (must be positive)
+	 */
+	public void setJitThreshold(int threshold) {
+		if (threshold <= 0) {
+			throw new IllegalArgumentException("threshold must be positive: " + threshold);
+		}
+		this.jitThreshold = threshold;
+		this.jit = null;
+	}
+
+	/**
+	 * Run the previously parsed instructions until the end of the program. Do not call this method directly; you need to
+	 * use generate new Thread like this: Thread t = new Thread(new Simulator());
+	 * 
+	 * It also returns when the simulation is paused or killed. A paused simulation is continued by running it again
+	 * (e.g., in a new Thread).
+	 * 
+	 * @throws SimulationException
+	 *             If the simulation faulted
 	 */
 	public void run() {
-		if (instList.size() == 0) {
-			return;
+		StopReason reason = runFor(Long.MAX_VALUE);
+		if (reason == StopReason.FAULT) {
+			throw fault;
 		}
-		while (!kill) {
-			Instruction currentInst;
+	}
+
+	/**
+	 * Run at most the given number of instructions. The instructions are executed in quanta, and the kill/pause signals
+	 * are checked only between quanta.
+	 * 
+	 * @param instructions
+	 *            the instruction budget
+	 * @return the reason why the simulation stopped
+	 */
+	public StopReason runFor(long instructions) {
+		long remaining = instructions;
+		while (true) {
+			if (pc == size()) {
+				return StopReason.END;
+			}
+			if (kill) {
+				return StopReason.KILLED;
+			}
+			if (pause) {
+				pause = false;
+				return StopReason.PAUSED;
+			}
+			if (remaining <= 0) {
+				return StopReason.BUDGET;
+			}
+			int budget = (int) Math.min(remaining, quantum);
+			int done;
 			try {
-				currentInst = instList.get(pc);
-			} catch (IndexOutOfBoundsException e) {
-				if (pc == instList.size()) {
-					return; // end of program
+				if (undo != null) {
+					done = runLogged(budget);
+				} else if (timing != null) {
+					done = runTimed(budget);
+				} else {
+					switch (engine) {
+					case REFERENCE:
+						done = runReference(budget);
+						break;
+					case JIT:
+						done = runJit(budget);
+						break;
+					case AOT:
+						done = runAot(budget);
+						break;
+					default:
+						done = runImage(budget);
+						break;
+					}
 				}
-				throw new SimulationException("No instructions here", pc);
+			} catch (SimulationException e) {
+				fault = e;
+				return StopReason.FAULT;
 			}
-			pc = currentInst.run(pc, regfile, memory);
-			Thread.yield();
+			remaining -= done;
 		}
 	}
 
+	/**
+	 * Run at most <i>budget</i> instructions through Instruction.run().
+	 * 
+	 * @param budget
+	 *            the maximum number of instructions to run
+	 * @return the number of instructions executed
+	 */
+	private int runReference(int budget) {
+		List<Instruction> instList = instructions();
+		int n = 0;
+		try {
+			for (; n < budget; n++) {
+				Instruction currentInst;
+				try {
+					currentInst = instList.get(pc);
+				} catch (IndexOutOfBoundsException e) {
+					if (pc == instList.size()) {
+						break; // end of program
+					}
+					throw new SimulationException("No instructions here", pc);
+				}
+				pc = currentInst.run(pc, regfile, memory);
+			}
+		} finally {
+			instCount += n;
+		}
+		return n;
+	}
+
+	/**
+	 * Run at most <i>budget</i> instructions out of the packed image. The program is lowered only once; the loop itself
+	 * touches nothing but primitive words.
+	 * 
+	 * @param budget
+	 *            the maximum number of instructions to run
+	 * @return the number of instructions executed
+	 */
+	private int runImage(int budget) {
+		final int[] code = image();
+		final RegisterFile regs = regfile;
+		final Memory mem = memory;
+		int p = pc;
+		int n = 0;
+		try {
+			for (; n < budget; n++) {
+				if ((p < 0) || (p >= code.length)) {
+					if (p == code.length) {
+						break; // end of program
+					}
+					throw new SimulationException("No instructions here", p);
+				}
+				p = InstructionImage.run(code[p], p, regs, mem);
+			}
+		} finally {
+			pc = p;
+			instCount += n;
+		}
+		return n;
+	}
+
+	/**
+	 * Run at most <i>budget</i> instructions out of the packed image, feeding each of them to the timing model.
+	 * 
+	 * @param budget
+	 *            the maximum number of instructions to run
+	 * @return the number of instructions executed
+	 */
+	private int runTimed(int budget) {
+		final int[] code = image();
+		final RegisterFile regs = regfile;
+		final Memory mem = memory;
+		final TimingModel model = timing;
+		int p = pc;
+		int n = 0;
+		try {
+			for (; n < budget; n++) {
+				if ((p < 0) || (p >= code.length)) {
+					if (p == code.length) {
+						break; // end of program
+					}
+					throw new SimulationException("No instructions here", p);
+				}
+				int word = code[p];
+				int addr = regs.get(InstructionImage.rs(word)) + InstructionImage.imm(word);
+				int next = InstructionImage.run(word, p, regs, mem);
+				model.step(p, word, next, addr);
+				p = next;
+			}
+		} finally {
+			pc = p;
+			instCount += n;
+		}
+		return n;
+	}
+
+	/**
+	 * Run at most <i>budget</i> instructions out of the packed image, recording each of them in the undo log (and
+	 * feeding it to the timing model, if any). A store is run here rather than by InstructionImage.run(), so that the
+	 * old value returned by Memory.write() goes to the log without reading the word twice.
+	 * 
+	 * @param budget
+	 *            the maximum number of instructions to run
+	 * @return the number of instructions executed
+	 */
+	private int runLogged(int budget) {
+		final int[] code = image();
+		final RegisterFile regs = regfile;
+		final Memory mem = memory;
+		final TimingModel model = timing;
+		final UndoLog log = undo;
+		int p = pc;
+		int n = 0;
+		try {
+			for (; n < budget; n++) {
+				if ((p < 0) || (p >= code.length)) {
+					if (p == code.length) {
+						break; // end of program
+					}
+					throw new SimulationException("No instructions here", p);
+				}
+				int word = code[p];
+				int addr = regs.get(InstructionImage.rs(word)) + InstructionImage.imm(word);
+				int next;
+				if (InstructionImage.op(word) == InstructionImage.OP_SW) {
+					log.record(p, UndoLog.MEMORY, addr, mem.write(addr, regs.get(InstructionImage.rt(word))));
+					next = p + 1;
+				} else {
+					int dst = InstructionImage.destination(word);
+					if (dst < 0) {
+						log.record(p, UndoLog.NONE, 0, 0);
+					} else {
+						log.record(p, UndoLog.REGISTER, dst, regs.get(dst));
+					}
+					next = InstructionImage.run(word, p, regs, mem);
+				}
+				if (model != null) {
+					model.step(p, word, next, addr);
+				}
+				p = next;
+			}
+		} finally {
+			pc = p;
+			instCount += n;
+		}
+		return n;
+	}
+
+	/**
+	 * Run at most <i>budget</i> instructions, interpreting the packed image and running compiled blocks once they get
+	 * hot.
+	 * 
+	 * @param budget
+	 *            the maximum number of instructions to run
+	 * @return the number of instructions executed
+	 */
+	private int runJit(int budget) {
+		final int[] code = image();
+		if (jit == null) {
+			jit = new BlockCompiler(code, jitThreshold);
+		}
+		final BlockCompiler blocks = jit;
+		final RegisterFile regs = regfile;
+		final Memory mem = memory;
+		int p = pc;
+		int n = 0;
+		try {
+			while (n < budget) {
+				if ((p < 0) || (p >= code.length)) {
+					if (p == code.length) {
+						break; // end of program
+					}
+					throw new SimulationException("No instructions here", p);
+				}
+				CompiledBlock block = blocks.lookup(p);
+				if ((block != null) && (budget - n >= blocks.length(p))) {
+					regs.copyTo(ctx);
+					ctx[CompiledBlock.BUDGET] = budget - n;
+					p = block.run(ctx, mem);
+					n = budget - ctx[CompiledBlock.BUDGET];
+					regs.copyFrom(ctx);
+					continue;
+				}
+				blocks.count(p);
+				// interpret up to the end of the basic block
+				int word;
+				do {
+					word = code[p];
+					p = InstructionImage.run(word, p, regs, mem);
+					n++;
+				} while (!InstructionImage.isControl(word) && (n < budget) && (p < code.length));
+			}
+		} finally {
+			pc = p;
+			instCount += n;
+		}
+		return n;
+	}
+
+	/**
+	 * Run at most <i>budget</i> instructions through the translated program. Steps which are not a case of its dispatch
+	 * switch (e.g., reached by JR), and the last few instructions of the budget, are interpreted.
+	 * 
+	 * @param budget
+	 *            the maximum number of instructions to run
+	 * @return the number of instructions executed
+	 */
+	private int runAot(int budget) {
+		final int[] code = image();
+		if (translation == null) {
+			translation = TranslatedProgram.translate(code);
+		}
+		final TranslatedProgram.Code program = translation.getCode();
+		final RegisterFile regs = regfile;
+		final Memory mem = memory;
+		int p = pc;
+		int n = 0;
+		try {
+			while (n < budget) {
+				if ((p < 0) || (p >= code.length)) {
+					if (p == code.length) {
+						break; // end of program
+					}
+					throw new SimulationException("No instructions here", p);
+				}
+				regs.copyTo(ctx);
+				ctx[CompiledBlock.BUDGET] = budget - n;
+				int next = program.run(ctx, mem, p);
+				int done = budget - n - ctx[CompiledBlock.BUDGET];
+				regs.copyFrom(ctx);
+				n += done;
+				if (done == 0) {
+					next = InstructionImage.run(code[p], p, regs, mem);
+					n++;
+				}
+				p = next;
+			}
+		} finally {
+			pc = p;
+			instCount += n;
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the packed image of the program, lowering it on the first call.
+	 * 
+	 * @return the packed image
+	 */
+	private int[] image() {
+		if (image == null) {
+			image = InstructionImage.lower(instructions());
+		}
+		return image;
+	}
+
+	/**
+	 * Returns the decoded Instructions, decoding the program loaded on the first call.
+	 * 
+	 * @return the Instructions
+	 */
+	private List<Instruction> instructions() {
+		if (program != null) {
+			try {
+				instList.addAll(program.decode());
+			} catch (InvalidInstructionException e) {
+				throw new IllegalStateException(e); // the program was lowered when it was loaded
+			}
+			program = null;
+		}
+		return instList;
+	}
+
+	/**
+	 * Returns the number of steps of the program.
+	 * 
+	 * @return the number of steps
+	 */
+	private int size() {
+		return (program != null) ? program.size() : instList.size();
+	}
+
+	/**
+	 * Share an already translated program with this Simulator, so the AOT engine does not translate it again.
+	 * 
+	 * @param translation
+	 *            the translated program (must be a translation of the decoded program)
+	 */
+	public void setTranslation(TranslatedProgram translation) {
+		if (!Arrays.equals(translation.getImage(), image())) {
+			throw new IllegalArgumentException("The translation is not of the decoded program");
+		}
+		this.translation = translation;
+	}
+
+	/**
+	 * Attach a timing model, which is fed with every executed instruction. While a timing model is attached, the
+	 * program is interpreted out of the packed image whatever engine is selected.
+	 * 
+	 * @param timing
+	 *            the timing model (null to detach)
+	 */
+	public void setTimingModel(TimingModel timing) {
+		this.timing = timing;
+	}
+
+	/**
+	 * Keep an undo log of the last instructions executed, so that they can be stepped back. While the log is kept, the
+	 * program is interpreted out of the packed image whatever engine is selected. Changes made from outside the program
+	 * (e.g., setMemory(address, data)) are not logged. The log is cleared by init(), reset(), restore() and setMemory().
+	 * 
+	 * @param capacity
+	 *            the number of instructions which can be stepped back (0 to stop keeping the log)
+	 */
+	public void setUndoCapacity(int capacity) {
+		undo = (capacity == 0) ? null : new UndoLog(capacity);
+	}
+
+	/**
+	 * Returns the number of instructions which can be stepped back.
+	 * 
+	 * @return the number of instructions in the undo log (0 if no log is kept)
+	 */
+	public int getUndoDepth() {
+		return (undo == null) ? 0 : undo.size();
+	}
+
+	/**
+	 * Undo the last instruction executed: its write to a register or to the memory, the PC and the instruction count.
+	 * 
+	 * @return false if there is no instruction to undo
+	 */
+	public boolean stepBack() {
+		if ((undo == null) || undo.isEmpty()) {
+			return false;
+		}
+		switch (undo.getKind()) {
+		case UndoLog.REGISTER:
+			regfile.set(undo.getWhere(), undo.getOld());
+			break;
+		case UndoLog.MEMORY:
+			memory.poke(undo.getWhere(), undo.getOld());
+			break;
+		}
+		pc = undo.getPc();
+		instCount--;
+		fault = null;
+		undo.pop();
+		return true;
+	}
+
+	/**
+	 * Undo the last instructions executed.
+	 * 
+	 * @param instructions
+	 *            the number of instructions to undo
+	 * @return the number of instructions undone (fewer if the undo log ran out)
+	 */
+	public long stepBack(long instructions) {
+		long n = 0;
+		while ((n < instructions) && stepBack()) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Step back until the PC is at the breakpoint, i.e., to the state just before the last time the instruction there
+	 * was executed.
+	 * 
+	 * @param breakpoint
+	 *            the PC
+	 * @return false if the undo log ran out before the breakpoint was reached
+	 */
+	public boolean reverseContinue(int breakpoint) {
+		while (stepBack()) {
+			if (pc == breakpoint) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Step back until the last write of the program to the memory address is undone, i.e., to the state just before the
+	 * store which wrote it.
+	 * 
+	 * @param address
+	 *            the watched address
+	 * @return false if the undo log ran out before such a store was found
+	 */
+	public boolean reverseContinueToWrite(int address) {
+		while ((undo != null) && !undo.isEmpty()) {
+			boolean hit = (undo.getKind() == UndoLog.MEMORY) && (undo.getWhere() == address);
+			stepBack();
+			if (hit) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Set the contents of the memory.
 	 * 
@@ -82,7 +911,20 @@ public class Simulator implements Runnable {
 	 *            the data
 	 */
 	public void setMemory(int address, int data) {
-		memory.write(address, data);
+		memory.poke(address, data);
+	}
+
+	/**
+	 * Replace the memory, e.g., with a CachedMemory. init() restores a plain Memory.
+	 * 
+	 * @param memory
+	 *            the memory
+	 */
+	public void setMemory(Memory memory) {
+		this.memory = memory;
+		if (undo != null) {
+			undo.clear();
+		}
 	}
 
 	/**
@@ -93,7 +935,16 @@ public class Simulator implements Runnable {
 	 * @return the memory
 	 */
 	public int getMemory(int address) {
-		return memory.read(address);
+		return memory.peek(address);
+	}
+
+	/**
+	 * Return the memory.
+	 * 
+	 * @return the memory
+	 */
+	public Memory getMemory() {
+		return memory;
 	}
 
 	/**
@@ -115,9 +966,48 @@ public class Simulator implements Runnable {
 	}
 
 	/**
-	 * Kill the currently running simulation process.
+	 * Return the number of instructions executed so far.
+	 * 
+	 * @return the instruction count
+	 */
+	public long getInstructionCount() {
+		return instCount;
+	}
+
+	/**
+	 * Return the fault which stopped the simulation.
+	 * 
+	 * @return the fault (null if the simulation has not faulted)
+	 */
+	public SimulationException getFault() {
+		return fault;
+	}
+
+	/**
+	 * Set the number of instructions executed between two checks of the kill/pause signals.
+	 * 
+	 * @param quantum
+	 *            the quantum (must be positive)
+	 */
+	public void setQuantum(int quantum) {
+		if (quantum <= 0) {
+			throw new IllegalArgumentException("quantum must be positive: " + quantum);
+		}
+		this.quantum = quantum;
+	}
+
+	/**
+	 * Kill the currently running simulation process. It stops at the end of the current quantum.
 	 */
 	public void kill() {
 		kill = true;
 	}
+
+	/**
+	 * Pause the currently running simulation process at the end of the current quantum. runFor() returns PAUSED and run()
+	 * returns, and the simulation can be continued by calling either of them again.
+	 */
+	public void pause() {
+		pause = true;
+	}
 }
@@ -0,0 +1,178 @@
+package assem_simul.src;
+
+import static assembler.utils.Utilites.*;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+import assembler.entity.*;
+import assembler.exception.*;
+import assembler.utils.Lexer;
+
+/**
+ * Assembles a source of any size in two passes, writing the same binary code as Assembler.assemble() as it goes.
+ *
+ * The first pass reads the source to check its syntax and define the labels; the second pass reads it again and writes
+ * each instruction as soon as it is parsed, its labels being resolved through the table of the first pass. Only the
+ * symbol table is held in memory, so the memory used is bounded by the number of labels, not by the size of the
+ * source. A source given as a Reader is first copied into a temporary file, which is read twice.
+ *
+ */
+public class StreamingAssembler {
+	// pairs of label and address will be stored
+	private final SymbolTable labelMap = new SymbolTable();
+
+	// labels defined again by the second pass (whose instructions resolve their labels through labelMap)
+	private final SymbolTable scratch = new SymbolTable();
+
+	/**
+	 * Assembles the source file.
+	 *
+	 * @param src
+	 *            the assembler source
+	 * @param out
+	 *            the stream to write the binary code to (not closed)
+	 * @return the number of instructions
+	 * @throws IOException
+	 *             If the source cannot be read or the code cannot be written
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int assemble(Path src, OutputStream out) throws IOException, SyntaxException, LabelNotFoundException {
+		labelMap.clear();
+		BufferedReader reader = Files.newBufferedReader(src, CHARSET);
+		try {
+			pass(reader, labelMap, null);
+		} finally {
+			reader.close();
+		}
+		scratch.clear();
+		reader = Files.newBufferedReader(src, CHARSET);
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, CHARSET), 1 << 16);
+			int steps = pass(reader, scratch, writer);
+			writer.flush();
+			return steps;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Assembles the source file.
+	 *
+	 * @param src
+	 *            the assembler source
+	 * @param out
+	 *            the channel to write the binary code to (not closed)
+	 * @return the number of instructions
+	 * @throws IOException
+	 *             If the source cannot be read or the code cannot be written
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int assemble(Path src, WritableByteChannel out) throws IOException, SyntaxException,
+			LabelNotFoundException {
+		return assemble(src, Channels.newOutputStream(out));
+	}
+
+	/**
+	 * Assembles the source.
+	 *
+	 * @param src
+	 *            the assembler source (not closed)
+	 * @param out
+	 *            the channel to write the binary code to (not closed)
+	 * @return the number of instructions
+	 * @throws IOException
+	 *             If the source cannot be read or the code cannot be written
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int assemble(Reader src, WritableByteChannel out) throws IOException, SyntaxException,
+			LabelNotFoundException {
+		return assemble(src, Channels.newOutputStream(out));
+	}
+
+	/**
+	 * Assembles the source. The source is copied into a temporary file first, so that it can be read twice.
+	 *
+	 * @param src
+	 *            the assembler source (not closed)
+	 * @param out
+	 *            the stream to write the binary code to (not closed)
+	 * @return the number of instructions
+	 * @throws IOException
+	 *             If the source cannot be read or the code cannot be written
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int assemble(Reader src, OutputStream out) throws IOException, SyntaxException, LabelNotFoundException {
+		Path tmp = Files.createTempFile("assembler", ".s");
+		try {
+			Writer copy = Files.newBufferedWriter(tmp, CHARSET);
+			try {
+				char[] buf = new char[1 << 16];
+				int n;
+				while ((n = src.read(buf)) >= 0) {
+					copy.write(buf, 0, n);
+				}
+			} finally {
+				copy.close();
+			}
+			return assemble(tmp, out);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Parse every line of the source, defining its labels in the symbol table.
+	 *
+	 * @param writer
+	 *            the writer to write each instruction to, resolving its labels through labelMap (null for the first
+	 *            pass, which writes nothing)
+	 * @return the number of instructions
+	 */
+	private int pass(BufferedReader reader, SymbolTable symbols, Writer writer) throws IOException, SyntaxException,
+			LabelNotFoundException {
+		Lexer lexer = new Lexer();
+		char[] buf = new char[256];
+		int lineNo = 0, stepNo = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lineNo++;
+			if (buf.length < line.length()) {
+				buf = new char[Math.max(line.length(), buf.length * 2)];
+			}
+			line.getChars(0, line.length(), buf, 0);
+			Instruction inst = Assembler.parseLine(lexer, buf, 0, line.length(), lineNo, stepNo, symbols);
+			if (inst != null) {
+				if (writer != null) {
+					writer.write(listingLine(stepNo, inst.toHexString(labelMap)));
+				}
+				stepNo++;
+			}
+		}
+		return stepNo;
+	}
+
+	/**
+	 * Returns the label map of the last source assembled.
+	 *
+	 * @return the label map
+	 */
+	public Map<String, Integer> getLabelMap() {
+		return Collections.unmodifiableMap(labelMap);
+	}
+}
@@ -0,0 +1,359 @@
+package assem_simul.src;
+
+import static assem_simul.src.BlockCompiler.*;
+import static assembler.entity.InstructionImage.*;
+import static assembler.utils.ClassFileWriter.Code.*;
+
+import java.util.*;
+
+import assembler.entity.*;
+import assembler.exception.*;
+import assembler.utils.ClassFileWriter;
+
+/**
+ * A whole program translated ahead of time into generated classes.
+ *
+ * Every branch target (and every step following a branch or jump) starts a case of a dispatch switch, and the code
+ * between two of them becomes straight-line bytecode, with the registers in local variables. Direct branches and jumps
+ * go straight to their case; JR and JALR go back to the dispatch switch. A method must reach each of its branch
+ * targets with a 16-bit offset, so the program is cut into regions of consecutive steps which fit one method each, and
+ * each region becomes a class of its own; a branch or jump out of a region returns to a loop which calls the region of
+ * its target. A translated program holds no simulation state, so it can be translated once and shared by any number of
+ * Simulators (see Simulator.setTranslation()).
+ *
+ */
+public class TranslatedProgram {
+	/**
+	 * The generated code.
+	 */
+	public interface Code {
+		/**
+		 * Run the program from the pc until it leaves the program, reaches a step which is not a case of the dispatch
+		 * switch, or the budget would be exceeded by the next case.
+		 *
+		 * @param ctx
+		 *            the registers (ctx[0]..ctx[7]) and the remaining instruction budget (ctx[CompiledBlock.BUDGET]),
+		 *            updated on return
+		 * @param memory
+		 *            the memory
+		 * @param pc
+		 *            the program counter to start from
+		 * @return the next program counter
+		 */
+		int run(int[] ctx, Memory memory, int pc);
+	}
+
+	private static int serial = 0;
+
+	/*
+	 * Runs the region of each step in turn, until a region returns without running any instruction.
+	 */
+	private static class Regions implements Code {
+		private final Code[] regions;
+		private final int[] regionOf; // region of each step
+
+		private Regions(Code[] regions, int[] regionOf) {
+			this.regions = regions;
+			this.regionOf = regionOf;
+		}
+
+		@Override
+		public int run(int[] ctx, Memory memory, int pc) {
+			while ((0 <= pc) && (pc < regionOf.length)) {
+				int budget = ctx[CompiledBlock.BUDGET];
+				pc = regions[regionOf[pc]].run(ctx, memory, pc);
+				if (ctx[CompiledBlock.BUDGET] == budget) {
+					break;
+				}
+			}
+			return pc;
+		}
+	}
+
+	// bytes of the dispatch switch for each step of a region
+	private static final int CASE_BYTES = 4;
+
+	private final int[] image;
+	private final Code code;
+	private final int regionCount;
+
+	private TranslatedProgram(int[] image, Code code, int regionCount) {
+		this.image = image;
+		this.code = code;
+		this.regionCount = regionCount;
+	}
+
+	/**
+	 * Translates the parsed instructions (e.g., built by Assembler.parse()).
+	 *
+	 * @param instList
+	 *            the parsed instructions
+	 * @param labelMap
+	 *            the label map
+	 * @return the translated program
+	 * @throws LabelNotFoundException
+	 *             If an instruction is trying to jump to undefined label
+	 */
+	public static TranslatedProgram translate(List<Instruction> instList, Map<String, Integer> labelMap)
+			throws LabelNotFoundException {
+		return translate(InstructionImage.lower(instList, labelMap));
+	}
+
+	/**
+	 * Translates the decoded instructions (e.g., built by Utilites.decodeInstruction()).
+	 *
+	 * @param instList
+	 *            the decoded instructions
+	 * @return the translated program
+	 */
+	public static TranslatedProgram translate(List<Instruction> instList) {
+		return translate(InstructionImage.lower(instList));
+	}
+
+	/**
+	 * Translates the packed image.
+	 *
+	 * @param image
+	 *            the packed image
+	 * @return the translated program
+	 */
+	public static TranslatedProgram translate(int[] image) {
+		int len = image.length;
+
+		// the cases of the dispatch switch
+		boolean[] leader = new boolean[len + 1];
+		leader[0] = true;
+		for (int pc = 0; pc < len; pc++) {
+			int word = image[pc];
+			if (isControl(word)) {
+				leader[pc + 1] = true;
+				if ((op(word) != OP_JR) && (op(word) != OP_JALR)) {
+					int target = pc + imm(word);
+					if ((0 <= target) && (target < len)) {
+						leader[target] = true;
+					}
+				}
+			}
+		}
+
+		// cut the program into regions which fit a method, each starting a case
+		int[] regionOf = new int[len];
+		List<Integer> starts = new ArrayList<Integer>();
+		starts.add(0);
+		int bytes = METHOD_BYTES;
+		for (int pc = 0; pc < len; pc++) {
+			int stepBytes = INST_BYTES + CASE_BYTES + (leader[pc] ? BLOCK_BYTES : 0);
+			if (bytes + stepBytes > MAX_CODE) {
+				starts.add(pc);
+				leader[pc] = true;
+				bytes = METHOD_BYTES;
+				stepBytes = INST_BYTES + CASE_BYTES + BLOCK_BYTES;
+			}
+			bytes += stepBytes;
+			regionOf[pc] = starts.size() - 1;
+		}
+		starts.add(len);
+
+		Code[] regions = new Code[starts.size() - 1];
+		for (int i = 0; i < regions.length; i++) {
+			regions[i] = translate(image, leader, starts.get(i), starts.get(i + 1));
+		}
+		Code code = (regions.length == 1) ? regions[0] : new Regions(regions, regionOf);
+		return new TranslatedProgram(image, code, regions.length);
+	}
+
+	/**
+	 * Translates a region of the packed image into a class of its own.
+	 *
+	 * @param image
+	 *            the packed image
+	 * @param leader
+	 *            true for the steps which start a case
+	 * @param from
+	 *            the first step of the region (a leader)
+	 * @param to
+	 *            the step past the region
+	 * @return the generated code, which returns at a step out of the region
+	 */
+	private static Code translate(int[] image, boolean[] leader, int from, int to) {
+		int len = image.length;
+		String name;
+		synchronized (TranslatedProgram.class) {
+			name = "assem_simul/aot/Program" + (serial++);
+		}
+		ClassFileWriter cf = new ClassFileWriter(name, "java/lang/Object", "assem_simul/src/TranslatedProgram$Code");
+		cf.addDefaultConstructor("java/lang/Object");
+
+		ClassFileWriter.Code c = new ClassFileWriter.Code(6, LOCALS);
+		int exit = c.newLabel();
+		int dispatch = c.newLabel();
+		int[] cases = new int[Math.max(to - from, 1)];
+		int[] labels = new int[len + 1];
+		Arrays.fill(labels, exit);
+		for (int pc = from; pc < to; pc++) {
+			labels[pc] = leader[pc] ? c.newLabel() : exit;
+			cases[pc - from] = labels[pc];
+		}
+		if (to == from) {
+			cases[0] = exit;
+		}
+
+		// the pc argument shares its slot with REG, so it is moved to the NEXT_PC local first
+		c.iload(REG);
+		c.istore(NEXT_PC);
+
+		// registers and budget into locals
+		for (int i = 0; i < 8; i++) {
+			c.aload(CTX);
+			c.iconst(cf, i);
+			c.op(IALOAD);
+			c.istore(REG + i);
+		}
+		c.aload(CTX);
+		c.iconst(cf, CompiledBlock.BUDGET);
+		c.op(IALOAD);
+		c.istore(BUDGET_LOCAL);
+		c.mark(dispatch);
+		c.iload(NEXT_PC);
+		c.tableswitch(from, exit, cases);
+
+		for (int start = from; start < to; start++) {
+			if (!leader[start]) {
+				continue;
+			}
+			int end = start + 1;
+			while ((end < to) && !leader[end] && !isControl(image[end - 1])) {
+				end++;
+			}
+			int last = image[end - 1];
+
+			// the whole case runs only if the budget allows it
+			int run = c.newLabel();
+			c.mark(labels[start]);
+			c.iload(BUDGET_LOCAL);
+			c.iconst(cf, end - start);
+			c.jump(IF_ICMPGE, run);
+			exitTo(cf, c, start, exit);
+			c.mark(run);
+			c.iload(BUDGET_LOCAL);
+			c.iconst(cf, end - start);
+			c.op(ISUB);
+			c.istore(BUDGET_LOCAL);
+
+			int straightEnd = isControl(last) ? end - 1 : end;
+			for (int pc = start; pc < straightEnd; pc++) {
+				emitStraight(cf, c, image[pc]);
+			}
+			if (straightEnd == end) {
+				goTo(cf, c, end, len, labels, exit);
+				continue;
+			}
+			int pc = end - 1;
+			int target = pc + imm(last);
+			int rs = REG + rs(last);
+			switch (op(last)) {
+			case OP_BEQZ:
+			case OP_BNEZ:
+			case OP_BLTZ:
+			case OP_BGEZ:
+			case OP_BGTZ:
+			case OP_BLEZ: {
+				int taken = c.newLabel();
+				c.iload(rs);
+				c.jump(branchOpcode(op(last)), taken);
+				goTo(cf, c, pc + 1, len, labels, exit);
+				c.mark(taken);
+				goTo(cf, c, target, len, labels, exit);
+				break;
+			}
+			case OP_JR:
+				c.iload(rs);
+				c.iconst(cf, imm(last));
+				c.op(IADD);
+				c.istore(NEXT_PC);
+				c.jump(GOTO, dispatch);
+				break;
+			case OP_JALR:
+				c.iload(rs);
+				c.iconst(cf, imm(last));
+				c.op(IADD);
+				c.op(DUP);
+				c.istore(NEXT_PC);
+				c.iconst(cf, 1);
+				c.op(IADD);
+				c.istore(REG + 7);
+				c.jump(GOTO, dispatch);
+				break;
+			case OP_JAL:
+				c.iconst(cf, pc + 1);
+				c.istore(REG + 7);
+				goTo(cf, c, target, len, labels, exit);
+				break;
+			case OP_J:
+				goTo(cf, c, target, len, labels, exit);
+				break;
+			}
+		}
+
+		// locals back into registers and budget
+		c.mark(exit);
+		for (int i = 0; i < 8; i++) {
+			c.aload(CTX);
+			c.iconst(cf, i);
+			c.iload(REG + i);
+			c.op(IASTORE);
+		}
+		c.aload(CTX);
+		c.iconst(cf, CompiledBlock.BUDGET);
+		c.iload(BUDGET_LOCAL);
+		c.op(IASTORE);
+		c.iload(NEXT_PC);
+		c.op(IRETURN);
+
+		cf.addMethod(ClassFileWriter.ACC_PUBLIC, "run", "([IL" + MEMORY + ";I)I", c);
+		try {
+			Class<?> cls = new Loader().define(name.replace('/', '.'), cf.toByteArray());
+			return (Code) cls.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Emit a jump to the case of the target, or an exit if the target is not a case.
+	 */
+	private static void goTo(ClassFileWriter cf, ClassFileWriter.Code c, int target, int len, int[] labels, int exit) {
+		if ((0 <= target) && (target < len) && (labels[target] != exit)) {
+			c.jump(GOTO, labels[target]);
+		} else {
+			exitTo(cf, c, target, exit);
+		}
+	}
+
+	/**
+	 * Returns the packed image which was translated.
+	 *
+	 * @return the packed image
+	 */
+	public int[] getImage() {
+		return image;
+	}
+
+	/**
+	 * Returns the number of regions the program was cut into, i.e., the number of classes generated.
+	 *
+	 * @return the region count
+	 */
+	public int getRegionCount() {
+		return regionCount;
+	}
+
+	/**
+	 * Returns the generated code.
+	 *
+	 * @return the generated code
+	 */
+	public Code getCode() {
+		return code;
+	}
+}
@@ -0,0 +1,157 @@
+package assem_simul.src;
+
+/**
+ * A bounded log of the instructions executed, for stepping the simulation back.
+ *
+ * Each entry holds the PC of an instruction and what it overwrote: the number and old value of a register, or the
+ * address and old value of a memory word (an instruction writes at most one of them). The entries are kept in a ring of
+ * primitive arrays, so recording one costs a few array stores and no allocation; once the ring is full, the oldest
+ * entry is dropped for each new one.
+ *
+ */
+public class UndoLog {
+	/**
+	 * The instruction overwrote nothing (e.g., a branch).
+	 */
+	public static final byte NONE = 0;
+	/**
+	 * The instruction overwrote a register.
+	 */
+	public static final byte REGISTER = 1;
+	/**
+	 * The instruction overwrote a memory word.
+	 */
+	public static final byte MEMORY = 2;
+
+	private final int[] pcs;
+	private final byte[] kinds;
+	private final int[] wheres; // register number or memory address
+	private final int[] olds;
+	private int top = -1; // newest entry
+	private int size;
+
+	/**
+	 * Constructs new UndoLog.
+	 *
+	 * @param capacity
+	 *            the number of instructions which can be undone
+	 */
+	public UndoLog(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Invalid capacity of undo log (" + capacity + ")");
+		}
+		pcs = new int[capacity];
+		kinds = new byte[capacity];
+		wheres = new int[capacity];
+		olds = new int[capacity];
+	}
+
+	/**
+	 * Record an instruction.
+	 *
+	 * @param pc
+	 *            the PC of the instruction
+	 * @param kind
+	 *            NONE, REGISTER or MEMORY
+	 * @param where
+	 *            the register number or the memory address
+	 * @param old
+	 *            the value overwritten
+	 */
+	public void record(int pc, byte kind, int where, int old) {
+		int i = top + 1;
+		if (i == pcs.length) {
+			i = 0;
+		}
+		pcs[i] = pc;
+		kinds[i] = kind;
+		wheres[i] = where;
+		olds[i] = old;
+		top = i;
+		if (size < pcs.length) {
+			size++;
+		}
+	}
+
+	/**
+	 * Drop the newest entry.
+	 */
+	public void pop() {
+		if (size == 0) {
+			throw new IllegalStateException("Undo log is empty");
+		}
+		top = (top == 0) ? pcs.length - 1 : top - 1;
+		size--;
+	}
+
+	/**
+	 * Drop every entry.
+	 */
+	public void clear() {
+		top = -1;
+		size = 0;
+	}
+
+	/**
+	 * Returns if there is no entry, i.e., nothing can be undone.
+	 *
+	 * @return true if there is no entry
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of entries, i.e., the number of instructions which can be undone.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of entries kept before the oldest are overwritten.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return pcs.length;
+	}
+
+	/**
+	 * Returns the PC of the newest entry.
+	 *
+	 * @return the PC
+	 */
+	public int getPc() {
+		return pcs[top];
+	}
+
+	/**
+	 * Returns what the newest entry overwrote.
+	 *
+	 * @return NONE, REGISTER or MEMORY
+	 */
+	public byte getKind() {
+		return kinds[top];
+	}
+
+	/**
+	 * Returns the register number or the memory address overwritten by the newest entry.
+	 *
+	 * @return the register number or the address
+	 */
+	public int getWhere() {
+		return wheres[top];
+	}
+
+	/**
+	 * Returns the value overwritten by the newest entry.
+	 *
+	 * @return the old value
+	 */
+	public int getOld() {
+		return olds[top];
+	}
+}
@@ -0,0 +1,84 @@
+package assem_simul.timing;
+
+/**
+ * Predicts each branch with a saturating counter, in a table indexed by the pc. One-bit counters remember the last
+ * direction; two-bit counters need two mispredictions in a row to change their prediction.
+ *
+ */
+public class BimodalPredictor extends DirectionPredictor {
+	private final byte[] counters;
+	private final int mask;
+	private final int max;
+	private final int bits;
+
+	/**
+	 * Constructs new BimodalPredictor.
+	 *
+	 * @param indexBits
+	 *            the table has 2^indexBits counters
+	 * @param counterBits
+	 *            the width of each counter (1 or 2 for the classic predictors, at most 7)
+	 */
+	public BimodalPredictor(int indexBits, int counterBits) {
+		if ((counterBits < 1) || (7 < counterBits)) {
+			throw new IllegalArgumentException("counterBits must be 1..7: " + counterBits);
+		}
+		this.counters = new byte[1 << indexBits];
+		this.mask = counters.length - 1;
+		this.max = (1 << counterBits) - 1;
+		this.bits = counterBits;
+	}
+
+	@Override
+	protected boolean predictTaken(int pc, int word) {
+		return taken(counters[index(pc)]);
+	}
+
+	@Override
+	protected void train(int pc, int word, boolean taken) {
+		int i = index(pc);
+		counters[i] = (byte) count(counters[i], taken);
+	}
+
+	/**
+	 * Returns the index of the counter for the branch.
+	 *
+	 * @param pc
+	 *            the program counter of the branch
+	 * @return the index in the table
+	 */
+	protected int index(int pc) {
+		return pc & mask;
+	}
+
+	/**
+	 * Returns the counter table.
+	 *
+	 * @return the counters
+	 */
+	protected byte[] counters() {
+		return counters;
+	}
+
+	/**
+	 * Returns if the counter predicts taken (upper half of its range).
+	 */
+	protected boolean taken(int counter) {
+		return counter > (max >> 1);
+	}
+
+	/**
+	 * Returns the counter incremented (taken) or decremented (not taken), saturating.
+	 */
+	protected int count(int counter, boolean taken) {
+		if (taken) {
+			return (counter < max) ? counter + 1 : counter;
+		}
+		return (counter > 0) ? counter - 1 : counter;
+	}
+
+	@Override
+	public String toString() {
+		return bits + "-bit (" + counters.length + " entries)";
+	}
+}
@@ -0,0 +1,33 @@
+package assem_simul.timing;
+
+/**
+ * A branch predictor used by the PipelineModel.
+ *
+ * The predictor is asked for the next pc when a branch or jump (BEQZ..BLEZ, JR, JALR, J, JAL) is fetched, and is told
+ * the actual next pc once the instruction has been executed.
+ *
+ */
+public interface BranchPredictor {
+	/**
+	 * Predict the next pc of a control transfer.
+	 *
+	 * @param pc
+	 *            the program counter of the instruction
+	 * @param word
+	 *            the packed instruction (see InstructionImage)
+	 * @return the predicted next program counter
+	 */
+	int predict(int pc, int word);
+
+	/**
+	 * Train the predictor with the actual outcome of a control transfer.
+	 *
+	 * @param pc
+	 *            the program counter of the instruction
+	 * @param word
+	 *            the packed instruction
+	 * @param nextPc
+	 *            the actual next program counter
+	 */
+	void update(int pc, int word, int nextPc);
+}
@@ -0,0 +1,81 @@
+package assem_simul.timing;
+
+import static assembler.entity.InstructionImage.*;
+
+/**
+ * Adds a branch target buffer and a return address stack to a direction predictor, for the jumps whose target is in a
+ * register. JAL and JALR push their return address; JR $7 pops it as the predicted target. Other JR and JALR are
+ * predicted from the direct-mapped BTB, which remembers their last target. The stack holds the values linked into $7,
+ * which for JALR is the step after its target.
+ *
+ */
+public class BtbRasPredictor implements BranchPredictor {
+	private final BranchPredictor direction;
+
+	// BTB: tag (pc + 1, so 0 means empty) and target for each entry
+	private final int[] btbTag;
+	private final int[] btbTarget;
+	private final int btbMask;
+
+	// RAS: circular stack of return addresses
+	private final int[] ras;
+	private int rasTop = 0;
+	private int rasDepth = 0;
+
+	/**
+	 * Constructs new BtbRasPredictor.
+	 *
+	 * @param direction
+	 *            the predictor for the other control transfers
+	 * @param btbBits
+	 *            the BTB has 2^btbBits entries
+	 * @param rasSize
+	 *            the depth of the return address stack
+	 */
+	public BtbRasPredictor(BranchPredictor direction, int btbBits, int rasSize) {
+		this.direction = direction;
+		this.btbTag = new int[1 << btbBits];
+		this.btbTarget = new int[1 << btbBits];
+		this.btbMask = btbTag.length - 1;
+		this.ras = new int[Math.max(rasSize, 1)];
+	}
+
+	@Override
+	public int predict(int pc, int word) {
+		int op = op(word);
+		if ((op == OP_JR) && (rs(word) == 7) && (rasDepth > 0)) {
+			return ras[rasTop] + imm(word);
+		}
+		if ((op == OP_JR) || (op == OP_JALR)) {
+			int i = pc & btbMask;
+			return (btbTag[i] == pc + 1) ? btbTarget[i] : pc + 1;
+		}
+		return direction.predict(pc, word);
+	}
+
+	@Override
+	public void update(int pc, int word, int nextPc) {
+		int op = op(word);
+		if ((op == OP_JR) && (rs(word) == 7) && (rasDepth > 0)) {
+			rasTop = (rasTop + ras.length - 1) % ras.length;
+			rasDepth--;
+		} else if ((op == OP_JR) || (op == OP_JALR)) {
+			int i = pc & btbMask;
+			btbTag[i] = pc + 1;
+			btbTarget[i] = nextPc;
+		} else {
+			direction.update(pc, word, nextPc);
+		}
+		if ((op == OP_JAL) || (op == OP_JALR)) {
+			// the value linked into $7 (JALR links the step after its target)
+			rasTop = (rasTop + 1) % ras.length;
+			ras[rasTop] = (op == OP_JAL) ? pc + 1 : nextPc + 1;
+			rasDepth = Math.min(rasDepth + 1, ras.length);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return direction + " + BTB (" + btbTag.length + " entries) + RAS (" + ras.length + " entries)";
+	}
+}
@@ -0,0 +1,23 @@
+package assem_simul.timing;
+
+import static assembler.entity.InstructionImage.*;
+
+/**
+ * Predicts backward branches as taken and forward branches as not taken.
+ *
+ */
+public class BtfnPredictor extends DirectionPredictor {
+	@Override
+	protected boolean predictTaken(int pc, int word) {
+		return imm(word) < 0;
+	}
+
+	@Override
+	protected void train(int pc, int word, boolean taken) {
+	}
+
+	@Override
+	public String toString() {
+		return "static BTFN";
+	}
+}
@@ -0,0 +1,570 @@
+package assem_simul.timing;
+
+import java.util.*;
+
+/**
+ * A set-associative cache model. Only the tags are modelled; the data stays in the Memory.
+ *
+ * Addresses are word addresses, and the sizes are given in words. Every access is counted as a hit or a miss, and each
+ * miss is classified as compulsory (first reference to the line), capacity (it would also miss in a fully associative
+ * LRU cache of the same size) or conflict (otherwise). With next-line prefetching, a miss also brings in the following
+ * line.
+ *
+ */
+public class Cache {
+	/**
+	 * Replacement policies.
+	 */
+	public static enum Replacement {
+		LRU, FIFO, RANDOM, PLRU;
+	}
+
+	/*
+	 * A set of line numbers, in an open-addressing table of line + 1 (0 for an empty slot).
+	 */
+	private static class LineSet {
+		private int[] slots = new int[64];
+		private int size;
+
+		/**
+		 * Returns false if the line was already in the set.
+		 */
+		boolean add(int line) {
+			int mask = slots.length - 1;
+			int slot = hash(line) & mask;
+			while (slots[slot] != 0) {
+				if (slots[slot] == line + 1) {
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = line + 1;
+			if (++size * 2 > slots.length) {
+				int[] old = slots;
+				slots = new int[old.length * 2];
+				mask = slots.length - 1;
+				for (int key : old) {
+					if (key != 0) {
+						slot = hash(key - 1) & mask;
+						while (slots[slot] != 0) {
+							slot = (slot + 1) & mask;
+						}
+						slots[slot] = key;
+					}
+				}
+			}
+			return true;
+		}
+	}
+
+	/*
+	 * The lines of a fully associative LRU cache: an open-addressing table of line + 1 (0 for an empty slot), whose
+	 * entries are linked from the most to the least recently used.
+	 */
+	private static class LruLines {
+		private final int capacity;
+		private final int[] slots; // line + 1
+		private final int[] prev, next; // by slot (-1 at the ends)
+		private int head = -1, tail = -1;
+		private int size;
+
+		LruLines(int capacity) {
+			this.capacity = capacity;
+			int len = Integer.highestOneBit(capacity) * 4;
+			slots = new int[len];
+			prev = new int[len];
+			next = new int[len];
+		}
+
+		/**
+		 * Use the line, evicting the least recently used line if it was not there and the cache is full.
+		 *
+		 * @return true if the line was there
+		 */
+		boolean touch(int line) {
+			int mask = slots.length - 1;
+			int slot = hash(line) & mask;
+			while (slots[slot] != 0) {
+				if (slots[slot] == line + 1) {
+					unlink(slot);
+					linkFirst(slot);
+					return true;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (size == capacity) {
+				int lru = tail;
+				unlink(lru);
+				remove(lru);
+				size--;
+				// the entries moved back may have opened an earlier slot
+				slot = hash(line) & mask;
+				while (slots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+			}
+			slots[slot] = line + 1;
+			linkFirst(slot);
+			size++;
+			return false;
+		}
+
+		/**
+		 * Empty the slot, moving back the entries after it which could no longer be found.
+		 */
+		private void remove(int slot) {
+			int mask = slots.length - 1;
+			int hole = slot;
+			slots[hole] = 0;
+			for (int i = (hole + 1) & mask; slots[i] != 0; i = (i + 1) & mask) {
+				int home = hash(slots[i] - 1) & mask;
+				// move the entry into the hole unless its home lies cyclically in (hole, i]
+				if (((i - home) & mask) >= ((i - hole) & mask)) {
+					slots[hole] = slots[i];
+					slots[i] = 0;
+					prev[hole] = prev[i];
+					next[hole] = next[i];
+					if (prev[hole] >= 0) {
+						next[prev[hole]] = hole;
+					} else {
+						head = hole;
+					}
+					if (next[hole] >= 0) {
+						prev[next[hole]] = hole;
+					} else {
+						tail = hole;
+					}
+					hole = i;
+				}
+			}
+		}
+
+		private void unlink(int slot) {
+			if (prev[slot] >= 0) {
+				next[prev[slot]] = next[slot];
+			} else {
+				head = next[slot];
+			}
+			if (next[slot] >= 0) {
+				prev[next[slot]] = prev[slot];
+			} else {
+				tail = prev[slot];
+			}
+		}
+
+		private void linkFirst(int slot) {
+			prev[slot] = -1;
+			next[slot] = head;
+			if (head >= 0) {
+				prev[head] = slot;
+			} else {
+				tail = slot;
+			}
+			head = slot;
+		}
+	}
+
+	private static int hash(int line) {
+		int h = line * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Default number of cycles added by a miss.
+	 */
+	public static final int DEFAULT_MISS_PENALTY = 10;
+
+	private final int lineBits;
+	private final int setMask;
+	private final int ways;
+	private final Replacement replacement;
+
+	private final int[] tags; // line number of each way of each set
+	private final boolean[] valid;
+	private final boolean[] dirty;
+	private final long[] stamps; // last use (LRU) or fill (FIFO)
+	private final int[] plru; // tree bits of each set (PLRU)
+	private final Random random = new Random(0);
+	private long clock = 0;
+
+	private boolean writeBack = true;
+	private boolean writeAllocate = true;
+	private int missPenalty = DEFAULT_MISS_PENALTY;
+	private int writeBackPenalty = 0;
+	private boolean prefetch = false;
+
+	// shadow state for the miss classification
+	private final LineSet seen = new LineSet();
+	private final LruLines fullyAssociative;
+
+	private int lastLatency;
+
+	// statistics
+	private long reads, writes, hits, misses;
+	private long compulsory, capacity, conflict;
+	private long evictions, writeBacks, memoryWrites;
+	private long prefetches;
+
+	/**
+	 * Constructs new Cache.
+	 *
+	 * @param sizeWords
+	 *            the capacity in words (a power of two)
+	 * @param lineWords
+	 *            the line size in words (a power of two)
+	 * @param ways
+	 *            the associativity (a power of two)
+	 * @param replacement
+	 *            the replacement policy
+	 */
+	public Cache(int sizeWords, int lineWords, int ways, Replacement replacement) {
+		if (!isPowerOfTwo(sizeWords) || !isPowerOfTwo(lineWords) || !isPowerOfTwo(ways)
+				|| (sizeWords < lineWords * ways)) {
+			throw new IllegalArgumentException("Invalid cache geometry: " + sizeWords + " words, " + lineWords
+					+ " words/line, " + ways + " ways");
+		}
+		this.lineBits = Integer.numberOfTrailingZeros(lineWords);
+		int sets = sizeWords / (lineWords * ways);
+		this.setMask = sets - 1;
+		this.ways = ways;
+		this.replacement = replacement;
+		this.tags = new int[sets * ways];
+		this.valid = new boolean[sets * ways];
+		this.dirty = new boolean[sets * ways];
+		this.stamps = new long[sets * ways];
+		this.plru = new int[sets];
+		this.fullyAssociative = new LruLines(sets * ways);
+	}
+
+	private static boolean isPowerOfTwo(int n) {
+		return (n > 0) && ((n & (n - 1)) == 0);
+	}
+
+	/**
+	 * Set the write policy.
+	 *
+	 * @param writeBack
+	 *            true for write-back, false for write-through
+	 * @param writeAllocate
+	 *            true to fill the line on a write miss
+	 */
+	public void setWritePolicy(boolean writeBack, boolean writeAllocate) {
+		this.writeBack = writeBack;
+		this.writeAllocate = writeAllocate;
+	}
+
+	/**
+	 * Set the penalties.
+	 *
+	 * @param missPenalty
+	 *            the cycles added by a miss
+	 * @param writeBackPenalty
+	 *            the cycles added when a dirty line is written back
+	 */
+	public void setPenalties(int missPenalty, int writeBackPenalty) {
+		this.missPenalty = missPenalty;
+		this.writeBackPenalty = writeBackPenalty;
+	}
+
+	/**
+	 * Enable or disable next-line prefetching.
+	 *
+	 * @param nextLine
+	 *            true to bring in the following line on every miss which fills a line
+	 */
+	public void setPrefetch(boolean nextLine) {
+		this.prefetch = nextLine;
+	}
+
+	/**
+	 * Access the cache.
+	 *
+	 * @param addr
+	 *            the word address
+	 * @param write
+	 *            true for a write, false for a read
+	 * @return the cycles added to the access (0 on a hit)
+	 */
+	public int access(int addr, boolean write) {
+		int line = addr >>> lineBits;
+		int base = (line & setMask) * ways;
+		clock++;
+		if (write) {
+			writes++;
+			if (!writeBack) {
+				memoryWrites++;
+			}
+		} else {
+			reads++;
+		}
+		boolean faHit = fullyAssociative.touch(line);
+
+		for (int i = base; i < base + ways; i++) {
+			if (valid[i] && (tags[i] == line)) {
+				hits++;
+				touch(i, base);
+				if (write && writeBack) {
+					dirty[i] = true;
+				}
+				return lastLatency = 0;
+			}
+		}
+
+		misses++;
+		if (seen.add(line)) {
+			compulsory++;
+		} else if (faHit) {
+			conflict++;
+		} else {
+			capacity++;
+		}
+		int latency = missPenalty;
+		if (write && !writeAllocate) {
+			if (writeBack) {
+				memoryWrites++;
+			}
+			return lastLatency = latency;
+		}
+
+		latency += fill(line, base, write && writeBack);
+		if (prefetch) {
+			prefetch(line + 1);
+		}
+		return lastLatency = latency;
+	}
+
+	/**
+	 * Bring the line into its set, evicting a victim if the set is full.
+	 *
+	 * @return the write-back penalty (0 if the victim was clean)
+	 */
+	private int fill(int line, int base, boolean dirtyLine) {
+		int latency = 0;
+		int victim = victim(base);
+		if (valid[victim]) {
+			evictions++;
+			if (dirty[victim]) {
+				writeBacks++;
+				memoryWrites++;
+				latency = writeBackPenalty;
+			}
+		}
+		tags[victim] = line;
+		valid[victim] = true;
+		dirty[victim] = dirtyLine;
+		stamps[victim] = clock;
+		touch(victim, base);
+		return latency;
+	}
+
+	/**
+	 * Bring the line in, unless it is already there. A prefetch takes no cycle of the access which triggered it. The
+	 * line is brought into the fully associative shadow as well, so that a later miss on it is classified against the
+	 * same contents.
+	 */
+	private void prefetch(int line) {
+		fullyAssociative.touch(line);
+		int base = (line & setMask) * ways;
+		for (int i = base; i < base + ways; i++) {
+			if (valid[i] && (tags[i] == line)) {
+				return;
+			}
+		}
+		prefetches++;
+		seen.add(line);
+		fill(line, base, false);
+	}
+
+	/**
+	 * Returns the cycles added to the last access.
+	 *
+	 * @return the latency of the last access
+	 */
+	public int getLastLatency() {
+		return lastLatency;
+	}
+
+	private void touch(int way, int base) {
+		if (replacement == Replacement.LRU) {
+			stamps[way] = clock;
+		} else if ((replacement == Replacement.PLRU) && (ways > 1)) {
+			// point every node on the path away from this way
+			int set = base / ways;
+			int bits = plru[set];
+			int node = 1;
+			int w = way - base;
+			for (int level = ways >> 1; level > 0; level >>= 1) {
+				boolean right = (w & level) != 0;
+				bits = right ? (bits & ~(1 << node)) : (bits | (1 << node));
+				node = node * 2 + (right ? 1 : 0);
+			}
+			plru[set] = bits;
+		}
+	}
+
+	private int victim(int base) {
+		for (int i = base; i < base + ways; i++) {
+			if (!valid[i]) {
+				return i;
+			}
+		}
+		switch (replacement) {
+		case RANDOM:
+			return base + random.nextInt(ways);
+		case PLRU: {
+			// follow the tree bits (set: go right)
+			int bits = plru[base / ways];
+			int node = 1;
+			int w = 0;
+			for (int level = ways >> 1; level > 0; level >>= 1) {
+				boolean right = (bits & (1 << node)) != 0;
+				if (right) {
+					w |= level;
+				}
+				node = node * 2 + (right ? 1 : 0);
+			}
+			return base + w;
+		}
+		default: {
+			// LRU and FIFO: the oldest stamp
+			int victim = base;
+			for (int i = base + 1; i < base + ways; i++) {
+				if (stamps[i] < stamps[victim]) {
+					victim = i;
+				}
+			}
+			return victim;
+		}
+		}
+	}
+
+	/**
+	 * Returns the number of reads.
+	 *
+	 * @return the number of reads
+	 */
+	public long getReads() {
+		return reads;
+	}
+
+	/**
+	 * Returns the number of writes.
+	 *
+	 * @return the number of writes
+	 */
+	public long getWrites() {
+		return writes;
+	}
+
+	/**
+	 * Returns the number of hits.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of misses (compulsory, capacity and conflict).
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of compulsory misses, the first accesses to a line.
+	 *
+	 * @return the number of compulsory misses
+	 */
+	public long getCompulsoryMisses() {
+		return compulsory;
+	}
+
+	/**
+	 * Returns the number of capacity misses, which a fully associative LRU cache of the same size would miss too.
+	 *
+	 * @return the number of capacity misses
+	 */
+	public long getCapacityMisses() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of conflict misses, which a fully associative LRU cache of the same size would hit.
+	 *
+	 * @return the number of conflict misses
+	 */
+	public long getConflictMisses() {
+		return conflict;
+	}
+
+	/**
+	 * Returns the number of lines evicted.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of dirty lines written back.
+	 *
+	 * @return the number of write-backs
+	 */
+	public long getWriteBacks() {
+		return writeBacks;
+	}
+
+	/**
+	 * Returns the number of lines prefetched.
+	 *
+	 * @return the number of prefetches
+	 */
+	public long getPrefetches() {
+		return prefetches;
+	}
+
+	/**
+	 * Returns the number of words or lines written to the memory (write-through writes, write misses without
+	 * allocation, and write-backs).
+	 *
+	 * @return the number of memory writes
+	 */
+	public long getMemoryWrites() {
+		return memoryWrites;
+	}
+
+	/**
+	 * Returns the hit rate.
+	 *
+	 * @return the hit rate (0 if there was no access)
+	 */
+	public double getHitRate() {
+		long accesses = hits + misses;
+		return (accesses == 0) ? 0 : (double) hits / accesses;
+	}
+
+	/**
+	 * Returns a summary of the statistics.
+	 *
+	 * @return the summary
+	 */
+	@Override
+	public String toString() {
+		StringBuffer strbuf = new StringBuffer();
+		strbuf.append("Accesses = " + (hits + misses) + " (" + reads + " reads, " + writes + " writes)\n");
+		strbuf.append("Hits = " + hits + " (" + String.format("%.1f", 100 * getHitRate()) + "%)\n");
+		strbuf.append("Misses = " + misses + " (compulsory " + compulsory + ", capacity " + capacity + ", conflict "
+				+ conflict + ")\n");
+		strbuf.append("Evictions = " + evictions + " (" + writeBacks + " written back)\n");
+		strbuf.append("Memory writes = " + memoryWrites + "\n");
+		if (prefetch) {
+			strbuf.append("Prefetches = " + prefetches + "\n");
+		}
+		return strbuf.toString();
+	}
+}
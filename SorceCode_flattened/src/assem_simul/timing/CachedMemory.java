@@ -0,0 +1,56 @@
+package assem_simul.timing;
+
+import assembler.entity.Memory;
+
+/**
+ * A Memory whose reads and writes by the program (LW and SW, whatever engine runs them) go through a data Cache.
+ *
+ * The data is kept by the Memory itself, so the cache only accounts the accesses. Accesses from outside the program
+ * (peek() and poke(), e.g., Simulator.setMemory()) bypass the cache. A PipelineModel given the same Cache (see
+ * PipelineModel.setDataCache()) adds the latency of each access to the MEM stage.
+ *
+ */
+public class CachedMemory extends Memory {
+	private final Cache cache;
+
+	/**
+	 * Constructs new CachedMemory.
+	 *
+	 * @param cache
+	 *            the data cache
+	 */
+	public CachedMemory(Cache cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public int read(int addr) {
+		cache.access(addr, false);
+		return super.read(addr);
+	}
+
+	@Override
+	public int write(int addr, int data) {
+		cache.access(addr, true);
+		return super.write(addr, data);
+	}
+
+	@Override
+	public int peek(int addr) {
+		return super.read(addr);
+	}
+
+	@Override
+	public void poke(int addr, int data) {
+		super.write(addr, data);
+	}
+
+	/**
+	 * Returns the data cache.
+	 *
+	 * @return the data cache
+	 */
+	public Cache getCache() {
+		return cache;
+	}
+}
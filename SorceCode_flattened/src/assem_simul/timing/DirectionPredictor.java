@@ -0,0 +1,58 @@
+package assem_simul.timing;
+
+import static assembler.entity.InstructionImage.*;
+
+/**
+ * Base class of the predictors which only predict the direction of conditional branches.
+ *
+ * The pc-relative targets of BEQZ..BLEZ, J and JAL are computed from the instruction word when it is fetched, so J and
+ * JAL are always predicted taken, and a conditional branch predicted taken goes to its target. The targets of JR and
+ * JALR are unknown, so they are predicted not taken (see BtbRasPredictor for those).
+ *
+ */
+public abstract class DirectionPredictor implements BranchPredictor {
+	@Override
+	public int predict(int pc, int word) {
+		switch (op(word)) {
+		case OP_J:
+		case OP_JAL:
+			return pc + imm(word);
+		case OP_JR:
+		case OP_JALR:
+			return pc + 1;
+		default:
+			return predictTaken(pc, word) ? pc + imm(word) : pc + 1;
+		}
+	}
+
+	@Override
+	public void update(int pc, int word, int nextPc) {
+		int op = op(word);
+		if ((OP_BEQZ <= op) && (op <= OP_BLEZ)) {
+			train(pc, word, nextPc != pc + 1);
+		}
+	}
+
+	/**
+	 * Predict the direction of a conditional branch.
+	 *
+	 * @param pc
+	 *            the program counter of the branch
+	 * @param word
+	 *            the packed instruction
+	 * @return true if the branch is predicted taken
+	 */
+	protected abstract boolean predictTaken(int pc, int word);
+
+	/**
+	 * Train the predictor with the direction of a conditional branch.
+	 *
+	 * @param pc
+	 *            the program counter of the branch
+	 * @param word
+	 *            the packed instruction
+	 * @param taken
+	 *            true if the branch was taken
+	 */
+	protected abstract void train(int pc, int word, boolean taken);
+}
@@ -0,0 +1,42 @@
+package assem_simul.timing;
+
+/**
+ * Predicts each branch with a two-bit counter, in a table indexed by the pc xor the global history of branch directions.
+ *
+ */
+public class GsharePredictor extends BimodalPredictor {
+	private final int historyMask;
+	private int history;
+
+	/**
+	 * Constructs new GsharePredictor.
+	 *
+	 * @param indexBits
+	 *            the table has 2^indexBits counters
+	 * @param historyBits
+	 *            the number of branch directions kept in the global history (at most indexBits)
+	 */
+	public GsharePredictor(int indexBits, int historyBits) {
+		super(indexBits, 2);
+		if ((historyBits < 0) || (indexBits < historyBits)) {
+			throw new IllegalArgumentException("historyBits must be 0.." + indexBits + ": " + historyBits);
+		}
+		this.historyMask = (1 << historyBits) - 1;
+	}
+
+	@Override
+	protected int index(int pc) {
+		return (pc ^ history) & (counters().length - 1);
+	}
+
+	@Override
+	protected void train(int pc, int word, boolean taken) {
+		super.train(pc, word, taken);
+		history = ((history << 1) | (taken ? 1 : 0)) & historyMask;
+	}
+
+	@Override
+	public String toString() {
+		return "gshare (" + counters().length + " entries, " + Integer.bitCount(historyMask) + "-bit history)";
+	}
+}
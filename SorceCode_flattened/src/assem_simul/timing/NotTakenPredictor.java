@@ -0,0 +1,21 @@
+package assem_simul.timing;
+
+/**
+ * Predicts every branch and jump as not taken.
+ *
+ */
+public class NotTakenPredictor implements BranchPredictor {
+	@Override
+	public int predict(int pc, int word) {
+		return pc + 1;
+	}
+
+	@Override
+	public void update(int pc, int word, int nextPc) {
+	}
+
+	@Override
+	public String toString() {
+		return "static not-taken";
+	}
+}
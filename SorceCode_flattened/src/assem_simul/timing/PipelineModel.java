@@ -0,0 +1,424 @@
+package assem_simul.timing;
+
+import static assembler.entity.InstructionImage.*;
+
+import java.util.*;
+
+/**
+ * Cycle-accurate model of the 5-stage pipeline (IF, ID, EX, MEM, WB).
+ *
+ * The model is driven by the instructions executed by the functional Simulator. For every instruction it computes the
+ * cycle in which the instruction enters each stage, from the stage occupancy of the previous instruction, the cycles in
+ * which its source registers can be read or forwarded, and the redirects of the control transfers before it. The next
+ * pc of each branch and jump is predicted by a BranchPredictor (not taken by default); a misprediction flushes the
+ * instructions fetched until it is resolved. With an instruction cache, every instruction stays in IF for the latency
+ * of its fetch; with a data cache, loads and stores stay in MEM for the latency of their access.
+ *
+ */
+public class PipelineModel implements TimingModel {
+	/**
+	 * Stages of the pipeline.
+	 */
+	public static enum Stage {
+		IF, ID, EX, MEM, WB;
+	}
+
+	// configuration
+	private boolean forwardExToEx = true; // EX/MEM latch to EX (and to ID for branches)
+	private boolean forwardMemToEx = true; // MEM/WB latch to EX
+	private Stage branchStage = Stage.EX; // where BEQZ..BLEZ, JR and JALR are resolved
+	private Stage jumpStage = Stage.ID; // where J and JAL are resolved
+	private BranchPredictor predictor = new NotTakenPredictor();
+	private Cache instructionCache; // accessed by the model with the pc of each instruction (null if fetch takes one cycle)
+	private Cache dataCache; // accessed by the functional simulation (null if memory accesses take one cycle)
+
+	// the cycles in which the previous instruction entered each stage
+	private long lastF, lastD, lastE, lastM, lastW;
+	// the earliest cycle in which the next instruction can be fetched
+	private long redirect;
+	// the earliest cycle in which each register can be used in ID and at the start of EX
+	private final long[] readyId = new long[8];
+	private final long[] readyEx = new long[8];
+	// whether each register was last written by a load
+	private final boolean[] loaded = new boolean[8];
+
+	// statistics
+	private long instructions;
+	private long stalls;
+	private long loadUseStalls;
+	private long controlTransfers;
+	private long flushes;
+	private long flushPenalty;
+	private long memoryStalls;
+	private long fetchStalls;
+	// instruction cache misses of each step
+	private final Map<Integer, Long> fetchMisses = new TreeMap<Integer, Long>();
+	// executions and mispredictions of each control transfer, by pc
+	private final Map<Integer, long[]> branchStats = new TreeMap<Integer, long[]>();
+
+	/**
+	 * Constructs new PipelineModel with full forwarding, branches resolved in EX and jumps resolved in ID.
+	 */
+	public PipelineModel() {
+		reset();
+	}
+
+	/**
+	 * Clears the pipeline and the statistics.
+	 */
+	public void reset() {
+		lastF = lastD = lastE = lastM = lastW = -1;
+		redirect = 0;
+		for (int i = 0; i < 8; i++) {
+			readyId[i] = 0;
+			readyEx[i] = 0;
+			loaded[i] = false;
+		}
+		instructions = 0;
+		stalls = 0;
+		loadUseStalls = 0;
+		controlTransfers = 0;
+		flushes = 0;
+		flushPenalty = 0;
+		memoryStalls = 0;
+		fetchStalls = 0;
+		fetchMisses.clear();
+		branchStats.clear();
+	}
+
+	/**
+	 * Configure the forwarding paths.
+	 *
+	 * @param exToEx
+	 *            forward from the EX/MEM latch (ALU results, to EX, and to ID for branches resolved there)
+	 * @param memToEx
+	 *            forward from the MEM/WB latch (ALU and load results, to EX)
+	 */
+	public void setForwarding(boolean exToEx, boolean memToEx) {
+		this.forwardExToEx = exToEx;
+		this.forwardMemToEx = memToEx;
+	}
+
+	/**
+	 * Set the stage where conditional branches, JR and JALR are resolved.
+	 *
+	 * @param stage
+	 *            ID, EX or MEM
+	 */
+	public void setBranchStage(Stage stage) {
+		this.branchStage = checkResolveStage(stage);
+	}
+
+	/**
+	 * Set the stage where J and JAL are resolved.
+	 *
+	 * @param stage
+	 *            ID, EX or MEM
+	 */
+	public void setJumpStage(Stage stage) {
+		this.jumpStage = checkResolveStage(stage);
+	}
+
+	/**
+	 * Set the branch predictor. Its state is kept across reset().
+	 *
+	 * @param predictor
+	 *            the branch predictor
+	 */
+	public void setBranchPredictor(BranchPredictor predictor) {
+		this.predictor = predictor;
+	}
+
+	/**
+	 * Set the instruction cache. The model accesses it with the pc of every instruction, so it must not be shared with
+	 * a CachedMemory. Its contents are kept across reset().
+	 *
+	 * @param instructionCache
+	 *            the instruction cache (null if fetch takes one cycle)
+	 */
+	public void setInstructionCache(Cache instructionCache) {
+		this.instructionCache = instructionCache;
+	}
+
+	/**
+	 * Set the data cache. It must be the cache of the CachedMemory the Simulator runs on, since the model only reads
+	 * the latency of the access each LW and SW has just made.
+	 *
+	 * @param dataCache
+	 *            the data cache (null if memory accesses take one cycle)
+	 */
+	public void setDataCache(Cache dataCache) {
+		this.dataCache = dataCache;
+	}
+
+	private static Stage checkResolveStage(Stage stage) {
+		if ((stage == Stage.IF) || (stage == Stage.WB)) {
+			throw new IllegalArgumentException("Control transfers cannot be resolved in " + stage);
+		}
+		return stage;
+	}
+
+	@Override
+	public void step(int pc, int word, int nextPc, int addr) {
+		int op = op(word);
+		boolean control = isControl(word);
+		Stage resolve = ((op == OP_J) || (op == OP_JAL)) ? jumpStage : branchStage;
+		boolean readsInId = control && (resolve == Stage.ID);
+
+		// IF is occupied until the previous instruction moves to ID, and so on
+		long f = max(lastF + 1, redirect, lastD);
+		long fetched = f + 1;
+		if (instructionCache != null) {
+			int latency = instructionCache.access(pc, false);
+			if (latency > 0) {
+				fetchStalls += latency;
+				fetched += latency;
+				Long misses = fetchMisses.get(pc);
+				fetchMisses.put(pc, (misses == null) ? 1 : misses + 1);
+			}
+		}
+		long d = max(fetched, lastE);
+		long e = max(d + 1, lastM);
+
+		// hazard detection: stay in ID until every source can be read or forwarded
+		long ready = e;
+		boolean fromLoad = false;
+		int src = sources(word);
+		for (int r = 0; r < 8; r++) {
+			if ((src & (1 << r)) != 0) {
+				long t = readsInId ? readyId[r] + 1 : readyEx[r];
+				if (t > ready) {
+					ready = t;
+					fromLoad = loaded[r];
+				}
+			}
+		}
+		stalls += ready - e;
+		if (fromLoad) {
+			loadUseStalls += ready - e;
+		}
+		e = ready;
+		long m = max(e + 1, lastW);
+		long w = m + 1;
+		if ((dataCache != null) && ((op == OP_LW) || (op == OP_SW))) {
+			int latency = dataCache.getLastLatency();
+			memoryStalls += latency;
+			w += latency;
+		}
+
+		// results
+		int dst = destination(word);
+		if (dst >= 0) {
+			if (op == OP_LW) {
+				readyId[dst] = w;
+				readyEx[dst] = forwardMemToEx ? w : w + 1;
+			} else {
+				readyId[dst] = forwardExToEx ? m : w;
+				readyEx[dst] = forwardExToEx ? m : (forwardMemToEx ? w : w + 1);
+			}
+			loaded[dst] = (op == OP_LW);
+		}
+
+		// mispredicted control transfers flush the pipeline until they are resolved
+		if (control) {
+			controlTransfers++;
+			int predicted = predictor.predict(pc, word);
+			predictor.update(pc, word, nextPc);
+			long[] stats = branchStats.get(pc);
+			if (stats == null) {
+				stats = new long[2];
+				branchStats.put(pc, stats);
+			}
+			stats[0]++;
+			if (predicted != nextPc) {
+				stats[1]++;
+				long resolved;
+				switch (resolve) {
+				case ID:
+					resolved = e - 1;
+					break;
+				case EX:
+					resolved = m - 1;
+					break;
+				default:
+					resolved = w - 1;
+					break;
+				}
+				// without the redirect, the next instruction would enter ID when this one enters EX
+				long penalty = resolved + 2 - e;
+				if (penalty > 0) {
+					flushes++;
+					flushPenalty += penalty;
+					redirect = resolved + 1;
+				}
+			}
+		}
+
+		lastF = f;
+		lastD = d;
+		lastE = e;
+		lastM = m;
+		lastW = w;
+		instructions++;
+	}
+
+	private static long max(long a, long b) {
+		return (a > b) ? a : b;
+	}
+
+	private static long max(long a, long b, long c) {
+		return max(max(a, b), c);
+	}
+
+	/**
+	 * Returns the number of cycles until the last instruction leaves WB.
+	 *
+	 * @return the cycle count
+	 */
+	public long getCycles() {
+		return lastW + 1;
+	}
+
+	/**
+	 * Returns the number of instructions accounted.
+	 *
+	 * @return the instruction count
+	 */
+	public long getInstructions() {
+		return instructions;
+	}
+
+	/**
+	 * Returns the cycles per instruction.
+	 *
+	 * @return the CPI (0 if no instruction was accounted)
+	 */
+	public double getCpi() {
+		return (instructions == 0) ? 0 : (double) getCycles() / instructions;
+	}
+
+	/**
+	 * Returns the number of cycles stalled in ID by data hazards.
+	 *
+	 * @return the stall cycles
+	 */
+	public long getStalls() {
+		return stalls;
+	}
+
+	/**
+	 * Returns the number of the stall cycles caused by a load followed by a use of its result.
+	 *
+	 * @return the load-use stall cycles
+	 */
+	public long getLoadUseStalls() {
+		return loadUseStalls;
+	}
+
+	/**
+	 * Returns the number of cycles LW and SW spent in MEM waiting for the data cache.
+	 *
+	 * @return the memory stall cycles
+	 */
+	public long getMemoryStalls() {
+		return memoryStalls;
+	}
+
+	/**
+	 * Returns the number of cycles spent in IF waiting for the instruction cache.
+	 *
+	 * @return the fetch stall cycles
+	 */
+	public long getFetchStalls() {
+		return fetchStalls;
+	}
+
+	/**
+	 * Returns the instruction cache misses of each step.
+	 *
+	 * @return the map from the pc to the miss count, sorted by the pc
+	 */
+	public Map<Integer, Long> getFetchMisses() {
+		return Collections.unmodifiableMap(fetchMisses);
+	}
+
+	/**
+	 * Returns the number of branches and jumps accounted.
+	 *
+	 * @return the number of control transfers
+	 */
+	public long getControlTransfers() {
+		return controlTransfers;
+	}
+
+	/**
+	 * Returns the number of pipeline flushes.
+	 *
+	 * @return the flush count
+	 */
+	public long getFlushes() {
+		return flushes;
+	}
+
+	/**
+	 * Returns the number of cycles lost to the flushes.
+	 *
+	 * @return the flush penalty in cycles
+	 */
+	public long getFlushPenalty() {
+		return flushPenalty;
+	}
+
+	/**
+	 * Returns the number of mispredicted control transfers.
+	 *
+	 * @return the misprediction count
+	 */
+	public long getMispredictions() {
+		long count = 0;
+		for (long[] stats : branchStats.values()) {
+			count += stats[1];
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the statistics of each control transfer.
+	 *
+	 * @return the map from the pc to {executions, mispredictions}, sorted by the pc
+	 */
+	public Map<Integer, long[]> getBranchStatistics() {
+		return Collections.unmodifiableMap(branchStats);
+	}
+
+	/**
+	 * Returns a summary of the statistics.
+	 *
+	 * @return the summary
+	 */
+	@Override
+	public String toString() {
+		StringBuffer strbuf = new StringBuffer();
+		strbuf.append("Cycles = " + getCycles() + "\n");
+		strbuf.append("Instructions = " + instructions + "\n");
+		strbuf.append("CPI = " + String.format("%.3f", getCpi()) + "\n");
+		strbuf.append("Stalls = " + stalls + " (load-use " + loadUseStalls + ")\n");
+		if (instructionCache != null) {
+			strbuf.append("Fetch stalls = " + fetchStalls + "\n");
+			for (Map.Entry<Integer, Long> entry : fetchMisses.entrySet()) {
+				strbuf.append("  step " + entry.getKey() + ": " + entry.getValue() + " fetch misses\n");
+			}
+		}
+		if (dataCache != null) {
+			strbuf.append("Memory stalls = " + memoryStalls + "\n");
+		}
+		strbuf.append("Flushes = " + flushes + " (" + flushPenalty + " cycles)\n");
+		strbuf.append("Branch predictor = " + predictor + "\n");
+		for (Map.Entry<Integer, long[]> entry : branchStats.entrySet()) {
+			long[] stats = entry.getValue();
+			strbuf.append("  step " + entry.getKey() + ": " + stats[0] + " executed, " + stats[1] + " mispredicted ("
+					+ String.format("%.1f", 100.0 * (stats[0] - stats[1]) / stats[0]) + "% accuracy)\n");
+		}
+		return strbuf.toString();
+	}
+}
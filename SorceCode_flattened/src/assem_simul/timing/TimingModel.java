@@ -0,0 +1,21 @@
+package assem_simul.timing;
+
+/**
+ * A timing model driven by the instructions executed by the functional Simulator.
+ * 
+ */
+public interface TimingModel {
+	/**
+	 * Account an executed instruction. Instructions are given in program order, after they have been executed.
+	 * 
+	 * @param pc
+	 *            the program counter of the instruction
+	 * @param word
+	 *            the packed instruction (see InstructionImage)
+	 * @param nextPc
+	 *            the program counter of the next instruction
+	 * @param addr
+	 *            the effective memory address (meaningful for LW and SW only)
+	 */
+	void step(int pc, int word, int nextPc, int addr);
+}
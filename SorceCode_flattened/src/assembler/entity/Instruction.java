@@ -2,9 +2,11 @@ package assembler.entity;
 
 import static assembler.utils.Utilites.*;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import assembler.exception.*;
+import assembler.utils.Lexer;
 
 /**
  * A class representing Instructions.
@@ -182,6 +184,24 @@ public class Instruction {
 		}
 	}
 
+	// INST for each pair of opcode and function code (indexed by opcode << 2 | function)
+	private static final INST[] decodeTable = new INST[32 << 2];
+
+	private static final INST[] mnemonics = INST.values();
+
+	static {
+		for (INST inst : INST.values()) {
+			int base = inst.getOpcode() << 2;
+			if (inst.getFunction() != null) {
+				decodeTable[base | inst.getFunction()] = inst;
+			} else {
+				for (int func = 0; func < 4; func++) {
+					decodeTable[base | func] = inst;
+				}
+			}
+		}
+	}
+
 	private final INST inst;
 	private final int lineNo;
 	private final int stepNo;
@@ -193,6 +213,9 @@ public class Instruction {
 	private Integer imm8 = 0;
 	private Integer imm11 = 0;
 	private String jumpto;
+	private SymbolTable symbols; // the table jumpId belongs to (null if the label was not interned)
+	private int jumpId = -1;
+	private boolean sealed; // true once the arguments are set (parsed or decoded); they never change after that
 
 
 	/**
@@ -222,6 +245,25 @@ public class Instruction {
 		return INST.valueOf(mnemonic.toUpperCase());
 	}
 
+	/**
+	 * Get INST object from the mnemonic token of the line the lexer has split.
+	 * 
+	 * @param lexer
+	 *            the lexer holding the line
+	 * @return the INST object for the mnemonic
+	 * @throws IllegalArgumentException
+	 *             If there is no such mnemonic
+	 */
+	public static INST getInstByMnemonic(Lexer lexer) {
+		for (INST inst : mnemonics) {
+			if (lexer.equalsUpper(lexer.getMnemonicStart(), lexer.getMnemonicEnd(), inst.name())) {
+				return inst;
+			}
+		}
+		// not in ASCII, String.toUpperCase() decides
+		return getInstByMnemonic(lexer.text(lexer.getMnemonicStart(), lexer.getMnemonicEnd()));
+	}
+
 	/**
 	 * Creates new Instruction object with the parameter.
 	 * 
@@ -252,46 +294,46 @@ public class Instruction {
 	 */
 	public static Instruction createInstruction(String hexexp, int lineNo, int stepNo)
 			throws InvalidInstructionException {
-		INST inst;
-		int newOp, newRs, newRt, newRd, newImm5, newFunc, newImm8, newImm11;
-
-		// Check if the code is in the correct format
-		if (!hexexp.matches("^[a-zA-Z0-9]{8}$")) {
+		// Check if the code is in the correct format, and decode it as hex
+		int word = (hexexp.length() == 8) ? hexToInt(hexexp, 0, 8) : -1;
+		if ((word < 0) || (word > 0xFFFF)) {
 			throw new InvalidInstructionException(hexexp, lineNo);
 		}
-
-		// Decode it as hex and convert it into binary expression
-		String binexp = Long.toBinaryString(Long.decode("0x" + hexexp));
-
-		// Supplement 0
-		while (binexp.length() < 16) {
-			binexp = "0" + binexp;
+		Instruction instruction = createInstruction(word, lineNo, stepNo);
+		if (instruction == null) {
+			throw new InvalidInstructionException(hexexp, lineNo);
 		}
+		return instruction;
+	}
+
+	/**
+	 * Creates new Instruction object from a machine word.
+	 * 
+	 * @param word
+	 *            the machine word (16 bits)
+	 * @param lineNo
+	 *            line no for the current instruction
+	 * @param stepNo
+	 *            step no for the current instruction
+	 * @return the new Instruction object (null if the word is not a valid instruction)
+	 */
+	public static Instruction createInstruction(int word, int lineNo, int stepNo) {
+		// Split the word into each part of instruction
+		int newOp = (word >>> 11) & 0x1F;
+		int newRs = (word >>> 8) & 0x7;
+		int newRt = (word >>> 5) & 0x7;
+		int newRd = (word >>> 2) & 0x7;
+		int newFunc = word & 0x3;
+		int newImm5 = (word << 27) >> 27;
+		int newImm8 = (word << 24) >> 24;
+		int newImm11 = (word << 21) >> 21;
 
-		// Split binexp into each part of instruction
-		newOp = Integer.parseInt(binexp.substring(0, 5), 2);
-		newRs = Integer.parseInt(binexp.substring(5, 8), 2);
-		newRt = Integer.parseInt(binexp.substring(8, 11), 2);
-		newRd = Integer.parseInt(binexp.substring(11, 14), 2);
-		newFunc = Integer.parseInt(binexp.substring(14, 16), 2);
-		newImm5 = bStrToInt(binexp.substring(11, 16), 5);
-		newImm8 = bStrToInt(binexp.substring(8, 16), 8);
-		newImm11 = bStrToInt(binexp.substring(5, 16), 11); 	
-		
 		// Look for the instruction from the current op and func
-		inst = null;
-		for (INST newInst : INST.values()) {
-			if (newOp == newInst.getOpcode()) {
-				Integer newInstFunc = newInst.getFunction();
-				if ((newInstFunc == null) || (newInstFunc == newFunc)) {
-					inst = newInst;
-				}
-			}
-		}
+		INST inst = decodeTable[(newOp << 2) | newFunc];
 
 		// No such mnemonic
 		if (inst == null) {
-			throw new InvalidInstructionException(hexexp, lineNo);
+			return null;
 		}
 
 		Instruction instruction = new Instruction(inst, lineNo, stepNo);
@@ -353,6 +395,7 @@ public class Instruction {
 			break;
 		}
 
+		instruction.sealed = true;
 		return instruction;
 	}
 
@@ -452,11 +495,40 @@ public class Instruction {
 	 * Parse arguments of the assembler code and set the values to the current instruction.
 	 * @param args 
 	 * the array of arguments (e.g., {"$1", "$2", "4"})
-	 * @return true if the arguments are parsed successfully
 	 * @throws InvalidArgumentException
 	 * If arguments contain a syntax error
 	 */
 	public void parseArgs(String[] args) throws InvalidArgumentException {
+		Lexer lexer = new Lexer();
+		lexer.arguments(args);
+		parseArgs(lexer);
+	}
+
+	/**
+	 * Parse the argument tokens of the line the lexer has split, and set the values to the current instruction.
+	 * @param lexer 
+	 * the lexer holding the line
+	 * @throws InvalidArgumentException
+	 * If arguments contain a syntax error
+	 */
+	public void parseArgs(Lexer lexer) throws InvalidArgumentException {
+		parseArgs(lexer, null);
+	}
+
+	/**
+	 * Parse the argument tokens of the line the lexer has split, and set the values to the current instruction. The
+	 * label the instruction jumps to is interned in the symbol table.
+	 * @param lexer 
+	 * the lexer holding the line
+	 * @param symbols 
+	 * the symbol table (null not to intern the label)
+	 * @throws InvalidArgumentException
+	 * If arguments contain a syntax error
+	 */
+	public void parseArgs(Lexer lexer, SymbolTable symbols) throws InvalidArgumentException {
+		if (sealed) {
+			throw new IllegalStateException("The arguments of the instruction are already set");
+		}
 		int argc = 0;
 
 		try {
@@ -471,9 +543,9 @@ public class Instruction {
 			case SLTU:
 				// $rd, $rs, $rt
 				argc = 3;
-				rd = getRegisterNumber(args[0]);
-				rs = getRegisterNumber(args[1]);
-				rt = getRegisterNumber(args[2]);
+				rd = register(lexer, 0);
+				rs = register(lexer, 1);
+				rt = register(lexer, 2);
 				if (!isDefined(rd, rs, rt)) {
 					throw new InvalidArgumentException(lineNo);
 				}
@@ -494,9 +566,9 @@ public class Instruction {
 			case ROR:
 				// $rt, $rs, imm5
 				argc = 3;
-				rt = getRegisterNumber(args[0]);
-				rs = getRegisterNumber(args[1]);
-				imm5 = dStrToInt(args[2], 5);
+				rt = register(lexer, 0);
+				rs = register(lexer, 1);
+				imm5 = immediate(lexer, 2, 5);
 				if (!isDefined(rt, rs, imm5)) {
 					throw new InvalidArgumentException(lineNo);
 				}
@@ -506,11 +578,14 @@ public class Instruction {
 			case SW:
 				// $rt, imm5($rs)
 				argc = 2;
-				rt = getRegisterNumber(args[0]);
-				if (args[1].matches("^.+\\(\\$\\d{1,2}\\)$")) {
-					int rsloc = args[1].indexOf('(');
-					rs = getRegisterNumber(args[1].substring(rsloc + 1, args[1].indexOf(')')));
-					imm5 = dStrToInt(args[1].substring(0, rsloc), 5);
+				rt = register(lexer, 0);
+				if (lexer.isOffsetBase(1)) {
+					int rsloc = lexer.indexOf(1, '(');
+					int close = lexer.indexOf(1, ')');
+					long val = Lexer.immediate(lexer.getBuffer(), lexer.getArgStart(1), rsloc, 5);
+					int reg = (close > rsloc) ? Lexer.register(lexer.getBuffer(), rsloc + 1, close) : -1;
+					rs = (reg < 0) ? null : Integer.valueOf(reg);
+					imm5 = (val == Lexer.INVALID) ? null : Integer.valueOf((int) val);
 				}
 				if (!isDefined(rt, rs, imm5)) {
 					throw new InvalidArgumentException(lineNo);
@@ -527,16 +602,16 @@ public class Instruction {
 			case JR:	//???
 				// $rs, label (or imm11) 
 				argc = 2;
-				rs = getRegisterNumber(args[0]);
-				if (isIntegerForm(args[1])) {
-					imm8 = dStrToInt(args[1], 8);
+				rs = register(lexer, 0);
+				if (lexer.isIntegerForm(1)) {
+					imm8 = immediate(lexer, 1, 8);
 					if (!isDefined(imm8)) {
-						throw new InvalidArgumentException(args[1], lineNo);
+						throw new InvalidArgumentException(lexer.arg(1), lineNo);
 					}
 				} else {
-					jumpto = args[1];
+					jumpto = label(lexer, 1, symbols);
 					if (!isDefined(jumpto)) {
-						throw new InvalidArgumentException(args[1], lineNo);
+						throw new InvalidArgumentException(lexer.arg(1), lineNo);
 					}
 				}
 				if (!isDefined(rs)) {
@@ -552,7 +627,7 @@ public class Instruction {
 			case SSET:
 				// imm11
 				argc = 1;
-				imm11 = dStrToInt(args[0], 11);
+				imm11 = immediate(lexer, 0, 11);
 				if (!isDefined(imm11)) {
 					throw new InvalidArgumentException(lineNo);
 				}
@@ -562,29 +637,70 @@ public class Instruction {
 			case JAL:
 				// label (or imm11)
 				argc = 1;
-				if (isIntegerForm(args[0])) {
-					imm11 = dStrToInt(args[0], 11);
+				if (lexer.isIntegerForm(0)) {
+					imm11 = immediate(lexer, 0, 11);
 					if (!isDefined(imm11)) {
-						throw new InvalidArgumentException(args[0], lineNo);
+						throw new InvalidArgumentException(lexer.arg(0), lineNo);
 					}
 				} else {
-					jumpto = args[0];
+					jumpto = label(lexer, 0, symbols);
 					if (!isDefined(jumpto)) {
-						throw new InvalidArgumentException(args[0], lineNo);
+						throw new InvalidArgumentException(lexer.arg(0), lineNo);
 					}
 				}
 				break;
 			}
 
-			if (args.length != argc) {
+			if (lexer.getArgCount() != argc) {
 				throw new InvalidArgumentException("Too many arguments; " + argc
-						+ " argument(s) are expected, but found " + args.length, lineNo);
+						+ " argument(s) are expected, but found " + lexer.getArgCount(), lineNo);
 			}
+			sealed = true;
 		} catch (ArrayIndexOutOfBoundsException e) {
-			throw new InvalidArgumentException("Too few arguments; " + argc + " arguments are expected, but found " + args.length + " arguments", lineNo);
+			throw new InvalidArgumentException("Too few arguments; " + argc + " arguments are expected, but found " + lexer.getArgCount() + " arguments", lineNo);
 		}
 	}
 
+	// the label of the argument, interned in the symbol table if there is one
+	private String label(Lexer lexer, int i, SymbolTable symbols) {
+		if (symbols == null) {
+			return lexer.arg(i);
+		}
+		this.symbols = symbols;
+		jumpId = symbols.intern(lexer.getBuffer(), lexer.getArgStart(i), lexer.getArgEnd(i));
+		return symbols.getName(jumpId);
+	}
+
+	// the register number of the argument (null when the register does not exist)
+	private static Integer register(Lexer lexer, int i) {
+		int reg = lexer.register(i);
+		return (reg < 0) ? null : Integer.valueOf(reg);
+	}
+
+	// the value of the argument (null when it does not fit in bits bits)
+	private static Integer immediate(Lexer lexer, int i, int bits) {
+		long val = lexer.immediate(i, bits);
+		return (val == Lexer.INVALID) ? null : Integer.valueOf((int) val);
+	}
+
+	/**
+	 * Returns the line number of the instruction.
+	 * 
+	 * @return the line number in the source (or in the binary code it was decoded from)
+	 */
+	public int getLineNo() {
+		return lineNo;
+	}
+
+	/**
+	 * Returns the label the instruction jumps to.
+	 * 
+	 * @return the label (null if the instruction has no label argument)
+	 */
+	public String getJumpTo() {
+		return jumpto;
+	}
+
 	/**
 	 * Converts the current instruction into hexadecimal expression.
 	 * @param labelMap 
@@ -594,19 +710,106 @@ public class Instruction {
 	 *             If the instruction is trying to jump to undefined label
 	 */
 	public String toHexString(Map<String, Integer> labelMap) throws LabelNotFoundException {
-		String str = Long.toHexString(Long.parseLong(toBinaryString(labelMap, ""), 2));
-		while (str.length() < 8) {
-			str = "0" + str;
-		}
-		return str;
+		return intToHexString(encode(labelMap), 8);
 	}
 	
 	public String toHexStringA(Map<String, Integer> labelMap) throws LabelNotFoundException {
-		String str = Long.toHexString(Long.parseLong(toBinaryString(labelMap, ""), 2));
-		while (str.length() < 4) {
-			str = "0" + str;
+		return intToHexString(encode(labelMap), 4);
+	}
+
+	/**
+	 * Encodes the current instruction into its 16-bit machine word.
+	 * 
+	 * @param labelMap
+	 *            the label map (null to keep the immediate as it is)
+	 * @return the machine word (in the lower 16 bits)
+	 * @throws LabelNotFoundException
+	 *             If the instruction is trying to jump to undefined label
+	 */
+	public int encode(Map<String, Integer> labelMap) throws LabelNotFoundException {
+		return encode(labelMap, 0);
+	}
+
+	/**
+	 * Encodes the current instruction into its 16-bit machine word, at <i>shift</i> steps after the step number it was
+	 * parsed with (e.g., parsed in a chunk of the source with steps counted from the start of the chunk).
+	 * 
+	 * @param labelMap
+	 *            the label map, with the actual steps of the labels (null to keep the immediate as it is)
+	 * @param shift
+	 *            the actual step of the instruction minus its step number
+	 * @return the machine word (in the lower 16 bits)
+	 * @throws LabelNotFoundException
+	 *             If the instruction is trying to jump to undefined label
+	 */
+	public int encode(Map<String, Integer> labelMap, int shift) throws LabelNotFoundException {
+		int word = inst.getOpcode() << 11;
+		switch (inst) {
+		case AND:
+		case CAND:
+		case OR:
+		case XOR:
+		case ADD:
+		case NADD:
+		case SLT:
+		case SLTU:
+			return word | (rs << 8) | (rt << 5) | (rd << 2) | inst.getFunction();
+		case SET:
+		case SSET:
+		case J:
+		case JAL:
+			return word | (immediate(labelMap, shift) & 0x7FF);
+		case BEQZ:
+		case BNEZ:
+		case BLTZ:
+		case BGEZ:
+		case BGTZ:
+		case BLEZ:
+		case JR:
+		case JALR:
+			return word | (rs << 8) | (immediate(labelMap, shift) & 0xFF);
+		default:
+			return word | (rs << 8) | (rt << 5) | (imm5 & 0x1F);
+		}
+	}
+
+	/**
+	 * Encodes the instructions into an array of machine words.
+	 * 
+	 * @param instList
+	 *            the instructions
+	 * @param labelMap
+	 *            the label map (null to keep the immediates as they are)
+	 * @return the machine words
+	 * @throws LabelNotFoundException
+	 *             If an instruction is trying to jump to undefined label
+	 */
+	public static int[] encode(List<Instruction> instList, Map<String, Integer> labelMap)
+			throws LabelNotFoundException {
+		int[] words = new int[instList.size()];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = instList.get(i).encode(labelMap);
+		}
+		return words;
+	}
+
+	/**
+	 * Encodes the instructions into a buffer, as 16-bit machine words in the byte order of the buffer.
+	 * 
+	 * @param instList
+	 *            the instructions
+	 * @param labelMap
+	 *            the label map (null to keep the immediates as they are)
+	 * @param dst
+	 *            the buffer (2 bytes per instruction must remain)
+	 * @throws LabelNotFoundException
+	 *             If an instruction is trying to jump to undefined label
+	 */
+	public static void encode(List<Instruction> instList, Map<String, Integer> labelMap, ByteBuffer dst)
+			throws LabelNotFoundException {
+		for (int i = 0, size = instList.size(); i < size; i++) {
+			dst.putShort((short) instList.get(i).encode(labelMap));
 		}
-		return str;
 	}
 
 	/**
@@ -684,11 +887,7 @@ public class Instruction {
 			if (jumpto == null) {
 				strbuf.append(intToBinaryString(imm8, 8));
 			} else {
-				Integer jumpAddr = labelMap.get(jumpto);
-				if (jumpAddr == null) {
-					throw new LabelNotFoundException(jumpto, lineNo);
-				}
-				strbuf.append(intToBinaryString(jumpAddr - stepNo, 8));
+				strbuf.append(intToBinaryString(jumpAddr(labelMap) - stepNo, 8));
 			}
 			break;
 			
@@ -704,11 +903,7 @@ public class Instruction {
 			if (jumpto == null) {
 				strbuf.append(intToBinaryString(imm11, 11));
 			} else {
-				Integer jumpAddr = labelMap.get(jumpto);
-				if (jumpAddr == null) {
-					throw new LabelNotFoundException(jumpto, lineNo);
-				}
-				strbuf.append(intToBinaryString(jumpAddr - stepNo, 11));
+				strbuf.append(intToBinaryString(jumpAddr(labelMap) - stepNo, 11));
 			}
 			break;
 
@@ -891,6 +1086,165 @@ public class Instruction {
 		return newPc;
 	}
 
+	/**
+	 * Lowers a machine word straight into a packed word of the InstructionImage, without creating an Instruction. The
+	 * packed word is the same as the one of the Instruction decoded from the machine word.
+	 * 
+	 * @param word
+	 *            the machine word (16 bits)
+	 * @param lineNo
+	 *            line no of the word, for the exception
+	 * @return the packed word
+	 * @throws InvalidInstructionException
+	 *             If the word is not a valid instruction
+	 */
+	public static int lower(int word, int lineNo) throws InvalidInstructionException {
+		INST inst = decodeTable[(((word >>> 11) & 0x1F) << 2) | (word & 0x3)];
+		if (inst == null) {
+			throw new InvalidInstructionException(intToHexString(word, 8), lineNo);
+		}
+		int rs = (word >>> 8) & 0x7;
+		int rt = (word >>> 5) & 0x7;
+		switch (inst) {
+		case AND:
+		case CAND:
+		case OR:
+		case XOR:
+		case ADD:
+		case NADD:
+		case SLT:
+		case SLTU:
+			return InstructionImage.pack(inst.ordinal(), rs, rt, (word >>> 2) & 0x7, 0);
+		case BEQZ:
+		case BNEZ:
+		case BLTZ:
+		case BGEZ:
+		case BGTZ:
+		case BLEZ:
+		case JR:
+		case JALR:
+			return InstructionImage.pack(inst.ordinal(), rs, 0, 0, (word << 24) >> 24);
+		case SET:
+		case SSET:
+		case J:
+		case JAL:
+			return InstructionImage.pack(inst.ordinal(), 0, 0, 0, (word << 21) >> 21);
+		default:
+			return InstructionImage.pack(inst.ordinal(), rs, rt, 0, (word << 27) >> 27);
+		}
+	}
+
+	/**
+	 * Lowers the instruction into a packed word of the InstructionImage. The immediate is truncated and sign-extended to
+	 * its field width, as it would be after encoding and decoding the instruction.
+	 *
+	 * @return the packed word
+	 */
+	public int lower() {
+		try {
+			return lower(null);
+		} catch (LabelNotFoundException e) {
+			throw new IllegalStateException(e); // never happens without a label map
+		}
+	}
+
+	/**
+	 * Lowers the instruction into a packed word of the InstructionImage, resolving the label it jumps to.
+	 *
+	 * @param labelMap
+	 *            the label map (null to keep the immediate as it is)
+	 * @return the packed word
+	 * @throws LabelNotFoundException
+	 *             If the instruction is trying to jump to undefined label
+	 */
+	public int lower(Map<String, Integer> labelMap) throws LabelNotFoundException {
+		int bits;
+		switch (inst) {
+		case BEQZ:
+		case BNEZ:
+		case BLTZ:
+		case BGEZ:
+		case BGTZ:
+		case BLEZ:
+		case JR:
+		case JALR:
+			bits = 8;
+			break;
+		case SET:
+		case SSET:
+		case J:
+		case JAL:
+			bits = 11;
+			break;
+		default:
+			bits = 5;
+			break;
+		}
+		int imm = (immediate(labelMap, 0) << (32 - bits)) >> (32 - bits);
+		return InstructionImage.pack(inst.ordinal(), rs, rt, rd, imm);
+	}
+
+	/**
+	 * Returns the immediate of the instruction (imm5, imm8 or imm11, depending on the type), resolving the label it
+	 * jumps to.
+	 * 
+	 * @param labelMap
+	 *            the label map (null to keep the immediate as it is)
+	 * @param shift
+	 *            the actual step of the instruction minus its step number
+	 * @return the immediate, not truncated to its field
+	 * @throws LabelNotFoundException
+	 *             If the instruction is trying to jump to undefined label
+	 */
+	private int immediate(Map<String, Integer> labelMap, int shift) throws LabelNotFoundException {
+		if ((jumpto != null) && (labelMap != null)) {
+			return jumpAddr(labelMap) - shift - stepNo;
+		}
+		switch (inst) {
+		case BEQZ:
+		case BNEZ:
+		case BLTZ:
+		case BGEZ:
+		case BGTZ:
+		case BLEZ:
+		case JR:
+		case JALR:
+			return imm8;
+		case SET:
+		case SSET:
+		case J:
+		case JAL:
+			return imm11;
+		default:
+			return imm5;
+		}
+	}
+
+	/**
+	 * Returns the step number of the label the instruction jumps to. The label is resolved through its ID when the
+	 * label map is the symbol table it was interned in.
+	 * 
+	 * @param labelMap
+	 *            the label map
+	 * @return the step number of the label
+	 * @throws LabelNotFoundException
+	 *             If the label is not defined
+	 */
+	private int jumpAddr(Map<String, Integer> labelMap) throws LabelNotFoundException {
+		if ((labelMap == symbols) && (jumpId >= 0)) {
+			int step = symbols.getStep(jumpId);
+			if (step < 0) {
+				throw new LabelNotFoundException(jumpto, lineNo);
+			}
+			return step;
+		}
+		Integer jumpAddr = labelMap.get(jumpto);
+		if (jumpAddr == null) {
+			throw new LabelNotFoundException(jumpto, lineNo);
+		}
+		return jumpAddr;
+	}
+
 	/**
 	 * Returns a string representation of the instruction.
 	 * 
@@ -0,0 +1,366 @@
+package assembler.entity;
+
+import java.util.*;
+
+import assembler.exception.*;
+
+/**
+ * A class representing the pre-decoded instruction image.
+ *
+ * Each decoded Instruction is lowered once into a single int word, so the simulator can run the program out of a
+ * primitive array instead of chasing Instruction objects and unboxing their fields on every step. The layout of a word
+ * is:
+ *
+ * <pre>
+ *  31              16 15  14 12 11  9 8   6 5    0
+ * +------------------+---+-----+-----+-----+------+
+ * |  imm (signed)    | 0 | rd  | rt  | rs  |  op  |
+ * +------------------+---+-----+-----+-----+------+
+ * </pre>
+ *
+ * The immediate is imm5, imm8 or imm11 depending on the instruction type.
+ */
+public class InstructionImage {
+	/*
+	 * Operation numbers. These follow the declaration order of Instruction.INST.
+	 */
+	public static final int OP_AND = 0;
+	public static final int OP_CAND = 1;
+	public static final int OP_OR = 2;
+	public static final int OP_XOR = 3;
+	public static final int OP_ADD = 4;
+	public static final int OP_NADD = 5;
+	public static final int OP_SLT = 6;
+	public static final int OP_SLTU = 7;
+	public static final int OP_ANDI = 8;
+	public static final int OP_CANDI = 9;
+	public static final int OP_ORI = 10;
+	public static final int OP_XORI = 11;
+	public static final int OP_ADDI = 12;
+	public static final int OP_NADDI = 13;
+	public static final int OP_SLTI = 14;
+	public static final int OP_SLTUI = 15;
+	public static final int OP_SLL = 16;
+	public static final int OP_SRL = 17;
+	public static final int OP_SRA = 18;
+	public static final int OP_ROR = 19;
+	public static final int OP_LW = 20;
+	public static final int OP_SW = 21;
+	public static final int OP_BEQZ = 22;
+	public static final int OP_BNEZ = 23;
+	public static final int OP_BLTZ = 24;
+	public static final int OP_BGEZ = 25;
+	public static final int OP_BGTZ = 26;
+	public static final int OP_BLEZ = 27;
+	public static final int OP_JR = 28;
+	public static final int OP_JALR = 29;
+	public static final int OP_SET = 30;
+	public static final int OP_SSET = 31;
+	public static final int OP_J = 32;
+	public static final int OP_JAL = 33;
+
+	private InstructionImage() {
+	}
+
+	/**
+	 * Lowers the decoded instructions into a packed image.
+	 *
+	 * @param instList
+	 *            the decoded instructions, in step order
+	 * @return the packed image (one word per instruction)
+	 */
+	public static int[] lower(List<Instruction> instList) {
+		int[] image = new int[instList.size()];
+		for (int i = 0; i < image.length; i++) {
+			image[i] = instList.get(i).lower();
+		}
+		return image;
+	}
+
+	/**
+	 * Lowers the machine words into a packed image, without creating Instructions.
+	 *
+	 * @param words
+	 *            the machine words, in step order
+	 * @param lineMap
+	 *            the line number of each word, for the exception
+	 * @return the packed image (one word per instruction)
+	 * @throws InvalidInstructionException
+	 *             If a word is not a valid instruction
+	 */
+	public static int[] lower(int[] words, int[] lineMap) throws InvalidInstructionException {
+		int[] image = new int[words.length];
+		for (int i = 0; i < image.length; i++) {
+			image[i] = Instruction.lower(words[i], lineMap[i]);
+		}
+		return image;
+	}
+
+	/**
+	 * Lowers the parsed instructions into a packed image, resolving the labels they jump to.
+	 *
+	 * @param instList
+	 *            the parsed instructions, in step order
+	 * @param labelMap
+	 *            the label map
+	 * @return the packed image (one word per instruction)
+	 * @throws LabelNotFoundException
+	 *             If an instruction is trying to jump to undefined label
+	 */
+	public static int[] lower(List<Instruction> instList, Map<String, Integer> labelMap) throws LabelNotFoundException {
+		int[] image = new int[instList.size()];
+		for (int i = 0; i < image.length; i++) {
+			image[i] = instList.get(i).lower(labelMap);
+		}
+		return image;
+	}
+
+	/**
+	 * Packs the fields into a word.
+	 *
+	 * @param op
+	 *            the operation number
+	 * @param rs
+	 *            the rs register
+	 * @param rt
+	 *            the rt register
+	 * @param rd
+	 *            the rd register
+	 * @param imm
+	 *            the immediate
+	 * @return the packed word
+	 */
+	public static int pack(int op, int rs, int rt, int rd, int imm) {
+		return op | (rs & 7) << 6 | (rt & 7) << 9 | (rd & 7) << 12 | imm << 16;
+	}
+
+	/**
+	 * Returns the operation number of a packed word.
+	 *
+	 * @param word
+	 *            the packed word
+	 * @return the operation number
+	 */
+	public static int op(int word) {
+		return word & 0x3F;
+	}
+
+	/**
+	 * Returns the rs register of a packed word.
+	 *
+	 * @param word
+	 *            the packed word
+	 * @return the rs register
+	 */
+	public static int rs(int word) {
+		return (word >> 6) & 7;
+	}
+
+	/**
+	 * Returns the rt register of a packed word.
+	 *
+	 * @param word
+	 *            the packed word
+	 * @return the rt register
+	 */
+	public static int rt(int word) {
+		return (word >> 9) & 7;
+	}
+
+	/**
+	 * Returns the rd register of a packed word.
+	 *
+	 * @param word
+	 *            the packed word
+	 * @return the rd register
+	 */
+	public static int rd(int word) {
+		return (word >> 12) & 7;
+	}
+
+	/**
+	 * Returns the sign-extended immediate of a packed word.
+	 *
+	 * @param word
+	 *            the packed word
+	 * @return the immediate
+	 */
+	public static int imm(int word) {
+		return word >> 16;
+	}
+
+	/**
+	 * Returns if the instruction may transfer control (branches and jumps). These end a basic block.
+	 * 
+	 * @param word
+	 *            the packed instruction
+	 * @return true for BEQZ..BLEZ, JR, JALR, J and JAL
+	 */
+	public static boolean isControl(int word) {
+		int op = word & 0x3F;
+		return ((OP_BEQZ <= op) && (op <= OP_JALR)) || (op == OP_J) || (op == OP_JAL);
+	}
+
+	/**
+	 * Returns the registers read by the instruction.
+	 * 
+	 * @param word
+	 *            the packed instruction
+	 * @return the bit mask of the registers read (bit i for register i)
+	 */
+	public static int sources(int word) {
+		int op = word & 0x3F;
+		if (op <= OP_SLTU) {
+			return (1 << rs(word)) | (1 << rt(word));
+		} else if (op == OP_SW) {
+			return (1 << rs(word)) | (1 << rt(word));
+		} else if (op <= OP_JALR) {
+			return 1 << rs(word);
+		} else if (op == OP_SSET) {
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the register written by the instruction.
+	 * 
+	 * @param word
+	 *            the packed instruction
+	 * @return the register number (-1 if the instruction does not write any register)
+	 */
+	public static int destination(int word) {
+		int op = word & 0x3F;
+		if (op <= OP_SLTU) {
+			return rd(word);
+		} else if (op <= OP_LW) {
+			return rt(word);
+		}
+		switch (op) {
+		case OP_JALR:
+		case OP_JAL:
+			return 7;
+		case OP_SET:
+		case OP_SSET:
+			return 0;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Run the packed instruction. This has the same semantics as Instruction.run().
+	 *
+	 * @param word
+	 *            the packed instruction
+	 * @param pc
+	 *            the current program counter
+	 * @param regfile
+	 *            the register file
+	 * @param memory
+	 *            the memory
+	 * @return the next program counter
+	 */
+	public static int run(int word, int pc, RegisterFile regfile, Memory memory) {
+		int rs = (word >> 6) & 7;
+		int rt = (word >> 9) & 7;
+		int imm = word >> 16;
+		switch (word & 0x3F) {
+		case OP_AND:
+			regfile.set((word >> 12) & 7, regfile.get(rs) & regfile.get(rt));
+			break;
+		case OP_CAND:
+			regfile.set((word >> 12) & 7, ~regfile.get(rs) & regfile.get(rt));
+			break;
+		case OP_OR:
+			regfile.set((word >> 12) & 7, regfile.get(rs) | regfile.get(rt));
+			break;
+		case OP_XOR:
+			regfile.set((word >> 12) & 7, regfile.get(rs) ^ regfile.get(rt));
+			break;
+		case OP_ADD:
+			regfile.set((word >> 12) & 7, regfile.get(rs) + regfile.get(rt));
+			break;
+		case OP_NADD:
+			regfile.set((word >> 12) & 7, -regfile.get(rs) + regfile.get(rt));
+			break;
+		case OP_SLT:
+		case OP_SLTU:
+			if (regfile.get(rs) < regfile.get(rt)) {
+				regfile.set((word >> 12) & 7, 1);
+			}
+			break;
+		case OP_ANDI:
+		case OP_CANDI:
+			regfile.set(rt, regfile.get(rs) & imm);
+			break;
+		case OP_ORI:
+			regfile.set(rt, regfile.get(rs) | imm);
+			break;
+		case OP_XORI:
+			regfile.set(rt, regfile.get(rs) ^ imm);
+			break;
+		case OP_ADDI:
+			regfile.set(rt, regfile.get(rs) + imm);
+			break;
+		case OP_NADDI:
+			regfile.set(rt, -regfile.get(rs) + imm);
+			break;
+		case OP_SLTI:
+		case OP_SLTUI:
+			if (regfile.get(rs) < imm) {
+				regfile.set(rt, 1);
+			}
+			break;
+		case OP_SLL:
+			regfile.set(rt, regfile.get(rs) << imm);
+			break;
+		case OP_SRL:
+			regfile.set(rt, regfile.get(rs) >> imm);
+			break;
+		case OP_SRA:
+			regfile.set(rt, regfile.get(rs) >>> imm);
+			break;
+		case OP_ROR:
+			regfile.set(rt, regfile.get(rs) >>> imm | regfile.get(rs) << (32 - imm));
+			break;
+		case OP_LW:
+			regfile.set(rt, memory.read(regfile.get(rs) + imm));
+			break;
+		case OP_SW:
+			memory.write(regfile.get(rs) + imm, regfile.get(rt));
+			break;
+		case OP_BEQZ:
+			return (regfile.get(rs) == 0) ? pc + imm : pc + 1;
+		case OP_BNEZ:
+			return (regfile.get(rs) != 0) ? pc + imm : pc + 1;
+		case OP_BLTZ:
+			return (regfile.get(rs) < 0) ? pc + imm : pc + 1;
+		case OP_BGEZ:
+			return (regfile.get(rs) >= 0) ? pc + imm : pc + 1;
+		case OP_BGTZ:
+			return (regfile.get(rs) > 0) ? pc + imm : pc + 1;
+		case OP_BLEZ:
+			return (regfile.get(rs) <= 0) ? pc + imm : pc + 1;
+		case OP_JR:
+			return regfile.get(rs) + imm;
+		case OP_JALR: {
+			int newPc = regfile.get(rs) + imm;
+			regfile.set(7, newPc + 1);
+			return newPc;
+		}
+		case OP_SET:
+			regfile.set(0, imm);
+			break;
+		case OP_SSET:
+			regfile.set(0, (regfile.get(0) << 11) | imm);
+			break;
+		case OP_J:
+			return pc + imm;
+		case OP_JAL:
+			regfile.set(7, pc + 1);
+			return pc + imm;
+		}
+		return pc + 1;
+	}
+}
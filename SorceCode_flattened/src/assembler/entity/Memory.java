@@ -1,30 +1,75 @@
 package assembler.entity;
 
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * A class representing Memory.
- * 
+ *
+ * The 32-bit word address space is split into pages of PAGE_SIZE words. Pages are allocated lazily on the first write,
+ * through a two-level directory, so a sparse memory costs only the pages actually written. Words that were never
+ * written read as zero.
+ *
+ * The pages written since the last markClean() are tracked as dirty, so a snapshot (see Checkpoint) can save only the
+ * pages the program has changed. A page is marked when a write first goes to it; the writes that follow on the same
+ * page cost nothing more.
+ *
  */
 public class Memory {
-	private Map<Integer, Integer> mem = new HashMap<Integer, Integer>();
+	/**
+	 * Words per page is 2^PAGE_BITS.
+	 */
+	public static final int PAGE_BITS = 10;
+	public static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	// a page number (32 - PAGE_BITS bits) is split into the directory index and the index in the table
+	private static final int TABLE_BITS = 10;
+	private static final int TABLE_MASK = (1 << TABLE_BITS) - 1;
+	private static final int DIR_SIZE = 1 << (32 - PAGE_BITS - TABLE_BITS);
+
+	private final int[][][] dir = new int[DIR_SIZE][][];
+
+	// the allocated pages, in order of allocation; each page has one more word, past the data, holding the epoch in
+	// which it was last marked dirty
+	private int[][] pages = new int[4][];
+	private int[] pageNos = new int[4];
+	private int pageCount = 0;
+
+	// the pages marked dirty in the current epoch
+	private int epoch = 1;
+	private int[] dirtyPageNos = new int[4];
+	private int dirtyCount = 0;
+
+	// the last page touched, so that sequential accesses skip the directory lookup
+	private int lastPageNo = -1;
+	private int[] lastPage;
+
+	// the last page written, which is known to be dirty
+	private int writePageNo = -1;
+	private int[] writePage;
 
 	/**
 	 * Read a data of the memory.
-	 * 
+	 *
 	 * @param addr
 	 *            the memory address to read
-	 * @return the data at the address
+	 * @return the data at the address (0 if it was never written)
 	 */
 	public int read(int addr) {
-		int data = mem.get(addr);
-		return (data == 0) ? 0 : data;
+		int pageNo = addr >>> PAGE_BITS;
+		if (pageNo == lastPageNo) {
+			return lastPage[addr & PAGE_MASK];
+		}
+		int[] page = findPage(pageNo, false);
+		if (page == null) {
+			return 0;
+		}
+		return page[addr & PAGE_MASK];
 	}
 
 	/**
 	 * Write a data to the memory.
-	 * 
+	 *
 	 * @param addr
 	 *            the memory address to write data
 	 * @param data
@@ -32,7 +77,182 @@ public class Memory {
 	 * @return the previous value at the address
 	 */
 	public int write(int addr, int data) {
-		Integer oldData = mem.put(addr, data);
-		return (oldData == null) ? 0 : oldData;
+		int pageNo = addr >>> PAGE_BITS;
+		int[] page = (pageNo == writePageNo) ? writePage : dirtyPage(pageNo);
+		int offset = addr & PAGE_MASK;
+		int oldData = page[offset];
+		page[offset] = data;
+		return oldData;
+	}
+
+	/**
+	 * Read a data of the memory from outside the program (e.g., to display it). Subclasses which account the accesses
+	 * of the program do not account this one.
+	 *
+	 * @param addr
+	 *            the memory address to read
+	 * @return the data at the address (0 if it was never written)
+	 */
+	public int peek(int addr) {
+		return read(addr);
+	}
+
+	/**
+	 * Write a data to the memory from outside the program (e.g., to load the input). Subclasses which account the
+	 * accesses of the program do not account this one.
+	 *
+	 * @param addr
+	 *            the memory address to write data
+	 * @param data
+	 *            the data to write
+	 */
+	public void poke(int addr, int data) {
+		write(addr, data);
+	}
+
+	/**
+	 * Returns the number of pages allocated so far.
+	 *
+	 * @return the number of allocated pages
+	 */
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * Zero every word, keeping the pages allocated so that the memory can be reused (e.g., for the next input of a
+	 * sweep) without allocating them again. Only the allocated pages are touched, and they are all marked dirty.
+	 */
+	public void clear() {
+		for (int i = 0; i < pageCount; i++) {
+			Arrays.fill(pages[i], 0, PAGE_SIZE, 0);
+			mark(pageNos[i], pages[i]);
+		}
+	}
+
+	/**
+	 * Returns the numbers of the pages allocated so far, in order of allocation. A page number is an address shifted
+	 * right by PAGE_BITS.
+	 *
+	 * @return the page numbers
+	 */
+	public int[] getPageNos() {
+		return Arrays.copyOf(pageNos, pageCount);
+	}
+
+	/**
+	 * Returns the numbers of the pages written since the last markClean(), in the order they were first written.
+	 *
+	 * @return the page numbers
+	 */
+	public int[] getDirtyPageNos() {
+		return Arrays.copyOf(dirtyPageNos, dirtyCount);
+	}
+
+	/**
+	 * Start a new epoch, in which no page is dirty.
+	 */
+	public void markClean() {
+		epoch++;
+		dirtyCount = 0;
+		writePageNo = -1;
+		writePage = null;
+	}
+
+	/**
+	 * Copy the words of a page.
+	 *
+	 * @param pageNo
+	 *            the page number
+	 * @param dst
+	 *            the array to copy to (at least PAGE_SIZE long)
+	 * @return false if the page was never allocated (dst is then left untouched; the page reads as zero)
+	 */
+	public boolean copyPage(int pageNo, int[] dst) {
+		int[] page = findPage(pageNo, false);
+		if (page == null) {
+			return false;
+		}
+		System.arraycopy(page, 0, dst, 0, PAGE_SIZE);
+		return true;
+	}
+
+	/**
+	 * Set the words of a page, e.g., to restore a snapshot. This does not mark the page dirty.
+	 *
+	 * @param pageNo
+	 *            the page number
+	 * @param src
+	 *            the words (null to zero the page)
+	 */
+	public void loadPage(int pageNo, int[] src) {
+		int[] page = findPage(pageNo, src != null);
+		if (page == null) {
+			return; // never allocated, so already zero
+		}
+		if (src == null) {
+			Arrays.fill(page, 0, PAGE_SIZE, 0);
+		} else {
+			System.arraycopy(src, 0, page, 0, PAGE_SIZE);
+		}
+	}
+
+	/**
+	 * Look up the page for a write, and mark it dirty.
+	 */
+	private int[] dirtyPage(int pageNo) {
+		int[] page = findPage(pageNo, true);
+		mark(pageNo, page);
+		writePageNo = pageNo;
+		writePage = page;
+		return page;
+	}
+
+	private void mark(int pageNo, int[] page) {
+		if (page[PAGE_SIZE] != epoch) {
+			page[PAGE_SIZE] = epoch;
+			if (dirtyCount == dirtyPageNos.length) {
+				dirtyPageNos = Arrays.copyOf(dirtyPageNos, dirtyCount * 2);
+			}
+			dirtyPageNos[dirtyCount++] = pageNo;
+		}
+	}
+
+	/**
+	 * Look up the page, and remember it as the last page touched.
+	 *
+	 * @param pageNo
+	 *            the page number
+	 * @param allocate
+	 *            true to allocate the page if it does not exist yet
+	 * @return the page (null if it does not exist and allocate is false)
+	 */
+	private int[] findPage(int pageNo, boolean allocate) {
+		int dirIndex = pageNo >>> TABLE_BITS;
+		int[][] table = dir[dirIndex];
+		if (table == null) {
+			if (!allocate) {
+				return null;
+			}
+			table = new int[1 << TABLE_BITS][];
+			dir[dirIndex] = table;
+		}
+		int[] page = table[pageNo & TABLE_MASK];
+		if (page == null) {
+			if (!allocate) {
+				return null;
+			}
+			page = new int[PAGE_SIZE + 1];
+			table[pageNo & TABLE_MASK] = page;
+			if (pageCount == pages.length) {
+				pages = Arrays.copyOf(pages, pageCount * 2);
+				pageNos = Arrays.copyOf(pageNos, pageCount * 2);
+			}
+			pageNos[pageCount] = pageNo;
+			pages[pageCount++] = page;
+		}
+		lastPageNo = pageNo;
+		lastPage = page;
+		return page;
 	}
 }
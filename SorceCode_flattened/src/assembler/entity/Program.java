@@ -0,0 +1,211 @@
+package assembler.entity;
+
+import static assembler.utils.Utilites.*;
+
+import java.io.*;
+import java.util.*;
+
+import assembler.exception.*;
+import assembler.utils.LogisimImage;
+
+/**
+ * A class representing an assembled Program: the machine words, the label table and the source line of each step.
+ *
+ * A Program is handed from the Assembler to the Simulator directly (see Assembler.assembleProgram() and
+ * Simulator.load()); the text formats are rendered only when they are asked for. A Program cannot be modified once it
+ * is built, so a single Program can be used by any number of threads.
+ *
+ */
+public class Program {
+	private final int[] words;
+	private final SymbolTable symbols;
+	private final Map<String, Integer> labelMap;
+	private final int[] lineMap;
+	private volatile List<Instruction> decoded; // null until decode() is called
+	private volatile int[] image; // null until getImage() is called
+
+	/**
+	 * Constructs new Program object.
+	 *
+	 * @param words
+	 *            the machine word of each step (copied)
+	 * @param labelMap
+	 *            the label map (copied)
+	 * @param lineMap
+	 *            the source line number of each step (copied)
+	 */
+	public Program(int[] words, Map<String, Integer> labelMap, int[] lineMap) {
+		if (words.length != lineMap.length) {
+			throw new IllegalArgumentException("The line map must have a line number for each step");
+		}
+		this.words = words.clone();
+		this.symbols = new SymbolTable();
+		for (Map.Entry<String, Integer> entry : labelMap.entrySet()) {
+			int lineNo = (labelMap instanceof SymbolTable) ? ((SymbolTable) labelMap).getLineNo(((SymbolTable) labelMap)
+					.lookup(entry.getKey())) : 0;
+			try {
+				symbols.define(symbols.intern(entry.getKey()), entry.getValue(), lineNo);
+			} catch (SyntaxException e) {
+				throw new IllegalStateException(e); // a map has no duplicate key
+			}
+		}
+		symbols.freeze();
+		this.labelMap = Collections.unmodifiableMap(symbols);
+		this.lineMap = lineMap.clone();
+	}
+
+	/**
+	 * Returns the number of steps.
+	 *
+	 * @return the number of steps
+	 */
+	public int size() {
+		return words.length;
+	}
+
+	/**
+	 * Returns the machine word of the step.
+	 *
+	 * @param step
+	 *            the step number
+	 * @return the machine word (in the lower 16 bits)
+	 */
+	public int getWord(int step) {
+		return words[step];
+	}
+
+	/**
+	 * Returns a copy of the machine words.
+	 *
+	 * @return the machine word of each step
+	 */
+	public int[] getWords() {
+		return words.clone();
+	}
+
+	/**
+	 * Returns the label map.
+	 *
+	 * @return the unmodifiable map from each label to its step number
+	 */
+	public Map<String, Integer> getLabelMap() {
+		return labelMap;
+	}
+
+	/**
+	 * Returns the label defined at the step, e.g., for a symbolised trace.
+	 *
+	 * @param step
+	 *            the step number
+	 * @return the label (null if no label is defined at the step)
+	 */
+	public String getLabelAt(int step) {
+		return symbols.getLabelAt(step);
+	}
+
+	/**
+	 * Returns the line the label is defined on.
+	 *
+	 * @param label
+	 *            the label
+	 * @return the line number (0 if the label is not defined, or its line is not known)
+	 */
+	public int getLabelLineNo(String label) {
+		int id = symbols.lookup(label);
+		return (id < 0) ? 0 : symbols.getLineNo(id);
+	}
+
+	/**
+	 * Returns the source line of the step.
+	 *
+	 * @param step
+	 *            the step number
+	 * @return the line number in the assembler source
+	 */
+	public int getLineNo(int step) {
+		return lineMap[step];
+	}
+
+	/**
+	 * Decodes the machine words into Instructions, keeping the source line numbers. The words are decoded on the first
+	 * call only; the list is shared by every caller, and neither the list nor its Instructions can be modified, so
+	 * concurrent Simulators can load the same Program.
+	 *
+	 * @return the unmodifiable list of Instructions
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the program
+	 */
+	public List<Instruction> decode() throws InvalidInstructionException {
+		List<Instruction> list = decoded;
+		if (list == null) {
+			List<Instruction> instList = new ArrayList<Instruction>(words.length);
+			for (int i = 0; i < words.length; i++) {
+				Instruction inst = Instruction.createInstruction(words[i], lineMap[i], i);
+				if (inst == null) {
+					throw new InvalidInstructionException(intToHexString(words[i], 8), lineMap[i]);
+				}
+				instList.add(inst);
+			}
+			// racing threads decode the same list, any of them may be kept
+			decoded = list = Collections.unmodifiableList(instList);
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the packed image of the program (see InstructionImage), lowered straight from the machine words on the
+	 * first call, without decoding them into Instructions. The array is shared by every caller, so it must not be
+	 * modified.
+	 *
+	 * @return the packed image
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the program
+	 */
+	public int[] getImage() throws InvalidInstructionException {
+		int[] packed = image;
+		if (packed == null) {
+			image = packed = InstructionImage.lower(words, lineMap);
+		}
+		return packed;
+	}
+
+	/**
+	 * Renders the program as the binary code of Assembler.assemble() (Altera-friendly format).
+	 *
+	 * @return the binary code
+	 */
+	public String toListing() {
+		StringBuffer strbuf = new StringBuffer(words.length * 28);
+		for (int i = 0; i < words.length; i++) {
+			strbuf.append(listingLine(i, intToHexString(words[i], 8)));
+		}
+		return strbuf.toString();
+	}
+
+	/**
+	 * Renders the program as the binary code of Assembler.assembleA() (Logisim format).
+	 *
+	 * @return the binary code
+	 */
+	public String toRawString() {
+		StringBuffer strbuf = new StringBuffer(9 + words.length * 5);
+		strbuf.append("v2.0 raw\n");
+		for (int i = 0; i < words.length; i++) {
+			strbuf.append(intToHexString(words[i], 4));
+			strbuf.append(' ');
+		}
+		return strbuf.toString();
+	}
+
+	/**
+	 * Writes the program as a Logisim image, with runs of equal words compressed (see LogisimImage).
+	 *
+	 * @param out
+	 *            the image (not closed)
+	 * @throws IOException
+	 *             If the image cannot be written
+	 */
+	public void writeRaw(Writer out) throws IOException {
+		LogisimImage.write(words, 0, words.length, out);
+	}
+}
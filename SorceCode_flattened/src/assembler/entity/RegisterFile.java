@@ -1,5 +1,7 @@
 package assembler.entity;
 
+import java.util.Arrays;
+
 /**
  * A class representing Register File.
  * 
@@ -46,4 +48,29 @@ public class RegisterFile {
 	public void set(int i, int value) {
 		data[i] = value;
 	}
+
+	/**
+	 * Set all the registers to zero.
+	 */
+	public void clear() {
+		Arrays.fill(data, 0);
+	}
+
+	/**
+	 * Copy all the registers into the array.
+	 * 
+	 * @param dst the array to copy to (at least getSize() long)
+	 */
+	public void copyTo(int[] dst) {
+		System.arraycopy(data, 0, dst, 0, size);
+	}
+
+	/**
+	 * Set all the registers from the array.
+	 * 
+	 * @param src the array to copy from (at least getSize() long)
+	 */
+	public void copyFrom(int[] src) {
+		System.arraycopy(src, 0, data, 0, size);
+	}
 }
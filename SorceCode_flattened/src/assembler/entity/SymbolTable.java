@@ -0,0 +1,339 @@
+package assembler.entity;
+
+import java.util.*;
+
+import assembler.exception.*;
+
+/**
+ * A table of labels, interned to dense integer IDs.
+ *
+ * A label gets its ID the first time it is seen, either where it is defined or where it is jumped to, and the ID stays
+ * the same until the table is thrown away. The step of each label is held in an array indexed by ID, so an instruction
+ * parsed against this table resolves its label without hashing a string (see Instruction.encode()). The table also
+ * keeps the line each label is defined on, and a label cannot be defined twice.
+ *
+ * As a Map, the table holds the defined labels and their step numbers; it cannot be modified through the Map
+ * interface, except by clear().
+ *
+ */
+public class SymbolTable extends AbstractMap<String, Integer> {
+	private String[] names = new String[16];
+	private int[] hashes = new int[16];
+	private int[] steps = new int[16]; // -1 while undefined
+	private int[] lineNos = new int[16]; // line of the definition
+	private int[] slots = new int[32]; // open addressing, ID + 1 (0 for an empty slot)
+	private int count; // interned labels
+	private int defined; // defined labels
+	private int[] definedIds = new int[16]; // IDs of the defined labels, in order of definition
+	private int[] labelAt; // ID + 1 of the first label defined at each step (built on demand)
+	private boolean frozen; // read only (see freeze())
+
+	/**
+	 * Returns the ID of the label, interning it if it is new.
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @param start
+	 *            the offset of the label
+	 * @param end
+	 *            the offset of the end of the label
+	 * @return the ID of the label
+	 */
+	public int intern(char[] buf, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + buf[i];
+		}
+		int mask = slots.length - 1;
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			int id = slots[slot] - 1;
+			if (id < 0) {
+				return add(new String(buf, start, end - start), hash, slot);
+			}
+			if ((hashes[id] == hash) && regionMatches(names[id], buf, start, end)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Returns the ID of the label, interning it if it is new.
+	 *
+	 * @param name
+	 *            the label
+	 * @return the ID of the label
+	 */
+	public int intern(String name) {
+		int id = lookup(name);
+		if (id < 0) {
+			int hash = name.hashCode();
+			int mask = slots.length - 1;
+			int slot = hash & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			id = add(name, hash, slot);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the ID of the label, without interning it.
+	 *
+	 * @param name
+	 *            the label
+	 * @return the ID of the label (-1 if the label has never been seen)
+	 */
+	public int lookup(String name) {
+		int hash = name.hashCode();
+		int mask = slots.length - 1;
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			int id = slots[slot] - 1;
+			if (id < 0) {
+				return -1;
+			}
+			if ((hashes[id] == hash) && names[id].equals(name)) {
+				return id;
+			}
+		}
+	}
+
+	private int add(String name, int hash, int slot) {
+		checkWritable();
+		int id = count++;
+		if (id == names.length) {
+			int len = names.length * 2;
+			names = Arrays.copyOf(names, len);
+			hashes = Arrays.copyOf(hashes, len);
+			steps = Arrays.copyOf(steps, len);
+			lineNos = Arrays.copyOf(lineNos, len);
+		}
+		names[id] = name;
+		hashes[id] = hash;
+		steps[id] = -1;
+		lineNos[id] = 0;
+		slots[slot] = id + 1;
+		if (count * 2 > slots.length) {
+			rehash(slots.length * 2);
+		}
+		return id;
+	}
+
+	private void rehash(int size) {
+		slots = new int[size];
+		int mask = size - 1;
+		for (int id = 0; id < count; id++) {
+			int slot = hashes[id] & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+	}
+
+	private static boolean regionMatches(String name, char[] buf, int start, int end) {
+		if (name.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) != buf[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Define the label at the step.
+	 *
+	 * @param id
+	 *            the ID of the label
+	 * @param step
+	 *            the step number of the label
+	 * @param lineNo
+	 *            the line number of the definition
+	 * @throws SyntaxException
+	 *             If the label is already defined
+	 */
+	public void define(int id, int step, int lineNo) throws SyntaxException {
+		checkWritable();
+		if (steps[id] >= 0) {
+			throw new SyntaxException("Duplicate label (" + names[id] + ", first defined on line " + lineNos[id] + ")",
+					lineNo);
+		}
+		steps[id] = step;
+		lineNos[id] = lineNo;
+		if (defined == definedIds.length) {
+			definedIds = Arrays.copyOf(definedIds, defined * 2);
+		}
+		definedIds[defined++] = id;
+		labelAt = null;
+	}
+
+	/**
+	 * Returns the step number of the label.
+	 *
+	 * @param id
+	 *            the ID of the label
+	 * @return the step number (-1 if the label is not defined)
+	 */
+	public int getStep(int id) {
+		return steps[id];
+	}
+
+	/**
+	 * Returns the line the label is defined on.
+	 *
+	 * @param id
+	 *            the ID of the label
+	 * @return the line number (0 if the label is not defined)
+	 */
+	public int getLineNo(int id) {
+		return lineNos[id];
+	}
+
+	/**
+	 * Returns the label of the ID.
+	 *
+	 * @param id
+	 *            the ID of the label
+	 * @return the label
+	 */
+	public String getName(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Returns the number of labels interned, defined or not.
+	 *
+	 * @return the number of IDs
+	 */
+	public int getSymbolCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the label defined at the step, for symbolised listings and traces.
+	 *
+	 * @param step
+	 *            the step number
+	 * @return the first label (in ID order) defined at the step (null if there is none)
+	 */
+	public String getLabelAt(int step) {
+		if (labelAt == null) {
+			labelAt = indexLabels();
+		}
+		return ((0 <= step) && (step < labelAt.length) && (labelAt[step] != 0)) ? names[labelAt[step] - 1] : null;
+	}
+
+	/**
+	 * Build the index of the labels by step, and make the table read only. A frozen table is not modified afterwards, so
+	 * it can be read by any number of threads once it is safely published (e.g., through a final field of Program).
+	 */
+	void freeze() {
+		labelAt = indexLabels();
+		frozen = true;
+	}
+
+	/**
+	 * Returns the ID + 1 of the first label defined at each step.
+	 */
+	private int[] indexLabels() {
+		int max = -1;
+		for (int id = 0; id < count; id++) {
+			max = Math.max(max, steps[id]);
+		}
+		int[] at = new int[max + 1];
+		for (int id = count - 1; id >= 0; id--) {
+			if (steps[id] >= 0) {
+				at[steps[id]] = id + 1;
+			}
+		}
+		return at;
+	}
+
+	private void checkWritable() {
+		if (frozen) {
+			throw new IllegalStateException("The symbol table is read only");
+		}
+	}
+
+	/**
+	 * Forget every definition. The labels keep their IDs. Only the defined labels are visited, so clearing a table
+	 * which defines a few of many interned labels is cheap.
+	 */
+	@Override
+	public void clear() {
+		checkWritable();
+		for (int i = 0; i < defined; i++) {
+			steps[definedIds[i]] = -1;
+			lineNos[definedIds[i]] = 0;
+		}
+		defined = 0;
+		labelAt = null;
+	}
+
+	@Override
+	public Integer get(Object key) {
+		if (!(key instanceof String)) {
+			return null;
+		}
+		int id = lookup((String) key);
+		return ((id < 0) || (steps[id] < 0)) ? null : steps[id];
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		return defined;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Integer>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Integer>>() {
+			@Override
+			public Iterator<Map.Entry<String, Integer>> iterator() {
+				return new Iterator<Map.Entry<String, Integer>>() {
+					private int next = skip(0);
+
+					private int skip(int id) {
+						while ((id < count) && (steps[id] < 0)) {
+							id++;
+						}
+						return id;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next < count;
+					}
+
+					@Override
+					public Map.Entry<String, Integer> next() {
+						if (next >= count) {
+							throw new NoSuchElementException();
+						}
+						Map.Entry<String, Integer> entry = new SimpleImmutableEntry<String, Integer>(names[next],
+								steps[next]);
+						next = skip(next + 1);
+						return entry;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return defined;
+			}
+		};
+	}
+}
@@ -0,0 +1,13 @@
+package assembler.exception;
+
+/**
+ * Thrown when generated code does not fit in the limits of a class file (e.g., a method of 64K bytes or more, or a
+ * branch farther than a 16-bit offset reaches).
+ * 
+ */
+@SuppressWarnings("serial")
+public class CodeTooLargeException extends RuntimeException {
+	public CodeTooLargeException(String msg) {
+		super(msg);
+	}
+}
@@ -63,6 +63,15 @@ public class SyntaxException extends Exception {
 		this.charLoc = charLoc;
 	}
 
+	/**
+	 * Returns the line number.
+	 * 
+	 * @return the line number (-1 if the exception has none)
+	 */
+	public int getLine() {
+		return line;
+	}
+
 	/**
 	 * Returns the error message.
 	 * 
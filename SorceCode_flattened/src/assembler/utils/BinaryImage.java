@@ -0,0 +1,128 @@
+package assembler.utils;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+import assembler.exception.*;
+
+/**
+ * Reads and writes raw binary memory images: consecutive little-endian words of 2 or 4 bytes, without any header.
+ *
+ * An image is read by mapping the file into memory (FileChannel.map), so its words are taken straight from the page
+ * cache without parsing or copying the file.
+ *
+ */
+public class BinaryImage {
+	/**
+	 * Maps an image into memory.
+	 *
+	 * @param file
+	 *            the image file
+	 * @param wordBytes
+	 *            the size of a word in bytes (2 or 4)
+	 * @return the read-only buffer of the image, in little-endian order
+	 * @throws IOException
+	 *             If the file cannot be mapped
+	 * @throws SyntaxException
+	 *             If the file size is not a multiple of the word size, or the file is too large
+	 */
+	public static ByteBuffer map(Path file, int wordBytes) throws IOException, SyntaxException {
+		checkWordBytes(wordBytes);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if ((size % wordBytes) != 0) {
+				throw new SyntaxException("Image size (" + size + " bytes) is not a multiple of " + wordBytes);
+			}
+			if (size > Integer.MAX_VALUE) {
+				throw new SyntaxException("Image too large (" + size + " bytes)");
+			}
+			// the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Returns the number of words in a mapped image.
+	 *
+	 * @param image
+	 *            the mapped image
+	 * @param wordBytes
+	 *            the size of a word in bytes (2 or 4)
+	 * @return the number of words
+	 */
+	public static int size(ByteBuffer image, int wordBytes) {
+		return image.limit() / wordBytes;
+	}
+
+	/**
+	 * Returns a word of a mapped image. 2-byte words are zero-extended.
+	 *
+	 * @param image
+	 *            the mapped image
+	 * @param wordBytes
+	 *            the size of a word in bytes (2 or 4)
+	 * @param i
+	 *            the index of the word
+	 * @return the word
+	 */
+	public static int get(ByteBuffer image, int wordBytes, int i) {
+		return (wordBytes == 2) ? (image.getShort(i << 1) & 0xFFFF) : image.getInt(i << 2);
+	}
+
+	/**
+	 * Writes an image.
+	 *
+	 * @param words
+	 *            the words
+	 * @param from
+	 *            the index of the first word to write
+	 * @param to
+	 *            the index after the last word to write
+	 * @param wordBytes
+	 *            the size of a word in bytes (2 or 4; 2-byte words are truncated)
+	 * @param file
+	 *            the image file (created or replaced)
+	 * @throws IOException
+	 *             If the file cannot be written
+	 */
+	public static void write(int[] words, int from, int to, int wordBytes, Path file) throws IOException {
+		checkWordBytes(wordBytes);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = from; i < to; i++) {
+				if (buf.remaining() < wordBytes) {
+					drain(buf, channel);
+				}
+				if (wordBytes == 2) {
+					buf.putShort((short) words[i]);
+				} else {
+					buf.putInt(words[i]);
+				}
+			}
+			drain(buf, channel);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static void drain(ByteBuffer buf, FileChannel channel) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	private static void checkWordBytes(int wordBytes) {
+		if ((wordBytes != 2) && (wordBytes != 4)) {
+			throw new IllegalArgumentException("Words must be 2 or 4 bytes: " + wordBytes);
+		}
+	}
+}
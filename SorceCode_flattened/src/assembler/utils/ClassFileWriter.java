@@ -0,0 +1,507 @@
+package assembler.utils;
+
+import java.io.*;
+import java.util.*;
+
+import assembler.exception.CodeTooLargeException;
+
+/**
+ * Writes minimal JVM class files for the code generated by the simulator.
+ *
+ * Only what the generated code needs is supported: a constant pool with UTF8, Integer, Class, NameAndType and Methodref
+ * entries, and methods with a single Code attribute. Classes are written in class file version 49, so no
+ * StackMapTable has to be computed for the branches; the verifier infers the frames by itself.
+ *
+ */
+public class ClassFileWriter {
+	// class file version (Java 5)
+	private static final int VERSION = 49;
+
+	public static final int ACC_PUBLIC = 0x0001;
+	public static final int ACC_STATIC = 0x0008;
+	public static final int ACC_FINAL = 0x0010;
+	public static final int ACC_SUPER = 0x0020;
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream(pool);
+	private final Map<String, Integer> poolIndex = new HashMap<String, Integer>();
+	private int poolCount = 1;
+
+	private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+	private final DataOutputStream methodsOut = new DataOutputStream(methods);
+	private int methodCount = 0;
+
+	private final int thisClass;
+	private final int superClass;
+	private final int[] interfaces;
+
+	/**
+	 * Constructs new ClassFileWriter.
+	 *
+	 * @param className
+	 *            the internal name of the class (e.g., "pkg/Name")
+	 * @param superName
+	 *            the internal name of the super class
+	 * @param interfaceNames
+	 *            the internal names of the implemented interfaces
+	 */
+	public ClassFileWriter(String className, String superName, String... interfaceNames) {
+		thisClass = classRef(className);
+		superClass = classRef(superName);
+		interfaces = new int[interfaceNames.length];
+		for (int i = 0; i < interfaceNames.length; i++) {
+			interfaces[i] = classRef(interfaceNames[i]);
+		}
+	}
+
+	/**
+	 * Returns the constant pool index of an UTF8 entry.
+	 *
+	 * @param str
+	 *            the string
+	 * @return the constant pool index
+	 */
+	public int utf8(String str) {
+		Integer index = poolIndex.get("U" + str);
+		if (index == null) {
+			try {
+				poolOut.writeByte(1);
+				poolOut.writeUTF(str);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			index = newEntry("U" + str, 1);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the constant pool index of an Integer entry.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the constant pool index
+	 */
+	public int integer(int value) {
+		Integer index = poolIndex.get("I" + value);
+		if (index == null) {
+			write(3, value, -1);
+			index = newEntry("I" + value, 1);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the constant pool index of a Class entry.
+	 *
+	 * @param name
+	 *            the internal name of the class
+	 * @return the constant pool index
+	 */
+	public int classRef(String name) {
+		Integer index = poolIndex.get("C" + name);
+		if (index == null) {
+			int nameIndex = utf8(name);
+			write(7, nameIndex, -1);
+			index = newEntry("C" + name, 1);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the constant pool index of a Methodref entry.
+	 *
+	 * @param owner
+	 *            the internal name of the owner class
+	 * @param name
+	 *            the method name
+	 * @param desc
+	 *            the method descriptor
+	 * @return the constant pool index
+	 */
+	public int methodRef(String owner, String name, String desc) {
+		String key = "M" + owner + "." + name + desc;
+		Integer index = poolIndex.get(key);
+		if (index == null) {
+			int ownerIndex = classRef(owner);
+			int nameIndex = utf8(name);
+			int descIndex = utf8(desc);
+			Integer nat = poolIndex.get("N" + name + desc);
+			if (nat == null) {
+				write(12, nameIndex, descIndex);
+				nat = newEntry("N" + name + desc, 1);
+			}
+			write(10, ownerIndex, nat);
+			index = newEntry(key, 1);
+		}
+		return index;
+	}
+
+	/**
+	 * Adds a method.
+	 *
+	 * @param access
+	 *            the access flags
+	 * @param name
+	 *            the method name
+	 * @param desc
+	 *            the method descriptor
+	 * @param code
+	 *            the method body
+	 * @throws CodeTooLargeException
+	 *             If the method is too large, or one of its branches is out of range
+	 */
+	public void addMethod(int access, String name, String desc, Code code) {
+		int nameIndex = utf8(name);
+		int descIndex = utf8(desc);
+		int codeIndex = utf8("Code");
+		byte[] bytes = code.toByteArray();
+		if (bytes.length >= 65536) {
+			throw new CodeTooLargeException("Method too large: " + name + " (" + bytes.length + " bytes)");
+		}
+		try {
+			methodsOut.writeShort(access);
+			methodsOut.writeShort(nameIndex);
+			methodsOut.writeShort(descIndex);
+			methodsOut.writeShort(1); // attributes
+			methodsOut.writeShort(codeIndex);
+			methodsOut.writeInt(12 + bytes.length);
+			methodsOut.writeShort(code.maxStack);
+			methodsOut.writeShort(code.maxLocals);
+			methodsOut.writeInt(bytes.length);
+			methodsOut.write(bytes);
+			methodsOut.writeShort(0); // exception table
+			methodsOut.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		methodCount++;
+	}
+
+	/**
+	 * Adds the default constructor which calls the constructor of the super class.
+	 *
+	 * @param superName
+	 *            the internal name of the super class
+	 */
+	public void addDefaultConstructor(String superName) {
+		Code code = new Code(1, 1);
+		code.op(Code.ALOAD_0);
+		code.op(Code.INVOKESPECIAL, methodRef(superName, "<init>", "()V"));
+		code.op(Code.RETURN);
+		addMethod(ACC_PUBLIC, "<init>", "()V", code);
+	}
+
+	/**
+	 * Returns the class file.
+	 *
+	 * @return the class file
+	 */
+	public byte[] toByteArray() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			out.writeShort(poolCount);
+			pool.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaces.length);
+			for (int i : interfaces) {
+				out.writeShort(i);
+			}
+			out.writeShort(0); // fields
+			out.writeShort(methodCount);
+			methods.writeTo(out);
+			out.writeShort(0); // attributes
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private void write(int tag, int a, int b) {
+		try {
+			poolOut.writeByte(tag);
+			if (tag == 3) {
+				poolOut.writeInt(a);
+			} else {
+				poolOut.writeShort(a);
+				if (b >= 0) {
+					poolOut.writeShort(b);
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private int newEntry(String key, int size) {
+		int index = poolCount;
+		poolCount += size;
+		if (poolCount > 65535) {
+			throw new CodeTooLargeException("Constant pool too large (" + poolCount + " entries)");
+		}
+		poolIndex.put(key, index);
+		return index;
+	}
+
+	/**
+	 * A method body under construction. Branch targets are given as labels, which are resolved when the code is
+	 * finished.
+	 *
+	 */
+	public static class Code {
+		public static final int ICONST_0 = 0x03;
+		public static final int BIPUSH = 0x10;
+		public static final int SIPUSH = 0x11;
+		public static final int LDC_W = 0x13;
+		public static final int ILOAD = 0x15;
+		public static final int ALOAD = 0x19;
+		public static final int ALOAD_0 = 0x2A;
+		public static final int IALOAD = 0x2E;
+		public static final int ISTORE = 0x36;
+		public static final int IASTORE = 0x4F;
+		public static final int POP = 0x57;
+		public static final int DUP = 0x59;
+		public static final int IADD = 0x60;
+		public static final int ISUB = 0x64;
+		public static final int INEG = 0x74;
+		public static final int ISHL = 0x78;
+		public static final int ISHR = 0x7A;
+		public static final int IUSHR = 0x7C;
+		public static final int IAND = 0x7E;
+		public static final int IOR = 0x80;
+		public static final int IXOR = 0x82;
+		public static final int IFEQ = 0x99;
+		public static final int IFNE = 0x9A;
+		public static final int IFLT = 0x9B;
+		public static final int IFGE = 0x9C;
+		public static final int IFGT = 0x9D;
+		public static final int IFLE = 0x9E;
+		public static final int IF_ICMPLT = 0xA1;
+		public static final int IF_ICMPGE = 0xA2;
+		public static final int GOTO = 0xA7;
+		public static final int TABLESWITCH = 0xAA;
+		public static final int IRETURN = 0xAC;
+		public static final int RETURN = 0xB1;
+		public static final int INVOKEVIRTUAL = 0xB6;
+		public static final int INVOKESPECIAL = 0xB7;
+		public static final int INVOKESTATIC = 0xB8;
+
+		private byte[] buf = new byte[256];
+		private int length = 0;
+
+		private int[] labels = new int[16];
+		private int labelCount = 0;
+
+		// pending branch offsets: position of the offset, position of the opcode, label, width (2 or 4)
+		private int[] fixups = new int[64];
+		private int fixupCount = 0;
+
+		private int maxStack;
+		private int maxLocals;
+
+		/**
+		 * Constructs new Code.
+		 *
+		 * @param maxStack
+		 *            the maximum operand stack depth
+		 * @param maxLocals
+		 *            the number of local variable slots
+		 */
+		public Code(int maxStack, int maxLocals) {
+			this.maxStack = maxStack;
+			this.maxLocals = maxLocals;
+		}
+
+		/**
+		 * Returns the current length of the code.
+		 *
+		 * @return the length in bytes
+		 */
+		public int length() {
+			return length;
+		}
+
+		public void op(int opcode) {
+			u1(opcode);
+		}
+
+		/**
+		 * Emits an instruction with a 2-byte operand (e.g., a constant pool index).
+		 *
+		 * @param opcode
+		 *            the opcode
+		 * @param operand
+		 *            the operand
+		 */
+		public void op(int opcode, int operand) {
+			u1(opcode);
+			u2(operand);
+		}
+
+		/**
+		 * Pushes an int constant with the shortest instruction.
+		 *
+		 * @param cf
+		 *            the class file (for the constant pool)
+		 * @param value
+		 *            the value
+		 */
+		public void iconst(ClassFileWriter cf, int value) {
+			if ((-1 <= value) && (value <= 5)) {
+				u1(ICONST_0 + value);
+			} else if ((Byte.MIN_VALUE <= value) && (value <= Byte.MAX_VALUE)) {
+				u1(BIPUSH);
+				u1(value);
+			} else if ((Short.MIN_VALUE <= value) && (value <= Short.MAX_VALUE)) {
+				u1(SIPUSH);
+				u2(value);
+			} else {
+				op(LDC_W, cf.integer(value));
+			}
+		}
+
+		public void iload(int local) {
+			u1(ILOAD);
+			u1(local);
+		}
+
+		public void istore(int local) {
+			u1(ISTORE);
+			u1(local);
+		}
+
+		public void aload(int local) {
+			u1(ALOAD);
+			u1(local);
+		}
+
+		/**
+		 * Creates a new label.
+		 *
+		 * @return the label
+		 */
+		public int newLabel() {
+			if (labelCount == labels.length) {
+				labels = Arrays.copyOf(labels, labelCount * 2);
+			}
+			labels[labelCount] = -1;
+			return labelCount++;
+		}
+
+		/**
+		 * Binds the label to the current position.
+		 *
+		 * @param label
+		 *            the label
+		 */
+		public void mark(int label) {
+			labels[label] = length;
+		}
+
+		/**
+		 * Emits a branch instruction (if*, goto) to the label.
+		 *
+		 * @param opcode
+		 *            the branch opcode
+		 * @param label
+		 *            the target label
+		 */
+		public void jump(int opcode, int label) {
+			int at = length;
+			u1(opcode);
+			addFixup(length, at, label, 2);
+			u2(0);
+		}
+
+		/**
+		 * Emits a tableswitch over the values low..low+targets.length-1.
+		 *
+		 * @param low
+		 *            the lowest value
+		 * @param defaultLabel
+		 *            the label for the values out of the range
+		 * @param targets
+		 *            the labels for each value
+		 */
+		public void tableswitch(int low, int defaultLabel, int[] targets) {
+			int at = length;
+			u1(TABLESWITCH);
+			while ((length & 3) != 0) {
+				u1(0);
+			}
+			addFixup(length, at, defaultLabel, 4);
+			u4(0);
+			u4(low);
+			u4(low + targets.length - 1);
+			for (int target : targets) {
+				addFixup(length, at, target, 4);
+				u4(0);
+			}
+		}
+
+		/**
+		 * Resolves the labels and returns the code.
+		 *
+		 * @return the bytecode
+		 * @throws CodeTooLargeException
+		 *             If a branch offset does not fit in 16 bits
+		 */
+		public byte[] toByteArray() {
+			for (int i = 0; i < fixupCount; i += 4) {
+				int pos = fixups[i];
+				int target = labels[fixups[i + 2]];
+				if (target < 0) {
+					throw new IllegalStateException("Unbound label " + fixups[i + 2]);
+				}
+				int offset = target - fixups[i + 1];
+				if (fixups[i + 3] == 2) {
+					if ((offset < Short.MIN_VALUE) || (Short.MAX_VALUE < offset)) {
+						throw new CodeTooLargeException("Branch offset out of range: " + offset);
+					}
+					buf[pos] = (byte) (offset >> 8);
+					buf[pos + 1] = (byte) offset;
+				} else {
+					buf[pos] = (byte) (offset >> 24);
+					buf[pos + 1] = (byte) (offset >> 16);
+					buf[pos + 2] = (byte) (offset >> 8);
+					buf[pos + 3] = (byte) offset;
+				}
+			}
+			return Arrays.copyOf(buf, length);
+		}
+
+		private void addFixup(int pos, int at, int label, int width) {
+			if (fixupCount + 4 > fixups.length) {
+				fixups = Arrays.copyOf(fixups, fixups.length * 2);
+			}
+			fixups[fixupCount++] = pos;
+			fixups[fixupCount++] = at;
+			fixups[fixupCount++] = label;
+			fixups[fixupCount++] = width;
+		}
+
+		private void u1(int b) {
+			if (length == buf.length) {
+				buf = Arrays.copyOf(buf, length * 2);
+			}
+			buf[length++] = (byte) b;
+		}
+
+		private void u2(int s) {
+			u1(s >> 8);
+			u1(s);
+		}
+
+		private void u4(int i) {
+			u2(i >> 16);
+			u2(i);
+		}
+	}
+}
@@ -0,0 +1,651 @@
+package assembler.utils;
+
+/**
+ * A lexer for the lines of the assembler source, in form of [[label:] code args][;comment].
+ *
+ * The lexer works on a char array, and every token is a pair of offsets into it; no string is created while a line is
+ * split, or while its registers and immediates are converted. A lexer is reused line after line (it is not
+ * thread-safe).
+ *
+ * The line is split exactly as code.split("[\t ]+", 3) and args.split(",[\t ]*") would split it, and the conversions
+ * accept the same forms as Utilites.getRegisterNumber(), dStrToInt() and isIntegerForm().
+ *
+ */
+public class Lexer {
+	/**
+	 * Kinds of argument tokens.
+	 */
+	public static enum Kind {
+		REGISTER, IMMEDIATE, OFFSET_BASE, SYMBOL;
+	}
+
+	/**
+	 * Returned by decode() and immediate() when the token is not a valid number.
+	 */
+	public static final long INVALID = Long.MIN_VALUE;
+
+	// Alias names for registers
+	private static final char[][] regname = new char[][] { "t0".toCharArray(), "t1".toCharArray(),
+			"t2".toCharArray(), "t3".toCharArray(), "t4".toCharArray(), "t5".toCharArray(), "t6".toCharArray(),
+			"t7".toCharArray() };
+
+	private char[] buf;
+	private int parts; // 0 (no code), 1 (label only) to 3 parts
+	private int labelStart, labelEnd; // the first part (either "<label>:" or empty)
+	private int mnemonicStart, mnemonicEnd;
+	private int commentStart; // -1 if the line has no comment
+	private int lineEnd;
+	private int argc;
+	private int[] argStart = new int[4];
+	private int[] argEnd = new int[4];
+
+	/**
+	 * Split a line into its tokens.
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @param start
+	 *            the offset of the line
+	 * @param end
+	 *            the offset of the end of the line (without the line terminator)
+	 * @return true if the line has any code (false if it is empty or comment-only)
+	 */
+	public boolean line(char[] buf, int start, int end) {
+		this.buf = buf;
+		this.lineEnd = end;
+		parts = 0;
+		argc = 0;
+
+		// Remove comments
+		int code = start;
+		while ((code < end) && (buf[code] != ';')) {
+			code++;
+		}
+		commentStart = (code < end) ? code : -1;
+		if (trimStart(start, code) == code) {
+			return false;
+		}
+
+		// Split label (empty if it doesn't exist), mnemonic and arguments
+		int d1 = delimiter(start, code);
+		labelStart = trimStart(start, d1);
+		labelEnd = trimEnd(labelStart, d1);
+		parts = 1;
+		if (d1 == code) {
+			return true;
+		}
+		int p1 = skipDelimiter(d1, code);
+		parts = 2;
+		int d2 = delimiter(p1, code);
+		mnemonicStart = trimStart(p1, d2);
+		mnemonicEnd = trimEnd(mnemonicStart, d2);
+		if (d2 == code) {
+			return true;
+		}
+		parts = 3;
+		int s = trimStart(skipDelimiter(d2, code), code);
+		splitArguments(s, trimEnd(s, code));
+		return true;
+	}
+
+	/**
+	 * Set the arguments, which have already been split, as the argument tokens.
+	 *
+	 * @param args
+	 *            the arguments (e.g., {"$1", "$2", "4"})
+	 */
+	public void arguments(String[] args) {
+		int len = 0;
+		for (String arg : args) {
+			len += arg.length();
+		}
+		buf = new char[len];
+		parts = 3;
+		labelStart = labelEnd = mnemonicStart = mnemonicEnd = 0;
+		commentStart = -1;
+		lineEnd = len;
+		argc = 0;
+		int p = 0;
+		for (String arg : args) {
+			arg.getChars(0, arg.length(), buf, p);
+			addArgument(p, p + arg.length());
+			p += arg.length();
+		}
+	}
+
+	/*
+	 * Split the arguments at every comma, with the spaces and tabs following it. As with String.split(), trailing
+	 * empty arguments are removed, but an empty string is a single empty argument.
+	 */
+	private void splitArguments(int start, int end) {
+		int from = start;
+		for (int p = start; p < end; p++) {
+			if (buf[p] == ',') {
+				addArgument(from, p);
+				from = skipDelimiter(p + 1, end);
+				p = from - 1;
+			}
+		}
+		if ((argc == 0) || (from < end)) {
+			addArgument(from, end);
+		}
+		while ((argc > 0) && (argStart[argc - 1] == argEnd[argc - 1]) && (start < end)) {
+			argc--;
+		}
+	}
+
+	private void addArgument(int start, int end) {
+		if (argc == argStart.length) {
+			argStart = java.util.Arrays.copyOf(argStart, argc * 2);
+			argEnd = java.util.Arrays.copyOf(argEnd, argc * 2);
+		}
+		argStart[argc] = start;
+		argEnd[argc] = end;
+		argc++;
+	}
+
+	private int delimiter(int p, int end) {
+		while ((p < end) && (buf[p] != ' ') && (buf[p] != '\t')) {
+			p++;
+		}
+		return p;
+	}
+
+	private int skipDelimiter(int p, int end) {
+		while ((p < end) && ((buf[p] == ' ') || (buf[p] == '\t'))) {
+			p++;
+		}
+		return p;
+	}
+
+	// same as String.trim()
+	private int trimStart(int p, int end) {
+		while ((p < end) && (buf[p] <= ' ')) {
+			p++;
+		}
+		return p;
+	}
+
+	private int trimEnd(int start, int p) {
+		while ((p > start) && (buf[p - 1] <= ' ')) {
+			p--;
+		}
+		return p;
+	}
+
+	/**
+	 * Returns the buffer the offsets point into.
+	 *
+	 * @return the buffer
+	 */
+	public char[] getBuffer() {
+		return buf;
+	}
+
+	/**
+	 * Returns the number of parts of the code: label, mnemonic and arguments.
+	 *
+	 * @return the number of parts (0 if the line has no code)
+	 */
+	public int getParts() {
+		return parts;
+	}
+
+	/**
+	 * Returns if the first part of the code is a label definition ("<label>:").
+	 *
+	 * @return true if the line defines a label (false if it is empty)
+	 */
+	public boolean hasLabel() {
+		return (parts > 0) && (labelEnd > labelStart) && (buf[labelEnd - 1] == ':');
+	}
+
+	/**
+	 * Returns if the first part of the code is empty.
+	 *
+	 * @return true if the code starts with a space or a tab
+	 */
+	public boolean isLabelEmpty() {
+		return labelEnd == labelStart;
+	}
+
+	public int getLabelStart() {
+		return labelStart;
+	}
+
+	/**
+	 * Returns the end of the label, without its ":".
+	 *
+	 * @return the offset of the end of the label
+	 */
+	public int getLabelEnd() {
+		return hasLabel() ? labelEnd - 1 : labelEnd;
+	}
+
+	public int getMnemonicStart() {
+		return mnemonicStart;
+	}
+
+	public int getMnemonicEnd() {
+		return mnemonicEnd;
+	}
+
+	/**
+	 * Returns the offset of the comment.
+	 *
+	 * @return the offset of the ";" (-1 if the line has no comment)
+	 */
+	public int getCommentStart() {
+		return commentStart;
+	}
+
+	public int getCommentEnd() {
+		return (commentStart < 0) ? -1 : lineEnd;
+	}
+
+	public int getArgCount() {
+		return argc;
+	}
+
+	/**
+	 * Returns the offset of an argument.
+	 *
+	 * @param i
+	 *            the index of the argument
+	 * @return the offset
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             If the line has no such argument
+	 */
+	public int getArgStart(int i) {
+		if (i >= argc) {
+			throw new ArrayIndexOutOfBoundsException(i);
+		}
+		return argStart[i];
+	}
+
+	/**
+	 * Returns the end of an argument.
+	 *
+	 * @param i
+	 *            the index of the argument
+	 * @return the offset of the end
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             If the line has no such argument
+	 */
+	public int getArgEnd(int i) {
+		if (i >= argc) {
+			throw new ArrayIndexOutOfBoundsException(i);
+		}
+		return argEnd[i];
+	}
+
+	/**
+	 * Returns the kind of an argument.
+	 *
+	 * @param i
+	 *            the index of the argument
+	 * @return the kind
+	 */
+	public Kind kind(int i) {
+		int s = getArgStart(i), e = getArgEnd(i);
+		if ((s < e) && (buf[s] == '$')) {
+			return Kind.REGISTER;
+		} else if (isOffsetBase(i)) {
+			return Kind.OFFSET_BASE;
+		} else if (decode(buf, s, e) != INVALID) {
+			return Kind.IMMEDIATE;
+		}
+		return Kind.SYMBOL;
+	}
+
+	/**
+	 * Returns the text of a token. This is the only method which creates a string.
+	 *
+	 * @param start
+	 *            the offset of the token
+	 * @param end
+	 *            the offset of the end of the token
+	 * @return the text
+	 */
+	public String text(int start, int end) {
+		return new String(buf, start, end - start);
+	}
+
+	/**
+	 * Returns the text of an argument.
+	 *
+	 * @param i
+	 *            the index of the argument
+	 * @return the text
+	 */
+	public String arg(int i) {
+		return text(getArgStart(i), getArgEnd(i));
+	}
+
+	/**
+	 * Returns if the token equals the string, ignoring the case of ASCII letters.
+	 *
+	 * @param start
+	 *            the offset of the token
+	 * @param end
+	 *            the offset of the end of the token
+	 * @param str
+	 *            the string (in upper case)
+	 * @return true if they are equal
+	 */
+	public boolean equalsUpper(int start, int end, String str) {
+		if (end - start != str.length()) {
+			return false;
+		}
+		for (int i = 0; i < str.length(); i++) {
+			char c = buf[start + i];
+			if (('a' <= c) && (c <= 'z')) {
+				c -= 'a' - 'A';
+			}
+			if (c != str.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the register number of an argument, as Utilites.getRegisterNumber().
+	 *
+	 * @param i
+	 *            the index of the argument
+	 * @return the register number (-1 when the register does not exist)
+	 */
+	public int register(int i) {
+		return register(buf, getArgStart(i), getArgEnd(i));
+	}
+
+	/**
+	 * Converts an argument into integer, as Utilites.dStrToInt().
+	 *
+	 * @param i
+	 *            the index of the argument
+	 * @param bits
+	 *            the binary bits
+	 * @return the value (INVALID when the argument does not fit in <i>bits</i> bits)
+	 */
+	public long immediate(int i, int bits) {
+		return immediate(buf, getArgStart(i), getArgEnd(i), bits);
+	}
+
+	/**
+	 * Returns if an argument consists of numbers, as Utilites.isIntegerForm().
+	 *
+	 * @param i
+	 *            the index of the argument
+	 * @return true if the argument consists of number
+	 */
+	public boolean isIntegerForm(int i) {
+		return isIntegerForm(buf, getArgStart(i), getArgEnd(i));
+	}
+
+	/**
+	 * Returns if an argument is in form of imm($rs).
+	 *
+	 * @param i
+	 *            the index of the argument
+	 * @return true if the argument matches "^.+\(\$\d{1,2}\)$"
+	 */
+	public boolean isOffsetBase(int i) {
+		int s = getArgStart(i), e = getArgEnd(i);
+		if ((e - s < 5) || (buf[e - 1] != ')')) {
+			return false;
+		}
+		// one or two digits, and "." does not match a line terminator
+		for (int digits = 1; (digits <= 2) && (e - 4 - digits >= s); digits++) {
+			if (!isDigit(buf[e - 1 - digits])) {
+				return false;
+			}
+			int open = e - 3 - digits;
+			if ((buf[open] == '(') && (buf[open + 1] == '$') && noLineTerminator(s, open)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean noLineTerminator(int s, int e) {
+		for (int p = s; p < e; p++) {
+			char c = buf[p];
+			if ((c == '\n') || (c == '\r') || (c == '\u0085') || (c == '\u2028') || (c == '\u2029')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the offset of the first occurrence of the character in an argument.
+	 *
+	 * @param i
+	 *            the index of the argument
+	 * @param c
+	 *            the character
+	 * @return the offset (-1 if there is none)
+	 */
+	public int indexOf(int i, char c) {
+		for (int p = getArgStart(i); p < getArgEnd(i); p++) {
+			if (buf[p] == c) {
+				return p;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isDigit(char c) {
+		return ('0' <= c) && (c <= '9');
+	}
+
+	/**
+	 * Gets the register number for the token (e.g., "$2" or "$t2").
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @param start
+	 *            the offset of the token
+	 * @param end
+	 *            the offset of the end of the token
+	 * @return the register number (-1 when the register does not exist)
+	 */
+	public static int register(char[] buf, int start, int end) {
+		if ((start >= end) || (buf[start] != '$')) {
+			return -1;
+		}
+		long r = parse(buf, start + 1, end, 10, true);
+		if (r != INVALID) {
+			return ((0 <= r) && (r < 8)) ? (int) r : -1;
+		}
+		for (int i = 0; i < regname.length; i++) {
+			if (regionMatches(buf, start + 1, end, regname[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean regionMatches(char[] buf, int start, int end, char[] str) {
+		if (end - start != str.length) {
+			return false;
+		}
+		for (int i = 0; i < str.length; i++) {
+			if (buf[start + i] != str[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Converts the token into integer, ensuring that the value fits in <i>bits</i> bits.
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @param start
+	 *            the offset of the token
+	 * @param end
+	 *            the offset of the end of the token
+	 * @param bits
+	 *            the binary bits
+	 * @return the value (INVALID when the token does not fit in <i>bits</i> bits)
+	 */
+	public static long immediate(char[] buf, int start, int end, int bits) {
+		long val = decode(buf, start, end);
+		if ((val != INVALID) && (Math.abs((int) val) < (1L << bits))) {
+			return val;
+		}
+		return INVALID;
+	}
+
+	/**
+	 * Decodes the token as Integer.decode() (decimal, "0x", "#" or octal, with an optional sign).
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @param start
+	 *            the offset of the token
+	 * @param end
+	 *            the offset of the end of the token
+	 * @return the value (INVALID if the token is not an int)
+	 */
+	public static long decode(char[] buf, int start, int end) {
+		int p = start;
+		boolean negative = false;
+		if ((p < end) && ((buf[p] == '-') || (buf[p] == '+'))) {
+			negative = (buf[p] == '-');
+			p++;
+		}
+		int radix = 10;
+		if ((p + 1 < end) && (buf[p] == '0') && ((buf[p + 1] == 'x') || (buf[p + 1] == 'X'))) {
+			p += 2;
+			radix = 16;
+		} else if ((p < end) && (buf[p] == '#')) {
+			p++;
+			radix = 16;
+		} else if ((p + 1 < end) && (buf[p] == '0')) {
+			p++;
+			radix = 8;
+		}
+		if ((p < end) && ((buf[p] == '-') || (buf[p] == '+'))) {
+			return INVALID; // sign character in wrong position
+		}
+		long val = parse(buf, p, end, radix, false);
+		if (val == INVALID) {
+			return INVALID;
+		}
+		val = negative ? -val : val;
+		return ((Integer.MIN_VALUE <= val) && (val <= Integer.MAX_VALUE)) ? val : INVALID;
+	}
+
+	/*
+	 * Parse the digits (as Integer.parseInt(), optionally with a sign). The value is not limited to an int, but it
+	 * stays within a long.
+	 */
+	private static long parse(char[] buf, int start, int end, int radix, boolean signed) {
+		int p = start;
+		boolean negative = false;
+		if (signed && (p < end) && ((buf[p] == '-') || (buf[p] == '+'))) {
+			negative = (buf[p] == '-');
+			p++;
+		}
+		if (p == end) {
+			return INVALID;
+		}
+		long val = 0;
+		for (; p < end; p++) {
+			int digit = Character.digit(buf[p], radix);
+			if (digit < 0) {
+				return INVALID;
+			}
+			val = val * radix + digit;
+			if (val > (1L << 32)) {
+				return INVALID;
+			}
+		}
+		val = negative ? -val : val;
+		if (signed && ((val < Integer.MIN_VALUE) || (Integer.MAX_VALUE < val))) {
+			return INVALID;
+		}
+		return val;
+	}
+
+	/**
+	 * Returns if the token consists of numbers (with an optional "-").
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @param start
+	 *            the offset of the token
+	 * @param end
+	 *            the offset of the end of the token
+	 * @return true if the token consists of number
+	 */
+	public static boolean isIntegerForm(char[] buf, int start, int end) {
+		int p = start;
+		if ((p < end) && (buf[p] == '-')) {
+			p++;
+		}
+		if (p == end) {
+			return false;
+		}
+		for (; p < end; p++) {
+			if (!isDigit(buf[p])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the end of the line starting at the offset. Line terminators are those of Scanner.nextLine(): "\r\n", or
+	 * any of '\n', '\r', '\u2028', '\u2029' and '\u0085'.
+	 *
+	 * @param src
+	 *            the text
+	 * @param p
+	 *            the offset of the line
+	 * @return the offset of the end of the line, excluding the line terminator
+	 */
+	public static int lineEnd(String src, int p) {
+		int len = src.length();
+		while ((p < len) && !isLineTerminator(src.charAt(p))) {
+			p++;
+		}
+		return p;
+	}
+
+	/**
+	 * Returns the start of the line after the line starting at the offset.
+	 *
+	 * @param src
+	 *            the text
+	 * @param p
+	 *            the offset of the line
+	 * @return the offset of the next line (the length of the text after the last line)
+	 */
+	public static int nextLine(String src, int p) {
+		int end = lineEnd(src, p);
+		if (end == src.length()) {
+			return end;
+		}
+		if ((src.charAt(end) == '\r') && (end + 1 < src.length()) && (src.charAt(end + 1) == '\n')) {
+			return end + 2;
+		}
+		return end + 1;
+	}
+
+	/**
+	 * Returns if the character terminates a line, as in Scanner.nextLine().
+	 *
+	 * @param c
+	 *            the character
+	 * @return true if the character is a line terminator
+	 */
+	public static boolean isLineTerminator(char c) {
+		return (c == '\n') || (c == '\r') || (c == '\u2028') || (c == '\u2029') || (c == '\u0085');
+	}
+}
@@ -0,0 +1,203 @@
+package assembler.utils;
+
+import java.io.*;
+
+import assembler.exception.*;
+
+/**
+ * Reads and writes memory images in the "v2.0 raw" format of Logisim.
+ *
+ * The image is the header line "v2.0 raw" followed by hexadecimal words separated by white space; "N*value" stands for
+ * N (in decimal) consecutive copies of the value, and "#" starts a comment to the end of the line. The reader streams
+ * the words to a Sink as it scans the characters, so an image is never held as a String, and a run is delivered as a
+ * single call however long it is.
+ *
+ */
+public class LogisimImage {
+	/**
+	 * The header line of the format.
+	 */
+	public static final String HEADER = "v2.0 raw";
+
+	// runs at least this long are written as "N*value"
+	private static final int MIN_RUN = 4;
+
+	// entries written per line
+	private static final int PER_LINE = 8;
+
+	/**
+	 * Receives the words of an image.
+	 */
+	public interface Sink {
+		/**
+		 * Receive a run of equal words.
+		 *
+		 * @param addr
+		 *            the address of the first word, counted from the start of the image
+		 * @param value
+		 *            the word
+		 * @param count
+		 *            the number of copies (at least 1)
+		 * @param lineNo
+		 *            the line of the image where the run is
+		 */
+		void put(int addr, int value, int count, int lineNo);
+	}
+
+	/**
+	 * Reads an image.
+	 *
+	 * @param in
+	 *            the image (not closed)
+	 * @param sink
+	 *            the sink receiving the words
+	 * @return the number of words in the image
+	 * @throws IOException
+	 *             If the image cannot be read
+	 * @throws SyntaxException
+	 *             If the image is not in the format
+	 */
+	public static int read(Reader in, Sink sink) throws IOException, SyntaxException {
+		char[] buf = new char[1 << 13];
+		int len = 0, pos = 0;
+		int lineNo = 1;
+		int addr = 0;
+		boolean header = true;
+		boolean comment = false;
+		// the token being scanned
+		StringBuffer token = new StringBuffer(16);
+
+		while (true) {
+			if (pos == len) {
+				len = in.read(buf, 0, buf.length);
+				pos = 0;
+				if (len < 0) {
+					break;
+				}
+				continue;
+			}
+			char c = buf[pos++];
+			if (header) {
+				if ((c == '\n') || (c == '\r')) {
+					if (!token.toString().trim().equals(HEADER)) {
+						throw new SyntaxException("Missing header \"" + HEADER + "\"", lineNo);
+					}
+					header = false;
+					token.setLength(0);
+					if (c == '\n') {
+						lineNo++;
+					}
+				} else {
+					token.append(c);
+				}
+				continue;
+			}
+			if (comment) {
+				if (c == '\n') {
+					comment = false;
+					lineNo++;
+				}
+				continue;
+			}
+			if ((c == '#') || Character.isWhitespace(c)) {
+				if (token.length() > 0) {
+					addr += put(token, addr, lineNo, sink);
+					token.setLength(0);
+				}
+				if (c == '#') {
+					comment = true;
+				} else if (c == '\n') {
+					lineNo++;
+				}
+				continue;
+			}
+			token.append(c);
+		}
+		if (header) {
+			if (!token.toString().trim().equals(HEADER)) {
+				throw new SyntaxException("Missing header \"" + HEADER + "\"", lineNo);
+			}
+		} else if (token.length() > 0) {
+			addr += put(token, addr, lineNo, sink);
+		}
+		return addr;
+	}
+
+	/**
+	 * Parse a "value" or "N*value" token and pass it to the sink.
+	 *
+	 * @return the number of words of the token
+	 */
+	private static int put(StringBuffer token, int addr, int lineNo, Sink sink) throws SyntaxException {
+		int star = token.indexOf("*");
+		int count = 1;
+		if (star >= 0) {
+			count = 0;
+			for (int i = 0; i < star; i++) {
+				int digit = Character.digit(token.charAt(i), 10);
+				if ((digit < 0) || (count > (Integer.MAX_VALUE - digit) / 10)) {
+					throw new SyntaxException("Invalid repeat count (" + token + ")", lineNo);
+				}
+				count = count * 10 + digit;
+			}
+			if (count == 0) {
+				throw new SyntaxException("Invalid repeat count (" + token + ")", lineNo);
+			}
+		}
+		int from = star + 1;
+		if ((token.length() == from) || (token.length() - from > 8)) {
+			throw new SyntaxException("Invalid word (" + token + ")", lineNo);
+		}
+		int value = 0;
+		for (int i = from; i < token.length(); i++) {
+			int digit = Character.digit(token.charAt(i), 16);
+			if (digit < 0) {
+				throw new SyntaxException("Invalid word (" + token + ")", lineNo);
+			}
+			value = (value << 4) | digit;
+		}
+		if (addr + count < 0) {
+			throw new SyntaxException("Image too large", lineNo);
+		}
+		sink.put(addr, value, count, lineNo);
+		return count;
+	}
+
+	/**
+	 * Writes an image, compressing runs of equal words.
+	 *
+	 * @param words
+	 *            the words
+	 * @param from
+	 *            the index of the first word to write
+	 * @param to
+	 *            the index after the last word to write
+	 * @param out
+	 *            the image (not closed)
+	 * @throws IOException
+	 *             If the image cannot be written
+	 */
+	public static void write(int[] words, int from, int to, Writer out) throws IOException {
+		out.write(HEADER);
+		out.write('\n');
+		int entries = 0;
+		int i = from;
+		while (i < to) {
+			int value = words[i];
+			int run = i + 1;
+			while ((run < to) && (words[run] == value)) {
+				run++;
+			}
+			int count = run - i;
+			if (count >= MIN_RUN) {
+				out.write(count + "*" + Integer.toHexString(value));
+				i = run;
+			} else {
+				out.write(Integer.toHexString(value));
+				i++;
+			}
+			entries++;
+			out.write(((entries % PER_LINE) == 0) || (i == to) ? '\n' : ' ');
+		}
+	}
+}
@@ -1,7 +1,10 @@
 package assembler.utils;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.*;
 import java.util.*;
-import java.util.regex.*;
 
 import assembler.entity.Instruction;
 import assembler.exception.*;
@@ -11,13 +14,14 @@ import assembler.exception.*;
  * 
  */
 public class Utilites {
+	/**
+	 * Charset of the text files read and written by the tools (sources, images, inputs and results). Any ASCII file
+	 * reads the same in it, and a comment may hold any other character.
+	 */
+	public static final Charset CHARSET = Charset.forName("UTF-8");
 
-	// Alias names for registers
-	private static final String[] regname = new String[] { "t0",
-			"t1", "t2", "t3", "t4", "t5", "t6", "t7" };
-
-	// Binary code format (Altera-MIF)
-	private static final Pattern linePattern = Pattern.compile("\\s*([a-zA-Z0-9]+)\\s*:\\s*([a-zA-Z0-9]{8});.*");
+	// Digits of hexadecimal expression
+	private static final char[] hexDigits = "0123456789abcdef".toCharArray();
 
 	/**
 	 * Gets the register number for the given string.
@@ -27,23 +31,8 @@ public class Utilites {
 	 * @return the register number. null when the register does not exist.
 	 */
 	public static Integer getRegisterNumber(String str) {
-		if (str.startsWith("$")) {
-			String reg = str.substring(1); // remove "$"
-			try {
-				int r = Integer.parseInt(reg, 10);
-				if ((0 <= r) && (r < 8)) {
-					return r;
-				}
-			} catch (NumberFormatException e) {
-				for (int i = 0; i < regname.length; i++) {
-					if (regname[i].equals(reg)) {
-						return i;
-					}
-				}
-				return null;
-			}
-		}
-		return null;
+		int r = Lexer.register(str.toCharArray(), 0, str.length());
+		return (r < 0) ? null : Integer.valueOf(r);
 	}
 
 	/**
@@ -59,26 +48,116 @@ public class Utilites {
 	 */
 	public static List<Instruction> decodeInstruction(String src) throws SyntaxException, InvalidInstructionException {
 		List<Instruction> instList = new ArrayList<Instruction>();
-		@SuppressWarnings("resource")
-		Scanner scanner = new Scanner(src);
+		int len = src.length();
 		int lineNo = 0;
+		int pos = 0;
 
-		while (scanner.hasNext()) {
+		// each line is in form of "<addr> : <8 hex digits>;<anything>", with optional spaces around the address
+		while (true) {
+			// trailing blank lines are ignored
+			int next = pos;
+			while ((next < len) && Character.isWhitespace(src.charAt(next))) {
+				next++;
+			}
+			if (next == len) {
+				break;
+			}
 			lineNo++;
-			String line = scanner.nextLine();
-			Matcher m = linePattern.matcher(line);
-			if (m.matches()) {
-				String saddr = m.group(1);
-				String sinst = m.group(2);
-				Instruction inst = Instruction.createInstruction(sinst, lineNo, Integer.parseInt(saddr, 16));
-				instList.add(inst);
-			} else {
-				throw new SyntaxException("Invalid format (" + line + ")", lineNo);
+			int end = pos;
+			while ((end < len) && (src.charAt(end) != '\n') && (src.charAt(end) != '\r')) {
+				end++;
+			}
+
+			int i = pos;
+			while ((i < end) && Character.isWhitespace(src.charAt(i))) {
+				i++;
+			}
+			int addrStart = i;
+			while ((i < end) && isAlphanumeric(src.charAt(i))) {
+				i++;
+			}
+			int addrEnd = i;
+			while ((i < end) && Character.isWhitespace(src.charAt(i))) {
+				i++;
+			}
+			boolean valid = (addrStart < addrEnd) && (i < end) && (src.charAt(i) == ':');
+			i++;
+			while ((i < end) && Character.isWhitespace(src.charAt(i))) {
+				i++;
+			}
+			int instStart = i;
+			while ((i < end) && isAlphanumeric(src.charAt(i))) {
+				i++;
+			}
+			valid = valid && (i - instStart == 8) && (i < end) && (src.charAt(i) == ';');
+			if (!valid) {
+				throw new SyntaxException("Invalid format (" + src.substring(pos, end) + ")", lineNo);
+			}
+
+			int addr = hexToInt(src, addrStart, addrEnd);
+			if (addr < 0) {
+				throw new SyntaxException("Invalid address (" + src.substring(addrStart, addrEnd) + ")", lineNo);
+			}
+			int word = hexToInt(src, instStart, instStart + 8);
+			Instruction inst = ((word < 0) || (word > 0xFFFF)) ? null : Instruction.createInstruction(word, lineNo, addr);
+			if (inst == null) {
+				throw new InvalidInstructionException(src.substring(instStart, instStart + 8), lineNo);
+			}
+			instList.add(inst);
+
+			// skip the line terminator ("\r\n", "\n" or "\r")
+			pos = end;
+			if ((pos < len) && (src.charAt(pos) == '\r')) {
+				pos++;
+			}
+			if ((pos < len) && (src.charAt(pos) == '\n')) {
+				pos++;
 			}
 		}
 		return instList;
 	}
 
+	/**
+	 * Reads a whole text file in CHARSET.
+	 * 
+	 * @param file
+	 *            the file
+	 * @return the text
+	 * @throws IOException
+	 *             if the file cannot be read, or is not valid in CHARSET
+	 */
+	public static String readText(Path file) throws IOException {
+		return CHARSET.newDecoder().decode(ByteBuffer.wrap(Files.readAllBytes(file))).toString();
+	}
+
+	/**
+	 * Converts the hexadecimal digits into integer.
+	 * 
+	 * @param str
+	 *            the string containing the digits
+	 * @param from
+	 *            the index of the first digit
+	 * @param to
+	 *            the index after the last digit
+	 * @return the converted integer. -1 when a character is not a hexadecimal digit or the value does not fit in 31
+	 *         bits.
+	 */
+	public static int hexToInt(CharSequence str, int from, int to) {
+		int val = 0;
+		for (int i = from; i < to; i++) {
+			int digit = Character.digit(str.charAt(i), 16);
+			if ((digit < 0) || (val > (Integer.MAX_VALUE >> 4))) {
+				return -1;
+			}
+			val = (val << 4) | digit;
+		}
+		return val;
+	}
+
+	private static boolean isAlphanumeric(char c) {
+		return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9'));
+	}
+
 	/**
 	 * Converts the string (in decimal expression) into integer, ensuring that the value fits in <i>bits</i> bits.
 	 * 
@@ -151,6 +230,41 @@ public class Utilites {
 		}
 	}
 
+	/**
+	 * Formats a line of the assembled binary code (Altera-friendly format).
+	 * 
+	 * @param i
+	 *            the step number
+	 * @param binary
+	 *            the hexadecimal expression of the instruction
+	 * @return the line, including the line terminator
+	 */
+	public static String listingLine(int i, String binary) {
+		String memcnt = (i < 16 ? " " : "") + Integer.toHexString(i).toUpperCase();
+		String addr = (i * 1 < 16 ? "0" : "") + Integer.toHexString(i * 1).toUpperCase();
+		return memcnt + " :    " + binary + "; % (" + addr + ") % \n";
+	}
+
+	/**
+	 * Converts the integer into hexadecimal expression of string (in lower case), padded with zeros to <i>digits</i>
+	 * digits.
+	 * 
+	 * @param data
+	 *            the integer to convert
+	 * @param digits
+	 *            the minimum number of digits
+	 * @return the converted string
+	 */
+	public static String intToHexString(int data, int digits) {
+		int len = Math.max(digits, 8 - Integer.numberOfLeadingZeros(data) / 4);
+		char[] chars = new char[len];
+		for (int i = len - 1; i >= 0; i--) {
+			chars[i] = hexDigits[data & 0xF];
+			data >>>= 4;
+		}
+		return new String(chars);
+	}
+
 	/**
 	 * Extends the integer.
 	 * 
@@ -194,7 +308,16 @@ public class Utilites {
 	 * @return true if the string consists of number
 	 */
 	public static boolean isIntegerForm(String str) {
-		return str.matches("-?\\d+");
+		int i = str.startsWith("-") ? 1 : 0;
+		if (i == str.length()) {
+			return false;
+		}
+		for (; i < str.length(); i++) {
+			if ((str.charAt(i) < '0') || (str.charAt(i) > '9')) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	/**
@@ -0,0 +1,68 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * The AOT engine must behave exactly as the REFERENCE engine, including across the regions of large programs.
+ *
+ */
+public class AotEngineTest {
+	@Test
+	public void matchesReferenceOnRandomPrograms() throws Exception {
+		for (int seed = 0; seed < 200; seed++) {
+			Random random = new Random(seed);
+			Program program;
+			try {
+				program = Assembler.compile(TestPrograms.random(random, 2 + random.nextInt(40)));
+			} catch (SyntaxException e) {
+				continue;
+			} catch (LabelNotFoundException e) {
+				continue;
+			}
+			long budget = 1 + random.nextInt(20000);
+			String expected = TestPrograms.run(program, Simulator.Engine.REFERENCE, budget, Integer.MAX_VALUE);
+			assertEquals("seed " + seed, expected,
+					TestPrograms.run(program, Simulator.Engine.AOT, budget, Integer.MAX_VALUE));
+			assertEquals("seed " + seed, expected, TestPrograms.run(program, Simulator.Engine.AOT, budget, 13));
+		}
+	}
+
+	@Test
+	public void oneTranslationServesManySimulators() throws Exception {
+		Program program = Assembler.compile(TestPrograms.COUNT_ONES);
+		TranslatedProgram translation = TranslatedProgram.translate(program.getImage());
+		for (int input : new int[] { 0, 1, 0x5B, 0x7FFF }) {
+			Simulator simulator = new Simulator();
+			simulator.load(program);
+			simulator.setEngine(Simulator.Engine.AOT);
+			simulator.setTranslation(translation);
+			simulator.setMemory(0, input);
+			assertEquals(Simulator.StopReason.END, simulator.runFor(10000));
+			assertEquals(Integer.bitCount(input), simulator.getRegfile().get(2));
+		}
+	}
+
+	@Test
+	public void largeProgramsAreCutIntoRegions() throws Exception {
+		StringBuffer strbuf = new StringBuffer("\taddi $1, $0, 15\n");
+		strbuf.append("Top:\taddi $2, $2, 1\n");
+		for (int i = 0; i < 5000; i++) {
+			strbuf.append((i % 4 == 0) ? "\tbeqz $4, M" + i + "\n\taddi $4, $4, 1\nM" + i + ":\tror $5, $3, 2\n"
+					: "\tsw $3, 5($2)\n\tlw $4, 5($2)\n");
+		}
+		strbuf.append("\taddi $1, $1, -1\n\tbnez $1, Top\n");
+		Program program = Assembler.compile(strbuf.toString());
+		assertTrue(TranslatedProgram.translate(program.getImage()).getRegionCount() > 1);
+		assertEquals(TestPrograms.run(program, Simulator.Engine.IMAGE, 1000000, Integer.MAX_VALUE),
+				TestPrograms.run(program, Simulator.Engine.AOT, 1000000, Integer.MAX_VALUE));
+		assertEquals(TestPrograms.run(program, Simulator.Engine.IMAGE, 1000000, Integer.MAX_VALUE),
+				TestPrograms.run(program, Simulator.Engine.AOT, 1000000, 997));
+	}
+}
@@ -0,0 +1,112 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import assembler.entity.*;
+
+/**
+ * After any sequence of edits, an AssemblySession must give what a full compile of the edited source gives, while
+ * parsing only the edited lines.
+ *
+ */
+public class AssemblySessionTest {
+	private static final String[] POOL = { "\tadd $1, $2, $3", "\taddi $1, $1, -1", "\tlw $2, 3($1)", "\tbnez $1, L1",
+			"\tbeqz $2, L2", "\tj L3", "\tjal L0", "L0:\tsw $1, 0($2)", "L1:", "L2:\txor $1, $1, $1", "L3:\tset 7",
+			"; comment", "", "\tbogus $1", "\tj L9", "L1:\tadd $1, $1, $1" };
+
+	private static String join(List<String> lines) {
+		StringBuffer strbuf = new StringBuffer();
+		for (int i = 0; i < lines.size(); i++) {
+			strbuf.append((i == 0) ? "" : "\n").append(lines.get(i));
+		}
+		return strbuf.toString();
+	}
+
+	/*
+	 * Describes the program, or the exception thrown instead.
+	 */
+	private static String outcome(Program program) {
+		int[] lineMap = new int[program.size()];
+		for (int i = 0; i < lineMap.length; i++) {
+			lineMap[i] = program.getLineNo(i);
+		}
+		return Arrays.toString(program.getWords()) + " " + new TreeMap<String, Integer>(program.getLabelMap()) + " "
+				+ Arrays.toString(lineMap);
+	}
+
+	private static String compile(String src) {
+		try {
+			return outcome(Assembler.compile(src));
+		} catch (Exception e) {
+			return e.getClass().getSimpleName() + ": " + e.getMessage();
+		}
+	}
+
+	private static String program(AssemblySession session) {
+		try {
+			return outcome(session.getProgram());
+		} catch (Exception e) {
+			return e.getClass().getSimpleName() + ": " + e.getMessage();
+		}
+	}
+
+	@Test
+	public void matchesAFullCompileAfterEdits() {
+		for (int seed = 0; seed < 100; seed++) {
+			Random random = new Random(seed);
+			List<String> lines = new ArrayList<String>();
+			for (int i = 0; i < 30; i++) {
+				// mostly valid lines, so that most steps give a program
+				lines.add(POOL[random.nextInt((random.nextInt(4) == 0) ? POOL.length : 13)]);
+			}
+			AssemblySession session = new AssemblySession();
+			session.update(join(lines) + "\n");
+			for (int edit = 0; edit < 20; edit++) {
+				int lineNo = 1 + random.nextInt(lines.size() + 1);
+				int count = Math.min(random.nextInt(3), lines.size() + 1 - lineNo);
+				List<String> text = new ArrayList<String>();
+				for (int i = 1 + random.nextInt(3); i > 0; i--) {
+					text.add(POOL[random.nextInt(POOL.length)]);
+				}
+				session.edit(lineNo, count, join(text) + "\n");
+				lines.subList(lineNo - 1, lineNo - 1 + count).clear();
+				lines.addAll(lineNo - 1, text);
+				assertEquals(lines.size(), session.getLineCount());
+				assertEquals("seed " + seed + " edit " + edit, compile(join(lines)), program(session));
+			}
+		}
+	}
+
+	@Test
+	public void parsesOnlyTheEditedLines() throws Exception {
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			lines.add(POOL[i % 7]); // instructions, jumping to L0..L3
+		}
+		lines.addAll(Arrays.asList("L0:", "L1:", "L2:", "L3:\tset 7"));
+		AssemblySession session = new AssemblySession();
+		session.update(join(lines));
+		assertEquals(lines.size(), session.getParsedLines());
+		session.update(join(lines));
+		assertEquals(lines.size(), session.getParsedLines());
+
+		lines.set(500, "\tor $3, $3, $3");
+		session.update(join(lines));
+		assertEquals(lines.size() + 1, session.getParsedLines());
+		lines.add(0, "\tadd $2, $2, $2");
+		session.edit(1, 0, lines.get(0));
+		assertEquals(lines.size() + 1, session.getParsedLines());
+		assertEquals(compile(join(lines)), outcome(session.getProgram()));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void rejectsLinesOutOfTheSource() {
+		AssemblySession session = new AssemblySession();
+		session.update("\tadd $1, $1, $1\n");
+		session.edit(2, 1, "\tadd $1, $1, $1");
+	}
+}
@@ -0,0 +1,125 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.utils.BinaryImage;
+
+/**
+ * BatchRunner must run sources and images as a Simulator does, report the programs which do not end, and write one
+ * record per program in the order of the inputs.
+ *
+ */
+public class BatchRunnerTest {
+	private Path dir;
+	private BatchRunner runner;
+
+	@Before
+	public void createFiles() throws Exception {
+		dir = Files.createTempDirectory("batch");
+		Program program = Assembler.compile(TestPrograms.COUNT_ONES);
+		write("a.s", TestPrograms.COUNT_ONES);
+		write("b.txt", program.toRawString());
+		BinaryImage.write(program.getWords(), 0, program.size(), 2, dir.resolve("c.bin"));
+		write("d.s", "\tadd $1, $2 ;\n");
+		write("e.s", "Loop:\tj Loop ;\n");
+		write("f.s", "\tj Missing ;\n");
+		runner = new BatchRunner();
+		runner.setMemory(0, 0x5B);
+		runner.setInstructions(1000);
+	}
+
+	@After
+	public void deleteFiles() throws Exception {
+		for (Path file : BatchRunner.listFiles(Collections.singletonList(dir))) {
+			Files.delete(file);
+		}
+		Files.delete(dir);
+	}
+
+	private void write(String name, String text) throws IOException {
+		Files.write(dir.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void runsLikeASimulator() throws Exception {
+		Simulator simulator = new Simulator();
+		simulator.load(Assembler.compile(TestPrograms.COUNT_ONES));
+		simulator.setMemory(0, 0x5B);
+		assertEquals(Simulator.StopReason.END, simulator.runFor(1000));
+		int[] registers = new int[simulator.getRegfile().getSize()];
+		simulator.getRegfile().copyTo(registers);
+		assertEquals(5, registers[2]);
+
+		for (Simulator.Engine engine : Simulator.Engine.values()) {
+			runner.setEngine(engine);
+			for (String name : new String[] { "a.s", "b.txt", "c.bin" }) {
+				BatchRunner.Result result = runner.run(dir.resolve(name));
+				assertEquals(name, BatchRunner.Status.END, result.getStatus());
+				assertNull(result.getMessage());
+				assertArrayEquals(name, registers, result.getRegisters());
+				assertEquals(simulator.getPc(), result.getPc());
+				assertEquals(simulator.getInstructionCount(), result.getInstructionCount());
+			}
+		}
+	}
+
+	@Test
+	public void reportsProgramsWhichDoNotEnd() {
+		BatchRunner.Result result = runner.run(dir.resolve("d.s"));
+		assertEquals(BatchRunner.Status.ERROR, result.getStatus());
+		assertTrue(result.getMessage(), result.getMessage().endsWith("on line 1."));
+		assertEquals(0, result.getRegisters().length);
+
+		result = runner.run(dir.resolve("e.s"));
+		assertEquals(BatchRunner.Status.BUDGET, result.getStatus());
+		assertEquals(1000, result.getInstructionCount());
+
+		result = runner.run(dir.resolve("f.s"));
+		assertEquals(BatchRunner.Status.ERROR, result.getStatus());
+
+		result = runner.run(dir.resolve("missing.s"));
+		assertEquals(BatchRunner.Status.ERROR, result.getStatus());
+	}
+
+	@Test
+	public void writesARecordPerProgram() throws Exception {
+		List<Path> files = BatchRunner.listFiles(Collections.singletonList(dir));
+		assertEquals(6, files.size());
+		Path jsonl = Files.createTempFile("results", ".jsonl");
+		Path csv = Files.createTempFile("results", ".csv");
+		try {
+			assertEquals(3, runner.runAll(files, 4, jsonl));
+			List<String> lines = Files.readAllLines(jsonl, StandardCharsets.UTF_8);
+			assertEquals(6, lines.size());
+			String[] statuses = { "END", "END", "END", "ERROR", "BUDGET", "ERROR" };
+			for (int i = 0; i < files.size(); i++) {
+				assertTrue(lines.get(i), lines.get(i).startsWith("{\"file\":\"" + files.get(i).toString().replace("\\",
+						"\\\\") + "\",\"status\":\"" + statuses[i] + "\","));
+				assertTrue(lines.get(i), lines.get(i).endsWith("}"));
+			}
+			assertTrue(lines.get(0), lines.get(0).contains(",\"registers\":[0,0,5,1,0,0,0,0],\"message\":null}"));
+
+			assertEquals(3, runner.runAll(files, 1, csv));
+			lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+			assertEquals(7, lines.size());
+			assertEquals("file,status,pc,instructions,wall_ms,r0,r1,r2,r3,r4,r5,r6,r7,message", lines.get(0));
+			for (int i = 0; i < files.size(); i++) {
+				assertTrue(lines.get(i + 1), lines.get(i + 1).startsWith(files.get(i) + "," + statuses[i] + ","));
+			}
+			assertTrue(lines.get(1), lines.get(1).matches(".*,[0-9.]+,0,0,5,1,0,0,0,0,"));
+		} finally {
+			Files.delete(jsonl);
+			Files.delete(csv);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.exception.*;
+import assembler.utils.BinaryImage;
+
+/**
+ * Raw binary images, mapped into memory and loaded into the Simulator.
+ *
+ */
+public class BinaryImageTest {
+	private Path file;
+
+	@Before
+	public void createFile() throws Exception {
+		file = Files.createTempFile("image", ".bin");
+	}
+
+	@After
+	public void deleteFile() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void writesLittleEndianWords() throws Exception {
+		BinaryImage.write(new int[] { 0x1234, 0xABCD, -1 }, 0, 3, 2, file);
+		assertArrayEquals(new byte[] { 0x34, 0x12, (byte) 0xCD, (byte) 0xAB, -1, -1 }, Files.readAllBytes(file));
+		ByteBuffer image = BinaryImage.map(file, 2);
+		assertEquals(3, BinaryImage.size(image, 2));
+		assertEquals(0xFFFF, BinaryImage.get(image, 2, 2)); // zero-extended
+		BinaryImage.write(new int[] { 0, -5, 7 }, 1, 3, 4, file);
+		image = BinaryImage.map(file, 4);
+		assertEquals(2, BinaryImage.size(image, 4));
+		assertEquals(-5, BinaryImage.get(image, 4, 0));
+	}
+
+	@Test(expected = SyntaxException.class)
+	public void rejectsAPartialWord() throws Exception {
+		Files.write(file, new byte[] { 1, 2, 3 });
+		BinaryImage.map(file, 2);
+	}
+
+	@Test
+	public void loadsAsTheProgram() throws Exception {
+		for (int seed = 0; seed < 50; seed++) {
+			Random random = new Random(seed);
+			Program program;
+			try {
+				program = Assembler.compile(TestPrograms.random(random, 2 + random.nextInt(40)));
+			} catch (SyntaxException e) {
+				continue;
+			} catch (LabelNotFoundException e) {
+				continue;
+			}
+			BinaryImage.write(program.getWords(), 0, program.size(), 2, file);
+			for (Simulator.Engine engine : Simulator.Engine.values()) {
+				Simulator loaded = new Simulator();
+				loaded.load(program);
+				Simulator mapped = new Simulator();
+				mapped.loadBinary(file, 2);
+				for (Simulator simulator : new Simulator[] { loaded, mapped }) {
+					simulator.setEngine(engine);
+					TestPrograms.fillMemory(simulator);
+				}
+				assertEquals("seed " + seed + " " + engine, loaded.runFor(5000) + " " + TestPrograms.state(loaded),
+						mapped.runFor(5000) + " " + TestPrograms.state(mapped));
+			}
+		}
+	}
+
+	@Test
+	public void rejectsWordsWiderThanAnInstruction() throws Exception {
+		BinaryImage.write(new int[] { 0x2000, 0x12000 }, 0, 2, 4, file);
+		try {
+			new Simulator().loadBinary(file, 4);
+			fail();
+		} catch (InvalidInstructionException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("00012000"));
+		}
+	}
+
+	@Test
+	public void loadsData() throws Exception {
+		BinaryImage.write(new int[] { 0, 0, -7, 0x10000 }, 0, 4, 4, file);
+		Simulator simulator = new Simulator();
+		assertEquals(4, simulator.loadBinaryData(file, 4, 100));
+		assertEquals(0, simulator.getMemory(101));
+		assertEquals(-7, simulator.getMemory(102));
+		assertEquals(0x10000, simulator.getMemory(103));
+	}
+
+	@Test
+	public void lowersWordsAsTheirInstructions() throws Exception {
+		for (int word = 0; word <= 0xFFFF; word++) {
+			Instruction inst = Instruction.createInstruction(word, 1, 0);
+			if (inst != null) {
+				assertEquals(Integer.toHexString(word), inst.lower(), Instruction.lower(word, 1));
+				continue;
+			}
+			try {
+				Instruction.lower(word, 1);
+				fail(Integer.toHexString(word));
+			} catch (InvalidInstructionException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * Restoring a checkpoint, full or incremental, read back from its binary form or not, must bring back the state it was
+ * taken in, and the run must go on from there as it did the first time.
+ *
+ */
+public class CheckpointTest {
+	private static final long SLICE = 37;
+	private static final int SLICES = 20;
+
+	@Test
+	public void restoresTheStateItWasTakenIn() throws Exception {
+		for (int seed = 0; seed < 100; seed++) {
+			Random random = new Random(seed);
+			Program program;
+			try {
+				program = Assembler.compile(TestPrograms.random(random, 2 + random.nextInt(40)));
+			} catch (SyntaxException e) {
+				continue;
+			}
+			Simulator simulator = simulator(program);
+			List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+			List<String> states = new ArrayList<String>();
+			for (int i = 0; i < SLICES; i++) {
+				checkpoints.add(random.nextInt(4) == 0 ? simulator.fullCheckpoint() : simulator.checkpoint());
+				states.add(TestPrograms.state(simulator));
+				simulator.runFor(SLICE);
+			}
+			checkpoints.add(simulator.checkpoint());
+			states.add(TestPrograms.state(simulator));
+
+			// written one after the other, and read back in the same order
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			for (Checkpoint checkpoint : checkpoints) {
+				checkpoint.write(bytes);
+			}
+			InputStream in = new ByteArrayInputStream(bytes.toByteArray());
+			List<Checkpoint> read = new ArrayList<Checkpoint>();
+			for (Checkpoint checkpoint : checkpoints) {
+				Checkpoint parent = checkpoint.isIncremental() ? read.get(checkpoints.indexOf(checkpoint
+						.getParent())) : null;
+				read.add(Checkpoint.read(in, parent));
+			}
+			assertEquals(-1, in.read());
+
+			Simulator fresh = simulator(program);
+			for (int n = 0; n < 3 * checkpoints.size(); n++) {
+				int i = random.nextInt(checkpoints.size());
+				List<Checkpoint> from = random.nextBoolean() ? checkpoints : read;
+				Simulator target = random.nextBoolean() ? simulator : fresh;
+				target.restore(from.get(i));
+				assertEquals("seed " + seed + " checkpoint " + i, states.get(i), TestPrograms.state(target));
+				if (i + 1 < checkpoints.size()) {
+					target.runFor(SLICE);
+					assertEquals("seed " + seed + " after " + i, states.get(i + 1), TestPrograms.state(target));
+				}
+				if (random.nextBoolean()) {
+					target.runFor(random.nextInt(100));
+				}
+			}
+		}
+	}
+
+	private static Simulator simulator(Program program) throws InvalidInstructionException {
+		Simulator simulator = new Simulator();
+		simulator.load(program);
+		TestPrograms.fillMemory(simulator);
+		return simulator;
+	}
+
+	@Test
+	public void holdsOnlyTheWrittenPages() throws Exception {
+		Simulator simulator = new Simulator();
+		simulator.load(Assembler.compile("\tlw $1, 0($0) ;\n\taddi $1, $1, 1 ;\n\tsw $1, 0($0) ;\n"));
+		for (int page = 0; page < 10; page++) {
+			simulator.setMemory(page * Memory.PAGE_SIZE + 5, page + 1);
+		}
+		Checkpoint full = simulator.checkpoint();
+		assertFalse(full.isIncremental());
+		assertEquals(10, full.getPageCount());
+
+		simulator.runFor(100);
+		Checkpoint incremental = simulator.checkpoint();
+		assertTrue(incremental.isIncremental());
+		assertSame(full, incremental.getParent());
+		assertEquals(1, incremental.getPageCount());
+		assertEquals(3, incremental.getInstructionCount());
+		assertEquals(1, incremental.getRegisters()[1]);
+
+		// nothing written since the last checkpoint
+		assertEquals(0, simulator.checkpoint().getPageCount());
+
+		Simulator other = new Simulator();
+		other.load(Assembler.compile("\tlw $1, 0($0) ;\n\taddi $1, $1, 1 ;\n\tsw $1, 0($0) ;\n"));
+		other.restore(incremental);
+		assertEquals(1, other.getMemory(0));
+		assertEquals(10, other.getMemory(9 * Memory.PAGE_SIZE + 5));
+		other.restore(full);
+		assertEquals(0, other.getMemory(0));
+		assertEquals(1, other.getMemory(5));
+		assertEquals(0, other.getInstructionCount());
+	}
+
+	@Test
+	public void rejectsOtherStreams() throws Exception {
+		Simulator simulator = new Simulator();
+		simulator.load(Assembler.compile(TestPrograms.COUNT_ONES));
+		simulator.setMemory(0, 3);
+		Checkpoint full = simulator.checkpoint();
+		simulator.runFor(4);
+		Checkpoint incremental = simulator.checkpoint();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		incremental.write(bytes);
+		try {
+			Checkpoint.read(new ByteArrayInputStream(bytes.toByteArray()), incremental);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		try {
+			Checkpoint.read(new ByteArrayInputStream(bytes.toByteArray()), null);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(4, Checkpoint.read(new ByteArrayInputStream(bytes.toByteArray()), full).getInstructionCount());
+
+		byte[] other = bytes.toByteArray();
+		other[4] = (byte) (Checkpoint.VERSION + 1);
+		try {
+			Checkpoint.read(new ByteArrayInputStream(other), full);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		try {
+			Checkpoint.read(new ByteArrayInputStream(new byte[] { 'A', 'S', 'C' }), null);
+			fail();
+		} catch (EOFException e) {
+			// expected
+		}
+	}
+}
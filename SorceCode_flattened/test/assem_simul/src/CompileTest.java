@@ -0,0 +1,135 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * Assembler.compile() must give the program of an Assembler from any number of threads at once, and a compiled Program
+ * must run the same on concurrent Simulators.
+ *
+ */
+public class CompileTest {
+	private static final int THREADS = 8;
+
+	@Test
+	public void compilesConcurrently() throws Exception {
+		final List<String> sources = new ArrayList<String>();
+		List<int[]> expected = new ArrayList<int[]>();
+		for (int seed = 0; sources.size() < 40; seed++) {
+			Random random = new Random(seed);
+			String src = TestPrograms.random(random, 1 + random.nextInt(200));
+			Assembler assembler = new Assembler();
+			try {
+				assembler.parse(src);
+			} catch (SyntaxException e) {
+				continue;
+			}
+			sources.add(src);
+			expected.add(assembler.encode());
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<List<int[]>>> futures = new ArrayList<Future<List<int[]>>>();
+			for (int t = 0; t < THREADS; t++) {
+				futures.add(pool.submit(new Callable<List<int[]>>() {
+					@Override
+					public List<int[]> call() throws Exception {
+						List<int[]> words = new ArrayList<int[]>();
+						for (int round = 0; round < 10; round++) {
+							for (String src : sources) {
+								words.add(Assembler.compile(src).getWords());
+							}
+						}
+						return words;
+					}
+				}));
+			}
+			for (Future<List<int[]>> future : futures) {
+				List<int[]> words = future.get();
+				for (int i = 0; i < words.size(); i++) {
+					assertArrayEquals(expected.get(i % sources.size()), words.get(i));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void sharesAProgramBetweenSimulators() throws Exception {
+		final List<Program> programs = new ArrayList<Program>();
+		List<String> expected = new ArrayList<String>();
+		for (int seed = 0; programs.size() < 20; seed++) {
+			Random random = new Random(seed);
+			Program program;
+			try {
+				program = Assembler.compile(TestPrograms.random(random, 2 + random.nextInt(40)));
+			} catch (SyntaxException e) {
+				continue;
+			}
+			programs.add(program);
+			expected.add(TestPrograms.run(program, Simulator.Engine.REFERENCE, 5000, 5000));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+			for (int t = 0; t < THREADS; t++) {
+				final Simulator.Engine engine = Simulator.Engine.values()[t % Simulator.Engine.values().length];
+				futures.add(pool.submit(new Callable<List<String>>() {
+					@Override
+					public List<String> call() throws Exception {
+						List<String> states = new ArrayList<String>();
+						for (Program program : programs) {
+							states.add(TestPrograms.run(program, engine, 5000, 5000));
+						}
+						return states;
+					}
+				}));
+			}
+			for (Future<List<String>> future : futures) {
+				assertEquals(expected, future.get());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void cannotBeModified() throws Exception {
+		Program program = Assembler.compile(TestPrograms.COUNT_ONES);
+		int[] words = program.getWords();
+		words[0] = ~words[0];
+		assertEquals(words[0], ~program.getWord(0));
+
+		List<Instruction> instList = program.decode();
+		assertSame(instList, program.decode());
+		try {
+			instList.set(0, instList.get(1));
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			instList.get(0).parseArgs(new String[] { "$1", "$1", "$1" });
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			program.getLabelMap().remove("Next");
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		assertEquals(Integer.valueOf(2), program.getLabelMap().get("Next"));
+	}
+}
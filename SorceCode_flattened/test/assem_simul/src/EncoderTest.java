@@ -0,0 +1,78 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.nio.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * Instruction.encode() must pack the same word as the binary string the assembler used to print.
+ *
+ */
+public class EncoderTest {
+	/*
+	 * Parses the source line by line, as Assembler.parse() does.
+	 */
+	private static List<Instruction> parse(String src, SymbolTable symbols) throws SyntaxException {
+		List<Instruction> instList = new ArrayList<Instruction>();
+		String[] lines = src.split("\n");
+		for (int i = 0; i < lines.length; i++) {
+			Instruction inst = Assembler.parseLine(lines[i], i + 1, instList.size(), symbols);
+			if (inst != null) {
+				instList.add(inst);
+			}
+		}
+		return instList;
+	}
+
+	@Test
+	public void matchesTheBinaryString() throws Exception {
+		for (int seed = 0; seed < 100; seed++) {
+			Random random = new Random(seed);
+			SymbolTable symbols = new SymbolTable();
+			List<Instruction> instList;
+			try {
+				instList = parse(TestPrograms.random(random, 1 + random.nextInt(100)), symbols);
+			} catch (SyntaxException e) {
+				continue;
+			}
+			int[] words = Instruction.encode(instList, symbols);
+			for (int i = 0; i < words.length; i++) {
+				assertEquals("seed " + seed + " step " + i,
+						Integer.parseInt(instList.get(i).toBinaryString(symbols, ""), 2), words[i]);
+			}
+		}
+	}
+
+	@Test
+	public void shiftMovesTheInstruction() throws Exception {
+		SymbolTable symbols = new SymbolTable();
+		Assembler.parseLine("Target:\taddi $1, $1, 1", 1, 5, symbols);
+		for (String line : new String[] { "\tj Target", "\tbnez $1, Target" }) {
+			// parsed at the step 0, encoded as if it were at the step 3
+			Instruction shifted = Assembler.parseLine(line, 2, 0, symbols);
+			assertEquals(line, Assembler.parseLine(line, 2, 3, symbols).encode(symbols), shifted.encode(symbols, 3));
+			assertEquals(line, 2, shifted.encode(symbols, 3) & 0xFF);
+		}
+	}
+
+	@Test
+	public void writesShortsInTheOrderOfTheBuffer() throws Exception {
+		SymbolTable symbols = new SymbolTable();
+		List<Instruction> instList = parse(TestPrograms.COUNT_ONES, symbols);
+		int[] words = Instruction.encode(instList, symbols);
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+			ByteBuffer buf = ByteBuffer.allocate(2 * words.length).order(order);
+			Instruction.encode(instList, symbols, buf);
+			assertEquals(0, buf.remaining());
+			for (int i = 0; i < words.length; i++) {
+				assertEquals(words[i], buf.getShort(2 * i) & 0xFFFF);
+			}
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * The IMAGE engine must behave exactly as the REFERENCE engine.
+ *
+ */
+public class ImageEngineTest {
+	@Test
+	public void matchesReferenceOnRandomPrograms() throws Exception {
+		for (int seed = 0; seed < 300; seed++) {
+			Random random = new Random(seed);
+			Program program;
+			try {
+				program = Assembler.compile(TestPrograms.random(random, 2 + random.nextInt(40)));
+			} catch (SyntaxException e) {
+				continue; // e.g., an immediate out of range
+			} catch (LabelNotFoundException e) {
+				continue;
+			}
+			long budget = 1 + random.nextInt(20000);
+			assertEquals("seed " + seed,
+					TestPrograms.run(program, Simulator.Engine.REFERENCE, budget, Integer.MAX_VALUE),
+					TestPrograms.run(program, Simulator.Engine.IMAGE, budget, Integer.MAX_VALUE));
+		}
+	}
+
+	@Test
+	public void countsOnesOnImageEngine() throws Exception {
+		Simulator simulator = new Simulator();
+		simulator.load(Assembler.compile(TestPrograms.COUNT_ONES));
+		simulator.setMemory(0, 0x5B);
+		assertEquals(Simulator.StopReason.END, simulator.runFor(10000));
+		assertEquals(5, simulator.getRegfile().get(2));
+	}
+
+	@Test
+	public void packedFieldsRoundTrip() {
+		int word = InstructionImage.pack(InstructionImage.OP_ADDI, 3, 5, 7, -1024);
+		assertEquals(InstructionImage.OP_ADDI, InstructionImage.op(word));
+		assertEquals(3, InstructionImage.rs(word));
+		assertEquals(5, InstructionImage.rt(word));
+		assertEquals(7, InstructionImage.rd(word));
+		assertEquals(-1024, InstructionImage.imm(word));
+	}
+}
@@ -0,0 +1,157 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * The outcome of every input of a sweep must be that of a fresh Simulator run on the input, whatever the number of
+ * threads and lanes.
+ *
+ */
+public class InputSweepTest {
+	private static final int INPUT_BASE = 3;
+	private static final int OUTPUT_BASE = -20;
+	private static final int OUTPUT_WORDS = 60;
+	private static final long BUDGET = 2000;
+
+	@Test
+	public void runsLikeFreshSimulators() throws Exception {
+		for (int seed = 0; seed < 30; seed++) {
+			Random random = new Random(seed);
+			Program program;
+			try {
+				program = Assembler.compile(TestPrograms.random(random, 2 + random.nextInt(40)));
+			} catch (SyntaxException e) {
+				continue;
+			}
+			List<InputSweep.Input> inputs = new ArrayList<InputSweep.Input>();
+			List<String> expected = new ArrayList<String>();
+			for (int n = 0; n < 50; n++) {
+				int[] memory = new int[random.nextInt(10)];
+				for (int i = 0; i < memory.length; i++) {
+					memory[i] = random.nextInt(200) - 100;
+				}
+				int[] registers = null;
+				if (random.nextBoolean()) {
+					registers = new int[8];
+					for (int i = 0; i < registers.length; i++) {
+						registers[i] = random.nextInt(50);
+					}
+				}
+				inputs.add(new InputSweep.Input(memory, registers));
+				expected.add(runAlone(program, memory, registers));
+			}
+
+			for (int lanes : new int[] { 1, 4 }) {
+				for (int threads : new int[] { 1, 3 }) {
+					InputSweep sweep = new InputSweep(program);
+					sweep.setInstructions(BUDGET);
+					sweep.setLanes(lanes);
+					sweep.setInputBase(INPUT_BASE);
+					sweep.setOutput(OUTPUT_BASE, OUTPUT_WORDS);
+					final Map<Long, String> outcomes = new ConcurrentHashMap<Long, String>();
+					long count = sweep.run(inputs.iterator(), threads, new InputSweep.Sink() {
+						@Override
+						public void accept(InputSweep.Outcome outcome) {
+							assertNull(outcomes.put(outcome.getIndex(), describe(outcome)));
+						}
+					});
+					assertEquals(inputs.size(), count);
+					for (int i = 0; i < inputs.size(); i++) {
+						assertEquals("seed " + seed + " lanes " + lanes + " input " + i, expected.get(i),
+								outcomes.get((long) i));
+					}
+				}
+			}
+		}
+	}
+
+	private static String runAlone(Program program, int[] memory, int[] registers) throws Exception {
+		Simulator simulator = new Simulator();
+		simulator.setEngine(Simulator.Engine.REFERENCE);
+		simulator.load(program);
+		for (int i = 0; i < memory.length; i++) {
+			simulator.setMemory(INPUT_BASE + i, memory[i]);
+		}
+		if (registers != null) {
+			for (int i = 0; i < registers.length; i++) {
+				simulator.getRegfile().set(i, registers[i]);
+			}
+		}
+		Simulator.StopReason reason = simulator.runFor(BUDGET);
+		int[] regs = new int[8];
+		simulator.getRegfile().copyTo(regs);
+		int[] output = new int[OUTPUT_WORDS];
+		for (int i = 0; i < OUTPUT_WORDS; i++) {
+			output[i] = simulator.getMemory(OUTPUT_BASE + i);
+		}
+		String fault = (reason == Simulator.StopReason.FAULT) ? simulator.getFault().getMessage() : null;
+		return describe(reason, fault, simulator.getInstructionCount(), simulator.getPc(), regs, output);
+	}
+
+	private static String describe(InputSweep.Outcome outcome) {
+		return describe(outcome.getReason(), outcome.getFault(), outcome.getInstructionCount(), outcome.getPc(),
+				outcome.getRegisters(), outcome.getMemory());
+	}
+
+	private static String describe(Simulator.StopReason reason, String fault, long instructions, int pc,
+			int[] registers, int[] memory) {
+		return reason + " " + fault + " n=" + instructions + " pc=" + pc + " regs=" + Arrays.toString(registers)
+				+ " mem=" + Arrays.toString(memory);
+	}
+
+	@Test
+	public void countsOnesOfEveryInput() throws Exception {
+		InputSweep sweep = new InputSweep(Assembler.compile(TestPrograms.COUNT_ONES));
+		sweep.setOutput(0, 1);
+		final int[] words = new int[1000];
+		final int[] ones = new int[words.length];
+		long count = sweep.run(InputSweep.random(words.length, 1, 0x8000, 22), 4, new InputSweep.Sink() {
+			@Override
+			public void accept(InputSweep.Outcome outcome) {
+				assertEquals(Simulator.StopReason.END, outcome.getReason());
+				words[(int) outcome.getIndex()] = outcome.getMemory()[0];
+				ones[(int) outcome.getIndex()] = outcome.getRegisters()[2];
+			}
+		});
+		assertEquals(words.length, count);
+		Random random = new Random(22);
+		for (int i = 0; i < words.length; i++) {
+			assertEquals(random.nextInt(0x8000), words[i]);
+			assertEquals(Integer.bitCount(words[i]), ones[i]);
+		}
+	}
+
+	@Test
+	public void readsInputFiles() throws Exception {
+		String text = "# data | registers\n\n 1, 2\t0x10 | 0 7\n-3\n | 5\n";
+		final List<String> read = new ArrayList<String>();
+		InputSweep sweep = new InputSweep(Assembler.compile(""));
+		sweep.setOutput(0, 3);
+		sweep.run(InputSweep.read(new BufferedReader(new StringReader(text))), 1, new InputSweep.Sink() {
+			@Override
+			public void accept(InputSweep.Outcome outcome) {
+				read.add(Arrays.toString(outcome.getMemory()) + " " + Arrays.toString(outcome.getRegisters()));
+			}
+		});
+		assertEquals(Arrays.asList("[1, 2, 16] [0, 7, 0, 0, 0, 0, 0, 0]", "[-3, 0, 0] [0, 0, 0, 0, 0, 0, 0, 0]",
+				"[0, 0, 0] [5, 0, 0, 0, 0, 0, 0, 0]"), read);
+
+		Iterator<InputSweep.Input> inputs = InputSweep.read(new BufferedReader(new StringReader("1\n2 x\n")));
+		inputs.next();
+		try {
+			inputs.next();
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid input on line 2"));
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * The JIT engine must behave exactly as the REFERENCE engine, whether the code runs compiled or interpreted.
+ *
+ */
+public class JitEngineTest {
+	@Test
+	public void matchesReferenceOnRandomPrograms() throws Exception {
+		for (int seed = 0; seed < 200; seed++) {
+			Random random = new Random(seed);
+			Program program;
+			try {
+				program = Assembler.compile(TestPrograms.random(random, 2 + random.nextInt(40)));
+			} catch (SyntaxException e) {
+				continue;
+			} catch (LabelNotFoundException e) {
+				continue;
+			}
+			long budget = 1 + random.nextInt(20000);
+			String expected = TestPrograms.run(program, Simulator.Engine.REFERENCE, budget, Integer.MAX_VALUE);
+			assertEquals("seed " + seed, expected,
+					TestPrograms.run(program, Simulator.Engine.JIT, budget, Integer.MAX_VALUE));
+			// budgets ending inside compiled blocks
+			assertEquals("seed " + seed, expected, TestPrograms.run(program, Simulator.Engine.JIT, budget, 7));
+		}
+	}
+
+	@Test
+	public void compilesABlockOnceItIsHot() throws Exception {
+		int[] image = Assembler.compile("Loop:\taddi $1, $1, 1\n\txor $2, $2, $1\n\tj Loop\n").getImage();
+		BlockCompiler compiler = new BlockCompiler(image, 2);
+		compiler.count(0);
+		assertNull(compiler.lookup(0));
+		compiler.count(0);
+		assertNotNull(compiler.lookup(0));
+		assertEquals(3, compiler.length(0));
+	}
+
+	@Test
+	public void regionsTooLargeForAMethodStayInterpreted() throws Exception {
+		StringBuffer strbuf = new StringBuffer("\taddi $1, $0, 15\n\taddi $7, $0, 1\n");
+		strbuf.append("Top:\taddi $2, $2, 1\n");
+		for (int i = 0; i < 3000; i++) {
+			strbuf.append("\tsw $3, 5($2)\n\tlw $4, 5($2)\n\tror $3, $3, 3\n");
+		}
+		strbuf.append("\taddi $1, $1, -1\n\tbnez $1, Top\n");
+		Program program = Assembler.compile(strbuf.toString());
+		assertEquals(TestPrograms.run(program, Simulator.Engine.IMAGE, 1000000, Integer.MAX_VALUE),
+				TestPrograms.run(program, Simulator.Engine.JIT, 1000000, Integer.MAX_VALUE));
+	}
+}
@@ -0,0 +1,141 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * Each lane of a LockstepSimulator must end as the program run alone on the reference engine, with the same budget
+ * slices, and lanes which follow the same path must share their dispatches.
+ *
+ */
+public class LockstepSimulatorTest {
+	private static final int LANES = 8;
+
+	@Test
+	public void runsEachLaneLikeASimulator() throws Exception {
+		for (int seed = 0; seed < 100; seed++) {
+			Random random = new Random(seed);
+			Program program;
+			try {
+				program = Assembler.compile(TestPrograms.random(random, 2 + random.nextInt(40)));
+			} catch (SyntaxException e) {
+				continue;
+			}
+			LockstepSimulator lockstep = new LockstepSimulator(program, LANES);
+			for (int round = 0; round < 2; round++) {
+				lockstep.reset();
+				Simulator[] simulators = new Simulator[LANES];
+				for (int l = 0; l < LANES; l++) {
+					simulators[l] = new Simulator();
+					simulators[l].setEngine(Simulator.Engine.REFERENCE);
+					simulators[l].load(program);
+					for (int address = 0; address < 20; address++) {
+						int data = random.nextInt(8) - 2;
+						simulators[l].setMemory(address, data);
+						lockstep.getMemory(l).poke(address, data);
+					}
+					for (int r = 0; r < 8; r++) {
+						int value = random.nextInt(8);
+						simulators[l].getRegfile().set(r, value);
+						lockstep.setRegister(l, r, value);
+					}
+				}
+				for (long slice : new long[] { 1, 7, 300, 2000 }) {
+					lockstep.runFor(slice);
+					for (int l = 0; l < LANES; l++) {
+						Simulator.StopReason reason = simulators[l].runFor(slice);
+						assertEquals("seed " + seed + " lane " + l, describe(simulators[l], reason),
+								describe(lockstep, l));
+					}
+				}
+			}
+		}
+	}
+
+	private static String describe(Simulator simulator, Simulator.StopReason reason) {
+		int[] registers = new int[8];
+		simulator.getRegfile().copyTo(registers);
+		String fault = (reason == Simulator.StopReason.FAULT) ? simulator.getFault().getMessage() : null;
+		StringBuffer strbuf = new StringBuffer();
+		for (int address = -40; address < 60; address++) {
+			strbuf.append(simulator.getMemory(address)).append(',');
+		}
+		return reason + " " + fault + " pc=" + simulator.getPc() + " n=" + simulator.getInstructionCount() + " regs="
+				+ Arrays.toString(registers) + " mem=" + strbuf;
+	}
+
+	private static String describe(LockstepSimulator lockstep, int lane) {
+		int[] registers = new int[8];
+		lockstep.copyRegisters(lane, registers);
+		for (int r = 0; r < 8; r++) {
+			assertEquals(registers[r], lockstep.getRegister(lane, r));
+		}
+		Simulator.StopReason reason = lockstep.getStopReason(lane);
+		String fault = (reason == Simulator.StopReason.FAULT) ? lockstep.getFault(lane).getMessage() : null;
+		StringBuffer strbuf = new StringBuffer();
+		for (int address = -40; address < 60; address++) {
+			strbuf.append(lockstep.getMemory(lane).peek(address)).append(',');
+		}
+		return reason + " " + fault + " pc=" + lockstep.getPc(lane) + " n=" + lockstep.getInstructionCount(lane)
+				+ " regs=" + Arrays.toString(registers) + " mem=" + strbuf;
+	}
+
+	@Test
+	public void sharesDispatchesOfTheSamePath() throws Exception {
+		LockstepSimulator lockstep = new LockstepSimulator(Assembler.compile(TestPrograms.COUNT_ONES), LANES);
+		assertEquals(LANES, lockstep.getLanes());
+		for (int l = 0; l < LANES; l++) {
+			lockstep.getMemory(l).poke(0, 0x7FFF);
+		}
+		lockstep.runFor(1000);
+		long count = lockstep.getInstructionCount(0);
+		assertEquals(count, lockstep.getDispatchCount());
+		for (int l = 0; l < LANES; l++) {
+			assertEquals(Simulator.StopReason.END, lockstep.getStopReason(l));
+			assertEquals(15, lockstep.getRegister(l, 2));
+			assertEquals(count, lockstep.getInstructionCount(l));
+		}
+
+		// lanes leaving the loop early wait for the others, and run the end of the program with them
+		lockstep.reset();
+		for (int l = 0; l < LANES; l++) {
+			lockstep.getMemory(l).poke(0, (1 << (l + 1)) - 1);
+		}
+		lockstep.runFor(1000);
+		long total = 0;
+		for (int l = 0; l < LANES; l++) {
+			assertEquals(Simulator.StopReason.END, lockstep.getStopReason(l));
+			assertEquals(l + 1, lockstep.getRegister(l, 2));
+			total += lockstep.getInstructionCount(l);
+		}
+		assertTrue(lockstep.getDispatchCount() < total);
+		assertEquals(lockstep.getInstructionCount(LANES - 1), lockstep.getDispatchCount());
+	}
+
+	@Test
+	public void runsOnlyTheActiveLanes() throws Exception {
+		LockstepSimulator lockstep = new LockstepSimulator(Assembler.compile(TestPrograms.COUNT_ONES), LANES);
+		lockstep.getMemory(LANES - 1).poke(0, 3);
+		lockstep.setRegister(LANES - 1, 5, 9);
+		lockstep.reset(3);
+		assertEquals(0, lockstep.getMemory(LANES - 1).peek(0));
+		assertEquals(0, lockstep.getRegister(LANES - 1, 5));
+		lockstep.runFor(1000);
+		for (int l = 0; l < LANES; l++) {
+			assertEquals(l < 3 ? Simulator.StopReason.END : null, lockstep.getStopReason(l));
+			assertEquals(l < 3 ? 6 : 0, lockstep.getInstructionCount(l));
+		}
+		try {
+			lockstep.reset(LANES + 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
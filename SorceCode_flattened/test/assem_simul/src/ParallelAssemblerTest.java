@@ -0,0 +1,134 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * The ParallelAssembler must assemble sources spanning many chunks exactly as the sequential Assembler does, errors
+ * included.
+ *
+ */
+public class ParallelAssemblerTest {
+	private final ForkJoinPool pool = new ForkJoinPool(4);
+	private final ParallelAssembler assembler = new ParallelAssembler(pool);
+
+	@After
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/*
+	 * Generates lines in blocks of 8, each block labelled and branching to its neighbours.
+	 */
+	private static List<String> source(Random random, int blocks) {
+		List<String> lines = new ArrayList<String>();
+		for (int b = 0; b < blocks; b++) {
+			for (int i = 0; i < 8; i++) {
+				String label = (i == 0) ? "B" + b + ":" : "";
+				int near = Math.max(0, Math.min(blocks - 1, b + random.nextInt(5) - 2));
+				switch (random.nextInt(6)) {
+				case 0:
+					lines.add(label + "\tadd $1, $2, $3\t; comment");
+					break;
+				case 1:
+					lines.add(label + "\taddi $" + random.nextInt(8) + ", $1, " + (random.nextInt(31) - 15));
+					break;
+				case 2:
+					lines.add(label + "\tlw $2, 3($t1)");
+					break;
+				case 3:
+					lines.add(label + "\tbnez $1, B" + near);
+					break;
+				case 4:
+					lines.add(label + "\tj B" + near);
+					break;
+				default:
+					lines.add((label.length() == 0) ? "; comment only" : label);
+				}
+			}
+		}
+		return lines;
+	}
+
+	private static String join(List<String> lines, String terminator) {
+		StringBuffer strbuf = new StringBuffer();
+		for (String line : lines) {
+			strbuf.append(line).append(terminator);
+		}
+		return strbuf.toString();
+	}
+
+	/*
+	 * Describes the program, or the exception thrown instead.
+	 */
+	private static String outcome(Callable<Program> assemble) {
+		try {
+			Program program = assemble.call();
+			int[] lineMap = new int[program.size()];
+			for (int i = 0; i < lineMap.length; i++) {
+				lineMap[i] = program.getLineNo(i);
+			}
+			return Arrays.toString(program.getWords()) + " " + new TreeMap<String, Integer>(program.getLabelMap())
+					+ " " + Arrays.toString(lineMap);
+		} catch (Exception e) {
+			return e.getClass().getSimpleName() + ": " + e.getMessage();
+		}
+	}
+
+	private String assertSameOutcome(final String src) {
+		String expected = outcome(new Callable<Program>() {
+			@Override
+			public Program call() throws Exception {
+				return Assembler.compile(src);
+			}
+		});
+		String actual = outcome(new Callable<Program>() {
+			@Override
+			public Program call() throws Exception {
+				return assembler.assemble(src);
+			}
+		});
+		assertEquals(expected, actual);
+		return actual;
+	}
+
+	@Test
+	public void matchesTheSequentialAssembler() {
+		for (int seed = 0; seed < 4; seed++) {
+			String src = join(source(new Random(seed), 5000), (seed % 2 == 0) ? "\n" : "\r\n");
+			assertTrue(src.length() > 4 * (1 << 16));
+			assertTrue(assertSameOutcome(src).startsWith("["));
+		}
+	}
+
+	@Test
+	public void reportsTheFirstSyntaxError() {
+		List<String> lines = source(new Random(1), 5000);
+		lines.set(30000, "\tbogus $1, $2, $3");
+		lines.set(10000, "\tadd $1, $2");
+		assertTrue(assertSameOutcome(join(lines, "\n")).endsWith("on line 10001."));
+	}
+
+	@Test
+	public void reportsALabelDefinedInTwoChunks() {
+		List<String> lines = source(new Random(2), 5000);
+		lines.set(35000, "B3:\tadd $1, $1, $1");
+		assertTrue(assertSameOutcome(join(lines, "\n")).endsWith("on line 35001."));
+	}
+
+	@Test
+	public void reportsTheFirstUndefinedLabel() {
+		List<String> lines = source(new Random(3), 5000);
+		lines.set(20001, "\tj Nowhere");
+		lines.set(39001, "\tj Elsewhere");
+		assertTrue(assertSameOutcome(join(lines, "\n")).startsWith("LabelNotFoundException"));
+	}
+}
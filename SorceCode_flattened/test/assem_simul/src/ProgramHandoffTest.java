@@ -0,0 +1,76 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * A Program handed to the Simulator must run as the binary code it renders, decoded from text.
+ *
+ */
+public class ProgramHandoffTest {
+	@Test
+	public void rendersTheTextFormats() throws Exception {
+		for (int seed = 0; seed < 50; seed++) {
+			Random random = new Random(seed);
+			Assembler assembler = new Assembler();
+			try {
+				assembler.parse(TestPrograms.random(random, 1 + random.nextInt(60)));
+			} catch (SyntaxException e) {
+				continue;
+			}
+			Program program = assembler.assembleProgram();
+			assertEquals(assembler.assemble(), program.toListing());
+			assertEquals(assembler.assembleA(), program.toRawString());
+			assertArrayEquals(assembler.encode(), program.getWords());
+		}
+	}
+
+	@Test
+	public void runsAsTheDecodedText() throws Exception {
+		for (int seed = 0; seed < 100; seed++) {
+			Random random = new Random(seed);
+			Assembler assembler = new Assembler();
+			try {
+				assembler.parse(TestPrograms.random(random, 2 + random.nextInt(40)));
+			} catch (SyntaxException e) {
+				continue;
+			}
+			for (Simulator.Engine engine : new Simulator.Engine[] { Simulator.Engine.REFERENCE,
+					Simulator.Engine.IMAGE }) {
+				Simulator loaded = new Simulator();
+				loaded.load(assembler.assembleProgram());
+				Simulator decoded = new Simulator();
+				decoded.decode(assembler.assemble());
+				for (Simulator simulator : new Simulator[] { loaded, decoded }) {
+					simulator.setEngine(engine);
+					TestPrograms.fillMemory(simulator);
+				}
+				assertEquals("seed " + seed, decoded.runFor(5000) + " " + TestPrograms.state(decoded),
+						loaded.runFor(5000) + " " + TestPrograms.state(loaded));
+			}
+		}
+	}
+
+	@Test
+	public void keepsLinesAndLabels() throws Exception {
+		Program program = Assembler.compile("; count the bits\n" + TestPrograms.COUNT_ONES);
+		assertEquals(6, program.size());
+		assertEquals(2, program.getLineNo(0));
+		assertEquals(4, program.getLineNo(2));
+		assertEquals("Next", program.getLabelAt(2));
+		assertNull(program.getLabelAt(3));
+		assertEquals(4, program.getLabelLineNo("Next"));
+		assertEquals(Collections.singletonMap("Next", 2), program.getLabelMap());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void cannotBeModified() throws Exception {
+		Assembler.compile(TestPrograms.COUNT_ONES).decode().clear();
+	}
+}
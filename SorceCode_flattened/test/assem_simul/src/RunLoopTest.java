@@ -0,0 +1,58 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * runFor() runs in quanta: it must keep to its budget exactly, and stop at the kill/pause signals.
+ *
+ */
+public class RunLoopTest {
+	private static final String LOOP = "Loop:\taddi $1, $1, 1\n\tj Loop\n";
+
+	@Test
+	public void keepsToTheBudgetWhateverTheQuantum() throws Exception {
+		for (int quantum : new int[] { 1, 7, 1000, Simulator.DEFAULT_QUANTUM }) {
+			Simulator simulator = new Simulator();
+			simulator.load(Assembler.compile(LOOP));
+			simulator.setQuantum(quantum);
+			assertEquals(Simulator.StopReason.BUDGET, simulator.runFor(12345));
+			assertEquals(12345, simulator.getInstructionCount());
+			assertEquals(Simulator.StopReason.BUDGET, simulator.runFor(5));
+			assertEquals(12350, simulator.getInstructionCount());
+			assertEquals(12350 / 2, simulator.getRegfile().get(1));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void killStopsARunningThread() throws Exception {
+		Simulator simulator = new Simulator();
+		simulator.load(Assembler.compile(LOOP));
+		simulator.setQuantum(1000);
+		Thread thread = new Thread(simulator);
+		thread.start();
+		Thread.sleep(50);
+		simulator.kill();
+		thread.join(5000);
+		assertFalse(thread.isAlive());
+		assertEquals(Simulator.StopReason.KILLED, simulator.runFor(1));
+	}
+
+	@Test
+	public void pausedRunContinuesWhereItStopped() throws Exception {
+		Simulator simulator = new Simulator();
+		simulator.load(Assembler.compile(TestPrograms.COUNT_ONES));
+		simulator.setMemory(0, 0x7FFF);
+		simulator.pause();
+		assertEquals(Simulator.StopReason.PAUSED, simulator.runFor(1000));
+		assertEquals(0, simulator.getInstructionCount());
+		assertEquals(Simulator.StopReason.END, simulator.runFor(1000));
+		assertEquals(15, simulator.getRegfile().get(2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAnEmptyQuantum() {
+		new Simulator().setQuantum(0);
+	}
+}
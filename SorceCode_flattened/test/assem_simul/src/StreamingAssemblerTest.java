@@ -0,0 +1,72 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import assembler.exception.*;
+import assembler.utils.Utilites;
+
+/**
+ * The StreamingAssembler must write exactly what Assembler.assemble() returns.
+ *
+ */
+public class StreamingAssemblerTest {
+	private static String assemble(String src) throws Exception {
+		Assembler assembler = new Assembler();
+		assembler.parse(src);
+		return assembler.assemble();
+	}
+
+	private static String stream(String src) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new StreamingAssembler().assemble(new StringReader(src), out);
+		return new String(out.toByteArray(), Utilites.CHARSET);
+	}
+
+	@Test
+	public void matchesAssemblerOnRandomPrograms() throws Exception {
+		for (int seed = 0; seed < 100; seed++) {
+			Random random = new Random(seed);
+			String src = TestPrograms.random(random, 1 + random.nextInt(100));
+			String expected;
+			try {
+				expected = assemble(src);
+			} catch (SyntaxException e) {
+				continue;
+			}
+			assertEquals("seed " + seed, expected, stream(src));
+		}
+	}
+
+	@Test
+	public void resolvesForwardReferences() throws Exception {
+		String src = "\tbnez $1, End\n\tj End\nMid:\taddi $1, $1, 1\nEnd:\tjal Mid\n";
+		assertEquals(assemble(src), stream(src));
+	}
+
+	@Test
+	public void readsFilesAndReadersAlike() throws Exception {
+		String src = TestPrograms.COUNT_ONES + "; \u00e9t\u00e9 \u65e5\u672c\n";
+		Path file = Files.createTempFile("streaming", ".s");
+		try {
+			Files.write(file, src.getBytes(Utilites.CHARSET));
+			StreamingAssembler assembler = new StreamingAssembler();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(6, assembler.assemble(file, out));
+			assertEquals(stream(src), new String(out.toByteArray(), Utilites.CHARSET));
+			assertEquals(Integer.valueOf(2), assembler.getLabelMap().get("Next"));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test(expected = LabelNotFoundException.class)
+	public void rejectsUndefinedLabels() throws Exception {
+		stream("\tj Nowhere\n");
+	}
+}
@@ -0,0 +1,151 @@
+package assem_simul.src;
+
+import java.util.*;
+
+import assembler.entity.*;
+
+/**
+ * Programs and helpers shared by the Simulator tests.
+ *
+ */
+class TestPrograms {
+	/**
+	 * Counts the bits set in the word at the address 0 into $2 (Assembly Samples/count1's.txt).
+	 */
+	static final String COUNT_ONES = "\txor $2, $2, $2 ;\n"
+			+ "\tlw $1, 0($0) ;\n"
+			+ "Next:\tandi $3, $1, 1 ;\n"
+			+ "\tadd $2, $2, $3 ;\n"
+			+ "\tsrl $1, $1, 1 ;\n"
+			+ "\tbnez $1, Next ;\n";
+
+	private static final String[] R = { "and", "cand", "or", "xor", "add", "nadd", "slt", "sltu" };
+	private static final String[] I = { "andi", "candi", "ori", "xori", "addi", "naddi", "slti", "sltui", "sll", "srl",
+			"sra", "ror" };
+	private static final String[] B = { "beqz", "bnez", "bltz", "bgez", "bgtz", "blez" };
+
+	/**
+	 * Generates a random valid program, which may loop forever, jump out of the program or fault.
+	 *
+	 * @param random
+	 *            the source of randomness
+	 * @param size
+	 *            the number of instructions
+	 * @return the source
+	 */
+	static String random(Random random, int size) {
+		StringBuffer strbuf = new StringBuffer();
+		int labels = Math.max(1, size / 4);
+		boolean[] defined = new boolean[labels];
+		for (int i = 0; i < size; i++) {
+			int label = random.nextInt(labels);
+			if ((random.nextInt(4) == 0) && !defined[label]) {
+				defined[label] = true;
+				strbuf.append('L').append(label).append(':');
+			}
+			strbuf.append('\t');
+			int kind = random.nextInt(10);
+			if (kind < 3) {
+				strbuf.append(R[random.nextInt(R.length)]).append(" $").append(random.nextInt(8)).append(", $")
+						.append(random.nextInt(8)).append(", $").append(random.nextInt(8));
+			} else if (kind < 6) {
+				strbuf.append(I[random.nextInt(I.length)]).append(" $").append(random.nextInt(8)).append(", $")
+						.append(random.nextInt(8)).append(", ").append(random.nextInt(31) - 15);
+			} else if (kind < 7) {
+				strbuf.append(random.nextBoolean() ? "lw" : "sw").append(" $").append(random.nextInt(8)).append(", ")
+						.append(random.nextInt(31) - 15).append("($").append(random.nextInt(8)).append(')');
+			} else if (kind < 8) {
+				strbuf.append(B[random.nextInt(B.length)]).append(" $").append(random.nextInt(8)).append(", L")
+						.append(random.nextInt(labels));
+			} else if (kind < 9) {
+				strbuf.append(random.nextBoolean() ? "jr" : "jalr").append(" $").append(random.nextInt(8)).append(", ")
+						.append(random.nextInt(size));
+			} else {
+				switch (random.nextInt(4)) {
+				case 0:
+					strbuf.append("set ").append(random.nextInt(1000));
+					break;
+				case 1:
+					strbuf.append("sset ").append(random.nextInt(1000));
+					break;
+				case 2:
+					strbuf.append("j L").append(random.nextInt(labels));
+					break;
+				default:
+					strbuf.append("jal L").append(random.nextInt(labels));
+				}
+			}
+			strbuf.append('\n');
+		}
+		for (int label = 0; label < labels; label++) {
+			if (!defined[label]) {
+				strbuf.append('L').append(label).append(":\n");
+			}
+		}
+		return strbuf.toString();
+	}
+
+	/**
+	 * Fills the words around the address 0 with a fixed pattern.
+	 *
+	 * @param simulator
+	 *            the simulator
+	 */
+	static void fillMemory(Simulator simulator) {
+		for (int address = 0; address < 20; address++) {
+			simulator.setMemory(address, address * 37 - 100);
+		}
+	}
+
+	/**
+	 * Runs the program on the engine, slice by slice, until it stops for another reason than the budget or the
+	 * budget is used up.
+	 *
+	 * @param program
+	 *            the program
+	 * @param engine
+	 *            the engine
+	 * @param budget
+	 *            the total number of instructions
+	 * @param slice
+	 *            the number of instructions per runFor()
+	 * @return the state (see state())
+	 */
+	static String run(Program program, Simulator.Engine engine, long budget, long slice) throws Exception {
+		Simulator simulator = new Simulator();
+		simulator.load(program);
+		simulator.setEngine(engine);
+		simulator.setJitThreshold(1);
+		fillMemory(simulator);
+		Simulator.StopReason reason = null;
+		for (long left = budget; left > 0; left -= slice) {
+			reason = simulator.runFor(Math.min(left, slice));
+			if (reason != Simulator.StopReason.BUDGET) {
+				break;
+			}
+		}
+		return reason + " " + state(simulator);
+	}
+
+	/**
+	 * Describes the observable state of the simulator: PC, instruction count, registers and the words around the
+	 * address 0.
+	 *
+	 * @param simulator
+	 *            the simulator
+	 * @return the state
+	 */
+	static String state(Simulator simulator) {
+		StringBuffer strbuf = new StringBuffer();
+		strbuf.append("pc=").append(simulator.getPc()).append(" n=").append(simulator.getInstructionCount());
+		strbuf.append(" regs=");
+		for (int i = 0; i < simulator.getRegfile().getSize(); i++) {
+			strbuf.append(simulator.getRegfile().get(i)).append(',');
+		}
+		strbuf.append(" mem=");
+		for (int address = -40; address < 60; address++) {
+			strbuf.append(simulator.getMemory(address)).append(',');
+		}
+		return strbuf.toString();
+	}
+}
@@ -0,0 +1,170 @@
+package assem_simul.src;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * Stepping back must bring back the state before each instruction, as far as the undo log reaches, and the reverse
+ * continues must stop where the run passed the breakpoint or wrote the address last.
+ *
+ */
+public class UndoTest {
+	private static final int STEPS = 300;
+
+	@Test
+	public void stepsBackThroughEveryState() throws Exception {
+		for (int seed = 0; seed < 100; seed++) {
+			Random random = new Random(seed);
+			Program program;
+			try {
+				program = Assembler.compile(TestPrograms.random(random, 2 + random.nextInt(40)));
+			} catch (SyntaxException e) {
+				continue;
+			}
+			Simulator simulator = simulator(program, STEPS);
+			List<String> states = run(simulator);
+			int last = states.size() - 1;
+			assertEquals(last, simulator.getUndoDepth());
+
+			// continuing with a budget gives the same states as single steps
+			Simulator batch = simulator(program, STEPS);
+			batch.runFor(last);
+			assertEquals("seed " + seed, states.get(last), TestPrograms.state(batch));
+
+			for (int i = last - 1; i >= 0; i--) {
+				assertTrue(simulator.stepBack());
+				assertEquals("seed " + seed + " step " + i, states.get(i), TestPrograms.state(simulator));
+			}
+			assertFalse(simulator.stepBack());
+			assertEquals(0, simulator.getUndoDepth());
+
+			// and forward again
+			simulator.runFor(last);
+			assertEquals("seed " + seed, states.get(last), TestPrograms.state(simulator));
+			assertEquals(last, batch.stepBack(last + 5));
+			assertEquals("seed " + seed, states.get(0), TestPrograms.state(batch));
+		}
+	}
+
+	@Test
+	public void keepsTheLastInstructions() throws Exception {
+		Program program = Assembler.compile(TestPrograms.COUNT_ONES);
+		Simulator simulator = simulator(program, 5);
+		simulator.setMemory(0, 0x7FFF);
+		List<String> states = run(simulator);
+		int last = states.size() - 1;
+		assertTrue(last > 5);
+		assertEquals(5, simulator.getUndoDepth());
+		assertEquals(5, simulator.stepBack(10));
+		assertEquals(states.get(last - 5), TestPrograms.state(simulator));
+		assertFalse(simulator.stepBack());
+
+		// a change from outside is not logged, but replacing the memory or resetting clears the log
+		simulator.runFor(3);
+		assertEquals(3, simulator.getUndoDepth());
+		simulator.setMemory(1, 1);
+		assertEquals(3, simulator.getUndoDepth());
+		simulator.setMemory(new Memory());
+		assertEquals(0, simulator.getUndoDepth());
+		simulator.runFor(3);
+		simulator.reset();
+		assertEquals(0, simulator.getUndoDepth());
+
+		simulator.setUndoCapacity(0);
+		simulator.runFor(3);
+		assertFalse(simulator.stepBack());
+	}
+
+	@Test
+	public void reverseContinuesToTheLastHit() throws Exception {
+		for (int seed = 0; seed < 100; seed++) {
+			Random random = new Random(seed);
+			Program program;
+			try {
+				program = Assembler.compile(TestPrograms.random(random, 2 + random.nextInt(40)));
+			} catch (SyntaxException e) {
+				continue;
+			}
+			Simulator simulator = simulator(program, STEPS);
+			List<String> states = run(simulator);
+			List<Integer> pcs = new ArrayList<Integer>(); // PC before each step
+			Simulator probe = simulator(program, 0);
+			for (int i = 0; i + 1 < states.size(); i++) {
+				pcs.add(probe.getPc());
+				probe.runFor(1);
+			}
+
+			for (int breakpoint = 0; breakpoint < program.size(); breakpoint++) {
+				int hit = pcs.lastIndexOf(breakpoint);
+				Simulator reverse = simulator(program, STEPS);
+				reverse.runFor(states.size() - 1);
+				assertEquals("seed " + seed, hit >= 0, reverse.reverseContinue(breakpoint));
+				assertEquals("seed " + seed + " breakpoint " + breakpoint, states.get(Math.max(hit, 0)),
+						TestPrograms.state(reverse));
+			}
+		}
+	}
+
+	@Test
+	public void reverseContinuesToTheLastWrite() throws Exception {
+		Program program = Assembler.compile("\tset 5 ;\n" // 0
+				+ "\tsw $0, 0($1) ;\n" // 1: mem[0] = 5
+				+ "\taddi $0, $0, 1 ;\n" // 2
+				+ "\tsw $0, 1($1) ;\n" // 3: mem[1] = 6
+				+ "\tsw $0, 0($1) ;\n" // 4: mem[0] = 6
+				+ "\taddi $0, $0, 1 ;\n");
+		Simulator simulator = simulator(program, STEPS);
+		List<String> states = run(simulator);
+		assertEquals(7, states.size());
+		assertEquals(6, simulator.getMemory(0));
+
+		assertTrue(simulator.reverseContinueToWrite(0));
+		assertEquals(states.get(4), TestPrograms.state(simulator));
+		assertEquals(5, simulator.getMemory(0));
+		assertTrue(simulator.reverseContinueToWrite(0));
+		assertEquals(states.get(1), TestPrograms.state(simulator));
+		assertFalse(simulator.reverseContinueToWrite(0));
+		assertEquals(states.get(0), TestPrograms.state(simulator));
+
+		simulator.runFor(10);
+		assertTrue(simulator.reverseContinueToWrite(1));
+		assertEquals(states.get(3), TestPrograms.state(simulator));
+		assertFalse(simulator.reverseContinue(4));
+		assertEquals(states.get(0), TestPrograms.state(simulator));
+	}
+
+	private static Simulator simulator(Program program, int capacity) throws InvalidInstructionException {
+		Simulator simulator = new Simulator();
+		simulator.load(program);
+		TestPrograms.fillMemory(simulator);
+		simulator.setUndoCapacity(capacity);
+		return simulator;
+	}
+
+	/**
+	 * Runs single steps until the program stops or the steps are used up, and returns the state before each step and
+	 * after the last one.
+	 */
+	private static List<String> run(Simulator simulator) {
+		List<String> states = new ArrayList<String>();
+		states.add(TestPrograms.state(simulator));
+		for (int i = 0; i < STEPS; i++) {
+			long count = simulator.getInstructionCount();
+			Simulator.StopReason reason = simulator.runFor(1);
+			if (simulator.getInstructionCount() == count) {
+				break;
+			}
+			states.add(TestPrograms.state(simulator));
+			if (reason != Simulator.StopReason.BUDGET) {
+				break;
+			}
+		}
+		return states;
+	}
+}
@@ -0,0 +1,86 @@
+package assem_simul.timing;
+
+import static assembler.entity.InstructionImage.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Misprediction counts of the predictors on small branch patterns.
+ *
+ */
+public class BranchPredictorTest {
+	// bnez $1, -4 at the pc 4: a loop branch
+	private static final int LOOP_PC = 4;
+	private static final int LOOP_BRANCH = pack(OP_BNEZ, 1, 0, 0, -4);
+
+	/*
+	 * Runs the loop branch taken (iterations - 1) times and then not taken, and returns the mispredictions.
+	 */
+	private static int loopMispredictions(BranchPredictor predictor, int iterations) {
+		int misses = 0;
+		for (int i = 1; i <= iterations; i++) {
+			int nextPc = (i < iterations) ? LOOP_PC - 4 : LOOP_PC + 1;
+			if (predictor.predict(LOOP_PC, LOOP_BRANCH) != nextPc) {
+				misses++;
+			}
+			predictor.update(LOOP_PC, LOOP_BRANCH, nextPc);
+		}
+		return misses;
+	}
+
+	@Test
+	public void loopBranch() {
+		assertEquals(9, loopMispredictions(new NotTakenPredictor(), 10));
+		assertEquals(1, loopMispredictions(new BtfnPredictor(), 10));
+		assertEquals(2, loopMispredictions(new BimodalPredictor(4, 1), 10)); // first and last
+		assertEquals(3, loopMispredictions(new BimodalPredictor(4, 2), 10)); // two to warm up, and the last
+	}
+
+	@Test
+	public void gshareLearnsAlternatingBranches() {
+		BranchPredictor bimodal = new BimodalPredictor(8, 2);
+		BranchPredictor gshare = new GsharePredictor(8, 4);
+		int bimodalMisses = 0;
+		int gshareMisses = 0;
+		for (int i = 0; i < 200; i++) {
+			int nextPc = (i % 2 == 0) ? LOOP_PC - 4 : LOOP_PC + 1;
+			boolean counted = i >= 100; // after warming up
+			if ((bimodal.predict(LOOP_PC, LOOP_BRANCH) != nextPc) && counted) {
+				bimodalMisses++;
+			}
+			if ((gshare.predict(LOOP_PC, LOOP_BRANCH) != nextPc) && counted) {
+				gshareMisses++;
+			}
+			bimodal.update(LOOP_PC, LOOP_BRANCH, nextPc);
+			gshare.update(LOOP_PC, LOOP_BRANCH, nextPc);
+		}
+		assertEquals(50, bimodalMisses);
+		assertEquals(0, gshareMisses);
+	}
+
+	@Test
+	public void returnAddressStackPredictsReturns() {
+		int call = pack(OP_JAL, 0, 0, 0, 10); // at the pc 0, to 10
+		int ret = pack(OP_JR, 7, 0, 0, 0); // at the pc 10, back to 1
+		BranchPredictor withRas = new BtbRasPredictor(new NotTakenPredictor(), 4, 4);
+		BranchPredictor without = new NotTakenPredictor();
+		for (BranchPredictor predictor : new BranchPredictor[] { withRas, without }) {
+			predictor.update(0, call, 10);
+		}
+		assertEquals(1, withRas.predict(10, ret));
+		assertEquals(11, without.predict(10, ret));
+	}
+
+	@Test
+	public void pipelineCountsMispredictionsPerBranch() {
+		PipelineModel model = new PipelineModel();
+		model.setBranchPredictor(new BtfnPredictor());
+		for (int i = 1; i <= 10; i++) {
+			model.step(LOOP_PC, LOOP_BRANCH, (i < 10) ? LOOP_PC - 4 : LOOP_PC + 1, 0);
+		}
+		assertEquals(10, model.getControlTransfers());
+		assertEquals(1, model.getMispredictions());
+		assertArrayEquals(new long[] { 10, 1 }, model.getBranchStatistics().get(LOOP_PC));
+	}
+}
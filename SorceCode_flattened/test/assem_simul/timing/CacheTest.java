@@ -0,0 +1,140 @@
+package assem_simul.timing;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import assem_simul.src.*;
+
+/**
+ * Hits, misses and their classification by the Cache model.
+ *
+ */
+public class CacheTest {
+	private static void read(Cache cache, int... addrs) {
+		for (int addr : addrs) {
+			cache.access(addr, false);
+		}
+	}
+
+	@Test
+	public void classifiesConflictMisses() {
+		Cache cache = new Cache(4, 1, 1, Cache.Replacement.LRU); // direct mapped, 4 lines
+		read(cache, 0, 4, 0, 4);
+		assertEquals(4, cache.getMisses());
+		assertEquals(2, cache.getCompulsoryMisses());
+		assertEquals(2, cache.getConflictMisses());
+		assertEquals(0, cache.getCapacityMisses());
+	}
+
+	@Test
+	public void classifiesCapacityMisses() {
+		Cache cache = new Cache(4, 1, 4, Cache.Replacement.LRU); // fully associative, 4 lines
+		read(cache, 0, 1, 2, 3, 4, 5, 6, 7, 0, 1, 2, 3, 4, 5, 6, 7);
+		assertEquals(8, cache.getCompulsoryMisses());
+		assertEquals(8, cache.getCapacityMisses());
+		assertEquals(0, cache.getConflictMisses());
+		assertEquals(0, cache.getHits());
+	}
+
+	@Test
+	public void classificationMatchesAFullyAssociativeLruShadow() {
+		for (int seed = 0; seed < 50; seed++) {
+			Random random = new Random(seed);
+			int lineWords = 1 << random.nextInt(3);
+			int ways = 1 << random.nextInt(3);
+			final int lines = 16 << random.nextInt(4);
+			Cache cache = new Cache(lines * lineWords, lineWords, ways,
+					Cache.Replacement.values()[random.nextInt(Cache.Replacement.values().length)]);
+			Map<Integer, Boolean> shadow = new LinkedHashMap<Integer, Boolean>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+					return size() > lines;
+				}
+			};
+			Set<Integer> seen = new HashSet<Integer>();
+			long compulsory = 0, capacity = 0, conflict = 0;
+			int range = 1 << (6 + random.nextInt(10));
+			for (int i = 0; i < 20000; i++) {
+				int addr = (random.nextInt(4) == 0) ? random.nextInt(range) : (i * 3) % range;
+				long misses = cache.getMisses();
+				cache.access(addr, random.nextBoolean());
+				int line = addr / lineWords;
+				boolean shadowHit = shadow.put(line, Boolean.TRUE) != null;
+				if (cache.getMisses() > misses) {
+					if (seen.add(line)) {
+						compulsory++;
+					} else if (shadowHit) {
+						conflict++;
+					} else {
+						capacity++;
+					}
+				}
+			}
+			assertEquals("seed " + seed, compulsory, cache.getCompulsoryMisses());
+			assertEquals("seed " + seed, capacity, cache.getCapacityMisses());
+			assertEquals("seed " + seed, conflict, cache.getConflictMisses());
+		}
+	}
+
+	@Test
+	public void lruKeepsTheLineUsedLast() {
+		Cache lru = new Cache(2, 1, 2, Cache.Replacement.LRU);
+		Cache fifo = new Cache(2, 1, 2, Cache.Replacement.FIFO);
+		for (Cache cache : new Cache[] { lru, fifo }) {
+			read(cache, 0, 1, 0, 2, 0);
+		}
+		assertEquals(2, lru.getHits()); // 2 evicts 1
+		assertEquals(1, fifo.getHits()); // 2 evicts 0
+	}
+
+	@Test
+	public void writeBackChargesTheDirtyVictim() {
+		Cache cache = new Cache(4, 1, 1, Cache.Replacement.LRU);
+		cache.setPenalties(10, 5);
+		assertEquals(10, cache.access(0, true));
+		assertEquals(0, cache.access(0, true));
+		assertEquals(10 + 5, cache.access(4, false));
+		assertEquals(1, cache.getWriteBacks());
+		assertEquals(1, cache.getMemoryWrites());
+	}
+
+	@Test
+	public void writeThroughWithoutAllocationWritesEveryStore() {
+		Cache cache = new Cache(4, 1, 1, Cache.Replacement.LRU);
+		cache.setWritePolicy(false, false);
+		cache.access(0, true);
+		cache.access(0, true);
+		assertEquals(2, cache.getMisses());
+		assertEquals(2, cache.getMemoryWrites());
+		assertEquals(0, cache.getWriteBacks());
+	}
+
+	@Test
+	public void prefetchBringsTheNextLine() {
+		Cache cache = new Cache(64, 4, 1, Cache.Replacement.LRU);
+		cache.setPrefetch(true);
+		read(cache, 0, 4);
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getPrefetches());
+	}
+
+	@Test
+	public void onlyTheProgramGoesThroughCachedMemory() throws Exception {
+		Cache cache = new Cache(64, 4, 2, Cache.Replacement.LRU);
+		Simulator simulator = new Simulator();
+		simulator.setMemory(new CachedMemory(cache));
+		simulator.load(Assembler.compile("\tlw $1, 0($0)\n\tsw $1, 1($0)\n\tlw $2, 1($0)\n"));
+		simulator.setMemory(0, 42);
+		assertEquals(Simulator.StopReason.END, simulator.runFor(100));
+		assertEquals(42, simulator.getMemory(1));
+		assertEquals(2, cache.getReads());
+		assertEquals(1, cache.getWrites());
+		assertEquals(1, cache.getMisses());
+	}
+}
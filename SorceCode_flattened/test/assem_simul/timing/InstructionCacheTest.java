@@ -0,0 +1,52 @@
+package assem_simul.timing;
+
+import static assembler.entity.InstructionImage.*;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+/**
+ * Fetch stalls of the PipelineModel with an instruction cache.
+ *
+ */
+public class InstructionCacheTest {
+	private static final int NOP = pack(OP_ADD, 0, 0, 1, 0); // add $1, $0, $0
+
+	private static void straightLine(PipelineModel model, int count) {
+		for (int pc = 0; pc < count; pc++) {
+			model.step(pc, NOP, pc + 1, 0);
+		}
+	}
+
+	@Test
+	public void missStallsFetchForThePenalty() {
+		PipelineModel ideal = new PipelineModel();
+		PipelineModel cached = new PipelineModel();
+		Cache cache = new Cache(64, 4, 1, Cache.Replacement.LRU);
+		cache.setPenalties(10, 0);
+		cached.setInstructionCache(cache);
+		straightLine(ideal, 8);
+		straightLine(cached, 8);
+		assertEquals(2, cache.getMisses()); // one per line of 4 instructions
+		assertEquals(20, cached.getFetchStalls());
+		assertEquals(ideal.getCycles() + 20, cached.getCycles());
+		Map<Integer, Long> misses = new TreeMap<Integer, Long>();
+		misses.put(0, 1L);
+		misses.put(4, 1L);
+		assertEquals(misses, cached.getFetchMisses());
+	}
+
+	@Test
+	public void warmCacheSurvivesReset() {
+		PipelineModel model = new PipelineModel();
+		Cache cache = new Cache(64, 4, 1, Cache.Replacement.LRU);
+		model.setInstructionCache(cache);
+		straightLine(model, 8);
+		model.reset();
+		straightLine(model, 8);
+		assertEquals(0, model.getFetchStalls());
+		assertEquals(8 + 4, model.getCycles());
+	}
+}
@@ -0,0 +1,76 @@
+package assem_simul.timing;
+
+import static assembler.entity.InstructionImage.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import assem_simul.src.*;
+
+/**
+ * Cycle counts of the 5-stage pipeline for the textbook hazards.
+ *
+ */
+public class PipelineModelTest {
+	// add $rd, $rs, $rt
+	private static int add(int rd, int rs, int rt) {
+		return pack(OP_ADD, rs, rt, rd, 0);
+	}
+
+	@Test
+	public void independentInstructionsCompleteOnePerCycle() {
+		PipelineModel model = new PipelineModel();
+		for (int pc = 0; pc < 10; pc++) {
+			model.step(pc, add(1, 0, 0), pc + 1, 0);
+		}
+		assertEquals(10 + 4, model.getCycles());
+		assertEquals(0, model.getStalls());
+	}
+
+	@Test
+	public void loadUseStallsOneCycle() {
+		PipelineModel model = new PipelineModel();
+		model.step(0, pack(OP_LW, 0, 1, 0, 0), 1, 0);
+		model.step(1, add(2, 1, 1), 2, 0);
+		assertEquals(2 + 4 + 1, model.getCycles());
+		assertEquals(1, model.getLoadUseStalls());
+	}
+
+	@Test
+	public void forwardingRemovesDataHazards() {
+		PipelineModel forwarding = new PipelineModel();
+		PipelineModel none = new PipelineModel();
+		none.setForwarding(false, false);
+		for (PipelineModel model : new PipelineModel[] { forwarding, none }) {
+			model.step(0, add(1, 0, 0), 1, 0);
+			model.step(1, add(2, 1, 1), 2, 0);
+		}
+		assertEquals(0, forwarding.getStalls());
+		assertEquals(2, none.getStalls());
+		assertEquals(forwarding.getCycles() + 2, none.getCycles());
+	}
+
+	@Test
+	public void mispredictedBranchFlushesUntilEx() {
+		PipelineModel model = new PipelineModel(); // predicts not taken, resolves branches in EX
+		model.step(0, pack(OP_BEQZ, 0, 0, 0, 5), 5, 0);
+		model.step(5, add(1, 0, 0), 6, 0);
+		assertEquals(1, model.getFlushes());
+		assertEquals(2, model.getFlushPenalty());
+		assertEquals(2 + 4 + 2, model.getCycles());
+	}
+
+	@Test
+	public void accountsEveryInstructionTheSimulatorRuns() throws Exception {
+		Simulator simulator = new Simulator();
+		simulator.load(Assembler.compile("\tlw $1, 0($0)\nNext:\tandi $3, $1, 1\n\tadd $2, $2, $3\n"
+				+ "\tsrl $1, $1, 1\n\tbnez $1, Next\n"));
+		PipelineModel model = new PipelineModel();
+		simulator.setTimingModel(model);
+		simulator.setMemory(0, 0x5B);
+		assertEquals(Simulator.StopReason.END, simulator.runFor(10000));
+		assertEquals(simulator.getInstructionCount(), model.getInstructions());
+		assertTrue(model.getCycles() >= model.getInstructions() + 4);
+		assertEquals(7, model.getControlTransfers()); // one BNEZ per bit up to the highest one set
+	}
+}
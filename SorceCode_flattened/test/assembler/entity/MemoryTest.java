@@ -0,0 +1,68 @@
+package assembler.entity;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+/**
+ * The paged Memory must behave as a map from address to word which reads zero where nothing was written.
+ *
+ */
+public class MemoryTest {
+	@Test
+	public void unwrittenWordsReadZeroWithoutAllocating() {
+		Memory memory = new Memory();
+		assertEquals(0, memory.read(0));
+		assertEquals(0, memory.read(-1));
+		assertEquals(0, memory.read(Integer.MIN_VALUE));
+		assertEquals(0, memory.getPageCount());
+	}
+
+	@Test
+	public void allocatesOnlyThePagesWritten() {
+		Memory memory = new Memory();
+		memory.write(0, 1);
+		memory.write(Memory.PAGE_SIZE - 1, 2);
+		assertEquals(1, memory.getPageCount());
+		memory.write(-1, 3);
+		memory.write(Integer.MAX_VALUE, 4);
+		assertEquals(3, memory.getPageCount());
+		assertEquals(1, memory.read(0));
+		assertEquals(2, memory.read(Memory.PAGE_SIZE - 1));
+		assertEquals(3, memory.read(-1));
+		assertEquals(4, memory.read(Integer.MAX_VALUE));
+		assertEquals(0, memory.read(Memory.PAGE_SIZE));
+	}
+
+	@Test
+	public void matchesAMapOnRandomAccesses() {
+		Random random = new Random(1);
+		Memory memory = new Memory();
+		Map<Integer, Integer> reference = new HashMap<Integer, Integer>();
+		for (int i = 0; i < 100000; i++) {
+			// mostly clustered addresses, sometimes anywhere in the address space
+			int addr = random.nextBoolean() ? random.nextInt(3 * Memory.PAGE_SIZE) - Memory.PAGE_SIZE : random.nextInt();
+			if (random.nextBoolean()) {
+				int data = random.nextInt();
+				Integer old = reference.put(addr, data);
+				assertEquals((old == null) ? 0 : old.intValue(), memory.write(addr, data));
+			} else {
+				Integer data = reference.get(addr);
+				assertEquals((data == null) ? 0 : data.intValue(), memory.read(addr));
+			}
+		}
+	}
+
+	@Test
+	public void clearZeroesButKeepsThePages() {
+		Memory memory = new Memory();
+		memory.write(5, 5);
+		memory.write(-5, 5);
+		memory.clear();
+		assertEquals(0, memory.read(5));
+		assertEquals(0, memory.read(-5));
+		assertEquals(2, memory.getPageCount());
+	}
+}
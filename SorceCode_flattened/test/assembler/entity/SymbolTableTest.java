@@ -0,0 +1,156 @@
+package assembler.entity;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import assembler.exception.*;
+
+/**
+ * SymbolTable must keep the ID of a label, hold the same labels as a HashMap, reject a second definition, and be read
+ * only once it is frozen.
+ *
+ */
+public class SymbolTableTest {
+	@Test
+	public void actsLikeAHashMap() throws SyntaxException {
+		Random random = new Random(19);
+		SymbolTable table = new SymbolTable();
+		Map<String, Integer> expected = new HashMap<String, Integer>();
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		for (int n = 0; n < 5000; n++) {
+			String name = "L" + random.nextInt(1000);
+			int id = (random.nextBoolean()) ? table.intern(name) : table.intern(("x" + name + "x").toCharArray(), 1,
+					name.length() + 1);
+			if (ids.containsKey(name)) {
+				assertEquals(name, ids.get(name).intValue(), id);
+			} else {
+				assertEquals(name, ids.size(), id);
+				ids.put(name, id);
+			}
+			assertEquals(name, table.getName(id));
+			if (random.nextInt(3) == 0) {
+				int step = random.nextInt(100);
+				if (expected.containsKey(name)) {
+					try {
+						table.define(id, step, n + 1);
+						fail(name);
+					} catch (SyntaxException e) {
+						assertEquals(n + 1, e.getLine());
+					}
+				} else {
+					table.define(id, step, n + 1);
+					expected.put(name, step);
+				}
+			}
+		}
+		assertEquals(ids.size(), table.getSymbolCount());
+		assertEquals(expected, table);
+		assertEquals(expected, new HashMap<String, Integer>(table));
+		assertEquals(-1, table.lookup("L1000"));
+		assertNull(table.get("L1000"));
+		assertFalse(table.containsKey(Integer.valueOf(1)));
+		for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+			assertEquals(entry.getValue().intValue(), table.lookup(entry.getKey()));
+		}
+
+		// clear() forgets the definitions, but not the IDs
+		table.clear();
+		assertTrue(table.isEmpty());
+		assertEquals(ids.size(), table.getSymbolCount());
+		assertEquals(ids.get("L1").intValue(), table.intern("L1"));
+		table.define(table.intern("L1"), 3, 1);
+		assertEquals(Integer.valueOf(3), table.get("L1"));
+	}
+
+	@Test
+	public void keepsTheFirstDefinition() throws SyntaxException {
+		SymbolTable table = new SymbolTable();
+		int id = table.intern("Loop");
+		table.define(id, 4, 10);
+		try {
+			table.define(table.intern("Loop"), 7, 12);
+			fail();
+		} catch (SyntaxException e) {
+			assertEquals(12, e.getLine());
+		}
+		assertEquals(4, table.getStep(id));
+		assertEquals(10, table.getLineNo(id));
+		assertEquals("Loop", table.getLabelAt(4));
+		assertNull(table.getLabelAt(7));
+	}
+
+	@Test
+	public void isReadOnlyWhenFrozen() throws SyntaxException {
+		SymbolTable table = new SymbolTable();
+		table.define(table.intern("A"), 0, 1);
+		table.define(table.intern("B"), 0, 2);
+		table.intern("C");
+		table.freeze();
+		// the first label defined at a step is the label of the step
+		assertEquals("A", table.getLabelAt(0));
+		assertEquals(table.intern("C"), table.lookup("C"));
+		try {
+			table.intern("D");
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			table.define(table.intern("C"), 1, 3);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			table.clear();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			table.put("D", 1);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		assertEquals(2, table.size());
+		assertEquals(-1, table.lookup("D"));
+	}
+
+	@Test
+	public void programLooksUpItsLabels() {
+		SymbolTable table = new SymbolTable();
+		try {
+			table.define(table.intern("Start"), 0, 2);
+			table.define(table.intern("Next"), 2, 5);
+			table.define(table.intern("End"), 2, 6);
+		} catch (SyntaxException e) {
+			fail(e.getMessage());
+		}
+		table.intern("Undefined");
+		Program program = new Program(new int[3], table, new int[] { 3, 4, 7 });
+		assertEquals(table, program.getLabelMap());
+		assertEquals("Start", program.getLabelAt(0));
+		assertNull(program.getLabelAt(1));
+		assertEquals("Next", program.getLabelAt(2));
+		assertNull(program.getLabelAt(3));
+		assertEquals(5, program.getLabelLineNo("Next"));
+		assertEquals(6, program.getLabelLineNo("End"));
+		assertEquals(0, program.getLabelLineNo("Undefined"));
+		assertEquals(0, program.getLabelLineNo("Missing"));
+		try {
+			program.getLabelMap().put("Missing", 1);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		// the program does not follow the table it was built from
+		table.clear();
+		assertEquals(3, program.getLabelMap().size());
+		assertEquals(Integer.valueOf(2), program.getLabelMap().get("End"));
+	}
+}
@@ -0,0 +1,70 @@
+package assembler.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * Utilites.decodeInstruction() must decode every word the assembler can write, and reject the others.
+ *
+ */
+public class DecoderTest {
+	@Test
+	public void decodesEveryValidWord() throws Exception {
+		StringBuffer listing = new StringBuffer();
+		List<Integer> words = new ArrayList<Integer>();
+		for (int word = 0; word <= 0xFFFF; word++) {
+			if (Instruction.createInstruction(word, 0, 0) != null) {
+				listing.append(Utilites.listingLine(words.size(), Utilites.intToHexString(word, 8)));
+				words.add(word);
+			}
+		}
+		List<Instruction> instList = Utilites.decodeInstruction(listing.toString());
+		assertEquals(words.size(), instList.size());
+		for (int i = 0; i < words.size(); i++) {
+			assertEquals(words.get(i).intValue(), instList.get(i).encode(null));
+		}
+	}
+
+	@Test
+	public void rejectsInvalidWords() {
+		int invalid = 0;
+		for (int word = 0; word <= 0xFFFF; word++) {
+			if (Instruction.createInstruction(word, 0, 0) == null) {
+				invalid++;
+				try {
+					Utilites.decodeInstruction(Utilites.listingLine(0, Utilites.intToHexString(word, 8)));
+					fail(Utilites.intToHexString(word, 4));
+				} catch (InvalidInstructionException e) {
+					// expected
+				} catch (SyntaxException e) {
+					fail(e.getMessage());
+				}
+			}
+		}
+		assertTrue(invalid > 0);
+	}
+
+	@Test
+	public void acceptsAnyLineTerminator() throws Exception {
+		String src = " 0 :    00002000; % (00) % \r\n 1 :    00002001;\r 2 : 00002002;\n\n  \n";
+		List<Instruction> instList = Utilites.decodeInstruction(src);
+		assertEquals(3, instList.size());
+		assertEquals(0x2002, instList.get(2).encode(null));
+	}
+
+	@Test
+	public void reportsTheLineOfAMalformedWord() throws Exception {
+		try {
+			Utilites.decodeInstruction(" 0 :    00002000;\n 1 :    0002000;\n");
+			fail();
+		} catch (SyntaxException e) {
+			assertEquals(2, e.getLine());
+		}
+	}
+}
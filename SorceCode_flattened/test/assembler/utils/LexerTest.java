@@ -0,0 +1,181 @@
+package assembler.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+/**
+ * Lexer must split a line as the String.split() calls of the original parser did, convert its tokens as Utilites did,
+ * and find the line terminators of Scanner.nextLine().
+ *
+ */
+public class LexerTest {
+	private static final String ALPHABET = "ab$1-0x9,:;() \t";
+
+	@Test
+	public void splitsLikeTheRegularExpressions() {
+		Random random = new Random(18);
+		Lexer lexer = new Lexer();
+		for (int n = 0; n < 100000; n++) {
+			char[] buf = new char[random.nextInt(16)];
+			for (int i = 0; i < buf.length; i++) {
+				buf[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+			}
+			String line = new String(buf);
+			int commentLoc = line.indexOf(';');
+			String code = (commentLoc < 0) ? line : line.substring(0, commentLoc);
+
+			boolean hasCode = lexer.line(buf, 0, buf.length);
+			assertEquals(line, !code.trim().equals(""), hasCode);
+			assertEquals(line, commentLoc, lexer.getCommentStart());
+			if (!hasCode) {
+				continue;
+			}
+			String[] codeParts = code.split("[\t ]+", 3);
+			for (int i = 0; i < codeParts.length; i++) {
+				codeParts[i] = codeParts[i].trim();
+			}
+			assertEquals(line, codeParts.length, lexer.getParts());
+			String label = codeParts[0];
+			assertEquals(line, label.endsWith(":"), lexer.hasLabel());
+			if (label.endsWith(":")) {
+				label = label.substring(0, label.length() - 1);
+			} else {
+				assertEquals(line, label.equals(""), lexer.isLabelEmpty());
+			}
+			assertEquals(line, label, lexer.text(lexer.getLabelStart(), lexer.getLabelEnd()));
+			if (codeParts.length == 3) {
+				assertEquals(line, codeParts[1], lexer.text(lexer.getMnemonicStart(), lexer.getMnemonicEnd()));
+				String[] args = codeParts[2].split(",[\t ]*");
+				assertEquals(line, args.length, lexer.getArgCount());
+				for (int i = 0; i < args.length; i++) {
+					assertEquals(line, args[i], lexer.arg(i));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void findsTheTokensOfALine() {
+		Lexer lexer = new Lexer();
+		char[] buf = "Loop:\taddi $t2, -0x10 ; ten\tmore".toCharArray();
+		assertTrue(lexer.line(buf, 0, buf.length));
+		assertTrue(lexer.hasLabel());
+		assertEquals("Loop", lexer.text(lexer.getLabelStart(), lexer.getLabelEnd()));
+		assertEquals("addi", lexer.text(lexer.getMnemonicStart(), lexer.getMnemonicEnd()));
+		assertEquals(2, lexer.getArgCount());
+		assertEquals(Lexer.Kind.REGISTER, lexer.kind(0));
+		assertEquals(2, lexer.register(0));
+		assertEquals(Lexer.Kind.IMMEDIATE, lexer.kind(1));
+		assertEquals(-16, lexer.immediate(1, 8));
+		assertEquals(Lexer.INVALID, lexer.immediate(1, 4));
+		assertEquals(" ten\tmore", lexer.text(lexer.getCommentStart() + 1, lexer.getCommentEnd()));
+
+		buf = "\tlw $1, 4($2), Next".toCharArray();
+		assertTrue(lexer.line(buf, 0, buf.length));
+		assertFalse(lexer.hasLabel());
+		assertTrue(lexer.isLabelEmpty());
+		assertEquals(Lexer.Kind.OFFSET_BASE, lexer.kind(1));
+		assertEquals(Lexer.Kind.SYMBOL, lexer.kind(2));
+		assertEquals(-1, lexer.getCommentStart());
+
+		// a line is read between its offsets only
+		buf = "xx\tj L ; c\nyy".toCharArray();
+		assertTrue(lexer.line(buf, 2, 10));
+		assertEquals("j", lexer.text(lexer.getMnemonicStart(), lexer.getMnemonicEnd()));
+		assertEquals("L", lexer.arg(0));
+		assertFalse(lexer.line(buf, 6, 10));
+	}
+
+	@Test
+	public void convertsLikeUtilites() {
+		String[] tokens = { "0", "7", "-7", "255", "256", "-255", "-256", "0x7F", "0XfF", "-0x80", "#10", "010", "08",
+				"+5", "-", "", "1a", " 1", "$1", "2147483647", "2147483648", "-2147483648", "0x", "1_000" };
+		for (String token : tokens) {
+			char[] buf = token.toCharArray();
+			for (int bits = 1; bits <= 16; bits++) {
+				Integer expected = dStrToInt(token, bits);
+				long value = Lexer.immediate(buf, 0, buf.length, bits);
+				assertEquals(token + " in " + bits, (expected == null) ? Lexer.INVALID : expected.longValue(), value);
+			}
+			assertEquals(token, Utilites.isIntegerForm(token), Lexer.isIntegerForm(buf, 0, buf.length));
+		}
+
+		String[] registers = { "$0", "$7", "$8", "$t0", "$t7", "$t8", "$T1", "$", "$00", "$+1", "$-1", "$ 1", "1", "t1" };
+		for (String register : registers) {
+			char[] buf = register.toCharArray();
+			Integer expected = getRegisterNumber(register);
+			assertEquals(register, (expected == null) ? -1 : expected.intValue(), Lexer.register(buf, 0, buf.length));
+		}
+	}
+
+	// a leading space or tab leaves the label part empty
+	@Test
+	public void indentedLinesHaveNoLabel() {
+		Lexer lexer = new Lexer();
+		char[] buf = "  Loop:\tnop".toCharArray();
+		assertTrue(lexer.line(buf, 0, buf.length));
+		assertFalse(lexer.hasLabel());
+		assertTrue(lexer.isLabelEmpty());
+		assertEquals("Loop:", lexer.text(lexer.getMnemonicStart(), lexer.getMnemonicEnd()));
+		assertEquals("nop", lexer.arg(0));
+	}
+
+	@Test
+	public void endsLinesLikeScanner() {
+		String src = "a\r\nbb\rc\n\nd e\u0085";
+		List<String> lines = new ArrayList<String>();
+		for (int p = 0; p < src.length(); p = Lexer.nextLine(src, p)) {
+			lines.add(src.substring(p, Lexer.lineEnd(src, p)));
+		}
+		List<String> expected = new ArrayList<String>();
+		Scanner scanner = new Scanner(src);
+		while (scanner.hasNextLine()) {
+			expected.add(scanner.nextLine());
+		}
+		scanner.close();
+		assertEquals(expected, lines);
+		assertEquals(Arrays.asList("a", "bb", "c", "", "d", "e"), lines);
+
+		assertEquals(3, Lexer.nextLine("ab\r", 0));
+		assertEquals(2, Lexer.lineEnd("ab", 0));
+		assertEquals(2, Lexer.nextLine("ab", 0));
+	}
+
+	// the original register conversion of Utilites
+	private static Integer getRegisterNumber(String str) {
+		String[] regname = { "t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7" };
+		if (str.startsWith("$")) {
+			String reg = str.substring(1);
+			try {
+				int r = Integer.parseInt(reg, 10);
+				if ((0 <= r) && (r < 8)) {
+					return r;
+				}
+			} catch (NumberFormatException e) {
+				for (int i = 0; i < regname.length; i++) {
+					if (regname[i].equals(reg)) {
+						return i;
+					}
+				}
+				return null;
+			}
+		}
+		return null;
+	}
+
+	// the original conversion, which Utilites.dStrToInt() still is
+	private static Integer dStrToInt(String str, int bits) {
+		try {
+			int val = Integer.decode(str);
+			if (Math.abs(val) < Math.pow(2, bits)) {
+				return val;
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return null;
+	}
+}
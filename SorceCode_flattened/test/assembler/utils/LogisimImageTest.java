@@ -0,0 +1,126 @@
+package assembler.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import assem_simul.src.*;
+import assembler.entity.*;
+import assembler.exception.*;
+
+/**
+ * Reading and writing Logisim "v2.0 raw" images, with runs written as "N*value".
+ *
+ */
+public class LogisimImageTest {
+	/*
+	 * Collects the words read, and the runs they came in.
+	 */
+	private static class Collector implements LogisimImage.Sink {
+		private final List<Integer> words = new ArrayList<Integer>();
+		private final List<String> runs = new ArrayList<String>();
+
+		@Override
+		public void put(int addr, int value, int count, int lineNo) {
+			assertEquals(words.size(), addr);
+			for (int i = 0; i < count; i++) {
+				words.add(value);
+			}
+			runs.add(addr + ":" + Integer.toHexString(value) + "*" + count + "@" + lineNo);
+		}
+
+		int[] words() {
+			int[] array = new int[words.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = words.get(i);
+			}
+			return array;
+		}
+	}
+
+	private static Collector read(String image) throws Exception {
+		Collector collector = new Collector();
+		LogisimImage.read(new StringReader(image), collector);
+		return collector;
+	}
+
+	@Test
+	public void roundTripsWordsWithRuns() throws Exception {
+		Random random = new Random(1);
+		for (int n = 0; n < 50; n++) {
+			int[] words = new int[random.nextInt(200)];
+			for (int i = 0; i < words.length;) {
+				int value = random.nextBoolean() ? 0 : random.nextInt(0x10000);
+				int run = random.nextBoolean() ? 1 : 1 + random.nextInt(20);
+				for (int end = Math.min(words.length, i + run); i < end; i++) {
+					words[i] = value;
+				}
+			}
+			StringWriter out = new StringWriter();
+			LogisimImage.write(words, 0, words.length, out);
+			assertArrayEquals(words, read(out.toString()).words());
+		}
+	}
+
+	@Test
+	public void writesLongRunsCompressed() throws Exception {
+		int[] words = new int[1000];
+		words[999] = 0xabc;
+		StringWriter out = new StringWriter();
+		LogisimImage.write(words, 0, words.length, out);
+		assertEquals("v2.0 raw\n999*0 abc\n", out.toString());
+	}
+
+	@Test
+	public void deliversARunInOneCall() throws Exception {
+		Collector collector = new Collector();
+		assertEquals(100001, LogisimImage.read(new StringReader("v2.0 raw\n100000*0 5\n"), collector));
+		assertEquals(Arrays.asList("0:0*100000@2", "100000:5*1@2"), collector.runs);
+	}
+
+	@Test
+	public void skipsCommentsAndLineTerminators() throws Exception {
+		Collector collector = read("v2.0 raw\r\n# a comment 1 2 3\r\n1 2*ff # another\r\n\r\n3");
+		assertArrayEquals(new int[] { 1, 0xff, 0xff, 3 }, collector.words());
+		assertEquals("3:3*1@5", collector.runs.get(2));
+	}
+
+	@Test
+	public void rejectsAMissingHeader() throws Exception {
+		try {
+			read("1 2 3\n");
+			fail();
+		} catch (SyntaxException e) {
+			assertEquals(1, e.getLine());
+		}
+	}
+
+	@Test
+	public void rejectsInvalidWords() throws Exception {
+		for (String token : new String[] { "0*1", "x*1", "12g", "123456789", "3*" }) {
+			try {
+				read("v2.0 raw\n1\n" + token + "\n");
+				fail(token);
+			} catch (SyntaxException e) {
+				assertEquals(token, 3, e.getLine());
+			}
+		}
+	}
+
+	@Test
+	public void simulatorLoadsImages() throws Exception {
+		Program program = Assembler.compile("\tlw $1, 0($0)\nNext:\tandi $3, $1, 1\n\tadd $2, $2, $3\n"
+				+ "\tsrl $1, $1, 1\n\tbnez $1, Next\n");
+		StringWriter image = new StringWriter();
+		program.writeRaw(image);
+		Simulator simulator = new Simulator();
+		simulator.loadRaw(new StringReader(image.toString()));
+		assertEquals(3001, simulator.loadRawData(new StringReader("v2.0 raw\n3000*0 5b\n"), -3000));
+		assertEquals(1, simulator.getMemory().getPageCount()); // the zeros are not written
+		assertEquals(Simulator.StopReason.END, simulator.runFor(1000));
+		assertEquals(5, simulator.getRegfile().get(2));
+	}
+}